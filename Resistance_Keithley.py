@@ -3,32 +3,82 @@ import os
 import threading
 import time
 import json
-from time import sleep, time as now
+import socket
+import struct
+from array import array
+from time import sleep, perf_counter as now  # monotonic: immune to system clock changes
 from typing import Any
 import pandas as pd
 import numpy as np
-import matplotlib.pyplot as plt
-from matplotlib.ticker import EngFormatter
 
 
 from pymeasure.experiment import Procedure, IntegerParameter, FloatParameter
 from pymeasure.experiment import Results, Worker
 from pymeasure.instruments.keithley import Keithley2450
 
-# Initialize a list to store data 
-data = []
-
-# get parameters from java GUI
-Voltage = float(sys.argv[1])
-Time = float(sys.argv[2])
-sample_interval_arg = sys.argv[3] # "AUTO" OR numeric string
-current_range_arg = sys.argv[4]   # "AUTO" or numeric string
-nplc_param = float(sys.argv[5])
-compliance_curr = float(sys.argv[6])
-output_folder = sys.argv[7]
-output_filename = sys.argv[8]
+# Collected samples, one compact float column each (a dict per sample costs ~400 bytes)
+data = {column: array("d") for column in ("abs_time_s", "voltage_V", "current_A", "resistance_Ohm")}
+data["stage"] = array("i")  # index of the voltage sequence stage
+
+
+def clear_data():
+    for column in data.values():
+        del column[:]
+
+# Run parameters: set from the command line for a single run, or by CONFIGURE
+# commands when running as a persistent backend (--server)
+Voltage = 1.0
+Time = 3.0
+sample_interval_arg = "AUTO" # "AUTO" OR numeric string
+current_range_arg = "AUTO"   # "AUTO" or numeric string
+nplc_param = 1.0
+compliance_curr = 1.0
+output_folder = "."
+output_filename = "measurement"
 output_path = f"{output_folder}/{output_filename}"
-terminal = sys.argv[9]  # "REAR" or "FRONT" terminals
+terminal = "REAR"  # "REAR" or "FRONT" terminals
+data_port = None   # binary data channel from the Java GUI
+save_csv = True    # False when the Java GUI persists the samples itself
+resource = ""      # VISA resource name or serial number; empty = first Keithley 2450 found
+stages = None      # [voltage, duration, interval] per stage; None = one hold at Voltage for Time
+
+
+def apply_config(cfg):
+    # Update the run parameters from a dict (keys as sent by PythonBackend.java)
+    global Voltage, Time, sample_interval_arg, current_range_arg, nplc_param
+    global compliance_curr, output_folder, output_filename, output_path, terminal, data_port, save_csv
+    global resource, stages
+    Voltage = float(cfg.get("voltage", Voltage))
+    Time = float(cfg.get("time", Time))
+    sample_interval_arg = str(cfg.get("sample_interval", sample_interval_arg))
+    current_range_arg = str(cfg.get("current_range", current_range_arg))
+    nplc_param = float(cfg.get("nplc", nplc_param))
+    compliance_curr = float(cfg.get("compliance", compliance_curr))
+    output_folder = cfg.get("folder", output_folder)
+    output_filename = cfg.get("filename", output_filename)
+    output_path = f"{output_folder}/{output_filename}"
+    terminal = cfg.get("terminal", terminal)
+    port = cfg.get("data_port", data_port)
+    data_port = int(port) if port is not None else None
+    save_csv = bool(cfg.get("save_csv", True))
+    resource = str(cfg.get("resource", resource) or "")
+    stages = cfg.get("stages") or None
+
+
+def config_from_argv(argv):
+    # get parameters from java GUI (single run mode, positional arguments)
+    return {
+        "voltage": argv[1],
+        "time": argv[2],
+        "sample_interval": argv[3],
+        "current_range": argv[4],
+        "nplc": argv[5],
+        "compliance": argv[6],
+        "folder": argv[7],
+        "filename": argv[8],
+        "terminal": argv[9],
+        "data_port": argv[10] if len(argv) > 10 else None,
+    }
 
 
 # ---- Logging ----
@@ -37,6 +87,137 @@ logging.basicConfig(level=logging.INFO)
 log = logging.getLogger(__name__)
 
 
+class BinaryDataChannel:
+    # Sends samples to the Java GUI as fixed-size little-endian records:
+    # uint64 seq, float64 abs_time_s, voltage_V, current_A, resistance_Ohm,
+    # instrument_time_s, host_time_s, int32 stage + 4 bytes padding (see
+    # BinaryDataChannel.java). abs_time_s is the reconciled time base; the stage
+    # is the one the sample was measured in. Stdout is left for log messages.
+    RECORD = struct.Struct("<Qddddddi4x")
+    HELLO = struct.pack("<4sHH", b"KSMP", 3, RECORD.size)
+
+    def __init__(self, port):
+        self.sock = socket.create_connection(("localhost", port))
+        self.sock.setsockopt(socket.IPPROTO_TCP, socket.TCP_NODELAY, 1)
+        self.sock.sendall(self.HELLO)
+        self.seq = 0
+
+    def send(self, abs_time, voltage, current, resistance, instrument_time, host_time, stage):
+        self.sock.sendall(self.RECORD.pack(self.seq, abs_time, voltage, current, resistance,
+                                           instrument_time, host_time, stage))
+        self.seq += 1
+
+    def close(self):
+        try:
+            self.sock.close()
+        except OSError:
+            pass
+
+
+class ClockReconciler:
+    # Online estimate of host = offset + (1 + skew) * instrument time, from the
+    # instrument's reading timestamps and the host time halfway through each query
+    # (see ClockReconciler.java). A weighted least-squares fit that forgets old
+    # pairs and trusts slow round trips less, so bus latency and scheduling jitter
+    # stay out of the reconciled times and a drifting instrument clock is followed.
+    MEMORY = 1000        # pairs
+    MAX_SKEW = 1e-3      # beyond any quartz clock: the fit has not settled yet
+
+    def __init__(self):
+        self.reset()
+
+    def reset(self):
+        self.weight = 0.0
+        self.mean_instrument = 0.0
+        self.mean_host = 0.0
+        self.s_ii = 0.0
+        self.s_ih = 0.0
+        self.min_round_trip = float('inf')
+        self.last_instrument = float('-inf')
+        self.last_reconciled = float('-inf')
+        self.pairs = 0
+
+    def update(self, instrument_time, host_time, round_trip):
+        # Adds a pair and returns the reconciled host time of the reading (never
+        # earlier than the previous one)
+        if instrument_time < self.last_instrument:
+            floor = self.last_reconciled
+            self.reset()  # instrument buffer cleared: its time base restarted
+            self.last_reconciled = floor
+        self.last_instrument = instrument_time
+        self.min_round_trip = min(self.min_round_trip, round_trip)
+        w = (self.min_round_trip / round_trip) ** 2 if round_trip > 0 else 1.0
+        forget = 1.0 - 1.0 / self.MEMORY
+        self.weight = forget * self.weight + w
+        di = instrument_time - self.mean_instrument
+        dh = host_time - self.mean_host
+        self.mean_instrument += w / self.weight * di
+        self.mean_host += w / self.weight * dh
+        self.s_ii = forget * self.s_ii + w * di * (instrument_time - self.mean_instrument)
+        self.s_ih = forget * self.s_ih + w * di * (host_time - self.mean_host)
+        self.pairs += 1
+        reconciled = max(self.reconcile(instrument_time), self.last_reconciled)
+        self.last_reconciled = reconciled
+        return reconciled
+
+    def rate(self):
+        if self.pairs < 2 or self.s_ii <= 0:
+            return 1.0
+        rate = self.s_ih / self.s_ii
+        return rate if abs(rate - 1.0) <= self.MAX_SKEW else 1.0
+
+    def reconcile(self, instrument_time):
+        return self.mean_host + self.rate() * (instrument_time - self.mean_instrument)
+
+    def offset(self):
+        # Host time at instrument time zero
+        return self.reconcile(0.0)
+
+    def skew_ppm(self):
+        return (self.rate() - 1.0) * 1e6
+
+
+class SampleScheduler:
+    # Waits for absolute sample deadlines on the monotonic clock: sleeps until just
+    # before the deadline, then spins the rest, since sleep() alone overshoots by
+    # the OS timer resolution (up to ~15 ms on Windows). Records how late each
+    # sample started (see SampleScheduler.java).
+    SPIN = 0.002  # seconds spun before each deadline
+
+    def __init__(self):
+        self.count = 0
+        self.total = 0.0
+        self.squares = 0.0
+        self.max = 0.0
+        self.late = 0
+
+    def wait_until(self, deadline, stop):
+        remaining = deadline - now()
+        if remaining > self.SPIN:
+            sleep(remaining - self.SPIN)
+        while now() < deadline and not stop():
+            pass
+
+    def started(self, deadline, interval):
+        # Records the lateness of a sample that started now for the given deadline
+        lateness = max(0.0, now() - deadline)
+        self.count += 1
+        self.total += lateness
+        self.squares += lateness * lateness
+        self.max = max(self.max, lateness)
+        if lateness > interval / 2:
+            self.late += 1
+
+    def report(self):
+        if self.count == 0:
+            return "Sample timing: no samples"
+        mean = self.total / self.count
+        rms = (self.squares / self.count) ** 0.5
+        return (f"Sample timing: {self.count} samples, jitter mean {mean * 1e6:.0f} us, "
+                f"rms {rms * 1e6:.0f} us, max {self.max * 1e6:.0f} us, "
+                f"{self.late} more than half an interval late")
+
+
 class ResistanceMeasurementProcedure(Procedure):
     # Measurement Parameters
     applied_voltage = FloatParameter("Applied voltage (V)", default=Voltage)
@@ -44,16 +225,29 @@ class ResistanceMeasurementProcedure(Procedure):
     compliance = FloatParameter("Compliance current (A)", default =compliance_curr)
 
 
+    instrument = None  # kept connected between runs in server mode
+    instrument_resource = None
+    data_channel = None
+    stop_requested = False
+
     def _listen_for_stop(self):
         for line in sys.stdin:
            if line.strip().upper() == "STOP":
                self.stop_requested = True
                break
 
-    def startup(self):
-        self.stop_requested = False
-
-        # Detect and connect to Instrument
+    def configure(self):
+        # Copy the current run parameters onto the procedure
+        self.applied_voltage = Voltage
+        self.applied_time = Time
+        self.compliance = compliance_curr
+
+    def connect(self):
+        # Detect and connect to Instrument, only once per process (or when another one is requested)
+        if self.instrument is not None:
+            if not resource or resource == self.instrument_resource:
+                return
+            self.disconnect()
         import pyvisa
         rm = pyvisa.ResourceManager()
         resources = rm.list_resources()
@@ -61,41 +255,50 @@ class ResistanceMeasurementProcedure(Procedure):
         print("Avaliable resources:", resources)
         keithley_resources = [r for r in resources if '0x05E6::0x2450' in r]
         print(f"Keithley candidates: {keithley_resources}") 
-        if not keithley_resources:
+        if resource:
+            # A full resource name, or a serial number as in USB0::0x05E6::0x2450::<serial>::INSTR
+            selected = [r for r in resources if r == resource or f"::{resource}::" in r]
+            if not selected:
+                print(f"ERROR: Instrument {resource} not found!")
+                raise ConnectionError(f"Instrument {resource} not found. Detected: {resources}")
+        else:
+            selected = keithley_resources
+        if not selected:
             print("ERROR: No Keithley 2450 found!")
            # log.error(f"No Keithley 2450 found. Detected: {resources}")
             raise ConnectionError(f"No Keithley 2450 found. Detected: {resources}")
         
-        self.instrument = Keithley2450(keithley_resources[0])
-        print(f"Connected to: {keithley_resources[0]}")
-        #log.info(f"Connected to: {keithley_resources[0]}")
+        self.instrument = Keithley2450(selected[0])
+        self.instrument_resource = resource
+        print(f"Connected to: {selected[0]}")
+        #log.info(f"Connected to: {selected[0]}")
         self.instrument.reset()
         #self.instrument = Keithley2450("USB0::0x05E6::0x2450::04436600::INSTR") # La keithley de la estacion de mediciones 
         #self.instrument = Keithley2450("USB0::0x05E6::0x2450::04081967::INSTR")  # La keithley viejita
-        
 
-        # Compute the sampling interval 
-        if isinstance(sample_interval_arg, str) and sample_interval_arg.upper() == "AUTO":
-            # Automatiac mode: compute from NPLC
-            mains_frequency = 60.0 
-            self.integration_time = nplc_param / mains_frequency
-            self.sample_int = self.integration_time #* 1.2
-            
-           # log.info(f"Automatic sample interval selected: {self.sample_int:.6f} s"
-               #      f"(from NPLC={nplc_param})")
-        else:
-            # Manual mode
+    def disconnect(self):
+        # Forget the connection so the next run reconnects (e.g. after a bus error)
+        if self.instrument is not None:
             try:
-                self.sample_int = float(sample_interval_arg)
-                print(f"Manual sample interval selected: {self.sample_int:.6f} s")
-                #log.info(f"Manual sample interval selected: {self.sample_int:.6f} s")
-            except:
-                print("Invalid sample interval argument. Falling back to AUTO mode.")
-                #log.error("Invalid sample interval argument. Falling back to AUTO mode.")
-                mains_frequency = 60.0
-                self.integration_time = nplc_param / mains_frequency
-                self.sample_int = self.integration_time #* 1.2
-        
+                self.instrument.adapter.close()
+            except Exception:
+                pass
+        self.instrument = None
+
+    def startup(self):
+        self.stop_requested = False
+        self.data_channel = None
+        if data_port is not None:
+            self.data_channel = BinaryDataChannel(data_port)
+
+        self.connect()
+
+        # Stages to run: the sequence from the GUI, or one hold at applied_voltage for applied_time
+        sequence = stages or [[self.applied_voltage, self.applied_time, sample_interval_arg]]
+        self.stages = [(float(v), float(d), self.sample_interval(str(i))) for v, d, i in sequence]
+        if len(self.stages) > 1:
+            print(f"Voltage sequence of {len(self.stages)} stages, "
+                  f"{sum(d for _, d, _ in self.stages):.3f} s in total")
      
         # Use rear or front terminals depending on which was selected
 
@@ -139,13 +342,32 @@ class ResistanceMeasurementProcedure(Procedure):
                 #log.warning("Invalid current range argument; leaving instrument in default range or auto-range.")
 
         self.instrument.enable_source()
-        print("Keithley 2450 initialized in 4-wire mode using {terminal} terminals")
+        print(f"Keithley 2450 initialized in 4-wire mode using {terminal} terminals")
        # log.info("Keithley 2450 initialized in 4-wire mode using {terminal} terminals")
 
-         # Start STOP listener thread
-        stop_thread = threading.Thread(target=self._listen_for_stop, daemon=True)
-        stop_thread.start()
 
+    def sample_interval(self, interval_arg):
+        # Seconds between samples for an interval argument: a number, or AUTO from NPLC
+        if isinstance(interval_arg, str) and interval_arg.upper() == "AUTO":
+            # Automatiac mode: compute from NPLC
+            mains_frequency = 60.0 
+            self.integration_time = nplc_param / mains_frequency
+            return self.integration_time #* 1.2
+            
+           # log.info(f"Automatic sample interval selected: {self.sample_int:.6f} s"
+               #      f"(from NPLC={nplc_param})")
+        # Manual mode
+        try:
+            interval = float(interval_arg)
+            print(f"Manual sample interval selected: {interval:.6f} s")
+            #log.info(f"Manual sample interval selected: {self.sample_int:.6f} s")
+            return interval
+        except:
+            print("Invalid sample interval argument. Falling back to AUTO mode.")
+            #log.error("Invalid sample interval argument. Falling back to AUTO mode.")
+            mains_frequency = 60.0
+            self.integration_time = nplc_param / mains_frequency
+            return self.integration_time #* 1.2
 
     def shutdown(self):
         #
@@ -161,28 +383,40 @@ class ResistanceMeasurementProcedure(Procedure):
     def should_stop(self):
         return self.stop_requested
     
-    def _measure_loop(self, hold_voltage: float, hold_time: float, stage_name: str):
-        # This function holds the source at the "hold_voltage" for "hold_time" seconds,
-        # and measures current every "sample_interval". Calculates resistance.
-        # Appends samples to global "data".
+    def _measure_loop(self, hold_voltage: float, stage_start: float, stage_end: float,
+                      sample_int: float, stage: int):
+        # This function holds the source at the "hold_voltage" from "stage_start" to
+        # "stage_end" (seconds from the start of the run), and measures current every
+        # "sample_int". Calculates resistance.
+        # Appends samples, tagged with the stage index, to global "data".
 
         self.instrument.source_voltage = hold_voltage
         #sleep(self.integration_time)  # small time to settle the voltage
-        t0 = now()
-        end_time = t0 + hold_time
-        next_sample = t0
+        next_sample = stage_start
+
+        while True:
+            # Times are relative to the run start; every sample carries this stage to the Java side
+            elapsed_total = now() - start_time_global
+            if elapsed_total >= stage_end:
+                break
 
-        while now() < end_time:
-            
             if self.should_stop():
                 print(f"STOP requested by user - exiting measurement loop.")
                # log.info(f"STOP requested by user - exiting measurement loop.")
                 break
 
-            current_time = now()
-            #read current from instrument driver
+            #read current and its instrument timestamp from the instrument driver
+            self.scheduler.started(start_time_global + next_sample, sample_int)
+            sent = now()
             try:
-                i_meas = self.instrument.current
+                i_meas, instrument_time = self.read_current()
+                received = now()
+                host_time = (sent + received) / 2 - start_time_global
+                if instrument_time is not None:
+                    elapsed_total = self.clock.update(instrument_time, host_time, received - sent)
+                else:
+                    elapsed_total = host_time
+                    instrument_time = float('nan')
                 if abs(hold_voltage) > 1e-6 and abs(i_meas) > 1e-12:
                     res = abs(hold_voltage/i_meas)
                 else:
@@ -190,56 +424,184 @@ class ResistanceMeasurementProcedure(Procedure):
             except Exception as e:
                 print(f"Failed to read current: %s", e)
                 #log.exception("Failed to read current: %s", e)
+                host_time = now() - start_time_global
+                elapsed_total = max(host_time, self.clock.last_reconciled)
+                instrument_time = float('nan')
                 i_meas = float('nan')
                 res = float('nan')
             
-            elapsed_stage = current_time - t0
-            elapsed_total = current_time - start_time_global
-
-            data.append({
-                #"stage": stage_name,
-                #"stage_time_s": elapsed_stage,
-                "abs_time_s": elapsed_total,
-                "voltage_V": hold_voltage,
-                "current_A": i_meas,
-                "resistance_Ohm": res
-            })
-
-            # stream data to stdout for Java GUI (one line per sample)
-            # Format: STAGE, abs_time_s, stage_time_s, voltage, current
-            print(f"{elapsed_total:.6f},{hold_voltage:.6f},"
-                  f"{i_meas:.12e}, {res:.12e}")
-            sys.stdout.flush()
-
-            # sleep until next sample - sample approach
-            next_sample += self.sample_int
-            sleep(max(0, next_sample - now()))
-            #sleep_max = next_sample - now()
-            #if sleep_max > 0:
-             #   sleep(sleep_max)
-            #else:
-                # if we're behind (sample_interval too small), yield briefly to avoid busy loop
-             #   sleep(0.0001)
+            if save_csv:
+                data["abs_time_s"].append(elapsed_total)
+                data["voltage_V"].append(hold_voltage)
+                data["current_A"].append(i_meas)
+                data["resistance_Ohm"].append(res)
+                data["stage"].append(stage)
+
+            # stream data to the Java GUI (one record/line per sample)
+            if self.data_channel is not None:
+                self.data_channel.send(elapsed_total, hold_voltage, i_meas, res, instrument_time, host_time,
+                                       stage)
+            else:
+                # Format: abs_time_s, voltage, current, resistance, instrument_time_s, host_time_s, stage
+                print(f"{elapsed_total:.6f},{hold_voltage:.6f},"
+                      f"{i_meas:.12e}, {res:.12e},{instrument_time:.6f},{host_time:.6f},{stage}")
+                sys.stdout.flush()
+
+            # wait for the next sample on the absolute schedule (never past the end of the stage)
+            next_sample += sample_int
+            self.scheduler.wait_until(start_time_global + min(next_sample, stage_end), self.should_stop)
+
+    def read_current(self):
+        # Current and the instrument's timestamp of the reading (seconds, relative
+        # to the first reading in its buffer); the timestamp is None if the
+        # instrument does not answer with one
+        if self.timestamps:
+            try:
+                values = self.instrument.values(':READ? "defbuffer1", READ, REL')
+                if len(values) >= 2:
+                    return float(values[0]), float(values[1])
+            except Exception as e:
+                print(f"Instrument timestamps not available ({e}) - using host time only")
+            self.timestamps = False
+        return self.instrument.current, None
 
 
     def execute(self):
         global start_time_global
+        self.clock = ClockReconciler()
+        self.scheduler = SampleScheduler()
+        self.timestamps = True
+        self.instrument.write(':TRACE:CLEAR "defbuffer1"')  # restarts the relative timestamps
         start_time_global = now()
 
-        # 1) Applying voltage (hold applied_voltage for applied_time)
+        # Each stage starts at its offset from the run start, not when the previous
+        # loop happens to return, so the transitions do not drift
        # log.info("Starting resistance measurement: V=%s, t=%s s", self.applied_voltage, self.applied_time)
-        if self.should_stop(): return
-        self._measure_loop(self.applied_voltage, self.applied_time, "Applying Voltage")
+        stage_start = 0.0
+        for index, (voltage, duration, interval) in enumerate(self.stages):
+            if self.should_stop(): break
+            stage_end = stage_start + duration
+            self._measure_loop(voltage, stage_start, stage_end, interval, index)
+            stage_start = stage_end
 
         # return to 0V at the end
         self.instrument.source_voltage = 0.0
         sleep(0.001)
+        print(self.scheduler.report())
+        if self.clock.pairs > 1:
+            print(f"Instrument clock: offset {self.clock.offset() * 1e3:.3f} ms, "
+                  f"skew {self.clock.skew_ppm():.1f} ppm over {self.clock.pairs} readings")
+
+def save_results():
+    # Write the collected samples to CSV when the backend persists them itself.
+    # The plot and summary are exported by the Java GUI (RunExporter) in the
+    # background, so nothing here delays the end of the run.
+    if not save_csv or not data["abs_time_s"]:
+        return
+    df = pd.DataFrame({column: np.array(values) for column, values in data.items()})
+    df.to_csv(output_path + ".csv", index=False)
+
+
+# ---------------- Persistent backend (server mode) ---------------- #
+# Started once by the Java GUI with "--server". Commands arrive on stdin, one per line:
+#   CONFIGURE {json}   set run parameters (keys as in apply_config)
+#   START              run one measurement in the background
+#   STOP               stop the running measurement
+#   STATUS             report idle/running and whether the instrument is connected
+#   QUIT               stop, disable the output and exit
+# Replies and events are stdout lines starting with "@"; anything else is a log message.
+
+reply_lock = threading.Lock()
+
+
+def reply(message):
+    with reply_lock:
+        print(message)
+        sys.stdout.flush()
+
+
+def run_in_server(procedure):
+    clear_data()
+    reply("@STARTED")
+    try:
+        procedure.configure()
+        procedure.startup()
+        procedure.execute()
+    except Exception as e:
+        print(f"Unexpected error during measurement: {e}")
+        procedure.disconnect()
+    finally:
+        if procedure.instrument is not None:
+            procedure.shutdown()
+        if procedure.data_channel is not None:
+            procedure.data_channel.close()
+        if save_csv:
+            try:
+                save_results()
+            except Exception as e:
+                print(f"Error while saving results: {e}")
+        reply("@FINISHED")
+
+
+def serve():
+    procedure = ResistanceMeasurementProcedure()
+    worker = None
+    reply("@READY")
+
+    for line in sys.stdin:
+        command, _, argument = line.strip().partition(" ")
+        command = command.upper()
+        running = worker is not None and worker.is_alive()
+
+        if command == "CONFIGURE":
+            if running:
+                reply("@ERROR busy")
+                continue
+            try:
+                apply_config(json.loads(argument))
+                reply("@OK CONFIGURE")
+            except Exception as e:
+                reply(f"@ERROR invalid configuration: {e}")
+        elif command == "START":
+            if running:
+                reply("@ERROR busy")
+                continue
+            procedure.stop_requested = False
+            worker = threading.Thread(target=run_in_server, args=(procedure,), daemon=True)
+            worker.start()
+        elif command == "STOP":
+            procedure.stop_requested = True
+            reply("@OK STOP")
+        elif command == "STATUS":
+            state = "running" if running else "idle"
+            reply(f"@STATUS {state} connected={procedure.instrument is not None}")
+        elif command == "QUIT":
+            break
+        elif command:
+            reply(f"@ERROR unknown command {command}")
+
+    # stdin closed or QUIT: finish any run and leave the instrument safe
+    procedure.stop_requested = True
+    if worker is not None:
+        worker.join(timeout=10)
+    if procedure.instrument is not None:
+        procedure.shutdown()
+
 
 if __name__ == "__main__":
-    # Run the procedure
+    if len(sys.argv) > 1 and sys.argv[1] == "--server":
+        serve()
+        sys.exit(0)
+
+    # Run the procedure once with the command line parameters
+    apply_config(config_from_argv(sys.argv))
     procedure = ResistanceMeasurementProcedure()
+    procedure.configure()
     try:
         procedure.startup()
+        # Start STOP listener thread
+        stop_thread = threading.Thread(target=procedure._listen_for_stop, daemon=True)
+        stop_thread.start()
         procedure.execute()
     except KeyboardInterrupt:
         print("Measurement interrupted by user (KeyboardInterrupt).")
@@ -248,45 +610,10 @@ if __name__ == "__main__":
         print("Unexpected error during measurement: %s", e)
         #log.exception("Unexpected error during measurement: %s", e)
     finally:
-        procedure.shutdown()
-        if data:
-            # Create DataFrame from the collected data
-            df = pd.DataFrame(data)
-            df.to_csv(output_path + ".csv", index=False)
-            
-                        ##### Create line plot of resistance vs time ########
-
-            plt.plot(df['abs_time_s'], df['resistance_Ohm'], label="Resistance")
-
-            # Manually set axis limits based on data range
-            # Filter out NaN values for proper ranging
-            valid_resistance = df['resistance_Ohm'].dropna()
-            valid_time = df['abs_time_s'].dropna()
-
-            if len(valid_resistance) > 0:
-                # Add 5% margin to y-axis
-                y_max = valid_resistance.max()
-                y_margin = y_max * 0.05
-                plt.ylim(0, y_max + y_margin)
-
-            if len(valid_time) > 0:
-                # Set x-axis to data range
-                plt.xlim(valid_time.min(), valid_time.max())
-
-            formatter = EngFormatter(unit='Ω', places=1)
-            plt.gca().yaxis.set_major_formatter(formatter)
-
-            plt.title('Resistance vs Time')
-            plt.xlabel("Time (s)")
-            #plt.xticks(np.arange(0,10,0.5))
-            plt.ylabel("Resistance (Ω)")
-            plt.yticks
-            plt.legend()
-            plt.grid(True)
-            plt.tight_layout()  
-
-            plt.savefig(output_path + ".png", dpi=600)
-            plt.show()
-
-
+        if procedure.instrument is not None:
+            procedure.shutdown()
+        if procedure.data_channel is not None:
+            procedure.data_channel.close()
+        save_results()
+        if data["abs_time_s"]:
             print("Measurement Finished")
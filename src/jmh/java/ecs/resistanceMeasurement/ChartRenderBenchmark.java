@@ -0,0 +1,95 @@
+package ecs.resistanceMeasurement;
+
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.data.xy.XYDataset;
+import org.jfree.data.xy.XYSeries;
+import org.jfree.data.xy.XYSeriesCollection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One off-screen frame of the resistance chart at several point counts, drawn
+ * from the GUI's decimated {@link SampleStore} view and from a plain
+ * {@code XYSeriesCollection} as the reference. Scores are per frame.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Xms1g", "-Xmx1g" })
+public class ChartRenderBenchmark {
+
+	static final int WIDTH = 800;
+	static final int HEIGHT = 500;
+
+	@Param({ "10000", "100000", "1000000" })
+	public int points;
+
+	@Param({ "decimated", "xyseries" })
+	public String dataset;
+
+	private JFreeChart chart;
+	private BufferedImage image;
+	private Graphics2D graphics;
+	private final Rectangle2D area = new Rectangle2D.Double(0, 0, WIDTH, HEIGHT);
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		chart = ChartFactory.createXYLineChart("Resistance vs Time", "Time (s)", "Resistance (Ω)", null);
+		if (dataset.equals("decimated")) {
+			SampleStoreDataset stores = new SampleStoreDataset();
+			SampleStore store = new SampleStore("Run");
+			for (int n = 0; n < points; n++) {
+				store.append(n * 0.001, 1.0, 1e-3, resistance(n));
+			}
+			stores.addStore(store);
+			DecimatingXYDataset view = new DecimatingXYDataset(stores);
+			chart.getXYPlot().setDataset(view);
+			view.setDomainAxis(chart.getXYPlot().getDomainAxis());
+			view.setPixelWidth(WIDTH);
+		} else {
+			XYSeries series = new XYSeries("Run");
+			for (int n = 0; n < points; n++) {
+				series.add(n * 0.001, resistance(n), false);
+			}
+			XYDataset collection = new XYSeriesCollection(series);
+			chart.getXYPlot().setDataset(collection);
+		}
+		image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		graphics = image.createGraphics();
+	}
+
+	// A drifting, noisy trace like a real run, so decimation keeps min and max apart
+	private static double resistance(int n) {
+		return 1000.0 + 0.01 * n + ((n * 7919) % 101 - 50) * 0.1;
+	}
+
+	@Benchmark
+	public BufferedImage drawFrame() {
+		chart.draw(graphics, area);
+		return image;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		graphics.dispose();
+	}
+}
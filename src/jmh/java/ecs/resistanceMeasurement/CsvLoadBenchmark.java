@@ -0,0 +1,84 @@
+package ecs.resistanceMeasurement;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading a recorded run: {@link CsvLoader} over a generated file in the backend's
+ * format, through to the rows being appended to the store on the EDT, as when a
+ * file is opened in the GUI. Scores are per file; the file is written once per trial
+ * with {@link SampleFileWriter}, so the OS cache is warm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Xms2g", "-Xmx2g" })
+public class CsvLoadBenchmark {
+
+	@Param({ "1000000", "5000000" })
+	public int rows;
+
+	private File folder;
+	private File file;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		folder = Files.createTempDirectory("csv-benchmark").toFile();
+		Random random = new Random(42);
+		try (SampleFileWriter writer = new SampleFileWriter(folder, "run")) {
+			for (int n = 0; n < rows; n++) {
+				double current = 1e-3 * (1 + 0.01 * random.nextGaussian());
+				writer.accept(n * 0.0167, 1.0, current, 1.0 / current);
+			}
+			file = writer.getFiles().get(0);
+		}
+	}
+
+	@Benchmark
+	public long load() throws Exception {
+		CountDownLatch finished = new CountDownLatch(1);
+		Exception[] error = new Exception[1];
+		long[] loaded = new long[1];
+		SwingUtilities.invokeAndWait(() -> new CsvLoader(file, new SampleStoreDataset(), (loader, result, e) -> {
+			error[0] = e;
+			loaded[0] = loader.getStore().size();
+			finished.countDown();
+		}).start());
+		finished.await();
+		if (error[0] != null) {
+			throw error[0];
+		}
+		if (loaded[0] != rows) {
+			throw new IllegalStateException("Loaded " + loaded[0] + " of " + rows + " rows");
+		}
+		return loaded[0];
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		file.delete();
+		folder.delete();
+	}
+}
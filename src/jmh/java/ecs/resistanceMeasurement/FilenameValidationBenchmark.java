@@ -0,0 +1,43 @@
+package ecs.resistanceMeasurement;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Output file name validation with the precompiled patterns of
+ * {@link MeasurementConfig#isValidFilename}, against the former
+ * {@code String.matches} version that compiled both regexes on every call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Djava.awt.headless=true" })
+public class FilenameValidationBenchmark {
+
+	@Param({ "Sample_A (4-wire) 2024.10.01", "bad:name?" })
+	public String filename;
+
+	@Benchmark
+	public boolean precompiled() {
+		return MeasurementConfig.isValidFilename(filename);
+	}
+
+	@Benchmark
+	public boolean stringMatches() {
+		String invalidChars = "[\\\\/:*?\"<>|]";
+		return filename.matches("^[a-zA-Z0-9._() -]+$") &&
+				!filename.matches(".*" + invalidChars + ".*");
+	}
+}
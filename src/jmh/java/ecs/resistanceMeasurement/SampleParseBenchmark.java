@@ -0,0 +1,87 @@
+package ecs.resistanceMeasurement;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sample-line parsing: the backend's {@code abs_time,voltage,current,resistance}
+ * stream read with {@link LineReader} and {@link SampleLineParser}, against the
+ * original {@code BufferedReader.readLine()} / {@code split(",")} /
+ * {@code Double.parseDouble} loop. Scores are per line.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = { "-Djava.awt.headless=true", "-Xms1g", "-Xmx1g" })
+public class SampleParseBenchmark {
+
+	static final int LINES = 100000;
+
+	private byte[] stream;
+
+	@Setup
+	public void setUp() {
+		StringBuilder s = new StringBuilder();
+		Random random = new Random(42);
+		for (int n = 0; n < LINES; n++) {
+			double current = 1e-3 * (1 + 0.01 * random.nextGaussian());
+			s.append(n * 0.0167).append(',').append(1.0).append(',')
+					.append(current).append(',').append(1.0 / current).append('\n');
+		}
+		stream = s.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public double lineReaderAndParser() throws IOException {
+		LineReader reader = new LineReader(new ByteArrayInputStream(stream));
+		SampleLineParser parser = new SampleLineParser();
+		double sum = 0;
+		while (reader.next()) {
+			if (parser.parse(reader.buffer(), reader.start(), reader.end()) == 4) {
+				sum += parser.get(3);
+			}
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public double readLineAndSplit() throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(stream)));
+		double sum = 0;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			String[] parts = line.trim().split(",");
+			if (parts.length == 4) {
+				try {
+					Double.parseDouble(parts[0]);
+					Double.parseDouble(parts[1]);
+					Double.parseDouble(parts[2]);
+					sum += Double.parseDouble(parts[3]);
+				} catch (NumberFormatException ignored) {
+				}
+			}
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,51 @@
+package ecs.resistanceMeasurement;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jfree.data.xy.XYSeries;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Ingest into the chart model: {@link SampleStore#append} against
+ * {@code XYSeries.add}, which the live plot used before. Each invocation fills
+ * a new series, so growth is included. Scores are per sample.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = { "-Djava.awt.headless=true", "-Xms1g", "-Xmx1g" })
+public class SampleStoreBenchmark {
+
+	static final int SAMPLES = 100000;
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public SampleStore sampleStoreAppend() {
+		SampleStore store = new SampleStore("Run");
+		for (int n = 0; n < SAMPLES; n++) {
+			store.append(n * 0.001, 1.0, 1e-3, 1000.0 + (n & 0xff));
+		}
+		return store;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public XYSeries xySeriesAdd() {
+		XYSeries series = new XYSeries("Run");
+		for (int n = 0; n < SAMPLES; n++) {
+			series.add(n * 0.001, 1000.0 + (n & 0xff));
+		}
+		return series;
+	}
+}
@@ -0,0 +1,47 @@
+package ecs.resistanceMeasurement;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Something that runs measurements on the instrument and streams the samples
+ * back: the Python backend ({@link PythonBackend}) or the native SCPI driver
+ * ({@link Keithley2450Engine}). One run at a time.
+ */
+public interface AcquisitionEngine extends Closeable {
+
+	/** Called once per run from an engine thread; error is null when the run ended normally. */
+	interface RunListener {
+		void runFinished(String error);
+	}
+
+	/**
+	 * Configures the instrument and starts one measurement. May block while the
+	 * engine connects, so call it off the Event Dispatch Thread.
+	 */
+	void startRun(MeasurementConfig config, SampleConsumer samples, RunListener listener) throws IOException;
+
+	/** Asks the running measurement to stop early; the listener is still called. */
+	void stopRun() throws IOException;
+
+	boolean isRunning();
+
+	/** Samples known to be missing from the last run. */
+	long getDroppedSamples();
+
+	/** Sample lines of the current or last run that could not be parsed. */
+	long getParseFailures();
+
+	/**
+	 * How well the last run kept to its sample interval and how its timestamps
+	 * were reconciled with the host clock, for the log; null if the engine does
+	 * not measure it.
+	 */
+	default String getTimingReport() {
+		return null;
+	}
+
+	/** Leaves the instrument safe (source off) and releases the connection. */
+	@Override
+	void close();
+}
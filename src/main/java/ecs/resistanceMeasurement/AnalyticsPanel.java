@@ -0,0 +1,102 @@
+package ecs.resistanceMeasurement;
+
+import java.awt.BorderLayout;
+import java.awt.GridLayout;
+import java.util.List;
+
+import javax.swing.BorderFactory;
+import javax.swing.JComboBox;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.Timer;
+
+/**
+ * Live {@link StreamingAnalytics} of the resistance next to the chart, refreshed
+ * twice a second. In a multi-instrument run a selector chooses the session shown.
+ */
+public class AnalyticsPanel {
+
+	private static final int REFRESH_MS = 500;
+
+	private StreamingAnalytics analytics = new StreamingAnalytics();
+	private final JPanel panel = new JPanel(new BorderLayout());
+	private final JComboBox<MeasurementSession> sessionSelector = new JComboBox<>();
+	private final JPanel rows = new JPanel(new GridLayout(0, 2, 8, 0));
+	private final JLabel last = addRow("R (stage):");
+	private final JLabel mean = addRow("Mean ± std dev:");
+	private final JLabel range = addRow("Window min/max:");
+	private final JLabel slope = addRow("Window drift:");
+	private final JLabel allan = addRow("Allan dev (min):");
+	private final JLabel trigger = addRow("Auto-stop:");
+
+	// Must be created on the EDT
+	public AnalyticsPanel() {
+		panel.setBorder(BorderFactory.createTitledBorder("Resistance"));
+		panel.add(sessionSelector, BorderLayout.NORTH);
+		panel.add(rows, BorderLayout.CENTER);
+		sessionSelector.setVisible(false);
+		sessionSelector.addActionListener(e -> {
+			MeasurementSession selected = (MeasurementSession) sessionSelector.getSelectedItem();
+			if (selected != null) {
+				this.analytics = selected.getAnalytics();
+				refresh();
+			}
+		});
+		refresh();
+		new Timer(REFRESH_MS, e -> refresh()).start();
+	}
+
+	/**
+	 * Shows the sessions of a new run, the first one selected. Must be called on the EDT.
+	 */
+	public void setSessions(List<MeasurementSession> sessions) {
+		sessionSelector.removeAllItems();
+		for (MeasurementSession session : sessions) {
+			sessionSelector.addItem(session);
+		}
+		sessionSelector.setVisible(sessions.size() > 1);
+		panel.revalidate();
+	}
+
+	public JComponent getComponent() {
+		return panel;
+	}
+
+	private JLabel addRow(String name) {
+		JLabel value = new JLabel("-");
+		rows.add(new JLabel(name));
+		rows.add(value);
+		return value;
+	}
+
+	private void refresh() {
+		StreamingAnalytics.Snapshot s = analytics.snapshot();
+		last.setText(ohms(s.getLast()) + " (" + (s.getStage() + 1) + ")");
+		mean.setText(ohms(s.getMean()) + " ± " + ohms(s.getStdDev()));
+		range.setText(ohms(s.getWindowMin()) + " / " + ohms(s.getWindowMax()));
+		slope.setText(Double.isNaN(s.getSlope()) ? "-" : String.format("%.4g Ohm/s", s.getSlope()));
+
+		// The lowest point of the Allan curve is the noise floor; the tooltip has the curve
+		double[] taus = s.getAllanTaus();
+		double[] deviations = s.getAllanDeviations();
+		int best = -1;
+		StringBuilder curve = new StringBuilder("<html>");
+		for (int k = 0; k < taus.length; k++) {
+			if (best < 0 || deviations[k] < deviations[best]) {
+				best = k;
+			}
+			curve.append(String.format("%.3g s: %.4g Ohm<br>", taus[k], deviations[k]));
+		}
+		allan.setText(best < 0 ? "-" : String.format("%s at %.3g s", ohms(deviations[best]), taus[best]));
+		allan.setToolTipText(best < 0 ? null : curve.append("</html>").toString());
+
+		String fired = s.getFired();
+		trigger.setText(fired != null ? "fired: " + fired
+				: analytics.getTriggers().isEmpty() ? "off" : StreamingAnalytics.formatTriggers(analytics.getTriggers()));
+	}
+
+	private static String ohms(double value) {
+		return Double.isNaN(value) ? "-" : String.format("%.6g", value);
+	}
+}
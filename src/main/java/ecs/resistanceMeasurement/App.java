@@ -3,7 +3,15 @@ package ecs.resistanceMeasurement;
 
 public class App {
 	
+	/**
+	 * Opens the measurement window, or with {@code --batch} as the first argument
+	 * runs headless (see {@link BatchRunner}).
+	 */
 	public static void main(String[] args) {
+		if (args.length > 0 && args[0].equals("--batch")) {
+			BatchRunner.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
 		javax.swing.SwingUtilities.invokeLater(() -> {
 			try {
 				ResistanceMeasurement window = new ResistanceMeasurement();
@@ -13,4 +21,4 @@ public class App {
 			}	
 		});
 	}	
-}	
\ No newline at end of file
+}	
\ No newline at end of file
@@ -0,0 +1,243 @@
+package ecs.resistanceMeasurement;
+
+import java.util.Arrays;
+
+/**
+ * Bit-level encoding of one {@link RunArchiveWriter} block, column by column:
+ * <ul>
+ * <li>timestamps, as integer nanoseconds: the first one raw, then the
+ * delta-of-delta in variable-width buckets, so a regular sample clock costs one
+ * bit per sample;</li>
+ * <li>voltage, current, resistance and stage: the first value raw, then the XOR
+ * with the previous value, storing only its meaningful bits (a repeated value
+ * costs one bit, e.g. the voltage within a stage).</li>
+ * </ul>
+ * Values round-trip exactly (NaN included); times to the nanosecond.
+ */
+final class ArchiveCodec {
+
+	static final int COLUMNS = 4;	// voltage, current, resistance, stage
+
+	// Delta-of-delta buckets: value bits after a prefix of 1..5 bits (the last one raw)
+	private static final int[] DOD_BITS = { 7, 12, 20, 32 };
+
+	private ArchiveCodec() {
+	}
+
+	/** Nanoseconds on the archive's time axis. */
+	static long toNanos(double seconds) {
+		return Math.round(seconds * 1e9);
+	}
+
+	static double toSeconds(long nanos) {
+		return nanos / 1e9;
+	}
+
+	/**
+	 * Encodes {@code count >= 1} samples.
+	 * @param columns {@link #COLUMNS} value arrays
+	 */
+	static void encode(long[] times, double[][] columns, int count, BitWriter out) {
+		long previous = times[0];
+		out.write(previous, 64);
+		long previousDelta = 0;
+		for (int n = 1; n < count; n++) {
+			long delta = times[n] - previous;
+			writeDeltaOfDelta(delta - previousDelta, out);
+			previous = times[n];
+			previousDelta = delta;
+		}
+		for (double[] column : columns) {
+			encodeValues(column, count, out);
+		}
+	}
+
+	/**
+	 * Decodes {@code count} samples into the given arrays (at least {@code count} long).
+	 */
+	static void decode(BitReader in, int count, long[] times, double[][] columns) {
+		long previous = in.read(64);
+		times[0] = previous;
+		long previousDelta = 0;
+		for (int n = 1; n < count; n++) {
+			previousDelta += readDeltaOfDelta(in);
+			previous += previousDelta;
+			times[n] = previous;
+		}
+		for (double[] column : columns) {
+			decodeValues(in, count, column);
+		}
+	}
+
+	private static void writeDeltaOfDelta(long dod, BitWriter out) {
+		if (dod == 0) {
+			out.write(0, 1);
+			return;
+		}
+		for (int k = 0; k < DOD_BITS.length; k++) {
+			int bits = DOD_BITS[k];
+			if (dod >= -(1L << (bits - 1)) && dod < (1L << (bits - 1))) {
+				out.write((1L << (k + 2)) - 2, k + 2);	// k + 1 ones, then a zero
+				out.write(dod, bits);
+				return;
+			}
+		}
+		out.write(0x1F, 5);
+		out.write(dod, 64);
+	}
+
+	private static long readDeltaOfDelta(BitReader in) {
+		int ones = 0;
+		while (ones < DOD_BITS.length + 1 && in.read(1) == 1) {
+			ones++;
+		}
+		if (ones == 0) {
+			return 0;
+		}
+		if (ones > DOD_BITS.length) {
+			return in.read(64);
+		}
+		int bits = DOD_BITS[ones - 1];
+		return (in.read(bits) << (64 - bits)) >> (64 - bits);	// sign-extend
+	}
+
+	private static void encodeValues(double[] values, int count, BitWriter out) {
+		long previous = Double.doubleToRawLongBits(values[0]);
+		out.write(previous, 64);
+		int leading = -1;	// window of the last written XOR, none yet
+		int trailing = 0;
+		for (int n = 1; n < count; n++) {
+			long bits = Double.doubleToRawLongBits(values[n]);
+			long xor = bits ^ previous;
+			previous = bits;
+			if (xor == 0) {
+				out.write(0, 1);
+				continue;
+			}
+			int lz = Math.min(Long.numberOfLeadingZeros(xor), 31);
+			int tz = Long.numberOfTrailingZeros(xor);
+			if (leading >= 0 && lz >= leading && tz >= trailing) {
+				// fits the previous window
+				out.write(2, 2);
+				out.write(xor >>> trailing, 64 - leading - trailing);
+			} else {
+				int significant = 64 - lz - tz;
+				out.write(3, 2);
+				out.write(lz, 5);
+				out.write(significant - 1, 6);
+				out.write(xor >>> tz, significant);
+				leading = lz;
+				trailing = tz;
+			}
+		}
+	}
+
+	private static void decodeValues(BitReader in, int count, double[] values) {
+		long previous = in.read(64);
+		values[0] = Double.longBitsToDouble(previous);
+		int leading = 0;
+		int trailing = 0;
+		for (int n = 1; n < count; n++) {
+			if (in.read(1) == 1) {
+				if (in.read(1) == 1) {
+					leading = (int) in.read(5);
+					int significant = (int) in.read(6) + 1;
+					trailing = 64 - leading - significant;
+				}
+				previous ^= in.read(64 - leading - trailing) << trailing;
+			}
+			values[n] = Double.longBitsToDouble(previous);
+		}
+	}
+
+	// ---------------- bit streams ---------------- //
+
+	/** Appends bits, most significant first, to a growing byte array. */
+	static final class BitWriter {
+		private byte[] bytes = new byte[4096];
+		private int length;			// whole bytes written
+		private long pending;		// bits not yet in bytes, right-aligned
+		private int pendingBits;
+
+		/** Writes the low {@code bits} (1..64) bits of value. */
+		void write(long value, int bits) {
+			if (bits > 32) {
+				write(value >>> 32, bits - 32);
+				write(value & 0xFFFFFFFFL, 32);
+				return;
+			}
+			pending = (pending << bits) | (value & ((1L << bits) - 1));
+			pendingBits += bits;
+			while (pendingBits >= 8) {
+				pendingBits -= 8;
+				put((byte) (pending >>> pendingBits));
+			}
+		}
+
+		private void put(byte b) {
+			if (length == bytes.length) {
+				bytes = Arrays.copyOf(bytes, length * 2);
+			}
+			bytes[length++] = b;
+		}
+
+		/** Pads the last byte with zeros. */
+		void flush() {
+			if (pendingBits > 0) {
+				put((byte) (pending << (8 - pendingBits)));
+				pendingBits = 0;
+			}
+			pending = 0;
+		}
+
+		byte[] buffer() {
+			return bytes;
+		}
+
+		/** Bytes written, after {@link #flush()}. */
+		int length() {
+			return length;
+		}
+
+		void reset() {
+			length = 0;
+			pending = 0;
+			pendingBits = 0;
+		}
+	}
+
+	/** Reads bits, most significant first, from a byte array. */
+	static final class BitReader {
+		private final byte[] bytes;
+		private final int end;
+		private int position;	// next byte
+		private long pending;
+		private int pendingBits;
+
+		BitReader(byte[] bytes, int offset, int length) {
+			this.bytes = bytes;
+			this.position = offset;
+			this.end = offset + length;
+		}
+
+		/**
+		 * Reads {@code bits} (1..64) bits as the low bits of the result.
+		 * @throws IllegalStateException past the end of the data
+		 */
+		long read(int bits) {
+			if (bits > 32) {
+				long high = read(bits - 32);
+				return (high << 32) | read(32);
+			}
+			while (pendingBits < bits) {
+				if (position == end) {
+					throw new IllegalStateException("Corrupt archive block: data ends early");
+				}
+				pending = (pending << 8) | (bytes[position++] & 0xFF);
+				pendingBits += 8;
+			}
+			pendingBits -= bits;
+			return (pending >>> pendingBits) & ((1L << bits) - 1);
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package ecs.resistanceMeasurement;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import javax.swing.SwingWorker;
+
+/**
+ * Loads a time window of a run archive off the Event Dispatch Thread. Only the
+ * archive blocks overlapping the window are read and decoded; samples are
+ * appended to the run's {@link SampleStore} as they are decoded, so the plot
+ * fills in progressively, as with {@link CsvLoader}.
+ */
+public class ArchiveLoader extends SwingWorker<ArchiveLoader.Result, ArchiveLoader.Block> {
+
+	/** Called on the EDT when the load ends; error is null on success, result null on failure/cancel. */
+	public interface Listener {
+		void loadFinished(ArchiveLoader loader, Result result, Exception error);
+	}
+
+	private static final int PUBLISH_SAMPLES = 65536;
+
+	private final RunArchiveReader reader;
+	private final double from;
+	private final double to;
+	private final SampleStore store;
+	private final SampleStoreDataset dataset;
+	private final Listener listener;
+
+	/**
+	 * @param reader closed by the loader when it ends
+	 * @param dataset the chart's dataset, or null to load the store without showing it
+	 */
+	public ArchiveLoader(RunArchiveReader reader, double from, double to, SampleStoreDataset dataset,
+			Listener listener) {
+		this.reader = reader;
+		this.from = from;
+		this.to = to;
+		this.dataset = dataset;
+		this.listener = listener;
+		this.store = new SampleStore(reader.getFile().getName());
+	}
+
+	public File getFile() {
+		return reader.getFile();
+	}
+
+	/** Start of the time window loaded. */
+	public double getFrom() {
+		return from;
+	}
+
+	/** End of the time window loaded. */
+	public double getTo() {
+		return to;
+	}
+
+	public SampleStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Adds the (still empty) store to the chart and starts loading. Must be called on the EDT.
+	 */
+	public void start() {
+		if (dataset != null) {
+			dataset.addStore(store);
+		}
+		execute();
+	}
+
+	public void cancelLoad() {
+		cancel(true);
+	}
+
+	// ---------------- background work ---------------- //
+
+	@Override
+	protected Result doInBackground() throws Exception {
+		long startNanos = System.nanoTime();
+		Block[] pending = { new Block(PUBLISH_SAMPLES) };
+		long samples = reader.read(from, to, new SampleConsumer() {
+			@Override
+			public void accept(double absTime, double voltage, double current, double resistance) {
+				if (isCancelled()) {
+					throw new CancelledException();
+				}
+				Block block = pending[0];
+				block.add(absTime, voltage, current, resistance);
+				if (block.count == PUBLISH_SAMPLES) {
+					publish(block);
+					pending[0] = new Block(PUBLISH_SAMPLES);
+				}
+			}
+
+			@Override
+			public void acceptBlock(double[] absTime, double[] v, double[] i, double[] r, int count) {
+				for (int n = 0; n < count; n++) {
+					accept(absTime[n], v[n], i[n], r[n]);
+				}
+			}
+		});
+		if (pending[0].count > 0) {
+			publish(pending[0]);
+		}
+		return new Result(samples, System.nanoTime() - startNanos);
+	}
+
+	// Unwinds the archive read when the load is cancelled
+	private static final class CancelledException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	@Override
+	protected void process(List<Block> blocks) {
+		if (isCancelled()) {
+			return;
+		}
+		for (Block block : blocks) {
+			for (int n = 0; n < block.count; n++) {
+				store.append(block.time[n], block.voltage[n], block.current[n], block.resistance[n]);
+			}
+		}
+		if (dataset != null) {
+			dataset.storesChanged();
+		}
+	}
+
+	@Override
+	protected void done() {
+		Result result = null;
+		Exception error = null;
+		if (!isCancelled()) {
+			try {
+				result = get();
+			} catch (Exception e) {
+				error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+			}
+		}
+		try {
+			reader.close();
+		} catch (IOException ignored) {}
+		if (listener != null) {
+			listener.loadFinished(this, result, error);
+		}
+	}
+
+	/** Decoded samples handed to the EDT. */
+	public static final class Block {
+		private final double[] time;
+		private final double[] voltage;
+		private final double[] current;
+		private final double[] resistance;
+		private int count;
+
+		private Block(int capacity) {
+			time = new double[capacity];
+			voltage = new double[capacity];
+			current = new double[capacity];
+			resistance = new double[capacity];
+		}
+
+		private void add(double t, double v, double i, double r) {
+			time[count] = t;
+			voltage[count] = v;
+			current[count] = i;
+			resistance[count] = r;
+			count++;
+		}
+	}
+
+	/** Summary of a completed load. */
+	public static final class Result {
+		private final long samples;
+		private final long nanos;
+
+		private Result(long samples, long nanos) {
+			this.samples = samples;
+			this.nanos = nanos;
+		}
+
+		public long getSamples() {
+			return samples;
+		}
+
+		public double getSeconds() {
+			return nanos / 1e9;
+		}
+	}
+}
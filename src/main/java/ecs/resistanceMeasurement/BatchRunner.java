@@ -0,0 +1,524 @@
+package ecs.resistanceMeasurement;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.prefs.Preferences;
+
+/**
+ * Headless batch mode for unattended runs, without the Swing window or the chart.
+ * Takes the parameters the GUI collects on the command line, or a job file with
+ * one run per line executed back to back. Samples go straight from the engine to
+ * the {@link RunWriter} (CSV or run archive); the only other per-sample work is a counter for
+ * the periodic summary lines. With {@code --serve port} the runs can also be
+ * watched in a browser (see {@link LiveServer}).
+ *
+ * Usage: {@code java -jar ResistanceMeasurement.jar --batch [--key value ...] [--job file]}
+ * with the keys of {@link #KEYS}. In a job file each non-empty line that does not
+ * start with '#' is one run, given as {@code key=value} pairs separated by blanks;
+ * keys a line leaves out take the command line value.
+ *
+ * Exit code: 0 when every run finished normally, 1 if any failed or the batch
+ * was stopped, 2 for bad arguments. Ctrl-C stops the current run (the
+ * instrument is left safe and the file complete) and skips the rest.
+ */
+public class BatchRunner {
+
+	/** Run parameters, as command line options ({@code --voltage 1}) or job file keys ({@code voltage=1}). */
+	public static final List<String> KEYS = Arrays.asList("engine", "address", "voltage", "time", "interval",
+			"range", "nplc", "compliance", "terminals", "folder", "filename", "sequence", "format",
+			"triggers");
+
+	public static final String ENGINE_PYTHON = "python";
+	public static final String ENGINE_SCPI = "scpi";
+	public static final String ENGINE_SCPI_BUFFERED = "scpi-buffered";
+	public static final String ENGINE_SIMULATOR = "simulator";
+
+	public static final String FORMAT_CSV = "csv";
+	public static final String FORMAT_ARCHIVE = "archive";
+
+	public static final long DEFAULT_SUMMARY_SECONDS = 10;
+	private static final long STOP_WAIT_MS = 15000;
+
+	private final PrintStream out;
+	private final Map<String, String> defaults = new LinkedHashMap<>();
+	private final List<Map<String, String>> jobs = new ArrayList<>();
+	private long summaryMillis = TimeUnit.SECONDS.toMillis(DEFAULT_SUMMARY_SECONDS);
+	private int servePort = -1;	// no live server
+	private LiveServer liveServer;
+
+	private final Map<String, AcquisitionEngine> engines = new HashMap<>();	// by engine type and address
+	private volatile AcquisitionEngine current;
+	private volatile boolean stopRequested;
+	private final CountDownLatch idle = new CountDownLatch(1);
+
+	public BatchRunner(PrintStream out) {
+		this.out = out;
+		// Same defaults as the GUI form
+		defaults.put("engine", ENGINE_PYTHON);
+		defaults.put("address", "");
+		defaults.put("voltage", "1");
+		defaults.put("time", "3");
+		defaults.put("interval", "AUTO");
+		defaults.put("range", "1");
+		defaults.put("nplc", "1");
+		defaults.put("compliance", "1");
+		defaults.put("terminals", "REAR");
+		defaults.put("folder", ".");
+		defaults.put("filename", "measurement");
+		defaults.put("sequence", "");	// voltage:duration:interval,... instead of voltage and time
+		defaults.put("format", FORMAT_CSV);
+		defaults.put("triggers", "");	// auto-stop, e.g. R>1e6,|slope|>0.5
+	}
+
+	/**
+	 * Reads the command line options.
+	 * @throws IllegalArgumentException for an unknown option or a missing value
+	 * @throws IOException if the job file cannot be read
+	 */
+	public void parseArguments(String[] args) throws IOException {
+		for (int k = 0; k < args.length; k++) {
+			String option = args[k];
+			if (!option.startsWith("--") || k + 1 == args.length) {
+				throw new IllegalArgumentException("Expected --option value, got " + option);
+			}
+			String key = option.substring(2);
+			String value = args[++k];
+			if (key.equals("job")) {
+				readJobFile(new File(value));
+			} else if (key.equals("summary")) {
+				summaryMillis = (long) (Double.parseDouble(value) * 1000);
+				if (summaryMillis <= 0) {
+					throw new IllegalArgumentException("Summary interval must be positive: " + value);
+				}
+			} else if (key.equals("serve")) {
+				servePort = Integer.parseInt(value);
+				if (servePort < 0 || servePort > 65535) {
+					throw new IllegalArgumentException("Port must be 0..65535: " + value);
+				}
+			} else if (KEYS.contains(key)) {
+				defaults.put(key, value);
+			} else {
+				throw new IllegalArgumentException("Unknown option " + option);
+			}
+		}
+	}
+
+	private void readJobFile(File file) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			int number = 0;
+			while ((line = reader.readLine()) != null) {
+				number++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				Map<String, String> job = new LinkedHashMap<>();
+				for (String pair : line.split("\\s+")) {
+					int eq = pair.indexOf('=');
+					String key = eq > 0 ? pair.substring(0, eq) : pair;
+					if (eq <= 0 || !KEYS.contains(key)) {
+						throw new IllegalArgumentException(file + ":" + number + ": expected key=value with a key of "
+								+ KEYS + ", got " + pair);
+					}
+					job.put(key, pair.substring(eq + 1));
+				}
+				jobs.add(job);
+			}
+		}
+	}
+
+	/**
+	 * The parameters of one run: the job's values over the command line ones.
+	 * @throws IllegalArgumentException if a value is invalid
+	 */
+	static MeasurementConfig configFrom(Map<String, String> run) {
+		String terminals = run.get("terminals").toUpperCase();
+		if (!terminals.equals("REAR") && !terminals.equals("FRONT")) {
+			throw new IllegalArgumentException("terminals must be REAR or FRONT: " + run.get("terminals"));
+		}
+		String format = run.get("format");
+		if (!format.equals(FORMAT_CSV) && !format.equals(FORMAT_ARCHIVE)) {
+			throw new IllegalArgumentException("format must be " + FORMAT_CSV + " or " + FORMAT_ARCHIVE + ": " + format);
+		}
+		File folder = new File(run.get("folder"));
+		if (!folder.isDirectory() || !folder.canWrite()) {
+			throw new IllegalArgumentException("Not a writable folder: " + folder);
+		}
+		String filename = run.get("filename");
+		if (!MeasurementConfig.isValidFilename(filename)) {
+			throw new IllegalArgumentException("Invalid filename: " + filename);
+		}
+		MeasurementConfig config;
+		try {
+			config = new MeasurementConfig(
+					Double.parseDouble(run.get("voltage")),
+					Double.parseDouble(run.get("time")),
+					MeasurementConfig.parseAutoOrNumber(run.get("interval")),
+					MeasurementConfig.parseAutoOrNumber(run.get("range")),
+					Double.parseDouble(run.get("nplc")),
+					Double.parseDouble(run.get("compliance")),
+					terminals.equals("REAR"),
+					folder.getPath(), filename);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Measurement parameters must be numbers "
+					+ "(interval and range may be AUTO): " + e.getMessage());
+		}
+		String sequence = run.get("sequence");
+		if (!sequence.isEmpty()) {
+			config = config.withSequence(VoltageSequence.parse(sequence));
+		}
+		config.getSequence();	// validates the time of a constant hold
+		return config;
+	}
+
+	/**
+	 * Executes every run in order.
+	 * @return the exit code
+	 * @throws IllegalArgumentException if any run has invalid parameters; nothing is run then
+	 */
+	public int run() {
+		try {
+			// Validate everything first, so a typo in the last job does not surface hours later
+			List<Map<String, String>> runs = new ArrayList<>();
+			List<MeasurementConfig> configs = new ArrayList<>();
+			for (Map<String, String> job : jobs.isEmpty() ? Arrays.asList(defaults) : jobs) {
+				Map<String, String> run = new LinkedHashMap<>(defaults);
+				run.putAll(job);
+				configs.add(configFrom(run));
+				StreamingAnalytics.parseTriggers(run.get("triggers"));
+				runs.add(run);
+			}
+			if (servePort >= 0) {
+				try {
+					liveServer = new LiveServer(new InetSocketAddress(servePort));
+					liveServer.start();
+					out.printf("Live server on port %d%n", liveServer.getPort());
+				} catch (IOException e) {
+					out.printf("Live server not started on port %d: %s%n", servePort, e.getMessage());
+				}
+			}
+			int failed = 0;
+			for (int k = 0; k < runs.size() && !stopRequested; k++) {
+				String name = String.format("%d/%d %s", k + 1, runs.size(), configs.get(k).getFilename());
+				if (!runOne(name, runs.get(k), configs.get(k))) {
+					failed++;
+				}
+			}
+			out.printf("Batch finished: %d run(s), %d failed%s%n", runs.size(), failed,
+					stopRequested ? ", stopped by user" : "");
+			return failed == 0 && !stopRequested ? 0 : 1;
+		} finally {
+			if (liveServer != null) {
+				liveServer.close();
+			}
+			for (AcquisitionEngine engine : engines.values()) {
+				engine.close();
+			}
+			engines.clear();
+			idle.countDown();
+		}
+	}
+
+	private boolean runOne(String name, Map<String, String> run, MeasurementConfig config) {
+		AcquisitionEngine engine;
+		RunWriter writer;
+		try {
+			engine = engineFor(run.get("engine"), run.get("address"));
+			File folder = new File(config.getFolder());
+			writer = run.get("format").equals(FORMAT_ARCHIVE)
+					? new RunArchiveWriter(folder, config.getFilename(), RunArchiveWriter.metadata(config))
+					: new SampleFileWriter(folder, config.getFilename());
+		} catch (FileAlreadyExistsException e) {
+			out.printf("[%s] cannot start: %s already exists; choose another filename%n", name, e.getFile());
+			return false;
+		} catch (IOException | IllegalArgumentException e) {
+			out.printf("[%s] cannot start: %s%n", name, e.getMessage());
+			return false;
+		}
+		if (config.isSequence()) {
+			out.printf("[%s] started: %d stages, %s s, engine %s%n", name, config.getSequence().size(),
+					config.getTime(), run.get("engine"));
+		} else {
+			out.printf("[%s] started: %s V for %s s, interval %s, engine %s%n", name, config.getVoltage(),
+					config.getTime(), MeasurementConfig.formatAutoOrNumber(config.getSampleInterval()), run.get("engine"));
+		}
+
+		// Triggers stop the run from the acquisition thread, like Ctrl-C
+		AcquisitionEngine stopped = engine;
+		StreamingAnalytics analytics = new StreamingAnalytics(StreamingAnalytics.DEFAULT_WINDOW_SECONDS,
+				StreamingAnalytics.parseTriggers(run.get("triggers")), (trigger, t, value) -> {
+					out.printf("[%s] auto-stop: %s at t = %.3f s (%.6g)%n", name, trigger, t, value);
+					try {
+						stopped.stopRun();
+					} catch (IOException e) {
+						out.printf("[%s] stopping failed: %s%n", name, e.getMessage());
+					}
+				});
+		LiveServer.Feed live = liveServer == null ? null
+				: liveServer.publish(name, RunArchiveWriter.metadata(config));
+		Progress progress = new Progress(name, config.getSequence(), writer, analytics, live, out);
+		CountDownLatch finished = new CountDownLatch(1);
+		String[] error = new String[1];
+		ScheduledExecutorService summaries = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "batch-summary");
+			t.setDaemon(true);
+			return t;
+		});
+		summaries.scheduleAtFixedRate(() -> out.println(progress.summary()),
+				summaryMillis, summaryMillis, TimeUnit.MILLISECONDS);
+		current = engine;
+		try {
+			engine.startRun(config, progress, e -> {
+				error[0] = e;
+				finished.countDown();
+			});
+			if (stopRequested) {
+				engine.stopRun();	// Ctrl-C while starting
+			}
+			finished.await();
+		} catch (IOException e) {
+			error[0] = e.getMessage();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			error[0] = "interrupted";
+		} finally {
+			current = null;
+			summaries.shutdownNow();
+		}
+
+		if (live != null) {
+			live.finish(error[0]);
+		}
+		String saveError = null;
+		try {
+			writer.close();
+		} catch (IOException e) {
+			saveError = e.getMessage();
+		}
+		out.println(progress.summary());
+		if (error[0] != null) {
+			out.printf("[%s] measurement failed: %s%n", name, error[0]);
+		}
+		if (saveError != null) {
+			out.printf("[%s] ERROR: saving samples failed: %s%n", name, saveError);
+		} else {
+			out.printf("[%s] saved %d samples to %s%n", name, writer.getSampleCount(), writer.getFiles());
+		}
+		if (engine.getDroppedSamples() > 0 || engine.getParseFailures() > 0) {
+			out.printf("[%s] WARNING: %d samples missing, %d unparseable lines%n", name,
+					engine.getDroppedSamples(), engine.getParseFailures());
+		}
+		String timing = engine.getTimingReport();
+		if (timing != null) {
+			for (String line : timing.split("\n")) {
+				out.printf("[%s] %s%n", name, line);
+			}
+		}
+		return error[0] == null && saveError == null;
+	}
+
+	private AcquisitionEngine engineFor(String type, String address) throws IOException {
+		switch (type) {
+			case ENGINE_SIMULATOR: {
+				AcquisitionEngine engine = engines.get(type + ":" + address);
+				if (engine == null) {
+					engine = new SimulatedEngine().setSeed(address.hashCode());
+					engines.put(type + ":" + address, engine);
+				}
+				return engine;
+			}
+			case ENGINE_SCPI:
+			case ENGINE_SCPI_BUFFERED: {
+				if (address.isEmpty()) {
+					throw new IllegalArgumentException("LAN acquisition needs --address host");
+				}
+				// One connection per instrument, whichever mode
+				Keithley2450Engine engine = (Keithley2450Engine) engines.get(ENGINE_SCPI + ":" + address);
+				if (engine == null) {
+					engine = new Keithley2450Engine(address);
+					engines.put(ENGINE_SCPI + ":" + address, engine);
+				}
+				engine.setBuffered(type.equals(ENGINE_SCPI_BUFFERED));
+				return engine;
+			}
+			case ENGINE_PYTHON: {
+				AcquisitionEngine engine = engines.get(type + ":" + address);
+				if (engine == null) {
+					PythonEnvironment env = PythonEnvironment.probe(PythonEnvironment.findPythonPath(),
+							Preferences.userNodeForPackage(ResistanceMeasurement.class));
+					String script = PythonEnvironment.findScriptPath();
+					if (!env.isUsable() || script == null) {
+						throw new IOException("Python backend not available (interpreter "
+								+ env.getPythonPath() + ", script " + PythonEnvironment.SCRIPT_NAME + ")");
+					}
+					engine = new PythonBackend(env.getPythonPath(), script, address,
+							line -> out.println("[backend] " + line));
+					engines.put(type + ":" + address, engine);
+				}
+				return engine;
+			}
+			default:
+				throw new IllegalArgumentException("Unknown engine " + type + " (" + ENGINE_PYTHON + ", "
+						+ ENGINE_SCPI + ", " + ENGINE_SCPI_BUFFERED + " or " + ENGINE_SIMULATOR + ")");
+		}
+	}
+
+	/**
+	 * Stops the current run and skips the remaining ones; returns once the current
+	 * run's file is closed (or after a timeout).
+	 */
+	public void stop() {
+		stopRequested = true;
+		AcquisitionEngine engine = current;
+		if (engine != null) {
+			try {
+				engine.stopRun();
+			} catch (IOException ignored) {
+			}
+		}
+		try {
+			idle.await(STOP_WAIT_MS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Writer plus the counters for the summary lines; the live feed never blocks
+	private static final class Progress implements SampleConsumer {
+		private final String name;
+		private final VoltageSequence sequence;
+		private final RunWriter writer;
+		private final StreamingAnalytics analytics;
+		private final LiveServer.Feed live;	// or null
+		private final PrintStream out;
+		private final long startNanos = System.nanoTime();
+		private volatile long samples;
+		private volatile double lastTime = Double.NaN;
+		private volatile double lastResistance = Double.NaN;
+
+		Progress(String name, VoltageSequence sequence, RunWriter writer, StreamingAnalytics analytics,
+				LiveServer.Feed live, PrintStream out) {
+			this.name = name;
+			this.sequence = sequence;
+			this.writer = writer;
+			this.analytics = analytics;
+			this.live = live;
+			this.out = out;
+		}
+
+		@Override
+		public void stageStarted(int stage, double absTime) {
+			analytics.stageStarted(stage, absTime);
+			writer.stageStarted(stage, absTime);
+			if (live != null) {
+				live.stageStarted(stage, absTime);
+			}
+			if (sequence.size() > 1) {
+				VoltageSequence.Stage s = sequence.get(stage);
+				out.printf("[%s] stage %d/%d: %s V for %s s (t = %.3f s)%n", name, stage + 1, sequence.size(),
+						s.getVoltage(), s.getDuration(), absTime);
+			}
+		}
+
+		@Override
+		public void accept(double absTime, double v, double i, double r) {
+			analytics.accept(absTime, v, i, r);
+			writer.accept(absTime, v, i, r);
+			if (live != null) {
+				live.accept(absTime, v, i, r);
+			}
+			samples++;	// single acquisition thread
+			lastTime = absTime;
+			lastResistance = r;
+		}
+
+		@Override
+		public void acceptBlock(double[] absTime, double[] v, double[] i, double[] r, int count) {
+			if (count == 0) return;
+			analytics.acceptBlock(absTime, v, i, r, count);
+			writer.acceptBlock(absTime, v, i, r, count);
+			if (live != null) {
+				live.acceptBlock(absTime, v, i, r, count);
+			}
+			samples += count;
+			lastTime = absTime[count - 1];
+			lastResistance = r[count - 1];
+		}
+
+		String summary() {
+			double seconds = (System.nanoTime() - startNanos) / 1e9;
+			StreamingAnalytics.Snapshot s = analytics.snapshot();
+			return String.format("[%s] t = %.1f s, %d samples (%.1f/s), R = %.6g Ohm, mean %.6g +- %.3g, drift %.3g Ohm/s",
+					name, lastTime, samples, samples / seconds, lastResistance, s.getMean(), s.getStdDev(), s.getSlope());
+		}
+	}
+
+	static void printUsage(PrintStream out) {
+		out.println("Usage: java -jar ResistanceMeasurement.jar --batch [--key value ...] [--job file] [--summary s]"
+				+ " [--serve port]");
+		out.println("Keys: " + KEYS);
+		out.println("  engine     " + ENGINE_PYTHON + " (VISA), " + ENGINE_SCPI + ", " + ENGINE_SCPI_BUFFERED
+				+ " (LAN) or " + ENGINE_SIMULATOR);
+		out.println("  address    VISA resource / serial number, or LAN host");
+		out.println("  interval   seconds or AUTO; range: amps or AUTO; terminals: REAR or FRONT");
+		out.println("  sequence   stages as voltage:duration:interval,... (replaces voltage and time)");
+		out.println("  format     " + FORMAT_CSV + " or " + FORMAT_ARCHIVE + " (compressed " + RunArchiveWriter.EXTENSION + ")");
+		out.println("  triggers   auto-stop conditions, e.g. R>1e6,R<100,slope>0.5,|slope|>0.5 (Ohm/s)");
+		out.println("--serve port: watch the runs live in a browser on http://<this host>:port/");
+		out.println("Job file: one run per line as key=value pairs; omitted keys take the command line value.");
+	}
+
+	/**
+	 * Parses the arguments and executes the runs.
+	 * @return the exit code
+	 */
+	static int run(String[] args, PrintStream out) {
+		BatchRunner runner = new BatchRunner(out);
+		try {
+			runner.parseArguments(args);
+			return runner.run();
+		} catch (IllegalArgumentException | IOException e) {
+			out.println("Error: " + e.getMessage());
+			printUsage(out);
+			return 2;
+		}
+	}
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		BatchRunner runner = new BatchRunner(System.out);
+		try {
+			runner.parseArguments(args);
+		} catch (IllegalArgumentException | IOException e) {
+			System.out.println("Error: " + e.getMessage());
+			printUsage(System.out);
+			System.exit(2);
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(runner::stop, "batch-stop"));
+		int code;
+		try {
+			code = runner.run();
+		} catch (IllegalArgumentException e) {
+			System.out.println("Error: " + e.getMessage());
+			code = 2;
+		}
+		System.exit(code);
+	}
+}
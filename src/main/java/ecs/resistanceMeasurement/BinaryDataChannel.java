@@ -0,0 +1,211 @@
+package ecs.resistanceMeasurement;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Local TCP channel that carries samples from the backend as fixed-size binary
+ * records, leaving the backend's stdout for human readable logs.
+ *
+ * The GUI listens on an ephemeral loopback port and passes it to the backend.
+ * The backend connects and sends a hello ("KSMP", uint16 version, uint16 record
+ * size) followed by little-endian records:
+ * <pre>
+ *   uint64 sequence, float64 abs_time_s, float64 voltage_V, float64 current_A, float64 resistance_Ohm
+ *   (version 2 and 3:) float64 instrument_time_s, float64 host_time_s
+ *   (version 3 only:) int32 stage, 4 bytes padding
+ * </pre>
+ * Sequence numbers start at 0 and increase by one, so gaps reveal dropped samples.
+ * From version 2, abs_time_s is the instrument timestamp reconciled with the host
+ * clock; the raw instrument and host times come along, and how far the
+ * reconciled times are from the host times is recorded for the timing report.
+ * In version 3 each record carries the index of the {@link VoltageSequence}
+ * stage the backend measured it in; the consumer is told when it changes.
+ *
+ * The listener stays open for the lifetime of the channel and accepts one
+ * connection per {@link #receive} call, so a persistent backend connects once per run.
+ */
+public class BinaryDataChannel implements Closeable {
+
+	public static final int MAGIC = 0x504D534B;	// "KSMP" read little-endian
+	public static final int VERSION = 3;
+	public static final int RECORD_SIZE = 64;
+	/** Records without the stage. */
+	public static final int VERSION_2_RECORD_SIZE = 56;
+	/** Records without the instrument and host times. */
+	public static final int VERSION_1_RECORD_SIZE = 40;
+	public static final int HELLO_SIZE = 8;
+
+	private final ServerSocketChannel server;
+	private final Selector selector;
+	private volatile SocketChannel client;
+	private volatile boolean abortRequested;
+	private volatile long receivedSamples;
+	private volatile long droppedSamples;
+	private final LatencyHistogram timeCorrection = new LatencyHistogram();
+
+	public BinaryDataChannel() throws IOException {
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		server.configureBlocking(false);
+		selector = Selector.open();
+		server.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	public long getReceivedSamples() {
+		return receivedSamples;
+	}
+
+	/**
+	 * Samples missing according to the sequence numbers.
+	 */
+	public long getDroppedSamples() {
+		return droppedSamples;
+	}
+
+	/**
+	 * How far the reconciled sample times were from the host times in the last
+	 * connection (records of version 2 or later with an instrument time only).
+	 */
+	public LatencyHistogram getTimeCorrection() {
+		return timeCorrection;
+	}
+
+	/**
+	 * Waits for the backend to connect, then decodes records into the consumer
+	 * until the backend closes the connection. Runs on the caller's thread.
+	 * Sample counters are reset for each connection.
+	 * @throws AsynchronousCloseException if {@link #abortReceive()} or {@link #close()} was called
+	 */
+	public void receive(SampleConsumer consumer) throws IOException {
+		try (SocketChannel channel = accept()) {
+			client = channel;
+			receivedSamples = 0;
+			droppedSamples = 0;
+			timeCorrection.reset();
+			channel.configureBlocking(true);
+			ByteBuffer buf = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+			readFully(channel, buf, HELLO_SIZE);
+			buf.flip();
+			int magic = buf.getInt();
+			int version = buf.getShort() & 0xFFFF;
+			int recordSize = buf.getShort() & 0xFFFF;
+			if (magic != MAGIC || !(version == VERSION && recordSize == RECORD_SIZE
+					|| version == 2 && recordSize == VERSION_2_RECORD_SIZE
+					|| version == 1 && recordSize == VERSION_1_RECORD_SIZE)) {
+				throw new IOException(String.format(
+						"Unsupported data channel (magic %08x, version %d, record %d bytes)",
+						magic, version, recordSize));
+			}
+			buf.compact();
+
+			// Records may already be buffered behind the hello
+			long expected = 0;
+			int stage = -1;
+			do {
+				buf.flip();
+				while (buf.remaining() >= recordSize) {
+					long seq = buf.getLong();
+					double absTime = buf.getDouble();
+					double voltage = buf.getDouble();
+					double current = buf.getDouble();
+					double resistance = buf.getDouble();
+					if (version >= 2) {
+						double instrumentTime = buf.getDouble();
+						double hostTime = buf.getDouble();
+						if (!Double.isNaN(instrumentTime)) {
+							timeCorrection.record((long) (Math.abs(hostTime - absTime) * 1e9));
+						}
+					}
+					if (version >= 3) {
+						int recordStage = buf.getInt();
+						buf.getInt();	// padding
+						if (recordStage != stage) {
+							stage = recordStage;
+							consumer.stageStarted(stage, absTime);
+						}
+					}
+					if (seq != expected) {
+						droppedSamples += Math.max(0, seq - expected);
+					}
+					expected = seq + 1;
+					receivedSamples++;
+					consumer.accept(absTime, voltage, current, resistance);
+				}
+				buf.compact();
+			} while (channel.read(buf) >= 0);
+		} finally {
+			client = null;
+			abortRequested = false;
+		}
+	}
+
+	private SocketChannel accept() throws IOException {
+		while (true) {
+			if (abortRequested || !server.isOpen()) {
+				throw new AsynchronousCloseException();
+			}
+			SocketChannel channel;
+			try {
+				selector.select();
+				selector.selectedKeys().clear();
+				channel = server.accept();
+			} catch (ClosedSelectorException e) {
+				throw new AsynchronousCloseException();
+			}
+			if (channel != null) {
+				return channel;
+			}
+		}
+	}
+
+	/**
+	 * Makes the current (or the next) {@link #receive} call return, whether it is
+	 * still waiting for a connection or reading one. The listener stays open.
+	 */
+	public void abortReceive() throws IOException {
+		abortRequested = true;
+		selector.wakeup();
+		SocketChannel c = client;
+		if (c != null) {
+			c.close();
+		}
+	}
+
+	private static void readFully(SocketChannel channel, ByteBuffer buf, int bytes) throws IOException {
+		while (buf.position() < bytes) {
+			if (channel.read(buf) < 0) {
+				throw new EOFException("Data channel closed before the hello");
+			}
+		}
+	}
+
+	/**
+	 * Stops listening; a pending {@link #receive} returns with an exception.
+	 */
+	@Override
+	public void close() throws IOException {
+		server.close();
+		selector.close();
+		SocketChannel c = client;
+		if (c != null) {
+			c.close();
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package ecs.resistanceMeasurement;
+
+/**
+ * Online estimate of the host time of instrument timestamps:
+ * {@code host = offset + (1 + skew) * instrument}. Each reading contributes its
+ * instrument timestamp and the host time halfway through the query that fetched
+ * it. The fit is a weighted least squares that forgets old pairs, so a drifting
+ * instrument clock is followed, and trusts pairs with slow round trips less, so
+ * bus latency and scheduling jitter stay out of the reconciled times.
+ *
+ * Mirrors {@code ClockReconciler} in the Python backend. Not thread-safe: used by
+ * one acquisition thread.
+ */
+public class ClockReconciler {
+
+	/** Pairs after which an old pair's weight has dropped to 1/e. */
+	public static final int MEMORY = 1000;
+	/** A larger skew means the fit has not settled; no quartz clock is that far off. */
+	public static final double MAX_SKEW = 1e-3;
+
+	private double weight;
+	private double meanInstrument;
+	private double meanHost;
+	private double sII;	// weighted co-moments about the means
+	private double sIH;
+	private double minRoundTrip;
+	private double lastInstrument;
+	private double lastReconciled;
+	private long pairs;
+
+	public ClockReconciler() {
+		reset();
+	}
+
+	public void reset() {
+		weight = 0;
+		meanInstrument = 0;
+		meanHost = 0;
+		sII = 0;
+		sIH = 0;
+		minRoundTrip = Double.POSITIVE_INFINITY;
+		lastInstrument = Double.NEGATIVE_INFINITY;
+		lastReconciled = Double.NEGATIVE_INFINITY;
+		pairs = 0;
+	}
+
+	/**
+	 * Adds a reading and returns its reconciled host time, never earlier than the
+	 * one returned before. An instrument time going backwards (its buffer was
+	 * cleared) restarts the fit.
+	 * @param hostTime host time halfway through the query, seconds
+	 * @param roundTrip duration of the query, seconds
+	 */
+	public double update(double instrumentTime, double hostTime, double roundTrip) {
+		if (instrumentTime < lastInstrument) {
+			double floor = lastReconciled;
+			reset();
+			lastReconciled = floor;
+		}
+		lastInstrument = instrumentTime;
+		minRoundTrip = Math.min(minRoundTrip, roundTrip);
+		double w = roundTrip > 0 ? Math.pow(minRoundTrip / roundTrip, 2) : 1;
+		double forget = 1 - 1.0 / MEMORY;
+		weight = forget * weight + w;
+		double dI = instrumentTime - meanInstrument;
+		double dH = hostTime - meanHost;
+		meanInstrument += w / weight * dI;
+		meanHost += w / weight * dH;
+		sII = forget * sII + w * dI * (instrumentTime - meanInstrument);
+		sIH = forget * sIH + w * dI * (hostTime - meanHost);
+		pairs++;
+		lastReconciled = Math.max(reconcile(instrumentTime), lastReconciled);
+		return lastReconciled;
+	}
+
+	/** Host seconds per instrument second. */
+	public double getRate() {
+		if (pairs < 2 || sII <= 0) {
+			return 1;
+		}
+		double rate = sIH / sII;
+		return Math.abs(rate - 1) <= MAX_SKEW ? rate : 1;
+	}
+
+	/** Host time of an instrument time, by the current fit. */
+	public double reconcile(double instrumentTime) {
+		return meanHost + getRate() * (instrumentTime - meanInstrument);
+	}
+
+	/** Host time at instrument time zero. */
+	public double getOffset() {
+		return reconcile(0);
+	}
+
+	public double getSkewPpm() {
+		return (getRate() - 1) * 1e6;
+	}
+
+	public long getPairs() {
+		return pairs;
+	}
+
+	public String report() {
+		return String.format("Instrument clock: offset %.3f ms, skew %.1f ppm over %d readings",
+				getOffset() * 1e3, getSkewPpm(), pairs);
+	}
+}
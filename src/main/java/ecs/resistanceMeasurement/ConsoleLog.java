@@ -0,0 +1,208 @@
+package ecs.resistanceMeasurement;
+
+import javax.swing.JComponent;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+import javax.swing.text.BadLocationException;
+
+/**
+ * Console text area with a fixed line capacity and batched appends.
+ * Lines can be added from any thread; they are queued in a bounded ring and
+ * written to the document by a Swing timer in one append per tick. Once the
+ * document holds more than the capacity, the oldest lines are removed.
+ *
+ * In {@link Mode#ALL_LINES} (the default) every sample is echoed as a
+ * {@code t,V,I,R} line, as the console always did. In
+ * {@link Mode#STATUS_AND_SUMMARY} raw sample lines are not echoed; instead a
+ * one-line summary of the samples received is written periodically.
+ */
+public class ConsoleLog {
+
+	public enum Mode {
+		ALL_LINES("All lines"),
+		STATUS_AND_SUMMARY("Status + summary");
+
+		private final String label;
+
+		Mode(String label) {
+			this.label = label;
+		}
+
+		@Override
+		public String toString() {
+			return label;
+		}
+	}
+
+	public static final int DEFAULT_CAPACITY = 5000;		// lines
+	private static final int FLUSH_INTERVAL_MS = 100;
+	private static final long SUMMARY_INTERVAL_MS = 5000;
+
+	private final JTextArea area;
+	private final JScrollPane scrollPane;
+	private final int capacity;
+	private final Timer timer;
+	private volatile Mode mode;
+
+	// Pending lines, guarded by this
+	private final String[] pending;
+	private int pendingHead;
+	private int pendingSize;
+	private long skippedLines;
+
+	// Sample summary, guarded by this
+	private long sampleCount;
+	private long summarizedCount;
+	private double lastTime = Double.NaN;
+	private double lastResistance = Double.NaN;
+	private long lastSummaryMillis = System.currentTimeMillis();
+
+	public ConsoleLog(int rows, int columns, int capacity, Mode mode) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Console capacity must be positive: " + capacity);
+		}
+		this.capacity = capacity;
+		this.mode = mode;
+		this.pending = new String[capacity];
+		area = new JTextArea(rows, columns);
+		area.setEditable(false);
+		scrollPane = new JScrollPane(area);
+		timer = new Timer(FLUSH_INTERVAL_MS, e -> flush());
+		timer.start();
+	}
+
+	public JComponent getComponent() {
+		return scrollPane;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public void setMode(Mode mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * Queues one line of text. Safe to call from any thread.
+	 */
+	public synchronized void append(String line) {
+		if (pendingSize == capacity) {
+			// Would be trimmed from the document anyway
+			pendingHead = (pendingHead + 1) % capacity;
+			pendingSize--;
+			skippedLines++;
+		}
+		pending[(pendingHead + pendingSize) % capacity] = line;
+		pendingSize++;
+	}
+
+	/**
+	 * Records a sample: echoed in {@link Mode#ALL_LINES}, counted for the
+	 * periodic summary otherwise. Safe to call from any thread.
+	 */
+	public synchronized void recordSample(double absTime, double v, double i, double r) {
+		if (mode == Mode.ALL_LINES) {
+			append(sampleLine(absTime, v, i, r));
+		}
+		sampleCount++;
+		lastTime = absTime;
+		lastResistance = r;
+	}
+
+	/**
+	 * Records a block of samples; only the last one is shown in the summary.
+	 */
+	public synchronized void recordSamples(double[] absTime, double[] v, double[] i, double[] r, int count) {
+		if (count == 0) {
+			return;
+		}
+		if (mode == Mode.ALL_LINES) {
+			// Only the last capacity lines can survive the ring
+			for (int k = Math.max(0, count - capacity); k < count; k++) {
+				append(sampleLine(absTime[k], v[k], i[k], r[k]));
+			}
+			skippedLines += Math.max(0, count - capacity);
+		}
+		sampleCount += count;
+		lastTime = absTime[count - 1];
+		lastResistance = r[count - 1];
+	}
+
+	private static String sampleLine(double absTime, double v, double i, double r) {
+		return absTime + "," + v + "," + i + "," + r;
+	}
+
+	/**
+	 * Starts counting the samples of a new run.
+	 */
+	public synchronized void resetSummary() {
+		sampleCount = 0;
+		summarizedCount = 0;
+		lastTime = Double.NaN;
+		lastResistance = Double.NaN;
+		lastSummaryMillis = System.currentTimeMillis();
+	}
+
+	/**
+	 * Writes a summary line now if samples arrived since the last one.
+	 */
+	public void summarize() {
+		synchronized (this) {
+			lastSummaryMillis = 0;
+		}
+		flush();
+	}
+
+	// Runs on the EDT
+	void flush() {
+		StringBuilder batch = null;
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			if (mode == Mode.STATUS_AND_SUMMARY && sampleCount > summarizedCount
+					&& now - lastSummaryMillis >= SUMMARY_INTERVAL_MS) {
+				append(String.format("Samples: %d (+%d), t = %.3f s, R = %.6g Ohm",
+						sampleCount, sampleCount - summarizedCount, lastTime, lastResistance));
+				summarizedCount = sampleCount;
+				lastSummaryMillis = now;
+			}
+			if (pendingSize == 0) {
+				return;
+			}
+			batch = new StringBuilder();
+			if (skippedLines > 0) {
+				batch.append("... ").append(skippedLines).append(" lines skipped ...\n");
+				skippedLines = 0;
+			}
+			for (int n = 0; n < pendingSize; n++) {
+				int idx = (pendingHead + n) % capacity;
+				batch.append(pending[idx]).append('\n');
+				pending[idx] = null;
+			}
+			pendingHead = 0;
+			pendingSize = 0;
+		}
+		area.append(batch.toString());
+		trim();
+		area.setCaretPosition(area.getDocument().getLength());
+	}
+
+	// The document text, for tests; call on the EDT
+	String getText() {
+		return area.getText();
+	}
+
+	// Drops the oldest lines beyond the capacity
+	private void trim() {
+		int excess = area.getLineCount() - 1 - capacity;	// last line is the empty one after '\n'
+		if (excess <= 0) {
+			return;
+		}
+		try {
+			area.getDocument().remove(0, area.getLineStartOffset(excess));
+		} catch (BadLocationException e) {
+			area.setText("");
+		}
+	}
+}
@@ -0,0 +1,370 @@
+package ecs.resistanceMeasurement;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.SwingWorker;
+
+/**
+ * Loads a recorded CSV off the Event Dispatch Thread.
+ * The file is split into chunks on line boundaries; chunks are memory-mapped and
+ * parsed in parallel, then appended to the run's {@link SampleStore} in file order
+ * as they complete, so the plot fills in progressively. Columns are located by
+ * the header names written by the backend. Rows that cannot be parsed (e.g. a
+ * truncated last line) are skipped and counted.
+ *
+ * The chunks of all loaders are parsed on one shared fork-join pool sized to the
+ * processors, so loading many files at once keeps every core busy without
+ * oversubscribing them.
+ */
+public class CsvLoader extends SwingWorker<CsvLoader.Result, CsvLoader.Block> {
+
+	/** Called on the EDT when the load ends; error is null on success, result null on failure/cancel. */
+	public interface Listener {
+		void loadFinished(CsvLoader loader, Result result, Exception error);
+	}
+
+	public static final String TIME_COLUMN = "abs_time_s";
+	public static final String VOLTAGE_COLUMN = "voltage_V";
+	public static final String CURRENT_COLUMN = "current_A";
+	public static final String RESISTANCE_COLUMN = "resistance_Ohm";
+	/** Index of the {@link VoltageSequence} stage; not plotted. */
+	public static final String STAGE_COLUMN = "stage";
+
+	private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+	private static final int CANCEL_CHECK_LINES = 4096;
+
+	private static final int PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors());
+	private static final ForkJoinPool PARSERS = new ForkJoinPool(PARALLELISM, pool -> {
+		ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+		t.setName("csv-loader-" + t.getPoolIndex());
+		return t;
+	}, null, false);
+
+	// One read buffer per pool thread, shared by all loaders
+	private static final ThreadLocal<byte[]> CHUNK_BUFFER = new ThreadLocal<>();
+
+	private final File file;
+	private final SampleStore store;
+	private final SampleStoreDataset dataset;
+	private final Listener listener;
+	private final AtomicBoolean cancelled = new AtomicBoolean();
+
+	/**
+	 * @param dataset the chart's dataset, or null to load the store without showing it
+	 */
+	public CsvLoader(File file, SampleStoreDataset dataset, Listener listener) {
+		this.file = file;
+		this.dataset = dataset;
+		this.listener = listener;
+		this.store = new SampleStore(file.getName());
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public SampleStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Adds the (still empty) store to the chart and starts loading. Must be called on the EDT.
+	 */
+	public void start() {
+		if (dataset != null) {
+			dataset.addStore(store);
+		}
+		execute();
+	}
+
+	public void cancelLoad() {
+		cancelled.set(true);
+		cancel(true);
+	}
+
+	// ---------------- background work ---------------- //
+
+	@Override
+	protected Result doInBackground() throws Exception {
+		long startNanos = System.nanoTime();
+		Deque<Future<Block>> inFlight = new ArrayDeque<>();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel channel = raf.getChannel()) {
+			long size = channel.size();
+			Header header = readHeader(channel);
+			long[] bounds = chunkBounds(channel, header.dataStart, size);
+
+			// Keep a bounded number of chunks in flight and publish them in file order
+			int next = 0;
+			int chunks = bounds.length - 1;
+			long rows = 0;
+			long skipped = 0;
+			while (next < chunks || !inFlight.isEmpty()) {
+				while (next < chunks && inFlight.size() < PARALLELISM + 1) {
+					final long from = bounds[next];
+					final long to = bounds[next + 1];
+					inFlight.add(PARSERS.submit(() -> parseChunk(channel, from, to, header)));
+					next++;
+				}
+				Block block = inFlight.poll().get();
+				if (cancelled.get()) {
+					break;
+				}
+				rows += block.count;
+				skipped += block.skipped;
+				publish(block);
+				setProgress((int) (100L * (next - inFlight.size()) / chunks));
+			}
+			long nanos = System.nanoTime() - startNanos;
+			return new Result(rows, skipped, size, nanos);
+		} finally {
+			cancelled.set(true);	// stops any chunk still parsing
+			for (Future<Block> pending : inFlight) {
+				pending.cancel(false);
+			}
+		}
+	}
+
+	@Override
+	protected void process(List<Block> blocks) {
+		if (isCancelled()) {
+			return;
+		}
+		for (Block block : blocks) {
+			for (int n = 0; n < block.count; n++) {
+				store.append(block.time[n], block.voltage[n], block.current[n], block.resistance[n]);
+			}
+		}
+		if (dataset != null) {
+			dataset.storesChanged();
+		}
+	}
+
+	@Override
+	protected void done() {
+		Result result = null;
+		Exception error = null;
+		if (!isCancelled()) {
+			try {
+				result = get();
+			} catch (Exception e) {
+				error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+			}
+		}
+		if (listener != null) {
+			listener.loadFinished(this, result, error);
+		}
+	}
+
+	// ---------------- header and chunking ---------------- //
+
+	private static final class Header {
+		int timeIndex;
+		int voltageIndex;
+		int currentIndex;
+		int resistanceIndex;
+		int columns;
+		long dataStart;
+	}
+
+	private static Header readHeader(FileChannel channel) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(4096);
+		channel.read(buf, 0);
+		buf.flip();
+		int end = 0;
+		while (end < buf.limit() && buf.get(end) != '\n') {
+			end++;
+		}
+		if (end == buf.limit() && end == buf.capacity()) {
+			throw new IOException("CSV header line not found");
+		}
+		String line = new String(buf.array(), 0, end, StandardCharsets.UTF_8).trim();
+		if (!line.isEmpty() && line.charAt(0) == '\uFEFF') {	// UTF-8 BOM
+			line = line.substring(1);
+		}
+		String[] names = line.split(",");
+
+		Header header = new Header();
+		header.columns = names.length;
+		header.timeIndex = indexOf(names, TIME_COLUMN);
+		header.voltageIndex = indexOf(names, VOLTAGE_COLUMN);
+		header.currentIndex = indexOf(names, CURRENT_COLUMN);
+		header.resistanceIndex = indexOf(names, RESISTANCE_COLUMN);
+		if (header.timeIndex < 0 || header.resistanceIndex < 0) {
+			throw new IOException("CSV header must contain " + TIME_COLUMN + " and "
+					+ RESISTANCE_COLUMN + " columns, found: " + line);
+		}
+		header.dataStart = Math.min(end + 1, channel.size());
+		return header;
+	}
+
+	private static int indexOf(String[] names, String name) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].trim().equalsIgnoreCase(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	// Chunk boundaries, each moved forward to just after a newline
+	private static long[] chunkBounds(FileChannel channel, long dataStart, long size) throws IOException {
+		List<Long> bounds = new ArrayList<>();
+		bounds.add(dataStart);
+		ByteBuffer probe = ByteBuffer.allocate(4096);
+		long pos = dataStart + CHUNK_SIZE;
+		while (pos < size) {
+			long lineStart = -1;
+			long scan = pos;
+			while (lineStart < 0 && scan < size) {
+				probe.clear();
+				int n = channel.read(probe, scan);
+				if (n <= 0) {
+					break;
+				}
+				for (int k = 0; k < n; k++) {
+					if (probe.get(k) == '\n') {
+						lineStart = scan + k + 1;
+						break;
+					}
+				}
+				scan += n;
+			}
+			if (lineStart < 0 || lineStart >= size) {
+				break;
+			}
+			bounds.add(lineStart);
+			pos = lineStart + CHUNK_SIZE;
+		}
+		bounds.add(size);
+		long[] result = new long[bounds.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = bounds.get(i);
+		}
+		return result;
+	}
+
+	// ---------------- chunk parsing (worker threads) ---------------- //
+
+	private Block parseChunk(FileChannel channel, long from, long to, Header header) throws IOException {
+		int length = (int) (to - from);
+		Block block = new Block(length / 40 + 16);	// typical row is 40-70 bytes
+		if (length == 0) {
+			return block;
+		}
+		MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, from, length);
+		byte[] bytes = CHUNK_BUFFER.get();
+		if (bytes == null || bytes.length < length) {
+			bytes = new byte[Math.max(length, CHUNK_SIZE)];
+			CHUNK_BUFFER.set(bytes);
+		}
+		mapped.get(bytes, 0, length);
+
+		SampleLineParser parser = new SampleLineParser();
+		int lineStart = 0;
+		int lines = 0;
+		for (int p = 0; p <= length; p++) {
+			if (p < length && bytes[p] != '\n') {
+				continue;
+			}
+			int lineEnd = (p > lineStart && bytes[p - 1] == '\r') ? p - 1 : p;
+			if (lineEnd > lineStart) {
+				if (parser.parse(bytes, lineStart, lineEnd) == header.columns) {
+					block.add(parser.get(header.timeIndex),
+							header.voltageIndex >= 0 ? parser.get(header.voltageIndex) : Double.NaN,
+							header.currentIndex >= 0 ? parser.get(header.currentIndex) : Double.NaN,
+							parser.get(header.resistanceIndex));
+				} else {
+					block.skipped++;
+				}
+			}
+			lineStart = p + 1;
+			if (++lines % CANCEL_CHECK_LINES == 0 && cancelled.get()) {
+				break;
+			}
+		}
+		return block;
+	}
+
+	/** Parsed rows of one chunk. */
+	public static final class Block {
+		private double[] time;
+		private double[] voltage;
+		private double[] current;
+		private double[] resistance;
+		private int count;
+		private int skipped;
+
+		private Block(int capacity) {
+			time = new double[capacity];
+			voltage = new double[capacity];
+			current = new double[capacity];
+			resistance = new double[capacity];
+		}
+
+		private void add(double t, double v, double i, double r) {
+			if (count == time.length) {
+				int grown = count * 2;
+				time = Arrays.copyOf(time, grown);
+				voltage = Arrays.copyOf(voltage, grown);
+				current = Arrays.copyOf(current, grown);
+				resistance = Arrays.copyOf(resistance, grown);
+			}
+			time[count] = t;
+			voltage[count] = v;
+			current[count] = i;
+			resistance[count] = r;
+			count++;
+		}
+	}
+
+	/** Summary of a completed load. */
+	public static final class Result {
+		private final long rows;
+		private final long skippedRows;
+		private final long bytes;
+		private final long nanos;
+
+		private Result(long rows, long skippedRows, long bytes, long nanos) {
+			this.rows = rows;
+			this.skippedRows = skippedRows;
+			this.bytes = bytes;
+			this.nanos = nanos;
+		}
+
+		public long getRows() {
+			return rows;
+		}
+
+		public long getSkippedRows() {
+			return skippedRows;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public double getSeconds() {
+			return nanos / 1e9;
+		}
+
+		public double getRowsPerSecond() {
+			return nanos > 0 ? rows / (nanos / 1e9) : 0;
+		}
+	}
+}
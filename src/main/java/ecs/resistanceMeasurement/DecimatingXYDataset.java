@@ -0,0 +1,270 @@
+package ecs.resistanceMeasurement;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.jfree.chart.axis.ValueAxis;
+import org.jfree.data.DomainInfo;
+import org.jfree.data.Range;
+import org.jfree.data.general.DatasetChangeEvent;
+import org.jfree.data.general.DatasetChangeListener;
+import org.jfree.data.general.DatasetUtils;
+import org.jfree.data.xy.AbstractXYDataset;
+import org.jfree.data.xy.XYDataset;
+import org.jfree.data.xy.XYDomainInfo;
+
+/**
+ * Read-only view of an x-sorted {@link XYDataset} that only exposes the points
+ * needed to draw the current domain range at the current plot width.
+ *
+ * For every pixel column the first, minimum, maximum and last point are kept
+ * (M4 decimation), so the drawn polyline is the same as with all points, spikes
+ * included, while the renderer handles at most about four points per pixel.
+ * The decimated view is recomputed lazily whenever the source data, the domain
+ * axis range (zoom/pan) or the pixel width changes.
+ */
+public class DecimatingXYDataset extends AbstractXYDataset
+		implements DatasetChangeListener, DomainInfo, XYDomainInfo {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int DEFAULT_PIXEL_WIDTH = 2000;
+
+	private final XYDataset source;
+	private transient ValueAxis domainAxis;
+	private int pixelWidth = DEFAULT_PIXEL_WIDTH;
+
+	// Decimated points per series, valid while the cache key below matches
+	private double[][] xs = new double[0][];
+	private double[][] ys = new double[0][];
+	private int[] counts = new int[0];
+	private boolean dirty = true;
+	private double cachedLower = Double.NaN;
+	private double cachedUpper = Double.NaN;
+	private int cachedWidth;
+	private int lastEmitted;
+
+	public DecimatingXYDataset(XYDataset source) {
+		this.source = source;
+		source.addChangeListener(this);
+	}
+
+	/**
+	 * Axis whose visible range limits the points returned. Without an axis all
+	 * points are decimated over the full domain.
+	 */
+	public void setDomainAxis(ValueAxis domainAxis) {
+		this.domainAxis = domainAxis;
+		dirty = true;
+	}
+
+	/**
+	 * Width of the plot area in pixels, normally updated when the chart panel is resized.
+	 */
+	public void setPixelWidth(int pixelWidth) {
+		if (pixelWidth > 0 && pixelWidth != this.pixelWidth) {
+			this.pixelWidth = pixelWidth;
+			fireDatasetChanged();
+		}
+	}
+
+	public XYDataset getSource() {
+		return source;
+	}
+
+	@Override
+	public void datasetChanged(DatasetChangeEvent event) {
+		dirty = true;
+		fireDatasetChanged();
+	}
+
+	// ---------------- XYDataset ---------------- //
+
+	@Override
+	public int getSeriesCount() {
+		return source.getSeriesCount();
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Comparable getSeriesKey(int series) {
+		return source.getSeriesKey(series);
+	}
+
+	@Override
+	public int getItemCount(int series) {
+		ensureCurrent();
+		return counts[series];
+	}
+
+	@Override
+	public double getXValue(int series, int item) {
+		ensureCurrent();
+		return xs[series][item];
+	}
+
+	@Override
+	public double getYValue(int series, int item) {
+		ensureCurrent();
+		return ys[series][item];
+	}
+
+	@Override
+	public Number getX(int series, int item) {
+		return getXValue(series, item);
+	}
+
+	@Override
+	public Number getY(int series, int item) {
+		return getYValue(series, item);
+	}
+
+	// ---------------- Domain bounds (always of the full data) ---------------- //
+
+	@Override
+	public double getDomainLowerBound(boolean includeInterval) {
+		Range r = getDomainBounds(includeInterval);
+		return r == null ? Double.NaN : r.getLowerBound();
+	}
+
+	@Override
+	public double getDomainUpperBound(boolean includeInterval) {
+		Range r = getDomainBounds(includeInterval);
+		return r == null ? Double.NaN : r.getUpperBound();
+	}
+
+	@Override
+	public Range getDomainBounds(boolean includeInterval) {
+		return DatasetUtils.findDomainBounds(source, includeInterval);
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Range getDomainBounds(List visibleSeriesKeys, boolean includeInterval) {
+		return DatasetUtils.findDomainBounds(source, visibleSeriesKeys, includeInterval);
+	}
+
+	// ---------------- decimation ---------------- //
+
+	private void ensureCurrent() {
+		int seriesCount = source.getSeriesCount();
+		double lower = domainAxis != null ? domainAxis.getLowerBound() : Double.NEGATIVE_INFINITY;
+		double upper = domainAxis != null ? domainAxis.getUpperBound() : Double.POSITIVE_INFINITY;
+		if (!dirty && counts.length == seriesCount && lower == cachedLower
+				&& upper == cachedUpper && pixelWidth == cachedWidth) {
+			return;
+		}
+		if (counts.length != seriesCount) {
+			xs = Arrays.copyOf(xs, seriesCount);
+			ys = Arrays.copyOf(ys, seriesCount);
+			counts = new int[seriesCount];
+		}
+		for (int s = 0; s < seriesCount; s++) {
+			decimate(s, lower, upper);
+		}
+		cachedLower = lower;
+		cachedUpper = upper;
+		cachedWidth = pixelWidth;
+		dirty = false;
+	}
+
+	private void decimate(int series, double lower, double upper) {
+		int n = source.getItemCount(series);
+		// Visible items plus one neighbour on each side so lines reach the plot edges
+		int from = Math.max(0, firstIndexAtOrAbove(series, lower, n) - 1);
+		int to = Math.min(n, firstIndexAbove(series, upper, n) + 1);
+		int visible = to - from;
+
+		if (visible <= 4 * pixelWidth || visible < 2) {
+			ensureCapacity(series, visible);
+			for (int i = 0; i < visible; i++) {
+				xs[series][i] = source.getXValue(series, from + i);
+				ys[series][i] = source.getYValue(series, from + i);
+			}
+			counts[series] = visible;
+			return;
+		}
+
+		double x0 = source.getXValue(series, from);
+		double span = source.getXValue(series, to - 1) - x0;
+		double scale = span > 0 ? pixelWidth / span : 0;
+		ensureCapacity(series, 4 * (pixelWidth + 1));
+
+		int out = 0;
+		int i = from;
+		while (i < to) {
+			int bucket = (int) ((source.getXValue(series, i) - x0) * scale);
+			int first = i;
+			int minIdx = -1;
+			int maxIdx = -1;
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for (; i < to && (int) ((source.getXValue(series, i) - x0) * scale) == bucket; i++) {
+				double y = source.getYValue(series, i);
+				if (y < min) {
+					min = y;
+					minIdx = i;
+				}
+				if (y > max) {
+					max = y;
+					maxIdx = i;
+				}
+			}
+			int last = i - 1;
+			out = emit(series, out, first);
+			if (minIdx >= 0 && maxIdx >= 0) {
+				out = emit(series, out, Math.min(minIdx, maxIdx));
+				out = emit(series, out, Math.max(minIdx, maxIdx));
+			}
+			out = emit(series, out, last);
+		}
+		counts[series] = out;
+	}
+
+	// Appends the item unless it equals the previously emitted one (indexes only grow)
+	private int emit(int series, int out, int item) {
+		if (out > 0 && lastEmitted == item) {
+			return out;
+		}
+		lastEmitted = item;
+		xs[series][out] = source.getXValue(series, item);
+		ys[series][out] = source.getYValue(series, item);
+		return out + 1;
+	}
+
+	private void ensureCapacity(int series, int size) {
+		if (xs[series] == null || xs[series].length < size) {
+			int capacity = Math.max(size, 16);
+			xs[series] = new double[capacity];
+			ys[series] = new double[capacity];
+		}
+	}
+
+	private int firstIndexAtOrAbove(int series, double x, int n) {
+		int lo = 0;
+		int hi = n;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (source.getXValue(series, mid) < x) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private int firstIndexAbove(int series, double x, int n) {
+		int lo = 0;
+		int hi = n;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (source.getXValue(series, mid) <= x) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+}
@@ -0,0 +1,479 @@
+package ecs.resistanceMeasurement;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Native acquisition engine: drives a Keithley 2450 with SCPI over its raw LAN
+ * socket, without the Python runtime on the sample path. The instrument setup
+ * mirrors the Python backend's {@code ResistanceMeasurementProcedure.startup()}:
+ * terminals, 4-wire sense, NPLC, current range or autorange, compliance and
+ * source voltage.
+ *
+ * Two acquisition modes:
+ * <ul>
+ * <li>polled (default): timed like the Python loop, one {@code :READ?} round trip
+ * per sample interval, so the rate is limited by the LAN latency. Samples and
+ * stage transitions are scheduled at absolute offsets from the start of the run
+ * by a {@link SampleScheduler}. Each reading comes with its instrument timestamp,
+ * and a {@link ClockReconciler} maps those onto the host clock, so the sample
+ * times carry neither the LAN latency nor the scheduling jitter;</li>
+ * <li>buffered: the 2450's trigger model ({@code DurationLoop}) samples into its
+ * reading buffer on the instrument's own clock, as fast as the NPLC allows for an
+ * AUTO interval. The engine polls the buffer's end index and bulk-fetches the new
+ * readings with their relative instrument timestamps ({@code :TRAC:DATA? start,
+ * end, ..., READ, REL}), handing each fetch to the consumer as one block. A
+ * {@link VoltageSequence} is loaded as a trigger model of its own: one source
+ * configuration per stage, recalled by the instrument after the previous stage's
+ * readings, so the transitions need no host round trip.</li>
+ * </ul>
+ *
+ * The connection is opened by the first run and reused; it is reset with
+ * {@code *RST} once per connection, as the Python backend does.
+ */
+public class Keithley2450Engine implements AcquisitionEngine {
+
+	/** Sample interval used for AUTO: one integration time at 60 Hz mains. */
+	public static final double MAINS_FREQUENCY = 60.0;
+
+	/**
+	 * Reading buffer used in buffered mode. It wraps: readings a poll lags by more
+	 * than the buffer are lost and counted in {@link #getDroppedSamples}.
+	 */
+	public static final String BUFFER_NAME = "defbuffer1";
+	public static final int BUFFER_CAPACITY = 100000;
+	/** Readings per {@code :TRAC:DATA?} query (two values each). */
+	public static final int FETCH_BLOCK = ScpiConnection.MAX_VALUES / 2;
+	private static final long POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+	/** Source configuration list holding the stage levels of a sequence. */
+	public static final String SEQUENCE_LIST = "stageLevels";
+
+	private final String host;
+	private final int port;
+	private final long timeoutMillis;
+
+	private final Object lock = new Object();
+	private ScpiConnection connection;
+	private volatile Thread runThread;	// null when idle
+	private volatile boolean stopRequested;
+	private volatile boolean buffered;
+	private final SampleScheduler scheduler = new SampleScheduler();
+	private volatile ClockReconciler clock;	// of the last polled run
+
+	// Block handed to the consumer in buffered mode (acquisition thread only)
+	private final double[] blockTime = new double[FETCH_BLOCK];
+	private final double[] blockVoltage = new double[FETCH_BLOCK];
+	private final double[] blockCurrent = new double[FETCH_BLOCK];
+	private final double[] blockResistance = new double[FETCH_BLOCK];
+
+	// Stage bookkeeping of a buffered run (acquisition thread only)
+	private VoltageSequence sequence;
+	private long[] stageEnds;	// readings up to the end of each stage
+	private long readings;		// readings handed to the consumer or lost so far
+	private int stage;
+	private double lastReadingTime;	// relative time of the last reading handed on
+	private volatile long dropped;	// readings overwritten before they were fetched
+
+	public Keithley2450Engine(String host) {
+		this(host, ScpiConnection.DEFAULT_PORT, ScpiConnection.DEFAULT_TIMEOUT_MS);
+	}
+
+	public Keithley2450Engine(String host, int port, long timeoutMillis) {
+		this.host = host;
+		this.port = port;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * Selects instrument-side buffered acquisition for the following runs.
+	 */
+	public void setBuffered(boolean buffered) {
+		this.buffered = buffered;
+	}
+
+	public boolean isBuffered() {
+		return buffered;
+	}
+
+	@Override
+	public void startRun(MeasurementConfig config, SampleConsumer samples, RunListener listener) throws IOException {
+		synchronized (lock) {
+			if (isRunning()) {
+				throw new IOException("A measurement is already running");
+			}
+			stopRequested = false;
+			runThread = new Thread(() -> run(config, samples, listener), "scpi-acquisition");
+			runThread.setDaemon(true);
+			runThread.start();
+		}
+	}
+
+	@Override
+	public void stopRun() {
+		stopRequested = true;
+	}
+
+	@Override
+	public boolean isRunning() {
+		return runThread != null;
+	}
+
+	/**
+	 * Readings of the last buffered run that the instrument overwrote before they
+	 * were fetched. A polled run requests and answers every sample in order, so
+	 * none can go missing there.
+	 */
+	@Override
+	public long getDroppedSamples() {
+		return dropped;
+	}
+
+	/** A malformed response fails the run instead of being skipped. */
+	@Override
+	public long getParseFailures() {
+		return 0;
+	}
+
+	/** Jitter and clock reconciliation of the last polled run; buffered runs are timed by the instrument. */
+	@Override
+	public String getTimingReport() {
+		ClockReconciler c = clock;
+		if (buffered || c == null) {
+			return null;
+		}
+		return scheduler.report() + (c.getPairs() > 1 ? "\n" + c.report() : "");
+	}
+
+	// ---------------- acquisition thread ---------------- //
+
+	private void run(MeasurementConfig config, SampleConsumer samples, RunListener listener) {
+		String error = null;
+		ScpiConnection scpi = null;
+		dropped = 0;
+		try {
+			scpi = connect();
+			configure(scpi, config);
+			if (buffered) {
+				measureBuffered(scpi, config, samples);
+			} else {
+				measure(scpi, config, samples);
+			}
+		} catch (IOException e) {
+			error = e.getMessage() != null ? e.getMessage() : e.toString();
+		} finally {
+			if (scpi != null) {
+				try {
+					// stop the trigger model, return to 0 V and disable the output
+					if (buffered) {
+						scpi.write(":ABOR");
+					}
+					scpi.write(":SOUR:VOLT:LEV 0");
+					scpi.write(":OUTP OFF");
+					scpi.query("*OPC?");	// the output is off before the run is reported finished
+				} catch (IOException e) {
+					if (error == null) {
+						error = "Error while shutting down instrument: " + e.getMessage();
+					}
+				}
+			}
+			if (error != null) {
+				disconnect();	// reconnect on the next run
+			}
+		}
+		runThread = null;	// a new run may be started from the listener
+		listener.runFinished(error);
+	}
+
+	private ScpiConnection connect() throws IOException {
+		synchronized (lock) {
+			if (connection == null) {
+				ScpiConnection c = new ScpiConnection(host, port, timeoutMillis);
+				try {
+					c.write("*RST");
+					c.write("*CLS");
+				} catch (IOException e) {
+					c.close();
+					throw e;
+				}
+				connection = c;
+			}
+			return connection;
+		}
+	}
+
+	private void disconnect() {
+		synchronized (lock) {
+			if (connection != null) {
+				try {
+					connection.close();
+				} catch (IOException ignored) {
+				}
+				connection = null;
+			}
+		}
+	}
+
+	static void configure(ScpiConnection scpi, MeasurementConfig config) throws IOException {
+		// Use rear or front terminals depending on which was selected
+		scpi.write(config.isRearTerminals() ? ":ROUT:TERM REAR" : ":ROUT:TERM FRON");
+
+		// Explicitly configure for 4-wire current measurements
+		scpi.write(":SENS:FUNC \"CURR\"");
+		scpi.write(":SYST:RSEN ON");
+
+		// Voltage source with current compliance, starting at 0 V
+		scpi.write(":SOUR:FUNC VOLT");
+		scpi.write(":SOUR:VOLT:RANG:AUTO ON");
+		scpi.write(":SOUR:VOLT:ILIM " + config.getCompliance());
+		scpi.write(":SOUR:VOLT:LEV 0");
+
+		// Measurement stability and speed
+		scpi.write(":SENS:CURR:NPLC " + config.getNplc());
+		scpi.write(":SENS:CURR:AZER OFF");
+		scpi.write(":SENS:CURR:AVER OFF");
+		if (config.isAutoCurrentRange()) {
+			scpi.write(":SENS:CURR:RANG:AUTO ON");
+		} else {
+			scpi.write(":SENS:CURR:RANG " + config.getCurrentRange());
+		}
+
+		scpi.write(":OUTP ON");
+		// Wait for the setup to complete; a lost connection or timeout fails the run here
+		scpi.query("*OPC?");
+	}
+
+	private void measure(ScpiConnection scpi, MeasurementConfig config, SampleConsumer samples) throws IOException {
+		VoltageSequence sequence = config.getSequence();
+		ClockReconciler reconciler = new ClockReconciler();
+		clock = reconciler;
+		scheduler.reset();
+		boolean timestamps = true;
+		String read = ":READ? \"" + BUFFER_NAME + "\", READ, REL";
+		scpi.write(":TRAC:CLE \"" + BUFFER_NAME + "\"");	// restarts the relative timestamps
+		long t0 = System.nanoTime();
+
+		for (int k = 0; k < sequence.size() && !stopRequested; k++) {
+			VoltageSequence.Stage stage = sequence.get(k);
+			double voltage = stage.getVoltage();
+			long interval = (long) (sampleInterval(config, stage) * 1e9);
+			// Deadlines are offsets from t0, so time spent reading never delays the next stage
+			long stageStart = t0 + (long) (sequence.getStart(k) * 1e9);
+			long end = t0 + (long) (sequence.getEnd(k) * 1e9);
+			long nextSample = stageStart;
+
+			scpi.write(":SOUR:VOLT:LEV " + voltage);
+			samples.stageStarted(k, sequence.getStart(k));
+			while (System.nanoTime() < end && !stopRequested) {
+				scheduler.started(nextSample, interval);
+				long sent = System.nanoTime();
+				int values = scpi.queryValues(timestamps ? read : ":READ?");
+				long received = System.nanoTime();
+				double current = scpi.value(0);
+				double hostTime = ((sent - t0) + (received - t0)) / 2e9;
+				double time = hostTime;
+				if (timestamps && values >= 2) {
+					time = reconciler.update(scpi.value(1), hostTime, (received - sent) / 1e9);
+				} else {
+					timestamps = false;	// host time only from now on
+				}
+				double resistance = Math.abs(voltage) > 1e-6 && Math.abs(current) > 1e-12
+						? Math.abs(voltage / current) : Double.NaN;
+				samples.accept(time, voltage, current, resistance);
+
+				// wait for the next sample, or the end of the stage
+				nextSample += interval;
+				scheduler.awaitDeadline(Math.min(nextSample, end), () -> stopRequested);
+			}
+		}
+	}
+
+	private void measureBuffered(ScpiConnection scpi, MeasurementConfig config, SampleConsumer samples)
+			throws IOException {
+		String buffer = "\"" + BUFFER_NAME + "\"";
+
+		scpi.write(":TRAC:POIN " + BUFFER_CAPACITY + ", " + buffer);
+		// The instrument may limit the size; wrap-around follows the real capacity
+		int capacity = (int) scpi.queryDouble(":TRAC:POIN? " + buffer);
+		scpi.write(":TRAC:CLE " + buffer);
+		sequence = config.getSequence();
+		readings = 0;
+		stage = 0;
+		lastReadingTime = Double.NaN;
+		if (sequence.size() == 1) {
+			// the interval less the integration time, as for a sequence; AUTO gets no delay at all
+			double delay = triggerDelay(config, sampleInterval(config));
+			scpi.write(":TRIG:LOAD \"DurationLoop\", " + config.getTime() + ", " + delay + ", " + buffer);
+			scpi.write(":SOUR:VOLT:LEV " + config.getVoltage());
+			stageEnds = new long[] { Long.MAX_VALUE };
+		} else {
+			stageEnds = loadSequence(scpi, config, buffer);
+		}
+		samples.stageStarted(0, 0.0);
+		scpi.write(":INIT");
+
+		int lastEnd = 0;	// buffer position of the last reading handed on
+		boolean running = true;
+		while (running) {
+			long pollStart = System.nanoTime();
+			// State first: once idle, the end index read next includes the last reading
+			running = !scpi.query(":TRIG:STAT?").startsWith("IDLE");
+			if (stopRequested && running) {
+				scpi.write(":ABOR");
+				running = false;
+			}
+			int end = (int) scpi.queryDouble(":TRAC:ACT:END? " + buffer);
+			if (end > 0 && lastEnd > 0 && readingTime(scpi, buffer, lastEnd) != lastReadingTime) {
+				fetchLapped(scpi, buffer, end, capacity, samples);
+			} else if (end > 0 && end != lastEnd) {
+				int from = lastEnd % capacity + 1;
+				if (end < from) {	// wrapped
+					fetch(scpi, buffer, from, capacity, samples);
+					from = 1;
+				}
+				fetch(scpi, buffer, from, end, samples);
+			}
+			lastEnd = end;
+			long wait;
+			while (running && (wait = pollStart + POLL_INTERVAL_NANOS - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(wait);
+			}
+		}
+	}
+
+	/*
+	 * The reading handed on last was overwritten, so the instrument has written a
+	 * whole buffer or more since the last poll. The oldest quarter of what is left
+	 * is being overwritten while we fetch, so only the newer readings are fetched;
+	 * the ones in between are counted as dropped, by the instrument's timestamps.
+	 */
+	private void fetchLapped(ScpiConnection scpi, String buffer, int end, int capacity, SampleConsumer samples)
+			throws IOException {
+		int count = capacity - capacity / 4;
+		int from = Math.floorMod(end - count, capacity) + 1;
+		double first = readingTime(scpi, buffer, from);
+		double period = (readingTime(scpi, buffer, end) - first) / (count - 1);
+		long lost = Math.max(0, Math.round((first - lastReadingTime) / period) - 1);
+		dropped += lost;
+		readings += lost;
+		if (from > end) {
+			fetch(scpi, buffer, from, capacity, samples);
+			from = 1;
+		}
+		fetch(scpi, buffer, from, end, samples);
+	}
+
+	private static double readingTime(ScpiConnection scpi, String buffer, int position) throws IOException {
+		if (scpi.queryValues(":TRAC:DATA? " + position + ", " + position + ", " + buffer + ", READ, REL") != 2) {
+			throw new IOException("Expected one reading at buffer position " + position);
+		}
+		return scpi.value(1);
+	}
+
+	/*
+	 * Trigger model for a sequence: per stage, recall the stage's source level,
+	 * then loop delay + one reading for the stage's share of readings. The delay
+	 * is the sample interval less the integration time, so the readings of a
+	 * stage take about its duration on the instrument's clock.
+	 */
+	private long[] loadSequence(ScpiConnection scpi, MeasurementConfig config, String buffer) throws IOException {
+		String list = "\"" + SEQUENCE_LIST + "\"";
+		scpi.write(":SOUR:CONF:LIST:CRE " + list);
+		for (VoltageSequence.Stage s : sequence.getStages()) {
+			scpi.write(":SOUR:VOLT:LEV " + s.getVoltage());
+			scpi.write(":SOUR:CONF:LIST:STOR " + list);
+		}
+		scpi.write(":SOUR:VOLT:LEV 0");
+
+		long[] ends = new long[sequence.size()];
+		long total = 0;
+		scpi.write(":TRIG:LOAD \"Empty\"");
+		for (int k = 0; k < sequence.size(); k++) {
+			VoltageSequence.Stage s = sequence.get(k);
+			double interval = sampleInterval(config, s);
+			long count = Math.max(1, Math.round(s.getDuration() / interval));
+			double delay = triggerDelay(config, interval);
+			int block = 4 * k + 1;
+			scpi.write(":TRIG:BLOC:CONF:REC " + block + ", " + list + ", " + (k + 1));
+			scpi.write(":TRIG:BLOC:DEL:CONS " + (block + 1) + ", " + delay);
+			scpi.write(":TRIG:BLOC:MEAS " + (block + 2) + ", " + buffer);
+			scpi.write(":TRIG:BLOC:BRAN:COUN " + (block + 3) + ", " + count + ", " + (block + 1));
+			total += count;
+			ends[k] = total;
+		}
+		return ends;
+	}
+
+	// Fetches buffer indices [from, to] in blocks and hands each block to the consumer,
+	// split where a new stage starts
+	private void fetch(ScpiConnection scpi, String buffer, int from, int to, SampleConsumer samples)
+			throws IOException {
+		for (int start = from; start <= to; start += FETCH_BLOCK) {
+			int end = Math.min(to, start + FETCH_BLOCK - 1);
+			int values = scpi.queryValues(":TRAC:DATA? " + start + ", " + end + ", " + buffer + ", READ, REL");
+			int count = values / 2;
+			if (count != end - start + 1 || values % 2 != 0) {
+				throw new IOException("Expected " + (end - start + 1) + " readings from the buffer, got "
+						+ values + " values");
+			}
+			int filled = 0;
+			double voltage = sequence.get(stage).getVoltage();
+			for (int n = 0; n < count; n++) {
+				// Dropped readings may have skipped past a stage end
+				while (stage + 1 < stageEnds.length && readings >= stageEnds[stage]) {
+					if (filled > 0) {
+						samples.acceptBlock(blockTime, blockVoltage, blockCurrent, blockResistance, filled);
+						filled = 0;
+					}
+					stage++;
+					voltage = sequence.get(stage).getVoltage();
+					samples.stageStarted(stage, scpi.value(2 * n + 1));
+				}
+				double current = scpi.value(2 * n);
+				blockTime[filled] = scpi.value(2 * n + 1);
+				blockVoltage[filled] = voltage;
+				blockCurrent[filled] = current;
+				blockResistance[filled] = Math.abs(voltage) > 1e-6 && Math.abs(current) > 1e-12
+						? Math.abs(voltage / current) : Double.NaN;
+				filled++;
+				readings++;
+			}
+			lastReadingTime = blockTime[filled - 1];
+			if (filled > 0) {
+				samples.acceptBlock(blockTime, blockVoltage, blockCurrent, blockResistance, filled);
+			}
+		}
+	}
+
+	static double sampleInterval(MeasurementConfig config) {
+		return config.isAutoSampleInterval() ? config.getNplc() / MAINS_FREQUENCY : config.getSampleInterval();
+	}
+
+	/** The trigger model delay for a sample interval: the part the integration does not already take. */
+	static double triggerDelay(MeasurementConfig config, double interval) {
+		return Math.max(0, interval - config.getNplc() / MAINS_FREQUENCY);
+	}
+
+	/** A stage's sample interval; AUTO is one integration time of the run's NPLC. */
+	static double sampleInterval(MeasurementConfig config, VoltageSequence.Stage stage) {
+		return stage.isAutoSampleInterval() ? config.getNplc() / MAINS_FREQUENCY : stage.getSampleInterval();
+	}
+
+	@Override
+	public void close() {
+		stopRun();
+		Thread t = runThread;
+		if (t != null) {
+			try {
+				t.join(TimeUnit.SECONDS.toMillis(10));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		disconnect();
+	}
+}
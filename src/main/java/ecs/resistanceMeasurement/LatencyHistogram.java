@@ -0,0 +1,93 @@
+package ecs.resistanceMeasurement;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-memory histogram of durations for percentile reporting. Buckets grow
+ * geometrically by 1% from 1 µs, so percentiles are accurate to about 1% over
+ * the whole range (up to ~20 minutes) without keeping the individual values.
+ */
+public class LatencyHistogram {
+
+	private static final double MIN_NANOS = 1000;
+	private static final double LOG_RATIO = Math.log(1.01);
+	private static final int BUCKETS = 2800;
+
+	private final long[] counts = new long[BUCKETS];
+	private long count;
+	private long maxNanos;
+	private double sumNanos;
+
+	public synchronized void record(long nanos) {
+		counts[bucketOf(nanos)]++;
+		count++;
+		sumNanos += nanos;
+		if (nanos > maxNanos) {
+			maxNanos = nanos;
+		}
+	}
+
+	/** Records the same duration for several events at once. */
+	public synchronized void record(long nanos, long events) {
+		if (events <= 0) {
+			return;
+		}
+		counts[bucketOf(nanos)] += events;
+		count += events;
+		sumNanos += (double) nanos * events;
+		if (nanos > maxNanos) {
+			maxNanos = nanos;
+		}
+	}
+
+	private static int bucketOf(long nanos) {
+		if (nanos <= MIN_NANOS) {
+			return 0;
+		}
+		int bucket = 1 + (int) (Math.log(nanos / MIN_NANOS) / LOG_RATIO);
+		return Math.min(bucket, BUCKETS - 1);
+	}
+
+	// Upper bound of a bucket
+	private static double bucketNanos(int bucket) {
+		return MIN_NANOS * Math.exp(bucket * LOG_RATIO);
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * @param percentile 0-100
+	 * @return the duration at that percentile in milliseconds, NaN if empty
+	 */
+	public synchronized double getPercentileMillis(double percentile) {
+		if (count == 0) {
+			return Double.NaN;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+		long seen = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			seen += counts[b];
+			if (seen >= rank) {
+				return Math.min(bucketNanos(b), maxNanos) / 1e6;
+			}
+		}
+		return maxNanos / 1e6;
+	}
+
+	public synchronized double getMeanMillis() {
+		return count == 0 ? Double.NaN : sumNanos / count / 1e6;
+	}
+
+	public synchronized double getMaxMillis() {
+		return count == 0 ? Double.NaN : maxNanos / 1e6;
+	}
+
+	public synchronized void reset() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		maxNanos = 0;
+		sumNanos = 0;
+	}
+}
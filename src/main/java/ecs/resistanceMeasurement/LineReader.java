@@ -0,0 +1,105 @@
+package ecs.resistanceMeasurement;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Splits a byte stream into lines without creating a String per line.
+ * After {@link #next()} returns true the current line is available as the
+ * byte range [{@link #start()}, {@link #end()}) of {@link #buffer()}, with the
+ * line terminator (LF or CRLF) excluded. The range is only valid until the next call.
+ */
+public class LineReader {
+
+	private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private final InputStream in;
+	private byte[] buf;
+	private int lineStart;
+	private int lineEnd;
+	private int scan;	// start of unread bytes
+	private int limit;	// end of valid bytes
+	private boolean eof;
+
+	public LineReader(InputStream in) {
+		this(in, DEFAULT_BUFFER_SIZE);
+	}
+
+	public LineReader(InputStream in, int bufferSize) {
+		this.in = in;
+		this.buf = new byte[bufferSize];
+	}
+
+	/**
+	 * Advances to the next line.
+	 * @return false at end of stream
+	 */
+	public boolean next() throws IOException {
+		int searchFrom = scan;
+		while (true) {
+			for (int p = searchFrom; p < limit; p++) {
+				if (buf[p] == '\n') {
+					setLine(scan, p);
+					scan = p + 1;
+					return true;
+				}
+			}
+			if (eof) {
+				if (scan < limit) {
+					setLine(scan, limit);	// last line without terminator
+					scan = limit;
+					return true;
+				}
+				return false;
+			}
+			int scanned = limit - scan;	// already searched, no newline there
+			fill();
+			searchFrom = scanned;
+		}
+	}
+
+	// Compacts unread bytes to the front (growing for very long lines) and reads more
+	private void fill() throws IOException {
+		int pending = limit - scan;
+		if (scan > 0) {
+			System.arraycopy(buf, scan, buf, 0, pending);
+		} else if (pending == buf.length) {
+			byte[] bigger = new byte[buf.length * 2];
+			System.arraycopy(buf, 0, bigger, 0, pending);
+			buf = bigger;
+		}
+		scan = 0;
+		limit = pending;
+		int n = in.read(buf, limit, buf.length - limit);
+		if (n < 0) {
+			eof = true;
+		} else {
+			limit += n;
+		}
+	}
+
+	private void setLine(int from, int newline) {
+		lineStart = from;
+		lineEnd = (newline > from && buf[newline - 1] == '\r') ? newline - 1 : newline;
+	}
+
+	public byte[] buffer() {
+		return buf;
+	}
+
+	public int start() {
+		return lineStart;
+	}
+
+	public int end() {
+		return lineEnd;
+	}
+
+	/**
+	 * Decodes the current line. Allocates, so only use it for non-sample lines.
+	 */
+	public String lineAsString(Charset charset) {
+		return new String(buf, lineStart, lineEnd - lineStart, charset);
+	}
+}
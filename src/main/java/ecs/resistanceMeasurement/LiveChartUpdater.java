@@ -0,0 +1,212 @@
+package ecs.resistanceMeasurement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.Timer;
+
+/**
+ * Moves samples from the reader threads to the chart at a capped frame rate.
+ * Each run (e.g. one per instrument) feeds its own {@link Source}: the reader
+ * thread only fills that source's {@link SampleBuffer}, so concurrent runs never
+ * contend with each other. A Swing timer drains the sources into their
+ * {@link SampleStore}s and fires one dataset change event per frame, so the chart
+ * redraws once per frame instead of once per sample.
+ *
+ * The samples moved per frame are capped, and the cap is shared fairly between
+ * the sources: each gets an equal part, and what a quiet source leaves over goes
+ * to the others. A fast source that cannot be drawn in time fills its own buffer
+ * and slows down only its own reader.
+ */
+public class LiveChartUpdater {
+
+	public static final int DEFAULT_REFRESH_RATE = 20;		// frames per second
+	public static final int DEFAULT_BUFFER_CAPACITY = 65536;	// samples
+	public static final int DEFAULT_FRAME_BUDGET = 262144;		// samples moved per frame
+
+	/** One run's samples on their way to the chart. */
+	public static final class Source {
+		private final SampleBuffer buffer;
+		private final SampleStore store;
+		private PipelineMetrics metrics;	// EDT only
+		private int pending;				// backlog when the frame started (EDT only)
+
+		Source(SampleStore store, int bufferCapacity) {
+			this.store = store;
+			this.buffer = new SampleBuffer(bufferCapacity);
+		}
+
+		/**
+		 * Called from the reader thread for every parsed sample.
+		 */
+		public void offer(double absTime, double voltage, double current, double resistance)
+				throws InterruptedException {
+			buffer.put(absTime, voltage, current, resistance);
+		}
+
+		/**
+		 * Called from the reader thread for a block of samples.
+		 */
+		public void offerBlock(double[] absTime, double[] voltage, double[] current, double[] resistance, int count)
+				throws InterruptedException {
+			buffer.putBlock(absTime, voltage, current, resistance, count);
+		}
+
+		/**
+		 * Reports every frame's samples to the metrics. Must be called on the EDT.
+		 */
+		public void setMetrics(PipelineMetrics metrics) {
+			this.metrics = metrics;
+		}
+
+		public SampleStore getStore() {
+			return store;
+		}
+
+		/** Samples waiting for the next frame. */
+		public int getBacklog() {
+			return buffer.size();
+		}
+
+		public int getBacklogCapacity() {
+			return buffer.capacity();
+		}
+
+		private int drain(int max) {
+			int before = store.size();
+			int added = buffer.drainTo(store, max);
+			if (added > 0 && metrics != null) {
+				metrics.framePrepared(store, before, before + added);
+			}
+			return added;
+		}
+	}
+
+	private final SampleStoreDataset dataset;
+	private final Timer timer;
+	private final List<Source> sources = new ArrayList<>();	// EDT only
+	private final List<Source> byBacklog = new ArrayList<>();	// per frame, smallest backlog first
+	private final Source single;
+	private int frameBudget = DEFAULT_FRAME_BUDGET;
+
+	/**
+	 * Updater for any number of sources, added with {@link #addSource}.
+	 */
+	public LiveChartUpdater(SampleStoreDataset dataset, int refreshRate) {
+		if (refreshRate <= 0) {
+			throw new IllegalArgumentException("Refresh rate must be positive: " + refreshRate);
+		}
+		this.dataset = dataset;
+		this.single = null;
+		this.timer = new Timer(Math.max(1, 1000 / refreshRate), e -> flush());
+		this.timer.setCoalesce(true);
+	}
+
+	/**
+	 * Updater for a single run; {@link #offer} and {@link #offerBlock} feed it.
+	 */
+	public LiveChartUpdater(SampleStoreDataset dataset, SampleStore targetStore, int refreshRate, int bufferCapacity) {
+		if (refreshRate <= 0) {
+			throw new IllegalArgumentException("Refresh rate must be positive: " + refreshRate);
+		}
+		this.dataset = dataset;
+		this.single = new Source(targetStore, bufferCapacity);
+		this.sources.add(single);
+		this.timer = new Timer(Math.max(1, 1000 / refreshRate), e -> flush());
+		this.timer.setCoalesce(true);
+	}
+
+	/**
+	 * Adds a run drawn into the given store. Must be called on the EDT.
+	 */
+	public Source addSource(SampleStore store, int bufferCapacity) {
+		Source source = new Source(store, bufferCapacity);
+		sources.add(source);
+		return source;
+	}
+
+	/**
+	 * Samples moved to the chart per frame, shared by all sources. Must be called on the EDT.
+	 */
+	public void setFrameBudget(int samples) {
+		if (samples <= 0) {
+			throw new IllegalArgumentException("Frame budget must be positive: " + samples);
+		}
+		this.frameBudget = samples;
+	}
+
+	/**
+	 * Called from the reader thread for every parsed sample (single-run updater).
+	 */
+	public void offer(double absTime, double voltage, double current, double resistance) throws InterruptedException {
+		single.offer(absTime, voltage, current, resistance);
+	}
+
+	/**
+	 * Called from the reader thread for a block of samples (single-run updater).
+	 */
+	public void offerBlock(double[] absTime, double[] voltage, double[] current, double[] resistance, int count)
+			throws InterruptedException {
+		single.offerBlock(absTime, voltage, current, resistance, count);
+	}
+
+	/**
+	 * Reports every frame's samples to the metrics (single-run updater). Must be called on the EDT.
+	 */
+	public void setMetrics(PipelineMetrics metrics) {
+		single.setMetrics(metrics);
+	}
+
+	/** The single run's source, null for a multi-source updater. */
+	public Source getSource() {
+		return single;
+	}
+
+	/** Samples waiting for the next frame, over all sources. */
+	public int getBacklog() {
+		int backlog = 0;
+		for (Source source : sources) {
+			backlog += source.getBacklog();
+		}
+		return backlog;
+	}
+
+	// Must be called on the EDT
+	public void start() {
+		timer.start();
+	}
+
+	/**
+	 * Stops the timer and draws whatever is still buffered. Must be called on the EDT.
+	 */
+	public void stop() {
+		timer.stop();
+		while (flush()) {
+			// until every source is empty
+		}
+	}
+
+	// One frame, on the timer. Returns true if the budget was used up, i.e. samples may be left
+	boolean flush() {
+		int count = sources.size();
+		if (count == 0) {
+			return false;
+		}
+		byBacklog.clear();
+		for (Source source : sources) {
+			source.pending = source.getBacklog();
+			byBacklog.add(source);
+		}
+		byBacklog.sort((a, b) -> Integer.compare(a.pending, b.pending));
+		int budget = frameBudget;
+		int moved = 0;
+		for (int k = 0; k < count; k++) {
+			// Equal part of what is left; a quiet source leaves more for the busier ones after it
+			moved += byBacklog.get(k).drain(Math.max(1, (budget - moved) / (count - k)));
+		}
+		if (moved > 0) {
+			dataset.storesChanged();
+		}
+		return moved >= budget;
+	}
+}
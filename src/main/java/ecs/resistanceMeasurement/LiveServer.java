@@ -0,0 +1,632 @@
+package ecs.resistanceMeasurement;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded HTTP server for watching runs from other machines, in a browser or
+ * with curl, instead of over remote desktop on the lab PC. Built on the JDK's
+ * {@code com.sun.net.httpserver}:
+ * <ul>
+ * <li>{@code GET /} a page plotting the resistance of the runs</li>
+ * <li>{@code GET /runs} the runs and their metadata as JSON</li>
+ * <li>{@code GET /stream[?run=label]} the runs as Server-Sent Events</li>
+ * </ul>
+ * A new stream first gets each run's metadata ({@code run}) and its resistance
+ * so far, as at most {@link #HISTORY_BUCKETS} min/max buckets ({@code history}).
+ * Then come the new samples in batches every {@link #BATCH_MILLIS} ms
+ * ({@code samples}), the stage changes ({@code stage}) and the end of each run
+ * ({@code end}). In each number array the first value is absolute and every
+ * later one the difference to the one before, to 10 significant digits; a null
+ * is a missing value and leaves the running sum unchanged.
+ *
+ * Each client has its own bounded buffer, filled by the publishing thread and
+ * emptied by a thread of the client's own: a slow or stalled viewer loses its
+ * oldest samples (reported as {@code skipped}) and never holds up the run.
+ */
+public class LiveServer implements Closeable {
+
+	public static final int DEFAULT_PORT = 8765;
+	static final int HISTORY_BUCKETS = 2048;
+	static final int CLIENT_CAPACITY = 65536;	// samples buffered per client
+	static final long BATCH_MILLIS = 200;
+	private static final long HEARTBEAT_MILLIS = 15000;
+	private static final int MAX_EVENTS = 1024;	// stage and end events buffered per client
+	private static final int DIGITS = 10;	// significant digits of the differences
+
+	/** One run as it is published: takes its samples, then {@link #finish}. */
+	public final class Feed implements SampleConsumer {
+		private final String label;
+		private final Map<String, String> metadata;
+		private final History history = new History(HISTORY_BUCKETS);
+		private final List<Client> clients = new CopyOnWriteArrayList<>();
+		private volatile long samples;
+		private volatile boolean finished;
+		private volatile String error;
+
+		private Feed(String label, Map<String, String> metadata) {
+			this.label = label;
+			this.metadata = metadata;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+
+		public long getSamples() {
+			return samples;
+		}
+
+		public boolean isFinished() {
+			return finished;
+		}
+
+		// The history and the clients change together, so a new client gets every sample once
+		@Override
+		public synchronized void accept(double absTime, double voltage, double current, double resistance) {
+			history.add(absTime, resistance);
+			samples++;
+			for (Client client : clients) {
+				client.put(this, absTime, voltage, current, resistance);
+			}
+		}
+
+		@Override
+		public synchronized void acceptBlock(double[] absTime, double[] voltage, double[] current,
+				double[] resistance, int count) {
+			for (int n = 0; n < count; n++) {
+				history.add(absTime[n], resistance[n]);
+			}
+			samples += count;
+			for (Client client : clients) {
+				for (int n = 0; n < count; n++) {
+					client.put(this, absTime[n], voltage[n], current[n], resistance[n]);
+				}
+			}
+		}
+
+		@Override
+		public synchronized void stageStarted(int stage, double absTime) {
+			String data = "{\"run\":" + quote(label) + ",\"stage\":" + stage + ",\"t\":" + number(absTime) + "}";
+			for (Client client : clients) {
+				client.event("stage", data);
+			}
+		}
+
+		/** Ends the run for the viewers. @param error null when it ended normally */
+		public synchronized void finish(String error) {
+			this.error = error;
+			finished = true;
+			for (Client client : clients) {
+				client.event("end", endJson());
+			}
+		}
+
+		private String endJson() {
+			return "{\"run\":" + quote(label) + ",\"samples\":" + samples + ",\"error\":" + quote(error) + "}";
+		}
+
+		private String json() {
+			StringBuilder text = new StringBuilder("{\"run\":").append(quote(label)).append(",\"metadata\":{");
+			boolean first = true;
+			for (Map.Entry<String, String> e : metadata.entrySet()) {
+				text.append(first ? "" : ",").append(quote(e.getKey())).append(':').append(quote(e.getValue()));
+				first = false;
+			}
+			return text.append("},\"samples\":").append(samples).append(",\"finished\":").append(finished)
+					.append(",\"error\":").append(quote(error)).append('}').toString();
+		}
+
+		// Adds the client and returns what it has to be told first
+		private synchronized String subscribe(Client client) {
+			clients.add(client);
+			StringBuilder text = new StringBuilder();
+			sse(text, "run", json());
+			if (history.buckets > 0) {
+				sse(text, "history", history.json(label));
+			}
+			if (finished) {
+				sse(text, "end", endJson());
+			}
+			return text.toString();
+		}
+	}
+
+	/**
+	 * The resistance of a run as min/max buckets of equally many samples; when
+	 * all are in use, neighbours are merged and each bucket takes twice as many.
+	 */
+	static final class History {
+		private final double[] time;
+		private final double[] min;
+		private final double[] max;
+		private int buckets;
+		private int perBucket = 1;
+		private int filled;	// samples in the last bucket
+
+		History(int capacity) {
+			time = new double[capacity];
+			min = new double[capacity];
+			max = new double[capacity];
+		}
+
+		void add(double t, double r) {
+			if (buckets > 0 && filled < perBucket) {
+				min[buckets - 1] = lower(min[buckets - 1], r);
+				max[buckets - 1] = -lower(-max[buckets - 1], -r);
+				filled++;
+				return;
+			}
+			if (buckets == time.length) {
+				for (int k = 0; k < buckets / 2; k++) {
+					time[k] = time[2 * k];
+					min[k] = lower(min[2 * k], min[2 * k + 1]);
+					max[k] = -lower(-max[2 * k], -max[2 * k + 1]);
+				}
+				buckets /= 2;
+				perBucket *= 2;
+			}
+			time[buckets] = t;
+			min[buckets] = r;
+			max[buckets] = r;
+			buckets++;
+			filled = 1;
+		}
+
+		private static double lower(double a, double b) {
+			return Double.isNaN(a) ? b : Double.isNaN(b) ? a : Math.min(a, b);
+		}
+
+		int getBuckets() {
+			return buckets;
+		}
+
+		String json(String label) {
+			StringBuilder text = new StringBuilder("{\"run\":").append(quote(label))
+					.append(",\"per\":").append(perBucket).append(",\"t\":");
+			deltas(text, time, 0, buckets);
+			text.append(",\"min\":");
+			deltas(text, min, 0, buckets);
+			text.append(",\"max\":");
+			deltas(text, max, 0, buckets);
+			return text.append('}').toString();
+		}
+	}
+
+	/** One stream: a ring of samples from any of the feeds, and the events between them. */
+	final class Client {
+		private final String run;
+		private final Feed[] feeds;
+		private final double[] time;
+		private final double[] voltage;
+		private final double[] current;
+		private final double[] resistance;
+		private final Deque<Object[]> events = new ArrayDeque<>();	// {sequence, name, data}
+
+		// Guarded by this
+		private long written;	// sequence number of the next sample
+		private int size;
+		private long skipped;	// since the last batch
+		private boolean closed;
+
+		private volatile long dropped;	// written under the lock
+
+		Client(String run, int capacity) {
+			this.run = run;
+			feeds = new Feed[capacity];
+			time = new double[capacity];
+			voltage = new double[capacity];
+			current = new double[capacity];
+			resistance = new double[capacity];
+		}
+
+		boolean wants(Feed feed) {
+			return run == null || run.equals(feed.label);
+		}
+
+		/** Samples this client never got because it fell behind. */
+		long getDropped() {
+			return dropped;
+		}
+
+		// ---------------- publishing thread ---------------- //
+
+		private synchronized void put(Feed feed, double t, double v, double i, double r) {
+			if (closed) {
+				return;
+			}
+			if (size == feeds.length) {
+				size--;
+				skipped++;
+				dropped++;
+			}
+			int index = (int) (written % feeds.length);
+			feeds[index] = feed;
+			time[index] = t;
+			voltage[index] = v;
+			current[index] = i;
+			resistance[index] = r;
+			written++;
+			size++;
+		}
+
+		private synchronized void event(String name, String data) {
+			if (closed) {
+				return;
+			}
+			if (events.size() == MAX_EVENTS) {
+				events.poll();
+			}
+			events.add(new Object[] { written, name, data });
+		}
+
+		synchronized void close() {
+			closed = true;
+			notifyAll();
+		}
+
+		// ---------------- client thread ---------------- //
+
+		/** Writes a batch at a time until the viewer goes away or the server closes. */
+		void run(OutputStream out, String greeting) throws IOException {
+			write(out, greeting);
+			long lastWrite = System.nanoTime();
+			while (true) {
+				String batch = nextBatch();
+				if (batch == null) {
+					return;
+				}
+				if (!batch.isEmpty()) {
+					write(out, batch);
+					lastWrite = System.nanoTime();
+				} else if (System.nanoTime() - lastWrite > HEARTBEAT_MILLIS * 1000000L) {
+					write(out, ": keep-alive\n\n");	// finds out when the viewer has gone
+					lastWrite = System.nanoTime();
+				}
+			}
+		}
+
+		private void write(OutputStream out, String text) throws IOException {
+			out.write(text.getBytes(StandardCharsets.UTF_8));
+			out.flush();
+		}
+
+		// Waits one batch period and formats what arrived; null once closed
+		private String nextBatch() {
+			Feed[] f;
+			double[] t;
+			double[] v;
+			double[] i;
+			double[] r;
+			List<Object[]> batchEvents;
+			long first;
+			long skip;
+			synchronized (this) {
+				try {
+					if (!closed) {
+						wait(BATCH_MILLIS);
+					}
+				} catch (InterruptedException e) {
+					closed = true;
+				}
+				if (closed) {
+					return null;
+				}
+				first = written - size;
+				f = new Feed[size];
+				t = new double[size];
+				v = new double[size];
+				i = new double[size];
+				r = new double[size];
+				for (int n = 0; n < size; n++) {
+					int index = (int) ((first + n) % feeds.length);
+					f[n] = feeds[index];
+					t[n] = time[index];
+					v[n] = voltage[index];
+					i[n] = current[index];
+					r[n] = resistance[index];
+					feeds[index] = null;
+				}
+				size = 0;
+				batchEvents = new ArrayList<>(events);
+				events.clear();
+				skip = skipped;
+				skipped = 0;
+			}
+			// A samples event per stretch of one run, with the events in between where they happened
+			StringBuilder text = new StringBuilder();
+			int from = 0;
+			int event = 0;
+			while (from < f.length || event < batchEvents.size()) {
+				if (event < batchEvents.size() && (long) batchEvents.get(event)[0] <= first + from) {
+					sse(text, (String) batchEvents.get(event)[1], (String) batchEvents.get(event)[2]);
+					event++;
+					continue;
+				}
+				long until = event < batchEvents.size() ? (long) batchEvents.get(event)[0] - first : f.length;
+				int to = from + 1;
+				while (to < Math.min(until, f.length) && f[to] == f[from]) {
+					to++;
+				}
+				StringBuilder data = new StringBuilder("{\"run\":").append(quote(f[from].label));
+				if (skip > 0) {
+					data.append(",\"skipped\":").append(skip);
+					skip = 0;
+				}
+				data.append(",\"t\":");
+				deltas(data, t, from, to);
+				data.append(",\"v\":");
+				deltas(data, v, from, to);
+				data.append(",\"i\":");
+				deltas(data, i, from, to);
+				data.append(",\"r\":");
+				deltas(data, r, from, to);
+				sse(text, "samples", data.append('}').toString());
+				from = to;
+			}
+			return text.toString();
+		}
+	}
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final List<Feed> feeds = new CopyOnWriteArrayList<>();
+	private final List<Client> clients = new CopyOnWriteArrayList<>();
+	private final int clientCapacity;
+
+	/**
+	 * Binds the server; {@link #start} opens it.
+	 * @param address port 0 picks a free one
+	 */
+	public LiveServer(InetSocketAddress address) throws IOException {
+		this(address, CLIENT_CAPACITY);
+	}
+
+	LiveServer(InetSocketAddress address, int clientCapacity) throws IOException {
+		this.clientCapacity = clientCapacity;
+		server = HttpServer.create(address, 0);
+		AtomicInteger threads = new AtomicInteger();
+		executor = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "live-server-" + threads.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public int getClientCount() {
+		return clients.size();
+	}
+
+	List<Client> getClients() {
+		return clients;
+	}
+
+	/**
+	 * Publishes a run; the runs that have finished are dropped, so viewers see the
+	 * runs of the current measurement.
+	 */
+	public synchronized Feed publish(String label, Map<String, String> metadata) {
+		feeds.removeIf(Feed::isFinished);
+		Feed feed = new Feed(label, metadata);
+		feeds.add(feed);
+		for (Client client : clients) {
+			if (client.wants(feed)) {
+				feed.clients.add(client);
+				client.event("run", feed.json());
+			}
+		}
+		return feed;
+	}
+
+	/** Ends every stream and stops the server. */
+	@Override
+	public void close() {
+		for (Client client : clients) {
+			client.close();
+		}
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	// ---------------- HTTP ---------------- //
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			String path = exchange.getRequestURI().getPath();
+			if (!exchange.getRequestMethod().equals("GET")) {
+				respond(exchange, 405, "text/plain", "GET only");
+			} else if (path.equals("/")) {
+				respond(exchange, 200, "text/html", PAGE);
+			} else if (path.equals("/runs")) {
+				StringBuilder text = new StringBuilder("[");
+				for (Feed feed : feeds) {
+					text.append(text.length() > 1 ? "," : "").append(feed.json());
+				}
+				respond(exchange, 200, "application/json", text.append(']').toString());
+			} else if (path.equals("/stream")) {
+				stream(exchange, parameter(exchange, "run"));
+			} else {
+				respond(exchange, 404, "text/plain", "Not found: " + path);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void stream(HttpExchange exchange, String run) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+		exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+		exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+		exchange.sendResponseHeaders(200, 0);
+		Client client = new Client(run, clientCapacity);
+		StringBuilder greeting = new StringBuilder();
+		synchronized (this) {
+			clients.add(client);
+			for (Feed feed : feeds) {
+				if (client.wants(feed)) {
+					greeting.append(feed.subscribe(client));
+				}
+			}
+		}
+		try {
+			client.run(exchange.getResponseBody(), greeting.toString());
+		} catch (IOException e) {
+			// the viewer went away
+		} finally {
+			client.close();
+			clients.remove(client);
+			for (Feed feed : feeds) {
+				feed.clients.remove(client);
+			}
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status, String type, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", type + "; charset=utf-8");
+		exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private static String parameter(HttpExchange exchange, String name) throws IOException {
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query != null) {
+			for (String pair : query.split("&")) {
+				if (pair.startsWith(name + "=")) {
+					return URLDecoder.decode(pair.substring(name.length() + 1), "UTF-8");
+				}
+			}
+		}
+		return null;
+	}
+
+	// ---------------- encoding ---------------- //
+
+	private static void sse(StringBuilder text, String event, String data) {
+		text.append("event: ").append(event).append("\ndata: ").append(data).append("\n\n");
+	}
+
+	/**
+	 * Appends values[from, to) as a JSON array of differences, rounded so they
+	 * print short. The running value is advanced by the rounded difference, as
+	 * the decoder does, so the rounding never accumulates.
+	 */
+	static void deltas(StringBuilder text, double[] values, int from, int to) {
+		text.append('[');
+		double sum = 0;
+		for (int n = from; n < to; n++) {
+			if (n > from) {
+				text.append(',');
+			}
+			if (Double.isNaN(values[n]) || Double.isInfinite(values[n])) {
+				text.append("null");
+			} else {
+				double delta = round(values[n] - sum);
+				sum += delta;
+				text.append(number(delta));
+			}
+		}
+		text.append(']');
+	}
+
+	// To DIGITS significant digits
+	private static double round(double value) {
+		if (value == 0) {
+			return 0;
+		}
+		double scale = Math.pow(10, DIGITS - 1 - Math.floor(Math.log10(Math.abs(value))));
+		double rounded = Math.round(value * scale) / scale;
+		return Double.isInfinite(scale) || Double.isNaN(rounded) ? value : rounded;
+	}
+
+	private static String number(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			return "null";
+		}
+		return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+	}
+
+	static String quote(String value) {
+		if (value == null) {
+			return "null";
+		}
+		StringBuilder text = new StringBuilder("\"");
+		for (char c : value.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				text.append('\\').append(c);
+			} else if (c < 0x20) {
+				text.append(String.format("\\u%04x", (int) c));
+			} else {
+				text.append(c);
+			}
+		}
+		return text.append('"').toString();
+	}
+
+	// The viewer: keeps the decoded runs and redraws them on each batch
+	private static final String PAGE = "<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\">"
+			+ "<title>Resistance Measurement</title>\n<style>body{font-family:sans-serif;margin:1em}"
+			+ "canvas{border:1px solid #ccc;width:100%;height:70vh}#status{color:#666}</style></head>\n"
+			+ "<body><h3 id=\"title\">Resistance Measurement</h3><div id=\"status\">Connecting...</div>"
+			+ "<canvas id=\"plot\"></canvas>\n<script>\n"
+			+ "var runs = {}, colors = ['#d62728','#1f77b4','#2ca02c','#ff7f0e','#9467bd','#8c564b'];\n"
+			+ "function undelta(a) { var s = 0; return a.map(function (d) { if (d === null) return NaN; s += d; return s; }); }\n"
+			+ "function run(name) { return runs[name] || (runs[name] = {t: [], r: [], color: colors[Object.keys(runs).length % colors.length]}); }\n"
+			+ "var source = new EventSource('stream' + location.search);\n"
+			+ "source.onopen = function () { document.getElementById('status').textContent = 'Live'; };\n"
+			+ "source.onerror = function () { document.getElementById('status').textContent = 'Disconnected, retrying...'; };\n"
+			+ "source.addEventListener('run', function (e) { var d = JSON.parse(e.data); run(d.run).meta = d.metadata; draw(); });\n"
+			+ "source.addEventListener('history', function (e) { var d = JSON.parse(e.data), x = run(d.run), t = undelta(d.t),"
+			+ " lo = undelta(d.min), hi = undelta(d.max);\n"
+			+ "  x.t = []; x.r = []; for (var k = 0; k < t.length; k++) { x.t.push(t[k], t[k]); x.r.push(lo[k], hi[k]); } draw(); });\n"
+			+ "source.addEventListener('samples', function (e) { var d = JSON.parse(e.data), x = run(d.run);\n"
+			+ "  x.t = x.t.concat(undelta(d.t)); x.r = x.r.concat(undelta(d.r));\n"
+			+ "  if (x.t.length > 20000) { x.t = x.t.filter(function (v, k) { return k % 2 == 0; }); x.r = x.r.filter(function (v, k) { return k % 2 == 0; }); }\n"
+			+ "  document.getElementById('status').textContent = 'Live: ' + d.run + ' R = ' + x.r[x.r.length - 1].toPrecision(6) + ' Ohm'"
+			+ " + (d.skipped ? ' (' + d.skipped + ' skipped)' : ''); draw(); });\n"
+			+ "source.addEventListener('end', function (e) { var d = JSON.parse(e.data);"
+			+ " document.getElementById('status').textContent = d.run + (d.error ? ' failed: ' + d.error : ' finished'); });\n"
+			+ "function draw() { var c = document.getElementById('plot'), g = c.getContext('2d'); c.width = c.clientWidth; c.height = c.clientHeight;\n"
+			+ "  var t0 = Infinity, t1 = -Infinity, r0 = Infinity, r1 = -Infinity, names = Object.keys(runs);\n"
+			+ "  names.forEach(function (n) { var x = runs[n]; for (var k = 0; k < x.t.length; k++) { if (isNaN(x.r[k])) continue;"
+			+ " t0 = Math.min(t0, x.t[k]); t1 = Math.max(t1, x.t[k]); r0 = Math.min(r0, x.r[k]); r1 = Math.max(r1, x.r[k]); } });\n"
+			+ "  if (!(t1 >= t0)) return; if (t1 == t0) t1 = t0 + 1; if (r1 == r0) { r0 -= 1; r1 += 1; }\n"
+			+ "  var m = 60, w = c.width - 2 * m, h = c.height - 2 * m; g.font = '12px sans-serif';\n"
+			+ "  g.fillText(r1.toPrecision(6) + ' Ohm', 4, m - 8); g.fillText(r0.toPrecision(6) + ' Ohm', 4, m + h + 16);"
+			+ " g.fillText(t1.toFixed(1) + ' s', m + w - 40, m + h + 32);\n"
+			+ "  names.forEach(function (n, j) { var x = runs[n]; g.strokeStyle = g.fillStyle = x.color; g.beginPath(); var pen = false;\n"
+			+ "    for (var k = 0; k < x.t.length; k++) { if (isNaN(x.r[k])) { pen = false; continue; }\n"
+			+ "      var px = m + (x.t[k] - t0) / (t1 - t0) * w, py = m + h - (x.r[k] - r0) / (r1 - r0) * h;"
+			+ " if (pen) g.lineTo(px, py); else g.moveTo(px, py); pen = true; }\n"
+			+ "    g.stroke(); g.fillText(n, m + 10 + 100 * j, 20); }); }\n"
+			+ "window.onresize = draw;\n</script></body></html>\n";
+}
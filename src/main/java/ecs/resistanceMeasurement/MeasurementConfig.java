@@ -0,0 +1,135 @@
+package ecs.resistanceMeasurement;
+
+import java.util.regex.Pattern;
+
+/**
+ * Parameters of one measurement run, as collected by the GUI: a constant-voltage
+ * hold, or a {@link VoltageSequence} of stages. Sample interval and current range
+ * may be {@link #AUTO}.
+ */
+public class MeasurementConfig {
+
+	/** Marker for "AUTO" sample interval / current range. */
+	public static final double AUTO = Double.NaN;
+
+	// Output file names: allowed characters, and the Windows reserved ones
+	static final Pattern VALID_FILENAME = Pattern.compile("^[a-zA-Z0-9._() -]+$");
+	static final Pattern INVALID_FILENAME_CHARS = Pattern.compile("[\\\\/:*?\"<>|]");
+
+	private final double voltage;
+	private final double time;
+	private final double sampleInterval;
+	private final double currentRange;
+	private final double nplc;
+	private final double compliance;
+	private final boolean rearTerminals;
+	private final String folder;
+	private final String filename;
+	private final VoltageSequence sequence;
+
+	public MeasurementConfig(double voltage, double time, double sampleInterval, double currentRange,
+			double nplc, double compliance, boolean rearTerminals, String folder, String filename) {
+		this(voltage, time, sampleInterval, currentRange, nplc, compliance, rearTerminals, folder, filename, null);
+	}
+
+	private MeasurementConfig(double voltage, double time, double sampleInterval, double currentRange,
+			double nplc, double compliance, boolean rearTerminals, String folder, String filename,
+			VoltageSequence sequence) {
+		this.voltage = voltage;
+		this.time = time;
+		this.sampleInterval = sampleInterval;
+		this.currentRange = currentRange;
+		this.nplc = nplc;
+		this.compliance = compliance;
+		this.rearTerminals = rearTerminals;
+		this.folder = folder;
+		this.filename = filename;
+		this.sequence = sequence;
+	}
+
+	/**
+	 * The same parameters running the given stages instead of the constant hold.
+	 * Voltage and sample interval become those of the first stage, the time the
+	 * sequence's total duration.
+	 */
+	public MeasurementConfig withSequence(VoltageSequence sequence) {
+		VoltageSequence.Stage first = sequence.get(0);
+		return new MeasurementConfig(first.getVoltage(), sequence.getDuration(), first.getSampleInterval(),
+				currentRange, nplc, compliance, rearTerminals, folder, filename, sequence);
+	}
+
+	/**
+	 * Parses "AUTO" (any case) or a number.
+	 * @throws NumberFormatException for anything else
+	 */
+	public static double parseAutoOrNumber(String text) {
+		String value = text.trim();
+		return value.equalsIgnoreCase("AUTO") ? AUTO : Double.parseDouble(value);
+	}
+
+	/**
+	 * True for an output file name (without extension) that is safe on Windows.
+	 */
+	public static boolean isValidFilename(String filename) {
+		return VALID_FILENAME.matcher(filename).matches()
+				&& !INVALID_FILENAME_CHARS.matcher(filename).find();
+	}
+
+	public static String formatAutoOrNumber(double value) {
+		return Double.isNaN(value) ? "AUTO" : String.valueOf(value);
+	}
+
+	public double getVoltage() {
+		return voltage;
+	}
+
+	public double getTime() {
+		return time;
+	}
+
+	public double getSampleInterval() {
+		return sampleInterval;
+	}
+
+	public boolean isAutoSampleInterval() {
+		return Double.isNaN(sampleInterval);
+	}
+
+	public double getCurrentRange() {
+		return currentRange;
+	}
+
+	public boolean isAutoCurrentRange() {
+		return Double.isNaN(currentRange);
+	}
+
+	public double getNplc() {
+		return nplc;
+	}
+
+	public double getCompliance() {
+		return compliance;
+	}
+
+	public boolean isRearTerminals() {
+		return rearTerminals;
+	}
+
+	public String getFolder() {
+		return folder;
+	}
+
+	public String getFilename() {
+		return filename;
+	}
+
+	/** The stages to run: the given sequence, or the constant hold as a single stage. */
+	public VoltageSequence getSequence() {
+		return sequence != null ? sequence : VoltageSequence.constant(voltage, time, sampleInterval);
+	}
+
+	/** True if the run has more than the constant hold. */
+	public boolean isSequence() {
+		return sequence != null && sequence.size() > 1;
+	}
+}
@@ -0,0 +1,246 @@
+package ecs.resistanceMeasurement;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * One instrument's measurement within a (possibly multi-instrument) run: its
+ * engine, parameters, output file, chart series and metrics. Each session has its
+ * own acquisition thread and its own path to the chart, so sessions run
+ * concurrently without sharing locks on the sample path.
+ *
+ * The acquisition thread only counts the samples and hands them to a
+ * {@link SamplePipeline}: the file writer and the analytics each take every
+ * sample on a thread of their own, and the chart is decimated when it cannot
+ * keep up, so a slow chart never holds up the file. A {@link LiveServer} feed,
+ * when set, is one more sink that drops its oldest samples when behind. When
+ * auto-stop triggers are set, the analytics take the samples on the acquisition
+ * thread instead, ahead of the sinks, so a trigger stops the run at the sample
+ * that fired it rather than a queue's length later.
+ */
+public class MeasurementSession {
+
+	/** Name of the lossy sink that feeds the chart, in {@link #getPipeline()}. */
+	public static final String CHART_SINK = "chart";
+
+	/** Called on the EDT when the session's run has ended and its file is closed. */
+	public interface Listener {
+		void sessionFinished(MeasurementSession session, String error, String saveError);
+	}
+
+	private final String label;
+	private final AcquisitionEngine engine;
+	private final MeasurementConfig config;
+	private final PipelineMetrics metrics = new PipelineMetrics();
+	private StreamingAnalytics analytics = new StreamingAnalytics();
+	private RunWriter writer;
+	private ConsoleLog console;
+	private LiveChartUpdater.Source source;
+	private SamplePipeline pipeline;
+	private LiveServer.Feed liveFeed;
+	private volatile boolean running;
+
+	public MeasurementSession(String label, AcquisitionEngine engine, MeasurementConfig config) {
+		this.label = label;
+		this.engine = engine;
+		this.config = config;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	public AcquisitionEngine getEngine() {
+		return engine;
+	}
+
+	public MeasurementConfig getConfig() {
+		return config;
+	}
+
+	public PipelineMetrics getMetrics() {
+		return metrics;
+	}
+
+	public StreamingAnalytics getAnalytics() {
+		return analytics;
+	}
+
+	/**
+	 * Sets the analytics window and the triggers that stop this session's run, in
+	 * place of the defaults (no triggers). Must be called before {@link #start}.
+	 */
+	public void configureAnalytics(double windowSeconds, List<StreamingAnalytics.Trigger> triggers) {
+		analytics = new StreamingAnalytics(windowSeconds, triggers, this::triggerFired);
+	}
+
+	// On the ingest thread: the same stop as the Stop button, before the next sample
+	private void triggerFired(StreamingAnalytics.Trigger trigger, double absTime, double value) {
+		console.append(String.format("[%s] Auto-stop: %s at t = %.3f s (%.6g)", label, trigger, absTime, value));
+		try {
+			stop();
+		} catch (IOException e) {
+			console.append("[" + label + "] Stopping failed: " + e.getMessage());
+		}
+	}
+
+	/** The output file writer, null before the session was started. */
+	public RunWriter getWriter() {
+		return writer;
+	}
+
+	public LiveChartUpdater.Source getSource() {
+		return source;
+	}
+
+	/** The sinks of the current or last run, with their backlog and losses. */
+	public SamplePipeline getPipeline() {
+		return pipeline;
+	}
+
+	/**
+	 * Streams the run to the viewers of a {@link LiveServer}, which is told when it
+	 * ends. Must be called before {@link #start}.
+	 */
+	public void setLiveFeed(LiveServer.Feed feed) {
+		liveFeed = feed;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Starts the run: samples go to the analytics, the writer, the chart source and
+	 * the console summary. The engine is started on its own thread. Must be called
+	 * on the EDT.
+	 */
+	public void start(RunWriter writer, LiveChartUpdater.Source source, ConsoleLog console, Listener listener) {
+		this.writer = writer;
+		this.source = source;
+		this.console = console;
+		running = true;
+		source.setMetrics(metrics);
+		metrics.startRun(Keithley2450Engine.sampleInterval(config), engine, source);
+
+		// Lossless sinks block ingest when full; the chart is thinned out instead
+		SamplePipeline sinks = new SamplePipeline("session-" + label);
+		SamplePipeline.Sink persistence = sinks.addSink("file", writer, SamplePipeline.DEFAULT_CAPACITY,
+				SamplePipeline.Policy.BLOCK);
+		StreamingAnalytics inline = analytics.getTriggers().isEmpty() ? null : analytics;
+		if (inline == null) {
+			sinks.addSink("analytics", analytics, SamplePipeline.DEFAULT_CAPACITY, SamplePipeline.Policy.BLOCK);
+		}
+		sinks.addSink(CHART_SINK, new SampleConsumer() {
+			@Override
+			public void accept(double absTime, double v, double i, double r) {
+				try {
+					// Batched: drawn by the chart updater on its next frame
+					source.offer(absTime, v, i, r);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			@Override
+			public void acceptBlock(double[] absTime, double[] v, double[] i, double[] r, int count) {
+				try {
+					source.offerBlock(absTime, v, i, r, count);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, SamplePipeline.DEFAULT_CAPACITY, SamplePipeline.Policy.DECIMATE);
+		LiveServer.Feed live = liveFeed;
+		if (live != null) {
+			sinks.addSink("live", live, SamplePipeline.DEFAULT_CAPACITY, SamplePipeline.Policy.DROP_OLDEST);
+		}
+		pipeline = sinks;
+		metrics.setPipeline(sinks);
+		sinks.start();
+
+		SampleConsumer samples = new SampleConsumer() {
+			@Override
+			public void accept(double absTime, double v, double i, double r) {
+				metrics.sampleArrived(absTime);
+				console.recordSample(absTime, v, i, r);
+				if (inline != null) {
+					inline.accept(absTime, v, i, r);
+				}
+				sinks.accept(absTime, v, i, r);
+			}
+
+			@Override
+			public void stageStarted(int stage, double absTime) {
+				if (inline != null) {
+					inline.stageStarted(stage, absTime);
+				}
+				sinks.stageStarted(stage, absTime);
+				VoltageSequence sequence = config.getSequence();
+				if (sequence.size() > 1) {
+					VoltageSequence.Stage s = sequence.get(stage);
+					console.append(String.format("[%s] Stage %d/%d: %s V for %s s (t = %.3f s)", label,
+							stage + 1, sequence.size(), s.getVoltage(), s.getDuration(), absTime));
+				}
+			}
+
+			// Buffered acquisition delivers whole fetches; each sink takes them in one step
+			@Override
+			public void acceptBlock(double[] absTime, double[] v, double[] i, double[] r, int count) {
+				if (count == 0) return;
+				metrics.samplesArrived(absTime, count);
+				console.recordSamples(absTime, v, i, r, count);
+				if (inline != null) {
+					inline.acceptBlock(absTime, v, i, r, count);
+				}
+				sinks.acceptBlock(absTime, v, i, r, count);
+			}
+		};
+		AcquisitionEngine.RunListener finished = error -> {
+			// Let the sinks take what is queued, then the final commit, off the EDT
+			String saveError = null;
+			try {
+				sinks.close();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			try {
+				writer.close();
+			} catch (IOException ex) {
+				saveError = ex.getMessage();
+			}
+			if (saveError == null && persistence.getError() != null) {
+				saveError = persistence.getError().toString();
+			}
+			if (live != null) {
+				live.finish(error);
+			}
+			String saveResult = saveError;
+			SwingUtilities.invokeLater(() -> {
+				running = false;
+				listener.sessionFinished(this, error, saveResult);
+			});
+		};
+
+		// The Python backend is normally already warm; if not, startRun waits for it off the EDT
+		new Thread(() -> {
+			try {
+				engine.startRun(config, samples, finished);
+			} catch (IOException ex) {
+				finished.runFinished(ex.getMessage());
+			}
+		}, "start-" + label).start();
+	}
+
+	/** Asks the engine to end the run early; the listener is still called. */
+	public void stop() throws IOException {
+		engine.stopRun();
+	}
+
+	@Override
+	public String toString() {
+		return label;
+	}
+}
@@ -0,0 +1,359 @@
+package ecs.resistanceMeasurement;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.event.ChartProgressEvent;
+
+/**
+ * Health of the live acquisition pipeline, stage by stage:
+ * <ul>
+ * <li>engine: samples/s and inter-sample jitter (sample timestamp spacing against
+ * the requested interval), dropped samples and unparseable sample lines;</li>
+ * <li>hand-off: backlog depth of the chart updater's {@link SampleBuffer};</li>
+ * <li>EDT: chart draw time and sample-to-render latency, from a sample's timestamp
+ * to the end of the first chart draw that included it.</li>
+ * </ul>
+ * Sample timestamps come from the engine's clock. They are mapped to
+ * {@link System#nanoTime()} with the smallest arrival delay seen in the run, so the
+ * render latency is measured relative to the fastest sample delivery.
+ *
+ * Ingest methods are called on the acquisition thread, frame methods on the EDT;
+ * the getters may be called from any thread (e.g. JMX).
+ */
+public class PipelineMetrics implements PipelineMetricsMBean {
+
+	public static final String OBJECT_NAME = "ecs.resistanceMeasurement:type=PipelineMetrics";
+
+	private static final long RATE_WINDOW_NANOS = 1000000000L;
+
+	private final LatencyHistogram jitter = new LatencyHistogram();
+	private final LatencyHistogram drawTime = new LatencyHistogram();
+	private final LatencyHistogram renderLatency = new LatencyHistogram();
+
+	private volatile AcquisitionEngine engine;
+	private volatile LiveChartUpdater.Source source;
+	private volatile SamplePipeline pipeline;
+	private volatile double requestedInterval = Double.NaN;
+	private ObjectName registeredName;
+
+	// Acquisition thread
+	private volatile long samples;
+	private double lastTime = Double.NaN;
+	private volatile long clockOffsetNanos = Long.MAX_VALUE;
+	private volatile long windowStartNanos;
+	private volatile long windowSamples;
+	private volatile double samplesPerSecond;
+
+	// EDT
+	private SampleStore pendingStore;
+	private int renderedUpTo;
+	private int preparedUpTo;
+	private long drawStartNanos;
+	private volatile long frames;
+	private volatile int maxBacklog;
+
+	/**
+	 * Registers this object with the platform MBean server under {@link #OBJECT_NAME},
+	 * replacing an earlier registration.
+	 */
+	public void register() throws JMException {
+		register(new ObjectName(OBJECT_NAME));
+	}
+
+	/**
+	 * Registers the metrics of one session of a multi-instrument run, under
+	 * {@link #OBJECT_NAME} with a {@code session} key.
+	 */
+	public void register(String session) throws JMException {
+		register(new ObjectName(OBJECT_NAME + ",session=" + ObjectName.quote(session)));
+	}
+
+	private synchronized void register(ObjectName name) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.registerMBean(this, name);
+		} catch (InstanceAlreadyExistsException e) {
+			server.unregisterMBean(name);
+			server.registerMBean(this, name);
+		}
+		registeredName = name;
+	}
+
+	/** Removes the JMX registration, if any. */
+	public synchronized void unregister() {
+		if (registeredName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+		} catch (JMException ignored) {
+			// already gone
+		}
+		registeredName = null;
+	}
+
+	/**
+	 * Reports draw times and render latency of the chart. Must be called on the EDT.
+	 */
+	public void watch(JFreeChart chart) {
+		chart.addProgressListener(this::chartProgress);
+	}
+
+	/**
+	 * Progress of the chart showing this run, for a chart shared by several runs.
+	 * Must be called on the EDT.
+	 */
+	public void chartProgress(ChartProgressEvent event) {
+		if (event.getType() == ChartProgressEvent.DRAWING_STARTED) {
+			drawStartNanos = System.nanoTime();
+		} else if (event.getType() == ChartProgressEvent.DRAWING_FINISHED) {
+			chartDrawn(System.nanoTime());
+		}
+	}
+
+	/**
+	 * Starts a new run and clears everything. Must be called on the EDT before the
+	 * engine is started.
+	 * @param requestedInterval seconds between samples, as the engine will sample
+	 */
+	public void startRun(double requestedInterval, AcquisitionEngine engine, LiveChartUpdater.Source source) {
+		this.requestedInterval = requestedInterval;
+		this.engine = engine;
+		this.source = source;
+		reset();
+		samples = 0;
+		lastTime = Double.NaN;
+		clockOffsetNanos = Long.MAX_VALUE;
+		windowStartNanos = System.nanoTime();
+		windowSamples = 0;
+		samplesPerSecond = 0;
+		pendingStore = null;
+		frames = 0;
+	}
+
+	/** The sinks of the run, for their lag. Called after {@link #startRun}. */
+	public void setPipeline(SamplePipeline pipeline) {
+		this.pipeline = pipeline;
+	}
+
+	@Override
+	public void reset() {
+		jitter.reset();
+		drawTime.reset();
+		renderLatency.reset();
+		maxBacklog = 0;
+	}
+
+	// ---------------- acquisition thread ---------------- //
+
+	public void sampleArrived(double absTime) {
+		long now = System.nanoTime();
+		record(absTime, now);
+		samples++;
+		updateRate(now);
+	}
+
+	public void samplesArrived(double[] absTime, int count) {
+		long now = System.nanoTime();
+		for (int n = 0; n < count; n++) {
+			record(absTime[n], now);
+		}
+		samples += count;
+		updateRate(now);
+	}
+
+	private void record(double absTime, long arrivalNanos) {
+		if (Double.isNaN(absTime)) {
+			return;
+		}
+		long offset = arrivalNanos - (long) (absTime * 1e9);
+		if (offset < clockOffsetNanos) {
+			clockOffsetNanos = offset;
+		}
+		if (!Double.isNaN(lastTime) && !Double.isNaN(requestedInterval)) {
+			double deviation = Math.abs(absTime - lastTime - requestedInterval);
+			jitter.record((long) (deviation * 1e9));
+		}
+		lastTime = absTime;
+	}
+
+	private void updateRate(long now) {
+		long elapsed = now - windowStartNanos;
+		if (elapsed >= RATE_WINDOW_NANOS) {
+			long total = samples;
+			samplesPerSecond = (total - windowSamples) * 1e9 / elapsed;
+			windowSamples = total;
+			windowStartNanos = now;
+		}
+	}
+
+	// ---------------- EDT ---------------- //
+
+	/**
+	 * Called by the chart updater when a frame's samples were moved into the run's store.
+	 * @param from first new sample index
+	 * @param to end of the new samples (exclusive)
+	 */
+	public void framePrepared(SampleStore store, int from, int to) {
+		if (store != pendingStore) {
+			pendingStore = store;
+			renderedUpTo = from;
+		}
+		preparedUpTo = to;
+		int backlog = to - from;
+		if (backlog > maxBacklog) {
+			maxBacklog = backlog;
+		}
+	}
+
+	private void chartDrawn(long now) {
+		frames++;
+		if (drawStartNanos != 0) {
+			drawTime.record(now - drawStartNanos);
+		}
+		SampleStore store = pendingStore;
+		long offset = clockOffsetNanos;
+		if (store == null || offset == Long.MAX_VALUE) {
+			return;
+		}
+		for (int n = renderedUpTo; n < preparedUpTo; n++) {
+			double t = store.getTime(n);
+			if (!Double.isNaN(t)) {
+				renderLatency.record(Math.max(0, now - offset - (long) (t * 1e9)));
+			}
+		}
+		renderedUpTo = preparedUpTo;
+	}
+
+	// ---------------- getters ---------------- //
+
+	@Override
+	public long getSamples() {
+		return samples;
+	}
+
+	/** Over the last second; decays towards 0 when samples stop arriving. */
+	@Override
+	public double getSamplesPerSecond() {
+		long elapsed = System.nanoTime() - windowStartNanos;
+		if (elapsed >= 2 * RATE_WINDOW_NANOS) {
+			return (samples - windowSamples) * 1e9 / elapsed;
+		}
+		return samplesPerSecond;
+	}
+
+	@Override
+	public double getRequestedIntervalMillis() {
+		return requestedInterval * 1e3;
+	}
+
+	@Override
+	public double getJitterP50Millis() {
+		return jitter.getPercentileMillis(50);
+	}
+
+	@Override
+	public double getJitterP99Millis() {
+		return jitter.getPercentileMillis(99);
+	}
+
+	@Override
+	public double getJitterMaxMillis() {
+		return jitter.getMaxMillis();
+	}
+
+	@Override
+	public long getParseFailures() {
+		AcquisitionEngine e = engine;
+		return e != null ? e.getParseFailures() : 0;
+	}
+
+	@Override
+	public long getDroppedSamples() {
+		AcquisitionEngine e = engine;
+		return e != null ? e.getDroppedSamples() : 0;
+	}
+
+	/** Samples waiting for the next chart frame. */
+	@Override
+	public int getBacklogDepth() {
+		LiveChartUpdater.Source s = source;
+		return s != null ? s.getBacklog() : 0;
+	}
+
+	/** Largest number of samples moved to the chart in one frame. */
+	@Override
+	public int getMaxBacklogDepth() {
+		return maxBacklog;
+	}
+
+	@Override
+	public int getBacklogCapacity() {
+		LiveChartUpdater.Source s = source;
+		return s != null ? s.getBacklogCapacity() : 0;
+	}
+
+	@Override
+	public String getSinks() {
+		SamplePipeline p = pipeline;
+		return p != null ? p.describe() : "";
+	}
+
+	@Override
+	public double getMaxSinkLagMillis() {
+		SamplePipeline p = pipeline;
+		double lag = 0;
+		if (p != null) {
+			for (SamplePipeline.Sink sink : p.getSinks()) {
+				lag = Math.max(lag, p.getLag(sink));
+			}
+		}
+		return lag * 1e3;
+	}
+
+	@Override
+	public long getFrames() {
+		return frames;
+	}
+
+	@Override
+	public double getDrawMeanMillis() {
+		return drawTime.getMeanMillis();
+	}
+
+	@Override
+	public double getDrawMaxMillis() {
+		return drawTime.getMaxMillis();
+	}
+
+	@Override
+	public double getRenderLatencyP50Millis() {
+		return renderLatency.getPercentileMillis(50);
+	}
+
+	@Override
+	public double getRenderLatencyP90Millis() {
+		return renderLatency.getPercentileMillis(90);
+	}
+
+	@Override
+	public double getRenderLatencyP99Millis() {
+		return renderLatency.getPercentileMillis(99);
+	}
+
+	@Override
+	public double getRenderLatencyMaxMillis() {
+		return renderLatency.getMaxMillis();
+	}
+
+	@Override
+	public long getRenderedSamples() {
+		return renderLatency.getCount();
+	}
+}
@@ -0,0 +1,55 @@
+package ecs.resistanceMeasurement;
+
+/**
+ * JMX view of {@link PipelineMetrics}, for watching a long run with jconsole.
+ * Durations are in milliseconds; values describe the current or last run.
+ */
+public interface PipelineMetricsMBean {
+
+	long getSamples();
+
+	double getSamplesPerSecond();
+
+	double getRequestedIntervalMillis();
+
+	double getJitterP50Millis();
+
+	double getJitterP99Millis();
+
+	double getJitterMaxMillis();
+
+	long getParseFailures();
+
+	long getDroppedSamples();
+
+	int getBacklogDepth();
+
+	int getMaxBacklogDepth();
+
+	int getBacklogCapacity();
+
+	/** Backlog, lag and losses of each {@link SamplePipeline} sink. */
+	String getSinks();
+
+	double getMaxSinkLagMillis();
+
+	long getFrames();
+
+	double getDrawMeanMillis();
+
+	double getDrawMaxMillis();
+
+	double getRenderLatencyP50Millis();
+
+	double getRenderLatencyP90Millis();
+
+	double getRenderLatencyP99Millis();
+
+	double getRenderLatencyMaxMillis();
+
+	/** Samples whose render latency was recorded: each once, on the first frame that shows it. */
+	long getRenderedSamples();
+
+	/** Clears the jitter, draw time and latency histograms and the backlog maximum. */
+	void reset();
+}
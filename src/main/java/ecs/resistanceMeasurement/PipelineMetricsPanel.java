@@ -0,0 +1,98 @@
+package ecs.resistanceMeasurement;
+
+import java.awt.BorderLayout;
+import java.awt.GridLayout;
+import java.util.List;
+
+import javax.swing.BorderFactory;
+import javax.swing.JComboBox;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.Timer;
+
+/**
+ * Small status panel showing {@link PipelineMetrics}, refreshed twice a second.
+ * Reading it top to bottom follows a sample through the pipeline, so a slow stage
+ * stands out: low rate or high jitter at the engine, a growing backlog at the
+ * hand-off, long draws or latency on the EDT. In a multi-instrument run a
+ * selector chooses the session shown.
+ */
+public class PipelineMetricsPanel {
+
+	private static final int REFRESH_MS = 500;
+
+	private PipelineMetrics metrics;
+	private final JPanel panel = new JPanel(new BorderLayout());
+	private final JComboBox<MeasurementSession> sessionSelector = new JComboBox<>();
+	private final JPanel rows = new JPanel(new GridLayout(0, 2, 8, 0));
+	private final JLabel rate = addRow("Samples/s:");
+	private final JLabel jitter = addRow("Jitter p50/p99:");
+	private final JLabel errors = addRow("Parse fail / dropped:");
+	private final JLabel backlog = addRow("Backlog (max):");
+	private final JLabel sinks = addRow("Sink lag (max):");
+	private final JLabel draw = addRow("Chart draw mean/max:");
+	private final JLabel latency = addRow("Sample-to-render p50/p99:");
+
+	// Must be created on the EDT
+	public PipelineMetricsPanel(PipelineMetrics metrics) {
+		this.metrics = metrics;
+		panel.setBorder(BorderFactory.createTitledBorder("Pipeline"));
+		panel.add(sessionSelector, BorderLayout.NORTH);
+		panel.add(rows, BorderLayout.CENTER);
+		sessionSelector.setVisible(false);
+		sessionSelector.addActionListener(e -> {
+			MeasurementSession selected = (MeasurementSession) sessionSelector.getSelectedItem();
+			if (selected != null) {
+				this.metrics = selected.getMetrics();
+				refresh();
+			}
+		});
+		refresh();
+		new Timer(REFRESH_MS, e -> refresh()).start();
+	}
+
+	/**
+	 * Shows the sessions of a new run, the first one selected. Must be called on the EDT.
+	 */
+	public void setSessions(List<MeasurementSession> sessions) {
+		sessionSelector.removeAllItems();
+		for (MeasurementSession session : sessions) {
+			sessionSelector.addItem(session);
+		}
+		sessionSelector.setVisible(sessions.size() > 1);
+		panel.revalidate();
+	}
+
+	public JComponent getComponent() {
+		return panel;
+	}
+
+	private JLabel addRow(String name) {
+		JLabel value = new JLabel("-");
+		rows.add(new JLabel(name));
+		rows.add(value);
+		return value;
+	}
+
+	private void refresh() {
+		rate.setText(String.format("%.0f (%d total)", metrics.getSamplesPerSecond(), metrics.getSamples()));
+		jitter.setText(millis(metrics.getJitterP50Millis()) + " / " + millis(metrics.getJitterP99Millis())
+				+ " of " + millis(metrics.getRequestedIntervalMillis()));
+		errors.setText(metrics.getParseFailures() + " / " + metrics.getDroppedSamples());
+		backlog.setText(metrics.getBacklogDepth() + " (" + metrics.getMaxBacklogDepth() + ") of "
+				+ metrics.getBacklogCapacity());
+		sinks.setText(millis(metrics.getMaxSinkLagMillis()));
+		sinks.setToolTipText(metrics.getSinks().isEmpty() ? null : metrics.getSinks());
+		draw.setText(millis(metrics.getDrawMeanMillis()) + " / " + millis(metrics.getDrawMaxMillis()));
+		latency.setText(millis(metrics.getRenderLatencyP50Millis()) + " / "
+				+ millis(metrics.getRenderLatencyP99Millis()));
+	}
+
+	private static String millis(double value) {
+		if (Double.isNaN(value)) {
+			return "-";
+		}
+		return value < 10 ? String.format("%.2f ms", value) : String.format("%.0f ms", value);
+	}
+}
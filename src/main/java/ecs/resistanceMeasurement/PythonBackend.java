@@ -0,0 +1,539 @@
+package ecs.resistanceMeasurement;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Long-lived Python measurement backend ({@code Resistance_Keithley.py --server}).
+ * The process is started once, pays for its imports and the instrument connection
+ * a single time, and then runs any number of measurements driven by commands on
+ * its stdin (CONFIGURE / START / STOP / STATUS / QUIT). Samples of each run arrive
+ * over the {@link BinaryDataChannel}; stdout carries log lines and "@" events.
+ *
+ * A run is only started once the backend has accepted its CONFIGURE; a rejected
+ * configuration fails the run instead of starting it with the previous one.
+ *
+ * A background health check pings the backend and respawns it if it died or
+ * stopped answering.
+ *
+ * The backend runs the stages of a {@link VoltageSequence} back to back on its
+ * own schedule, starting each at its offset from the start of the run; the
+ * samples carry no stage, so it is derived here from their times.
+ *
+ * Each backend drives one instrument: the VISA resource (or serial number) it was
+ * created for, or the first Keithley 2450 found. Several instruments are run
+ * concurrently with one backend each.
+ */
+public class PythonBackend implements AcquisitionEngine {
+
+	/** Receives backend log lines; called from backend threads. */
+	public interface LogListener {
+		void backendLog(String line);
+	}
+
+	private static final long READY_TIMEOUT_MS = 60000;
+	private static final long HEALTH_INTERVAL_MS = 5000;
+	private static final long STATUS_TIMEOUT_MS = 5000;
+	private static final long CONFIGURE_TIMEOUT_MS = 5000;
+	private static final long DATA_DRAIN_MS = 2000;
+
+	private final List<String> command;
+	private final String resource;
+	private final LogListener log;
+	private final BinaryDataChannel dataChannel;
+	private final ScheduledExecutorService healthChecker;
+
+	private final Object lock = new Object();
+	private Process process;
+	private BufferedWriter stdin;
+	private CountDownLatch ready = new CountDownLatch(1);
+	private volatile CountDownLatch statusReply;
+	private volatile String lastStatus;
+	private volatile CountDownLatch configureReply;
+	private volatile String configureError;
+	private volatile Run run;
+	private volatile boolean closed;
+	private volatile long parseFailures;	// written by the stdout reader only
+
+	// One measurement in progress
+	private static final class Run {
+		final SampleConsumer samples;
+		final RunListener listener;
+		final AtomicBoolean finished = new AtomicBoolean();
+		volatile boolean started;
+		Thread dataThread;
+		int stage = -1;	// of the last text sample line; stdout thread only
+
+		Run(SampleConsumer samples, RunListener listener) {
+			this.samples = samples;
+			this.listener = listener;
+		}
+	}
+
+	public PythonBackend(String pythonPath, String scriptPath, LogListener log) throws IOException {
+		this(pythonPath, scriptPath, "", log);
+	}
+
+	/**
+	 * @param resource VISA resource name or serial number of the instrument; empty for the first one found
+	 */
+	public PythonBackend(String pythonPath, String scriptPath, String resource, LogListener log) throws IOException {
+		this(Arrays.asList(pythonPath, scriptPath, "--server"), resource, log);
+	}
+
+	/**
+	 * @param command starts the backend in server mode
+	 */
+	PythonBackend(List<String> command, String resource, LogListener log) throws IOException {
+		this.command = new ArrayList<>(command);
+		this.resource = resource;
+		this.log = log;
+		this.dataChannel = new BinaryDataChannel();
+		this.healthChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "backend-health");
+			t.setDaemon(true);
+			return t;
+		});
+		healthChecker.scheduleWithFixedDelay(this::checkHealth,
+				HEALTH_INTERVAL_MS, HEALTH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Starts the backend in the background so the first run does not wait for it.
+	 */
+	public void startAsync() {
+		healthChecker.execute(() -> {
+			try {
+				ensureStarted();
+			} catch (IOException e) {
+				log.backendLog("Backend failed to start: " + e.getMessage());
+			}
+		});
+	}
+
+	/**
+	 * Starts the backend process if it is not running and waits until it is ready.
+	 */
+	public void ensureStarted() throws IOException {
+		Process p;
+		CountDownLatch readyLatch;
+		synchronized (lock) {
+			if (closed) {
+				throw new IOException("Backend closed");
+			}
+			if (process == null || !process.isAlive()) {
+				spawn();
+			}
+			p = process;
+			readyLatch = ready;
+		}
+		try {
+			long deadline = System.currentTimeMillis() + READY_TIMEOUT_MS;
+			while (!readyLatch.await(200, TimeUnit.MILLISECONDS)) {
+				if (!p.isAlive()) {
+					throw new IOException("Backend exited during startup (code " + p.exitValue() + ")");
+				}
+				if (System.currentTimeMillis() > deadline) {
+					p.destroyForcibly();
+					throw new IOException("Backend did not become ready within " + READY_TIMEOUT_MS / 1000 + " s");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while starting the backend");
+		}
+	}
+
+	// Caller holds lock
+	private void spawn() throws IOException {
+		ProcessBuilder pb = new ProcessBuilder(command);
+		pb.redirectErrorStream(true);
+		Process p = pb.start();
+		process = p;
+		stdin = new BufferedWriter(new OutputStreamWriter(p.getOutputStream()));
+		ready = new CountDownLatch(1);
+		Thread reader = new Thread(() -> readOutput(p), "backend-stdout");
+		reader.setDaemon(true);
+		reader.start();
+		log.backendLog("Starting backend: " + String.join(" ", command));
+	}
+
+	@Override
+	public boolean isRunning() {
+		return run != null;
+	}
+
+	/**
+	 * Configures and starts one measurement. Blocks while the backend starts up
+	 * and confirms the configuration, so call it off the Event Dispatch Thread.
+	 * @throws IOException if the backend rejects the configuration or does not
+	 *         answer; nothing was started then
+	 */
+	@Override
+	public void startRun(MeasurementConfig config, SampleConsumer samples, RunListener listener) throws IOException {
+		ensureStarted();
+		CountDownLatch reply = new CountDownLatch(1);
+		synchronized (lock) {
+			if (run != null) {
+				throw new IOException("A measurement is already running");
+			}
+			configureError = null;
+			configureReply = reply;
+			send("CONFIGURE " + toJson(config, dataChannel.getPort(), resource));
+		}
+		try {
+			if (!reply.await(CONFIGURE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				throw new IOException("Backend did not confirm the configuration within "
+						+ CONFIGURE_TIMEOUT_MS / 1000 + " s");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while configuring the backend");
+		} finally {
+			configureReply = null;
+		}
+		if (configureError != null) {
+			throw new IOException("Backend rejected the configuration: " + configureError);
+		}
+		synchronized (lock) {
+			if (run != null) {
+				throw new IOException("A measurement is already running");
+			}
+			// The backend sends the stage of each sample; only an older one's are judged by time
+			Run r = new Run(config.getSequence().tagging(samples), listener);
+			parseFailures = 0;
+			r.dataThread = new Thread(() -> receiveSamples(r), "data-channel");
+			run = r;
+			r.dataThread.start();
+			send("START");
+		}
+	}
+
+	@Override
+	public void stopRun() throws IOException {
+		synchronized (lock) {
+			if (process != null && process.isAlive()) {
+				send("STOP");
+			}
+		}
+	}
+
+	/**
+	 * Samples missing from the last run according to the record sequence numbers.
+	 */
+	@Override
+	public long getDroppedSamples() {
+		return dataChannel.getDroppedSamples();
+	}
+
+	/**
+	 * Numeric-looking stdout lines of the last run that were not a valid sample
+	 * line: time, voltage, current and resistance, optionally followed by the
+	 * instrument and host times and then the stage index (4, 6 or 7 fields).
+	 * They are still passed to the log.
+	 */
+	@Override
+	public long getParseFailures() {
+		return parseFailures;
+	}
+
+	/** The backend logs its own scheduling jitter and clock fit; this adds what the correction amounted to. */
+	@Override
+	public String getTimingReport() {
+		LatencyHistogram correction = dataChannel.getTimeCorrection();
+		if (correction.getCount() == 0) {
+			return null;
+		}
+		return String.format("Time base: reconciled sample times within %.3f ms of the host times"
+				+ " (p99, max %.3f ms)", correction.getPercentileMillis(99), correction.getMaxMillis());
+	}
+
+	/** The instrument this backend drives; empty for the first one found. */
+	public String getResource() {
+		return resource;
+	}
+
+	// Caller holds lock
+	private void send(String command) throws IOException {
+		stdin.write(command);
+		stdin.write('\n');
+		stdin.flush();
+	}
+
+	private void receiveSamples(Run r) {
+		try {
+			dataChannel.receive(r.samples);
+		} catch (AsynchronousCloseException ignored) {
+			// run ended without a data connection
+		} catch (IOException e) {
+			log.backendLog("Data channel error: " + e.getMessage());
+		}
+	}
+
+	// ---------------- backend stdout ---------------- //
+
+	// A line starting with a number and containing a comma was meant as a sample
+	private static boolean looksLikeSample(byte[] buf, int start, int end) {
+		byte first = buf[start];
+		if (!(first >= '0' && first <= '9') && first != '-' && first != '+' && first != '.') {
+			return false;
+		}
+		for (int k = start + 1; k < end; k++) {
+			if (buf[k] == ',') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void readOutput(Process p) {
+		try (InputStream in = p.getInputStream()) {
+			LineReader reader = new LineReader(in);
+			SampleLineParser parser = new SampleLineParser();
+			Charset charset = Charset.defaultCharset();
+			while (reader.next()) {
+				int start = reader.start();
+				int end = reader.end();
+				byte[] buf = reader.buffer();
+				while (start < end && buf[start] <= ' ') start++;
+				if (start == end) continue;
+
+				Run r = run;
+				// Text sample lines from a backend without the data channel; the
+				// reconciled time comes first, the raw instrument and host times and
+				// the stage index may follow
+				if (r != null) {
+					int columns = parser.parse(buf, start, end);
+					if (columns == 4 || columns == 6 || columns == 7) {
+						if (columns == 7 && (int) parser.get(6) != r.stage) {
+							r.stage = (int) parser.get(6);
+							r.samples.stageStarted(r.stage, parser.get(0));
+						}
+						r.samples.accept(parser.get(0), parser.get(1), parser.get(2), parser.get(3));
+						continue;
+					}
+					if (looksLikeSample(buf, start, end)) {
+						parseFailures++;
+					}
+				}
+				String line = reader.lineAsString(charset).trim();
+				if (line.startsWith("@")) {
+					handleEvent(line);
+				} else {
+					log.backendLog(line);
+				}
+			}
+		} catch (IOException e) {
+			log.backendLog("Backend output error: " + e.getMessage());
+		}
+		boolean current;
+		synchronized (lock) {
+			current = process == p;	// an older process' run was already finished
+		}
+		if (current) {
+			finishRun("Backend exited unexpectedly");
+		}
+	}
+
+	private void handleEvent(String line) {
+		if (line.equals("@READY")) {
+			ready.countDown();
+			log.backendLog("Backend ready");
+		} else if (line.startsWith("@STATUS")) {
+			lastStatus = line.substring("@STATUS".length()).trim();
+			CountDownLatch reply = statusReply;
+			if (reply != null) {
+				reply.countDown();
+			}
+		} else if (line.equals("@OK CONFIGURE")) {
+			CountDownLatch reply = configureReply;
+			if (reply != null) {
+				reply.countDown();
+			}
+		} else if (line.equals("@STARTED")) {
+			Run r = run;
+			if (r != null) {
+				r.started = true;
+			}
+		} else if (line.equals("@FINISHED")) {
+			finishRun(null);
+		} else if (line.startsWith("@ERROR")) {
+			String message = line.substring("@ERROR".length()).trim();
+			log.backendLog("Backend error: " + message);
+			CountDownLatch reply = configureReply;
+			if (reply != null) {
+				configureError = message;	// the answer to CONFIGURE
+				reply.countDown();
+				return;
+			}
+			Run r = run;
+			if (r != null && !r.started) {
+				finishRun(message);
+			}
+		}
+	}
+
+	private void finishRun(String error) {
+		Run r = run;
+		if (r == null || !r.finished.compareAndSet(false, true)) {
+			return;
+		}
+		// Let the data channel drain what the backend sent before finishing
+		try {
+			r.dataThread.join(DATA_DRAIN_MS);
+			if (r.dataThread.isAlive()) {
+				dataChannel.abortReceive();
+				r.dataThread.join(DATA_DRAIN_MS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException ignored) {
+		}
+		run = null;
+		r.listener.runFinished(error);
+	}
+
+	// ---------------- health check ---------------- //
+
+	/**
+	 * Asks the backend for its status.
+	 * @return the status text, or null if it did not answer in time
+	 */
+	public String ping(long timeoutMillis) {
+		CountDownLatch reply = new CountDownLatch(1);
+		statusReply = reply;
+		try {
+			synchronized (lock) {
+				if (process == null || !process.isAlive()) {
+					return null;
+				}
+				send("STATUS");
+			}
+			return reply.await(timeoutMillis, TimeUnit.MILLISECONDS) ? lastStatus : null;
+		} catch (IOException e) {
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	private void checkHealth() {
+		if (closed) {
+			return;
+		}
+		Process p;
+		synchronized (lock) {
+			p = process;
+		}
+		if (p == null || ready.getCount() > 0) {
+			return;	// not started yet (lazy) or still starting
+		}
+		if (!p.isAlive()) {
+			log.backendLog("Backend exited (code " + p.exitValue() + "), restarting...");
+		} else if (ping(STATUS_TIMEOUT_MS) == null) {
+			log.backendLog("Backend not responding, restarting...");
+			p.destroyForcibly();
+			try {
+				p.waitFor(STATUS_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		} else {
+			return;
+		}
+		try {
+			ensureStarted();
+		} catch (IOException e) {
+			log.backendLog("Backend restart failed: " + e.getMessage());
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		healthChecker.shutdownNow();
+		Process p;
+		synchronized (lock) {
+			p = process;
+			if (p != null && p.isAlive()) {
+				try {
+					send("QUIT");
+				} catch (IOException ignored) {
+				}
+			}
+		}
+		if (p != null) {
+			try {
+				if (!p.waitFor(5, TimeUnit.SECONDS)) {
+					p.destroyForcibly();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				p.destroyForcibly();
+			}
+		}
+		try {
+			dataChannel.close();
+		} catch (IOException ignored) {
+		}
+	}
+
+	// ---------------- CONFIGURE payload ---------------- //
+
+	static String toJson(MeasurementConfig c, int dataPort, String resource) {
+		StringBuilder json = new StringBuilder("{");
+		json.append("\"voltage\": ").append(c.getVoltage());
+		json.append(", \"time\": ").append(c.getTime());
+		json.append(", \"sample_interval\": ").append(jsonString(MeasurementConfig.formatAutoOrNumber(c.getSampleInterval())));
+		json.append(", \"current_range\": ").append(jsonString(MeasurementConfig.formatAutoOrNumber(c.getCurrentRange())));
+		json.append(", \"nplc\": ").append(c.getNplc());
+		json.append(", \"compliance\": ").append(c.getCompliance());
+		json.append(", \"folder\": ").append(jsonString(c.getFolder()));
+		json.append(", \"filename\": ").append(jsonString(c.getFilename()));
+		json.append(", \"terminal\": ").append(jsonString(c.isRearTerminals() ? "REAR" : "FRONT"));
+		json.append(", \"data_port\": ").append(dataPort);
+		json.append(", \"save_csv\": false");	// samples are persisted by SampleFileWriter
+		json.append(", \"resource\": ").append(jsonString(resource));
+		// [voltage, duration, interval] per stage; the backend measures them as one run
+		json.append(", \"stages\": [");
+		VoltageSequence sequence = c.getSequence();
+		for (int k = 0; k < sequence.size(); k++) {
+			VoltageSequence.Stage stage = sequence.get(k);
+			json.append(k == 0 ? "[" : ", [").append(stage.getVoltage());
+			json.append(", ").append(stage.getDuration());
+			json.append(", ").append(jsonString(MeasurementConfig.formatAutoOrNumber(stage.getSampleInterval())));
+			json.append(']');
+		}
+		json.append(']');
+		return json.append('}').toString();
+	}
+
+	private static String jsonString(String value) {
+		StringBuilder s = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				s.append('\\').append(c);
+			} else if (c < 0x20) {
+				s.append(String.format("\\u%04x", (int) c));
+			} else {
+				s.append(c);
+			}
+		}
+		return s.append('"').toString();
+	}
+}
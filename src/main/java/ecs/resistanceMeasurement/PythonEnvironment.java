@@ -0,0 +1,207 @@
+package ecs.resistanceMeasurement;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+import java.util.prefs.Preferences;
+
+/**
+ * Locates the Python interpreter and measurement script and checks that the
+ * interpreter runs. Running {@code python --version} costs seconds on a cold
+ * machine, so a successful probe is remembered in the preferences together with
+ * a stamp of the interpreter file (path, size, modification time) and reused
+ * until the venv changes. A bare command such as {@code python} is stamped by
+ * the file it resolves to on the PATH.
+ */
+public class PythonEnvironment {
+
+	public static final String SCRIPT_NAME = "Resistance_Keithley.py";
+
+	private static final long PROBE_TIMEOUT_MS = 10000;
+	private static final String STAMP_KEY = "pythonProbeStamp";
+	private static final String VERSION_KEY = "pythonProbeVersion";
+
+	private final String pythonPath;
+	private final String version;
+	private final boolean cached;
+
+	private PythonEnvironment(String pythonPath, String version, boolean cached) {
+		this.pythonPath = pythonPath;
+		this.version = version;
+		this.cached = cached;
+	}
+
+	public String getPythonPath() {
+		return pythonPath;
+	}
+
+	/**
+	 * @return the interpreter's version line, or null if it could not be run
+	 */
+	public String getVersion() {
+		return version;
+	}
+
+	public boolean isUsable() {
+		return version != null;
+	}
+
+	/** True when the result came from the preferences instead of running Python. */
+	public boolean isCached() {
+		return cached;
+	}
+
+	/**
+	 * Checks the interpreter, reusing the last successful result while its stamp matches.
+	 */
+	public static PythonEnvironment probe(String pythonPath, Preferences prefs) {
+		String stamp = stampOf(pythonPath);
+		String cachedVersion = prefs.get(VERSION_KEY, null);
+		if (cachedVersion != null && stamp.equals(prefs.get(STAMP_KEY, null))) {
+			return new PythonEnvironment(pythonPath, cachedVersion, true);
+		}
+		String version = runVersion(pythonPath);
+		if (version != null) {
+			prefs.put(STAMP_KEY, stamp);
+			prefs.put(VERSION_KEY, version);
+		} else {
+			prefs.remove(STAMP_KEY);
+			prefs.remove(VERSION_KEY);
+		}
+		return new PythonEnvironment(pythonPath, version, false);
+	}
+
+	static String stampOf(String pythonPath) {
+		return stampOf(pythonPath, System.getenv("PATH"));
+	}
+
+	// Changes whenever the interpreter is recreated or replaced, or PATH finds another one
+	static String stampOf(String pythonPath, String path) {
+		File file = new File(pythonPath);
+		if (!file.isFile() && file.getParent() == null) {
+			file = findOnPath(pythonPath, path);
+		}
+		if (file == null || !file.isFile()) {
+			return pythonPath;	// not found: the probe fails and nothing is cached
+		}
+		String name;
+		try {
+			name = file.getCanonicalPath();	// follows links such as python -> python3.11
+		} catch (IOException e) {
+			name = file.getAbsolutePath();
+		}
+		return name + "|" + file.length() + "|" + file.lastModified();
+	}
+
+	// The file a bare command runs, like the process launcher finds it; null if none
+	static File findOnPath(String command, String path) {
+		if (path == null) {
+			return null;
+		}
+		String[] names = File.separatorChar == '\\' ? new String[] { command + ".exe", command }
+				: new String[] { command };
+		for (String dir : path.split(File.pathSeparator)) {
+			for (String name : names) {
+				File file = new File(dir.isEmpty() ? "." : dir, name);
+				if (file.isFile() && file.canExecute()) {
+					return file;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static String runVersion(String pythonPath) {
+		try {
+			ProcessBuilder pb = new ProcessBuilder(pythonPath, "--version");
+			pb.redirectErrorStream(true);
+			Process process = pb.start();
+
+			BufferedReader reader = new BufferedReader(
+					new InputStreamReader(process.getInputStream()));
+			String version = reader.readLine();
+
+			if (!process.waitFor(PROBE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				process.destroyForcibly();
+				return null;
+			}
+			return process.exitValue() == 0 && version != null ? version.trim() : null;
+		} catch (IOException e) {
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	// ---------------- locating files ---------------- //
+
+	/**
+	 * Determines the correct Python executable path
+	 * Looks for venv in the same directory as the JAR/classes
+	 */
+	public static String findPythonPath() {
+		try {
+			// Check for venv in application directory
+			File venvPython = new File(getAppDir(), "venv/Scripts/python.exe");
+			if (venvPython.exists()) {
+				return venvPython.getAbsolutePath();
+			}
+
+			// Fallback: check in current working directory
+			venvPython = new File("venv/Scripts/python.exe");
+			if (venvPython.exists()) {
+				return venvPython.getAbsolutePath();
+			}
+
+			// Last resort: use system Python
+			System.err.println("WARNING: Virtual environment not found. Using system Python.");
+			return "python";
+
+		} catch (Exception e){
+			System.err.println("Error determining Python path: " + e.getMessage());
+			return "python";
+		}
+	}
+
+	/**
+	 * Get the Python script path
+	 * @return the absolute path, or null if the script was not found
+	 */
+	public static String findScriptPath() {
+		// First, try the project root directory (for development in Eclipse)
+		File scriptFile = new File(SCRIPT_NAME);
+		if (scriptFile.exists()) {
+			return scriptFile.getAbsolutePath();
+		}
+
+		// Then try relative to the JAR location
+		try {
+			scriptFile = new File(getAppDir(), SCRIPT_NAME);
+			if (scriptFile.exists()) {
+				return scriptFile.getAbsolutePath();
+			}
+		} catch (Exception ignored) {
+		}
+
+		// Try scripts subfolder
+		scriptFile = new File("scripts", SCRIPT_NAME);
+		if (scriptFile.exists()) {
+			return scriptFile.getAbsolutePath();
+		}
+		return null;
+	}
+
+	// Directory where the application is running
+	private static String getAppDir() throws Exception {
+		return new File(PythonEnvironment.class
+				.getProtectionDomain()
+				.getCodeSource()
+				.getLocation()
+				.toURI()
+				.getPath())
+				.getParent();
+	}
+}
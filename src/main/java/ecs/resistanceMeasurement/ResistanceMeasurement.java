@@ -1,36 +1,52 @@
 package ecs.resistanceMeasurement;
 
-import java.util.List;
-import java.util.ArrayList;
 import java.awt.BorderLayout;
+import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.GridLayout;
 import java.awt.Insets;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import javax.management.JMException;
 import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
 
 import org.jfree.chart.ChartFactory;
+import org.jfree.chart.ChartMouseEvent;
+import org.jfree.chart.ChartMouseListener;
 import org.jfree.chart.ChartPanel;
 import org.jfree.chart.JFreeChart;
+import org.jfree.chart.entity.LegendItemEntity;
+import org.jfree.chart.entity.XYItemEntity;
 import org.jfree.chart.plot.XYPlot;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
 import java.util.prefs.Preferences;
 
 public class ResistanceMeasurement extends JFrame{
 	
-	private final XYSeries resistanceSeries = new XYSeries("Resistance");
-	private XYSeriesCollection resistanceDataset;
+	private SampleStoreDataset resistanceDataset;
+	private DecimatingXYDataset resistanceView;
 	private int plotCounter = 1;
 	
 	private JTextField voltage;
@@ -39,9 +55,11 @@ public class ResistanceMeasurement extends JFrame{
 	private JTextField currentRange;
 	private JTextField sampleInterval;
 	private JTextField nplc;
+	private JTextField chartRefreshRate;
+	private JTextField sampleBufferCapacity;
 	private JTextField folderPathField;
 	private JTextField outputFilenameField;
-	private JTextArea outputArea;
+	private ConsoleLog console;
 	
 	private JRadioButton frontTerminalRadio;
 	private JRadioButton rearTerminalRadio;
@@ -55,104 +73,54 @@ public class ResistanceMeasurement extends JFrame{
 	private ChartPanel resistanceChartPanel;
 	private JComboBox<String> plotSelector;
 	
-	private JButton browseButton;
-
-	private Process pythonProcess;
-	private BufferedWriter output;
-	private Thread readerThread;
+	private static final String ENGINE_PYTHON = "Python (VISA)";
+	private static final String ENGINE_SCPI = "Java SCPI (LAN)";
+	private static final String ENGINE_SCPI_BUFFERED = "Java SCPI buffered (LAN)";
+	private static final String ENGINE_SIMULATOR = "Simulator (no instrument)";
 	
-	// Path to Python executable in virtual environment
-	private static final String PYTHON_VENV_PATH = getPythonPath();
+	private static final String FORMAT_CSV = "CSV";
+	private static final String FORMAT_ARCHIVE = "Run archive (" + RunArchiveWriter.EXTENSION + ")";
 	
+	private static final String EXPORT_NONE = "Summary only";
+	private static final String EXPORT_PNG = "PNG";
+	private static final String EXPORT_SVG = "SVG";
+	private static final String EXPORT_BOTH = "PNG + SVG";
+	
+	private JButton browseButton;
+	private JButton cancelLoadButton;
+	private final List<CsvLoader> csvLoaders = new ArrayList<>();
+	private final List<ArchiveLoader> archiveLoaders = new ArrayList<>();
+	private SeriesCache seriesCache;
+	private JComboBox<String> saveFormat;
+	private JComboBox<String> plotExport;
+	private JComboBox<Integer> plotScale;
+
+	private PythonBackend backend;
+	private String pythonPath;	// set once the backend could be set up
+	private String scriptPath;
+	private final Map<String, PythonBackend> pythonBackends = new HashMap<>();	// by VISA resource
+	private final Map<String, Keithley2450Engine> scpiEngines = new HashMap<>();	// by host
+	private final SimulatedEngine simulator = new SimulatedEngine();
+	private final Map<String, SimulatedEngine> simulators = new HashMap<>();
+	private JComboBox<String> engineSelector;
+	private JTextField instrumentHost;
+	private LiveChartUpdater chartUpdater;
+	private final DefaultListModel<SessionSpec> queuedSessions = new DefaultListModel<>();
+	private final List<MeasurementSession> sessions = new ArrayList<>();	// of the current or last run
+	private PipelineMetricsPanel metricsPanel;
+	private AnalyticsPanel analyticsPanel;
+	private JTextField autoStopTriggers;
+	private JTable sequenceTable;
+	private DefaultTableModel sequenceModel;
+	private LiveServer liveServer;	// null while off
 	
 	public ResistanceMeasurement() {
 		initialize();
 	}
 	
-	/**
-	 * Determines the correct Python executable path
-	 * Looks for venv in the same directory as the JAR/classes
-	 */
-	private static String getPythonPath() {
-		try {
-			// Get the directory where the application is running
-			String appDir = new File(ResistanceMeasurement.class
-				.getProtectionDomain()
-				.getCodeSource()
-				.getLocation()
-				.toURI()
-				.getPath())
-				.getParent();
-						
-			// Check for venv in application directory
-			File venvPython = new File(appDir, "venv/Scripts/python.exe");
-			if (venvPython.exists()) {
-				return venvPython.getAbsolutePath();
-			}
-			
-			// Fallback: check in current working directory
-			venvPython = new File("venv/Scripts/python.exe");
-			if (venvPython.exists()) {
-				return venvPython.getAbsolutePath();
-			}
-			
-			// Last resort: use system Python
-			System.err.println("WARNING: Virtual environment not found. Using system Python.");
-			return "python";
-			
-		} catch (Exception e){
-			System.err.println("Error determining Python path: " + e.getMessage());
-			return "python";
-		}
-	}
-	
-	/**
-	 * Get the Python script path
-	 */
-	private String getPythonScriptPath() {
-		try {
-			// First, try the project root directory (for development in Eclipse)
-			File scriptFile = new File("Resistance_Keithley.py");
-			if (scriptFile.exists()) {
-				return scriptFile.getAbsolutePath();
-			}
-			
-			// Then try relative to the JAR location
-			String appDir = new File(ResistanceMeasurement.class
-					.getProtectionDomain()
-					.getCodeSource()
-					.getLocation()
-					.toURI()
-					.getPath())
-					.getParent();
-			
-			scriptFile = new File(appDir, "Resistance_Keithley.py");
-			if (scriptFile.exists()) {
-				return scriptFile.getAbsolutePath();
-			}
-			
-			// Try scripts subfolder
-			scriptFile = new File("scripts/Resistance_Keithley.py");
-			if (scriptFile.exists()) {
-				return scriptFile.getAbsolutePath();
-			}
-			
-			throw new IOException("Python script not found: Resistance_Keithley.py");
-			
-		} catch (Exception e) {
-			JOptionPane.showMessageDialog(this,
-					"Error: Python script not found!\n" + e.getMessage(),
-					"Script Error",
-					JOptionPane.ERROR_MESSAGE);
-			return "Resistance_Keithley.py";
-		}
-	}
-	
-	
 	private void initialize() {
 		
-		// Verify python environment on startup
-		verifyPythonEnvironment();
+		StartupTimer startup = new StartupTimer();
 		
 		// ------------------ WINDOW SETTINGS ------------ //
 		setTitle("Keithley Resistance Measurement");
@@ -160,14 +128,45 @@ public class ResistanceMeasurement extends JFrame{
 		//setBounds(200, 200, 800, 600);
 		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		getContentPane().setLayout(new BorderLayout());
-		setVisible(true);
 		
 		// --------------Buttons and output ---------------//
 				JButton startButton = new JButton("Start Measurement");
 				JButton stopButton = new JButton("Stop Measurement");
 				stopButton.setVisible(false); // stop button initially hidden
 				JButton loadCsvButton = new JButton("Load plot");
+				cancelLoadButton = new JButton("Cancel load");
+				cancelLoadButton.setVisible(false); // only while a file is loading
 				JButton clearChartButton = new JButton("Clear chart");
+				JButton exportCsvButton = new JButton("Export CSV");
+				
+				// Full-resolution data of loaded runs beyond this is reduced to an envelope
+				JSpinner cacheBudget = new JSpinner(new SpinnerNumberModel(
+						prefs.getInt("seriesCacheMegabytes", (int) (SeriesCache.DEFAULT_BUDGET_BYTES >> 20)), 16, 1 << 20, 64));
+				cacheBudget.setToolTipText("Memory for loaded runs; the least recently viewed are reduced to an "
+						+ "envelope and reloaded when clicked in the legend");
+				cacheBudget.addChangeListener(e -> {
+					int megabytes = (Integer) cacheBudget.getValue();
+					prefs.putInt("seriesCacheMegabytes", megabytes);
+					seriesCache.setBudget((long) megabytes << 20);
+				});
+				
+				// Lets colleagues watch the runs in a browser on http://<this PC>:<port>/
+				JCheckBox liveServerEnabled = new JCheckBox("Live server on port",
+						prefs.getBoolean("liveServerEnabled", false));
+				JSpinner liveServerPort = new JSpinner(new SpinnerNumberModel(
+						prefs.getInt("liveServerPort", LiveServer.DEFAULT_PORT), 1, 65535, 1));
+				liveServerPort.setEditor(new JSpinner.NumberEditor(liveServerPort, "#"));
+				liveServerEnabled.setToolTipText("Streams the runs to browsers on other machines");
+				liveServerEnabled.addActionListener(e -> {
+					prefs.putBoolean("liveServerEnabled", liveServerEnabled.isSelected());
+					setLiveServer(liveServerEnabled, (Integer) liveServerPort.getValue());
+				});
+				liveServerPort.addChangeListener(e -> {
+					prefs.putInt("liveServerPort", (Integer) liveServerPort.getValue());
+					if (liveServerEnabled.isSelected()) {
+						setLiveServer(liveServerEnabled, (Integer) liveServerPort.getValue());
+					}
+				});
 				
 				
 				
@@ -175,7 +174,9 @@ public class ResistanceMeasurement extends JFrame{
 				startButton.addActionListener(e -> startMeasurement(startButton, stopButton));
 				stopButton.addActionListener(e -> stopMeasurement(startButton, stopButton));
 				loadCsvButton.addActionListener(e -> loadCsvFile());
+				cancelLoadButton.addActionListener(e -> cancelCsvLoad());
 				clearChartButton.addActionListener(e -> clearPlots());
+				exportCsvButton.addActionListener(e -> exportArchiveCsv());
 		
 				// ------- go to main menu button ----------
 				//JButton backButton = new JButton("Back to Menu");
@@ -185,9 +186,56 @@ public class ResistanceMeasurement extends JFrame{
 				//});
 				
 
-				outputArea = new JTextArea(6,30);  
-				outputArea.setEditable(false);
-				JScrollPane scrollPane = new JScrollPane(outputArea);
+				// Console keeps at most consoleCapacity lines
+				ConsoleLog.Mode consoleMode = ConsoleLog.Mode.ALL_LINES;
+				try {
+					consoleMode = ConsoleLog.Mode.valueOf(prefs.get("consoleMode", consoleMode.name()));
+				} catch (IllegalArgumentException ignored) {}
+				int consoleCapacity = prefs.getInt("consoleCapacity", ConsoleLog.DEFAULT_CAPACITY);
+				console = new ConsoleLog(6, 30, consoleCapacity > 0 ? consoleCapacity : ConsoleLog.DEFAULT_CAPACITY,
+						consoleMode);
+				if (consoleCapacity <= 0) {
+					console.append("Ignoring consoleCapacity " + consoleCapacity + "; keeping "
+							+ ConsoleLog.DEFAULT_CAPACITY + " lines");
+				}
+				
+				JComboBox<ConsoleLog.Mode> consoleModeSelector = new JComboBox<>(ConsoleLog.Mode.values());
+				consoleModeSelector.setSelectedItem(consoleMode);
+				consoleModeSelector.addActionListener(e -> {
+					ConsoleLog.Mode selectedMode = (ConsoleLog.Mode) consoleModeSelector.getSelectedItem();
+					console.setMode(selectedMode);
+					prefs.put("consoleMode", selectedMode.name());
+				});
+				
+				JPanel consolePanel = new JPanel(new BorderLayout());
+				consolePanel.add(consoleModeSelector, BorderLayout.NORTH);
+				consolePanel.add(console.getComponent(), BorderLayout.CENTER);
+				
+				// Live resistance statistics and pipeline health of each session
+				analyticsPanel = new AnalyticsPanel();
+				metricsPanel = new PipelineMetricsPanel(new PipelineMetrics());
+				JPanel statusPanel = new JPanel(new BorderLayout());
+				statusPanel.add(analyticsPanel.getComponent(), BorderLayout.NORTH);
+				statusPanel.add(metricsPanel.getComponent(), BorderLayout.SOUTH);
+				consolePanel.add(statusPanel, BorderLayout.SOUTH);
+				
+				addWindowListener(new WindowAdapter() {
+					@Override
+					public void windowClosing(WindowEvent e) {
+						if (backend != null) {
+							backend.close();
+						}
+						for (PythonBackend b : pythonBackends.values()) {
+							b.close();
+						}
+						for (Keithley2450Engine scpiEngine : scpiEngines.values()) {
+							scpiEngine.close();
+						}
+						if (liveServer != null) {
+							liveServer.close();
+						}
+					}
+				});
 		
 				// ----- bottom panel --------
 				JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
@@ -195,7 +243,16 @@ public class ResistanceMeasurement extends JFrame{
 				bottomPanel.add(startButton);
 				bottomPanel.add(stopButton);
 				bottomPanel.add(loadCsvButton);
+				bottomPanel.add(cancelLoadButton);
 				bottomPanel.add(clearChartButton);
+				bottomPanel.add(exportCsvButton);
+				bottomPanel.add(new JLabel("Plot memory (MB):"));
+				bottomPanel.add(cacheBudget);
+				bottomPanel.add(liveServerEnabled);
+				bottomPanel.add(liveServerPort);
+				if (liveServerEnabled.isSelected()) {
+					setLiveServer(liveServerEnabled, (Integer) liveServerPort.getValue());
+				}
 
 		// -------------- Input Parameters Panel ----------------//
 				
@@ -206,7 +263,7 @@ public class ResistanceMeasurement extends JFrame{
 		//
 		// LEFT SIDE — Chrono Parameters
 		//
-		JPanel leftParams = new JPanel(new GridLayout(5, 2, 4, 4));
+		JPanel leftParams = new JPanel(new GridLayout(6, 2, 4, 4));
 		
 
 
@@ -218,9 +275,28 @@ public class ResistanceMeasurement extends JFrame{
 		time = new JTextField(prefs.get("Time","3"));
 		leftParams.add(time);
 		
+		leftParams.add(new JLabel("Chart Refresh (Hz):"));
+		chartRefreshRate = new JTextField(prefs.get("chartRefreshRate",
+				String.valueOf(LiveChartUpdater.DEFAULT_REFRESH_RATE)));
+		leftParams.add(chartRefreshRate);
+		
+		leftParams.add(new JLabel("Sample Buffer (samples):"));
+		sampleBufferCapacity = new JTextField(prefs.get("sampleBufferCapacity",
+				String.valueOf(LiveChartUpdater.DEFAULT_BUFFER_CAPACITY)));
+		leftParams.add(sampleBufferCapacity);
+		
+		leftParams.add(new JLabel("Acquisition:"));
+		engineSelector = new JComboBox<>(new String[]{ENGINE_PYTHON, ENGINE_SCPI, ENGINE_SCPI_BUFFERED, ENGINE_SIMULATOR});
+		engineSelector.setSelectedItem(prefs.get("acquisitionEngine", ENGINE_PYTHON));
+		leftParams.add(engineSelector);
+		
+		leftParams.add(new JLabel("Instrument (LAN host / VISA):"));
+		instrumentHost = new JTextField(prefs.get("instrumentHost", ""));
+		leftParams.add(instrumentHost);
+		
 		// These fill last rows visually (so both panels look balanced)
 		// complete the rows with empty labels for better alignment
-		while (leftParams.getComponentCount() < 10) {
+		while (leftParams.getComponentCount() < 12) {
 			leftParams.add(new JLabel(""));
 		}
 		
@@ -229,7 +305,7 @@ public class ResistanceMeasurement extends JFrame{
 		// RIGHT SIDE — Additional Parameters
 		//
 
-		JPanel rightParams = new JPanel(new GridLayout(5, 2, 4, 4));
+		JPanel rightParams = new JPanel(new GridLayout(6, 2, 4, 4));
 		
 		rightParams.add(new JLabel("Terminals:"));
 		JPanel terminalPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
@@ -262,9 +338,15 @@ public class ResistanceMeasurement extends JFrame{
 		nplc = new JTextField(prefs.get("nplc", "1"));
 		rightParams.add(nplc);
 		
+		rightParams.add(new JLabel("Auto-stop Triggers:"));
+		autoStopTriggers = new JTextField(prefs.get("autoStopTriggers", ""));
+		autoStopTriggers.setToolTipText("Stop the run when e.g. R>1e6, R<100, slope>0.5 or |slope|>0.5 (Ohm/s); "
+				+ "separate several with commas, leave empty for none");
+		rightParams.add(autoStopTriggers);
+		
 		// These fill last rows visually (so both panels look balanced)
 		// complete the rows with empty labels for better alignment
-		while (rightParams.getComponentCount() < 10) {
+		while (rightParams.getComponentCount() < 12) {
 			rightParams.add(new JLabel(""));
 		}
 		
@@ -310,30 +392,127 @@ public class ResistanceMeasurement extends JFrame{
 		outputFilenameField = new JTextField(); 
 		savePanel.add(outputFilenameField, gbc);
 		
+		// ----------- Row 3: File format --------------------- //
+		// The archive is compressed and indexed by time; Export CSV converts it
+		gbc.gridx = 0; gbc.gridy = 2; gbc.gridwidth = 1; gbc.weightx = 0;
+		savePanel.add(new JLabel("File Format:"), gbc);
+		
+		gbc.gridx = 1; gbc.gridwidth = 2; gbc.weightx = 1.0;
+		saveFormat = new JComboBox<>(new String[]{FORMAT_CSV, FORMAT_ARCHIVE});
+		saveFormat.setSelectedItem(prefs.get("saveFormat", FORMAT_CSV));
+		saveFormat.addActionListener(e -> prefs.put("saveFormat", (String) saveFormat.getSelectedItem()));
+		savePanel.add(saveFormat, gbc);
+		
+		// ----------- Row 4: End-of-run plot --------------------- //
+		// Written in the background after the run, with a summary of it
+		gbc.gridx = 0; gbc.gridy = 3; gbc.gridwidth = 1; gbc.weightx = 0;
+		savePanel.add(new JLabel("Plot Export:"), gbc);
+		
+		gbc.gridx = 1; gbc.gridwidth = 1; gbc.weightx = 1.0;
+		plotExport = new JComboBox<>(new String[]{EXPORT_NONE, EXPORT_PNG, EXPORT_SVG, EXPORT_BOTH});
+		plotExport.setSelectedItem(prefs.get("plotExport", EXPORT_PNG));
+		plotExport.addActionListener(e -> prefs.put("plotExport", (String) plotExport.getSelectedItem()));
+		savePanel.add(plotExport, gbc);
+		
+		gbc.gridx = 2; gbc.weightx = 0;
+		plotScale = new JComboBox<>(new Integer[]{1, 2, 4, 8});
+		plotScale.setToolTipText("PNG resolution: 1x is " + RunExporter.DEFAULT_WIDTH + " x "
+				+ RunExporter.DEFAULT_HEIGHT + " pixels");
+		plotScale.setRenderer(new DefaultListCellRenderer() {
+			@Override
+			public Component getListCellRendererComponent(JList<?> list, Object value,
+					int index, boolean selected, boolean focused) {
+				return super.getListCellRendererComponent(list, value + "x", index, selected, focused);
+			}
+		});
+		plotScale.setSelectedItem(prefs.getInt("plotScale", 4));
+		plotScale.addActionListener(e -> prefs.putInt("plotScale", (Integer) plotScale.getSelectedItem()));
+		savePanel.add(plotScale, gbc);
+		
+		
+		// ------------------ Voltage Sequence Panel -------------//
+		// With stages listed, a run measures them back to back instead of holding
+		// the Applied Voltage for the Application Time.
+		
+		JPanel sequencePanel = new JPanel(new BorderLayout(5, 5));
+		sequencePanel.setBorder(BorderFactory.createTitledBorder(
+				"Voltage Sequence (optional, replaces Applied Voltage and Time)"));
+		sequenceModel = new DefaultTableModel(new Object[]{"Voltage (V)", "Duration (s)", "Sample Interval (s)"}, 0);
+		String savedSequence = prefs.get("voltageSequence", "");
+		if (!savedSequence.isEmpty()) {
+			try {
+				for (VoltageSequence.Stage stage : VoltageSequence.parse(savedSequence).getStages()) {
+					sequenceModel.addRow(new Object[]{String.valueOf(stage.getVoltage()),
+							String.valueOf(stage.getDuration()),
+							MeasurementConfig.formatAutoOrNumber(stage.getSampleInterval())});
+				}
+			} catch (IllegalArgumentException ex) {
+				prefs.remove("voltageSequence");
+			}
+		}
+		sequenceTable = new JTable(sequenceModel);
+		sequenceTable.setPreferredScrollableViewportSize(new Dimension(400, 3 * sequenceTable.getRowHeight()));
+		sequencePanel.add(new JScrollPane(sequenceTable), BorderLayout.CENTER);
+		
+		JButton addStageButton = new JButton("Add stage");
+		addStageButton.setToolTipText("Append a stage with the Applied Voltage, Application Time and Sample Interval above");
+		addStageButton.addActionListener(e -> sequenceModel.addRow(new Object[]{voltage.getText().trim(),
+				time.getText().trim(), sampleInterval.getText().trim()}));
+		JButton removeStageButton = new JButton("Remove stage");
+		removeStageButton.addActionListener(e -> {
+			if (sequenceTable.isEditing()) {
+				sequenceTable.getCellEditor().cancelCellEditing();
+			}
+			int selected = sequenceTable.getSelectedRow();
+			if (selected < 0) {
+				selected = sequenceModel.getRowCount() - 1;	// the last one
+			}
+			if (selected >= 0) {
+				sequenceModel.removeRow(selected);
+			}
+		});
+		JPanel sequenceButtons = new JPanel(new GridLayout(2, 1, 4, 4));
+		sequenceButtons.add(addStageButton);
+		sequenceButtons.add(removeStageButton);
+		sequencePanel.add(sequenceButtons, BorderLayout.EAST);
+		
+		
+		// ------------------ Sessions Panel -------------//
+		// Several instruments measure at once when sessions are queued; with none
+		// queued, Start runs the form's parameters on a single instrument.
+		
+		JPanel sessionPanel = new JPanel(new BorderLayout(5, 5));
+		sessionPanel.setBorder(BorderFactory.createTitledBorder("Sessions (one per instrument)"));
+		JList<SessionSpec> sessionList = new JList<>(queuedSessions);
+		sessionList.setVisibleRowCount(3);
+		sessionPanel.add(new JScrollPane(sessionList), BorderLayout.CENTER);
+		
+		JButton addSessionButton = new JButton("Add session");
+		addSessionButton.setToolTipText("Queue the parameters above (instrument, file and settings) as one session");
+		addSessionButton.addActionListener(e -> addSession());
+		JButton removeSessionButton = new JButton("Remove session");
+		removeSessionButton.addActionListener(e -> {
+			int selected = sessionList.getSelectedIndex();
+			if (selected >= 0) {
+				queuedSessions.remove(selected);
+			}
+		});
+		JPanel sessionButtons = new JPanel(new GridLayout(2, 1, 4, 4));
+		sessionButtons.add(addSessionButton);
+		sessionButtons.add(removeSessionButton);
+		sessionPanel.add(sessionButtons, BorderLayout.EAST);
+		
 		
 		// -------------------- Real time Chart --------------------- //
 				
 		// resistance dataset
-		resistanceDataset = new XYSeriesCollection();
-		//resistanceDataset.addSeries(resistanceSeries);
+		resistanceDataset = new SampleStoreDataset();
 				
-		// resistance chart
-		resistanceChart = ChartFactory.createXYLineChart(
-				"Resistance vs Time", "Time (s)", "Resistance (Ω)", resistanceDataset
-			);
-		// XYPlot object of resistance chart for scaling
-		XYPlot resistancePlot = resistanceChart.getXYPlot();
-		resistancePlot.getRangeAxis().setAutoRange(true);
-		//resistancePlot.getRangeAxis().setLowerBound(0);
-		//resistancePlot.getRangeAxis().setUpperBound(1000);
-	
-		resistancePlot.getDomainAxis().setAutoRange(true);
-		//resistancePlot.getDomainAxis().setLowerBound(0);
-		//resistancePlot.getDomainAxis().setUpperBound(100);
-		
-		//chart panels
-		
-		resistanceChartPanel = new ChartPanel(resistanceChart);
+		// The chart draws a per-pixel decimated view of the stored series
+		resistanceView = new DecimatingXYDataset(resistanceDataset);
+		seriesCache = new SeriesCache(resistanceDataset,
+				(long) prefs.getInt("seriesCacheMegabytes", (int) (SeriesCache.DEFAULT_BUDGET_BYTES >> 20)) << 20,
+				console::append);
 		
 		// --------- Add dropdown to toggle between plots --------//
 		plotSelector = new JComboBox<>(new String[]{"Resistance vs Time"});
@@ -343,8 +522,8 @@ public class ResistanceMeasurement extends JFrame{
 		chartContainer = new JPanel(new BorderLayout());
 		chartContainer.add(plotSelector, BorderLayout.NORTH);
 		
-		// The first plot showing is the current plot
-		chartContainer.add(resistanceChartPanel, BorderLayout.CENTER);
+		// The chart is built in the background and replaces this placeholder
+		chartContainer.add(new JLabel("Loading chart...", SwingConstants.CENTER), BorderLayout.CENTER);
 		add(chartContainer, BorderLayout.CENTER);
 		
 		
@@ -354,40 +533,152 @@ public class ResistanceMeasurement extends JFrame{
 		topPanel.setLayout(new BoxLayout(topPanel, BoxLayout.Y_AXIS));
 		topPanel.add(inputPanel);
 		topPanel.add(savePanel);
+		topPanel.add(sequencePanel);
+		topPanel.add(sessionPanel);
 		getContentPane().add(topPanel, BorderLayout.NORTH);
 		
 		getContentPane().add(bottomPanel, BorderLayout.SOUTH);
-		getContentPane().add(scrollPane, BorderLayout.EAST);
+		getContentPane().add(consolePanel, BorderLayout.EAST);
+		setVisible(true);
+		startup.mark("Window shown");
+		
+		startBackgroundInitialization(startup);
 	}
 	
+	// ------------------ Background startup ------------------ //
 	
 	/**
-	 * Verify Python environment and dependencies on startup
+	 * Probes Python, finds the script and builds the chart in parallel while the
+	 * window is already usable, then starts the backend and logs the phase timings.
 	 */
-	private void verifyPythonEnvironment() {
-		try {
-			ProcessBuilder pb = new ProcessBuilder(PYTHON_VENV_PATH, "--version");
-			pb.redirectErrorStream(true);
-			Process process = pb.start();
-			
-			BufferedReader reader = new BufferedReader(
-					new InputStreamReader(process.getInputStream()));
-			String version = reader.readLine();
-			
-			int exitCode = process.waitFor();
-			
-			if (exitCode == 0 && version != null) {
-				System.out.println("Python environment verified: " + version);
-				System.out.println("Using Python: " + PYTHON_VENV_PATH);
-			} else {
-				showPythonWarning();
+	private void startBackgroundInitialization(StartupTimer startup) {
+		ExecutorService executor = Executors.newFixedThreadPool(3, r -> {
+			Thread t = new Thread(r, "startup");
+			t.setDaemon(true);
+			return t;
+		});
+		CompletableFuture<PythonEnvironment> environment = CompletableFuture.supplyAsync(() ->
+				startup.time("Python probe", () ->
+						PythonEnvironment.probe(PythonEnvironment.findPythonPath(), prefs)), executor);
+		CompletableFuture<String> script = CompletableFuture.supplyAsync(() ->
+				startup.time("Script discovery", PythonEnvironment::findScriptPath), executor);
+		CompletableFuture<JFreeChart> chart = CompletableFuture.supplyAsync(() ->
+				startup.time("Chart construction", this::createResistanceChart), executor);
+		
+		CompletableFuture<Void> chartShown = chart.thenAccept(c ->
+				invokeAndWait(() -> startup.time("Chart install", () -> installChart(c))));
+		CompletableFuture<Void> backendStarted = environment.thenAcceptBoth(script, (env, scriptPath) ->
+				startup.time("Backend setup", () -> setUpBackend(env, scriptPath)));
+		
+		CompletableFuture.allOf(chartShown, backendStarted).whenComplete((ignored, error) -> {
+			executor.shutdown();
+			if (error != null) {
+				Throwable cause = error.getCause() != null ? error.getCause() : error;
+				console.append("Startup error: " + cause);
 			}
-			
-		} catch (Exception e) {
-			showPythonWarning();
+			console.append(startup.report());
+		});
+	}
+	
+	// Off the EDT: the chart is not yet attached to any component
+	private JFreeChart createResistanceChart() {
+		// The dataset is attached on the EDT in installChart
+		JFreeChart chart = ChartFactory.createXYLineChart(
+				"Resistance vs Time", "Time (s)", "Resistance (Ω)", null
+			);
+		// XYPlot object of resistance chart for scaling
+		XYPlot resistancePlot = chart.getXYPlot();
+		resistancePlot.getRangeAxis().setAutoRange(true);
+		//resistancePlot.getRangeAxis().setLowerBound(0);
+		//resistancePlot.getRangeAxis().setUpperBound(1000);
+	
+		resistancePlot.getDomainAxis().setAutoRange(true);
+		//resistancePlot.getDomainAxis().setLowerBound(0);
+		//resistancePlot.getDomainAxis().setUpperBound(100);
+		return chart;
+	}
+	
+	private void installChart(JFreeChart chart) {
+		resistanceChart = chart;
+		XYPlot resistancePlot = chart.getXYPlot();
+		resistancePlot.setDataset(resistanceView);
+		resistanceView.setDomainAxis(resistancePlot.getDomainAxis());
+		// Draw times and render latency of every session drawn into this chart
+		chart.addProgressListener(e -> {
+			for (MeasurementSession session : sessions) {
+				session.getMetrics().chartProgress(e);
+			}
+		});
+		
+		//chart panels
+		resistanceChartPanel = new ChartPanel(resistanceChart);
+		resistanceChartPanel.addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentResized(ComponentEvent e) {
+				resistanceView.setPixelWidth(resistanceChartPanel.getWidth());
+			}
+		});
+		// Clicking a run's legend entry or line brings it into focus (and back to full resolution)
+		resistanceChartPanel.addChartMouseListener(new ChartMouseListener() {
+			@Override
+			public void chartMouseClicked(ChartMouseEvent e) {
+				int series = -1;
+				if (e.getEntity() instanceof LegendItemEntity) {
+					series = resistanceView.indexOf(((LegendItemEntity) e.getEntity()).getSeriesKey());
+				} else if (e.getEntity() instanceof XYItemEntity) {
+					series = ((XYItemEntity) e.getEntity()).getSeriesIndex();
+				}
+				if (series >= 0 && series < resistanceDataset.getSeriesCount()) {
+					seriesCache.viewed(resistanceDataset.getStore(series));
+				}
+			}
+
+			@Override
+			public void chartMouseMoved(ChartMouseEvent e) {
+			}
+		});
+		switchPlot();
+	}
+	
+	private void setUpBackend(PythonEnvironment env, String scriptPath) {
+		if (scriptPath == null) {
+			SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+					"Error: Python script not found!\n" + PythonEnvironment.SCRIPT_NAME,
+					"Script Error",
+					JOptionPane.ERROR_MESSAGE));
+			return;
+		}
+		if (!env.isUsable()) {
+			SwingUtilities.invokeLater(this::showPythonWarning);
+			return;
+		}
+		console.append("Using Python: " + env.getPythonPath() + " (" + env.getVersion()
+				+ (env.isCached() ? ", cached check" : "") + ")");
+		try {
+			// Long-lived backend: started now so the first run does not pay for it
+			PythonBackend created = new PythonBackend(env.getPythonPath(), scriptPath, console::append);
+			created.startAsync();
+			invokeAndWait(() -> {
+				backend = created;
+				pythonPath = env.getPythonPath();
+				this.scriptPath = scriptPath;
+			});
+		} catch (IOException ex) {
+			console.append("Python backend unavailable: " + ex.getMessage());
 		}
 	}
 	
+	private static void invokeAndWait(Runnable work) {
+		try {
+			SwingUtilities.invokeAndWait(work);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+	
+	
 	private void showPythonWarning() {
 		JOptionPane.showMessageDialog(this,
 				"Warning: Python virtual environment not found or not working.\n" +
@@ -402,8 +693,14 @@ public class ResistanceMeasurement extends JFrame{
 	
 	// ------------------ Plot switching method ------------ //
 	private void switchPlot() {
+		if (resistanceChartPanel == null) {
+			return;	// still being built
+		}
 		
-		chartContainer.remove(resistanceChartPanel);
+		Component current = ((BorderLayout) chartContainer.getLayout()).getLayoutComponent(BorderLayout.CENTER);
+		if (current != null) {
+			chartContainer.remove(current);
+		}
 		
 		String selected = (String) plotSelector.getSelectedItem();
 		
@@ -415,8 +712,254 @@ public class ResistanceMeasurement extends JFrame{
 	}
 	
 	// ---------------- MEASUREMENT CONTROL ---------------- //
+	
+	/**
+	 * Parameters of one queued session: the engine, the instrument address and a
+	 * snapshot of the form (including its output file).
+	 */
+	private static final class SessionSpec {
+		final String engineName;
+		final String address;
+		final MeasurementConfig config;
+		final boolean archive;
+		final List<StreamingAnalytics.Trigger> triggers;
+		
+		SessionSpec(String engineName, String address, MeasurementConfig config, boolean archive,
+				List<StreamingAnalytics.Trigger> triggers) {
+			this.engineName = engineName;
+			this.address = address;
+			this.config = config;
+			this.archive = archive;
+			this.triggers = triggers;
+		}
+		
+		File outputFile() {
+			return new File(config.getFolder(), config.getFilename()
+					+ (archive ? RunArchiveWriter.EXTENSION : ".csv"));
+		}
+		
+		String label(int index) {
+			return (index + 1) + ": " + (address.isEmpty() ? engineName : address);
+		}
+		
+		@Override
+		public String toString() {
+			String run = config.isSequence() ? config.getSequence().size() + " stages"
+					: config.getVoltage() + " V";
+			return (address.isEmpty() ? engineName : engineName + " @ " + address) + " -> "
+					+ outputFile().getName() + " (" + run + ", " + config.getTime() + " s"
+					+ (triggers.isEmpty() ? "" : ", stop on " + StreamingAnalytics.formatTriggers(triggers)) + ")";
+		}
+	}
+	
+	// Queues the form's parameters as one session of the next run
+	private void addSession() {
+		MeasurementConfig config = readConfig();
+		List<StreamingAnalytics.Trigger> triggers = config == null ? null : readTriggers();
+		if (triggers == null) {
+			return;
+		}
+		String engineName = (String) engineSelector.getSelectedItem();
+		queuedSessions.addElement(new SessionSpec(engineName, instrumentHost.getText().trim(), config,
+				FORMAT_ARCHIVE.equals(saveFormat.getSelectedItem()), triggers));
+		prefs.put("acquisitionEngine", engineName);
+	}
+	
 	private void startMeasurement(JButton startButton, JButton stopButton) {
 		
+		// Chart update settings
+		int refreshRate;
+		int bufferCapacity;
+		try {
+			refreshRate = Integer.parseInt(chartRefreshRate.getText().trim());
+			bufferCapacity = Integer.parseInt(sampleBufferCapacity.getText().trim());
+		} catch (NumberFormatException ex) {
+			refreshRate = 0;
+			bufferCapacity = 0;
+		}
+		if (refreshRate <= 0 || refreshRate > 1000 || bufferCapacity <= 0) {
+			JOptionPane.showMessageDialog(this,
+					"Chart refresh must be 1-1000 Hz and the sample buffer a positive number of samples.",
+					"Invalid Chart Settings", JOptionPane.WARNING_MESSAGE);
+			return;
+		}
+		prefs.put("chartRefreshRate", String.valueOf(refreshRate));
+		prefs.put("sampleBufferCapacity", String.valueOf(bufferCapacity));
+		
+		// The queued sessions, or a single one from the form
+		List<SessionSpec> specs = new ArrayList<>();
+		for (int k = 0; k < queuedSessions.size(); k++) {
+			specs.add(queuedSessions.get(k));
+		}
+		if (specs.isEmpty()) {
+			MeasurementConfig config = readConfig();
+			List<StreamingAnalytics.Trigger> triggers = config == null ? null : readTriggers();
+			if (triggers == null) {
+				return;
+			}
+			String engineName = (String) engineSelector.getSelectedItem();
+			prefs.put("acquisitionEngine", engineName);
+			specs.add(new SessionSpec(engineName, instrumentHost.getText().trim(), config,
+					FORMAT_ARCHIVE.equals(saveFormat.getSelectedItem()), triggers));
+		}
+		
+		// One engine and one output file per session
+		List<AcquisitionEngine> engines = new ArrayList<>();
+		Set<String> outputFiles = new HashSet<>();
+		for (SessionSpec spec : specs) {
+			File output = spec.outputFile();
+			if (!outputFiles.add(output.getAbsolutePath())) {
+				JOptionPane.showMessageDialog(this,
+						"Two sessions write to the same file:\n" + output,
+						"Duplicate Output File", JOptionPane.WARNING_MESSAGE);
+				return;
+			}
+			AcquisitionEngine engine = engineFor(spec);
+			if (engine == null) {
+				return;
+			}
+			if (engines.contains(engine)) {
+				JOptionPane.showMessageDialog(this,
+						"Two sessions use the same instrument: " + spec,
+						"Duplicate Instrument", JOptionPane.WARNING_MESSAGE);
+				return;
+			}
+			engines.add(engine);
+		}
+		
+		if (!confirmOverwrite(specs)) {
+			return;
+		}
+		
+		// Samples are saved as they arrive; group commit settings are preference-only
+		List<RunWriter> writers = new ArrayList<>();
+		for (SessionSpec spec : specs) {
+			File folder = new File(spec.config.getFolder());
+			long flushMillis = prefs.getLong("persistFlushMillis", SampleFileWriter.DEFAULT_FLUSH_INTERVAL_MS);
+			long fsyncMillis = prefs.getLong("persistFsyncMillis", SampleFileWriter.DEFAULT_FSYNC_INTERVAL_MS);
+			try {
+				if (spec.archive) {
+					writers.add(new RunArchiveWriter(folder, spec.config.getFilename(),
+							RunArchiveWriter.metadata(spec.config), flushMillis, fsyncMillis));
+				} else {
+					writers.add(new SampleFileWriter(folder, spec.config.getFilename(), flushMillis,
+							prefs.getInt("persistFlushBytes", SampleFileWriter.DEFAULT_FLUSH_BYTES), fsyncMillis,
+							prefs.getLong("persistRotateBytes", SampleFileWriter.DEFAULT_ROTATE_BYTES)));
+				}
+			} catch (IOException | IllegalArgumentException ex) {
+				for (RunWriter opened : writers) {
+					try {
+						opened.close();
+					} catch (IOException ignored) {}
+				}
+				JOptionPane.showMessageDialog(this,
+						"Cannot create the output file:\n" + ex.getMessage(),
+						"Save Error", JOptionPane.ERROR_MESSAGE);
+				return;
+			}
+		}
+		
+		cancelCsvLoad();
+		seriesCache.clear();
+		resistanceDataset.removeAllStores();
+		plotCounter = 1;
+		
+		if (chartUpdater != null) {
+			chartUpdater.stop();
+		}
+		LiveChartUpdater updater = new LiveChartUpdater(resistanceDataset, refreshRate);
+		chartUpdater = updater;
+		
+		for (MeasurementSession old : sessions) {
+			old.getMetrics().unregister();
+		}
+		sessions.clear();
+		for (int k = 0; k < specs.size(); k++) {
+			SessionSpec spec = specs.get(k);
+			String label = specs.size() == 1 ? "Run " + plotCounter++ : spec.label(k);
+			MeasurementSession session = new MeasurementSession(label, engines.get(k), spec.config);
+			session.configureAnalytics(prefs.getDouble("analyticsWindowSeconds",
+					StreamingAnalytics.DEFAULT_WINDOW_SECONDS), spec.triggers);
+			try {
+				// Pipeline health, also exported over JMX for jconsole
+				if (specs.size() == 1) {
+					session.getMetrics().register();
+				} else {
+					session.getMetrics().register(label);
+				}
+			} catch (JMException ex) {
+				console.append("Pipeline metrics not available over JMX: " + ex.getMessage());
+			}
+			sessions.add(session);
+		}
+		metricsPanel.setSessions(sessions);
+		analyticsPanel.setSessions(sessions);
+		
+		console.resetSummary();
+		console.append(sessions.size() == 1 ? "Measurement started..."
+				: "Measurement started on " + sessions.size() + " instruments...");
+		
+		startButton.setVisible(false);
+		stopButton.setVisible(true);
+		
+		for (int k = 0; k < sessions.size(); k++) {
+			MeasurementSession session = sessions.get(k);
+			if (liveServer != null) {
+				session.setLiveFeed(liveServer.publish(session.getLabel(),
+						RunArchiveWriter.metadata(session.getConfig())));
+			}
+			SampleStore store = new SampleStore(session.getLabel());
+			resistanceDataset.addStore(store);
+			LiveChartUpdater.Source source = updater.addSource(store, bufferCapacity);
+			session.start(writers.get(k), source, console,
+					(s, error, saveError) -> sessionFinished(s, error, saveError, updater, startButton, stopButton));
+		}
+		updater.start();
+	}
+	
+	/**
+	 * Asks before the sessions replace the files of an earlier run, and removes
+	 * them if the user agrees; the writers never overwrite.
+	 * @return false if the run should not start
+	 */
+	private boolean confirmOverwrite(List<SessionSpec> specs) {
+		List<File> existing = new ArrayList<>();
+		for (SessionSpec spec : specs) {
+			File folder = new File(spec.config.getFolder());
+			existing.addAll(spec.archive ? RunArchiveWriter.existingFiles(folder, spec.config.getFilename())
+					: SampleFileWriter.existingFiles(folder, spec.config.getFilename()));
+		}
+		return existing.isEmpty() || confirmDelete(existing, "Start Measurement");
+	}
+	
+	// Overwrite confirmation for output files that already exist
+	private boolean confirmDelete(List<File> existing, String title) {
+		StringBuilder list = new StringBuilder();
+		for (File file : existing) {
+			list.append("\n").append(file);
+		}
+		if (JOptionPane.showConfirmDialog(this, "Overwrite the existing file(s)?" + list, title,
+				JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) {
+			return false;
+		}
+		for (File file : existing) {
+			try {
+				Files.delete(file.toPath());
+			} catch (IOException ex) {
+				JOptionPane.showMessageDialog(this, "Cannot overwrite " + file + ":\n" + ex.getMessage(),
+						"Save Error", JOptionPane.ERROR_MESSAGE);
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Validates the form and returns its measurement parameters, or null after
+	 * telling the user what is wrong.
+	 */
+	private MeasurementConfig readConfig() {
+		
 		String folderPath = folderPathField.getText().trim();
 		String outputName = outputFilenameField.getText().trim();
 		
@@ -426,7 +969,7 @@ public class ResistanceMeasurement extends JFrame{
 					"Please select a save folder before starting the measurement.",
 					"Missing Save Folder",
 					JOptionPane.WARNING_MESSAGE);
-			return;
+			return null;
 		}
 		
 		if (outputName.isEmpty()) {
@@ -434,7 +977,7 @@ public class ResistanceMeasurement extends JFrame{
 					"Please enter an output filename before starting the measurement.",
 					"Missing Output Filename",
 					JOptionPane.WARNING_MESSAGE);
-			return;
+			return null;
 		}
 		
 	    // Folder validations
@@ -443,29 +986,29 @@ public class ResistanceMeasurement extends JFrame{
 	        JOptionPane.showMessageDialog(this, 
 	            "Folder does not exist:\n" + folderPath, 
 	            "Folder Not Found", JOptionPane.ERROR_MESSAGE);
-	        return;
+	        return null;
 	    }
 	    if (!outputFolder.isDirectory()) {
 	        JOptionPane.showMessageDialog(this, 
 	            "Not a folder:\n" + folderPath, 
 	            "Not a Folder", JOptionPane.ERROR_MESSAGE);
-	        return;
+	        return null;
 	    }
 	    if (!outputFolder.canWrite()) {
 	        JOptionPane.showMessageDialog(this, 
 	            "No write access:\n" + folderPath, 
 	            "Permission Error", JOptionPane.ERROR_MESSAGE);
-	        return;
+	        return null;
 	    }
 		
 	    // FILENAME VALIDATIONS
-		if (!isValidFilename(outputName)) {
+		if (!MeasurementConfig.isValidFilename(outputName)) {
 		     JOptionPane.showMessageDialog(this, 
 		            "Invalid filename!\n" +
 		            "Use only letters, numbers, -, _, ( ), \n" +
 		            "No: / \\ : * ? \" < > | .exe", 
 		            "Invalid Filename", JOptionPane.ERROR_MESSAGE);
-		    return;
+		    return null;
 		}
 		    
 		if (outputName.contains(" ")) {
@@ -473,7 +1016,7 @@ public class ResistanceMeasurement extends JFrame{
 		            "Filename contains spaces - Python may fail.\n" +
 		            "Use underscores (_) instead: my_measurement", 
 		            "Spaces Detected", JOptionPane.WARNING_MESSAGE);
-		    return;
+		    return null;
 		}
 		    
 		if (outputName.toLowerCase().endsWith(".py") || 
@@ -482,158 +1025,418 @@ public class ResistanceMeasurement extends JFrame{
 		    JOptionPane.showMessageDialog(this, 
 		            "Avoid .py, .exe, .jar extensions - conflicts with code files.", 
 		            "Bad Extension", JOptionPane.WARNING_MESSAGE);
-		    return;
+		    return null;
 		}
 		    
 		// Path too long (Windows limit)
-		String fullPath = folderPath + "/" + outputName + ".csv";
+		String fullPath = folderPath + "/" + outputName + RunArchiveWriter.EXTENSION;
 		if (fullPath.length() > 260) {
 		    JOptionPane.showMessageDialog(this, "Full path too long (max 260 chars).", 
 		            "Path Too Long", JOptionPane.WARNING_MESSAGE);
-		    return;
+		    return null;
 		}	
 		
-		resistanceDataset.removeAllSeries();
-		plotCounter = 1;
-		
-		XYSeries liveSeries = new XYSeries("Run " + plotCounter++);
-		resistanceDataset.addSeries(liveSeries);
-		
+		MeasurementConfig config;
+		try {
+			config = new MeasurementConfig(
+					Double.parseDouble(voltage.getText().trim()),
+					Double.parseDouble(time.getText().trim()),
+					MeasurementConfig.parseAutoOrNumber(sampleInterval.getText()),
+					MeasurementConfig.parseAutoOrNumber(currentRange.getText()),
+					Double.parseDouble(nplc.getText().trim()),
+					Double.parseDouble(complianceCurrent.getText().trim()),
+					rearTerminalRadio.isSelected(),
+					folderPath, outputName);
+		} catch (NumberFormatException ex) {
+			JOptionPane.showMessageDialog(this,
+					"Measurement parameters must be numbers (sample interval and current range may be AUTO).",
+					"Invalid Parameter", JOptionPane.WARNING_MESSAGE);
+			return null;
+		}
 		
 		try {
-			String scriptPath = getPythonScriptPath();
-	        List<String> command = new ArrayList<>();
-	        command.add(PYTHON_VENV_PATH);
-	        command.add(scriptPath);
-	        command.add(voltage.getText());
-	        command.add(time.getText());
-	        command.add(sampleInterval.getText());
-	        command.add(currentRange.getText());
-	        command.add(nplc.getText());
-	        command.add(complianceCurrent.getText());
-	        command.add(folderPathField.getText());
-	        command.add(outputFilenameField.getText());
-	        command.add(rearTerminalRadio.isSelected() ? "REAR" : "FRONT");
-	        
-			// Prepare Python command with arguments
-			ProcessBuilder pb = new ProcessBuilder(command);
-			
-			pb.redirectErrorStream(true);
-			pythonProcess = pb.start();
-			output = new BufferedWriter(new OutputStreamWriter(pythonProcess.getOutputStream()));
-			
-			outputArea.append("Measurement started...\n");
-			outputArea.append("Using Python: " + PYTHON_VENV_PATH + "\n");
-			
-			startButton.setVisible(false);
-			stopButton.setVisible(true);
-			
-			
-			
-			readerThread = new Thread(() -> 
-				readPythonOutput(pythonProcess.getInputStream(), startButton, stopButton, liveSeries)
-			);
-			readerThread.start();
-			
-		} catch (IOException ex) {
-			outputArea.append("Error starting Python script: " + ex.getMessage() + "\n");
-			ex.printStackTrace();
+			VoltageSequence sequence = readSequence();
+			if (sequence != null) {
+				config = config.withSequence(sequence);
+				prefs.put("voltageSequence", sequence.format());
+			} else {
+				prefs.remove("voltageSequence");
+			}
+			config.getSequence();	// validates the constant hold too
+		} catch (IllegalArgumentException ex) {
+			JOptionPane.showMessageDialog(this,
+					"Invalid voltage sequence or time:\n" + ex.getMessage(),
+					"Invalid Sequence", JOptionPane.WARNING_MESSAGE);
+			return null;
 		}
+		return config;
 	}
-
-	private void stopMeasurement(JButton startButton, JButton stopButton){
+	
+	// The auto-stop triggers of the form, or null after telling the user what is wrong
+	private List<StreamingAnalytics.Trigger> readTriggers() {
 		try {
-			if (output != null) {
-				output.write("STOP\n");
-				output.flush();
+			List<StreamingAnalytics.Trigger> triggers = StreamingAnalytics.parseTriggers(autoStopTriggers.getText());
+			prefs.put("autoStopTriggers", StreamingAnalytics.formatTriggers(triggers));
+			return triggers;
+		} catch (IllegalArgumentException ex) {
+			JOptionPane.showMessageDialog(this,
+					"Invalid auto-stop trigger:\n" + ex.getMessage(),
+					"Invalid Trigger", JOptionPane.WARNING_MESSAGE);
+			return null;
+		}
+	}
+	
+	// The stages in the sequence table, or null if it is empty
+	private VoltageSequence readSequence() {
+		if (sequenceTable.isEditing()) {
+			sequenceTable.getCellEditor().stopCellEditing();
+		}
+		if (sequenceModel.getRowCount() == 0) {
+			return null;
+		}
+		List<VoltageSequence.Stage> stages = new ArrayList<>();
+		for (int row = 0; row < sequenceModel.getRowCount(); row++) {
+			try {
+				stages.add(new VoltageSequence.Stage(
+						Double.parseDouble(String.valueOf(sequenceModel.getValueAt(row, 0)).trim()),
+						Double.parseDouble(String.valueOf(sequenceModel.getValueAt(row, 1)).trim()),
+						MeasurementConfig.parseAutoOrNumber(String.valueOf(sequenceModel.getValueAt(row, 2)))));
+			} catch (NumberFormatException ex) {
+				throw new IllegalArgumentException("Stage " + (row + 1) + ": numbers expected (interval may be AUTO)");
 			}
-		}catch (IOException ex) {
-			ex.printStackTrace();
 		}
-		// GUI updates buttons
+		return new VoltageSequence(stages);
+	}
+	
+	private void sessionFinished(MeasurementSession session, String error, String saveError,
+			LiveChartUpdater updater, JButton startButton, JButton stopButton) {
+		String prefix = sessions.size() > 1 ? "[" + session.getLabel() + "] " : "";
+		RunWriter writer = session.getWriter();
+		AcquisitionEngine engine = session.getEngine();
+		if (error != null) {
+			console.append(prefix + "Measurement failed: " + error);
+		}
+		if (saveError != null) {
+			console.append(prefix + "ERROR: saving samples failed: " + saveError);
+		} else if (writer.getSampleCount() > 0) {
+			console.append(prefix + "Saved " + writer.getSampleCount() + " samples to " + writer.getFiles());
+		}
+		if (engine.getDroppedSamples() > 0) {
+			console.append(prefix + "WARNING: " + engine.getDroppedSamples() + " samples missing from the data channel");
+		}
+		String timing = engine.getTimingReport();
+		if (timing != null) {
+			for (String line : timing.split("\n")) {
+				console.append(prefix + line);
+			}
+		}
+		SamplePipeline pipeline = session.getPipeline();
+		for (SamplePipeline.Sink sink : pipeline.getSinks()) {
+			if (sink.getDropped() > 0 || sink.getError() != null) {
+				console.append(prefix + "Sinks: " + pipeline.describe());
+				break;
+			}
+		}
+		for (MeasurementSession s : sessions) {
+			if (s.isRunning()) {
+				return;	// the others are still measuring
+			}
+		}
+		updater.stop();
+		console.summarize();
 		startButton.setVisible(true);
 		stopButton.setVisible(false);
+		exportRuns();
 	}
 	
-	private void readPythonOutput(InputStream inputStream, JButton startButton, JButton stopButton, XYSeries targetSeries) {
-		try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))){
-			String line;
-			while ((line = reader.readLine()) != null) {
-				final String output = line.trim();
-				if (output.isEmpty()) continue;
-				
-				// Update console area
-				SwingUtilities.invokeLater(() -> outputArea.append(output + "\n"));
-				
-				// GETTING PYTHON DATA
-				String[] parts = output.split(",");
-				if (parts.length == 4) {
-					try {
-						double absTime = Double.parseDouble(parts[0]);
-						double voltage = Double.parseDouble(parts[1]);
-						double current = Double.parseDouble(parts[2]);
-						double resistance = Double.parseDouble(parts[3]);
-						
-						SwingUtilities.invokeLater(() -> {
-							targetSeries.add(absTime, resistance);
-						});						
-					}catch (NumberFormatException ignored) {}
+	// Plots and summaries of the finished sessions, written in the background
+	private void exportRuns() {
+		String format = (String) plotExport.getSelectedItem();
+		RunExporter exporter = new RunExporter(EXPORT_PNG.equals(format) || EXPORT_BOTH.equals(format),
+				EXPORT_SVG.equals(format) || EXPORT_BOTH.equals(format),
+				RunExporter.DEFAULT_WIDTH, RunExporter.DEFAULT_HEIGHT, (Integer) plotScale.getSelectedItem());
+		boolean several = sessions.size() > 1;
+		for (MeasurementSession session : sessions) {
+			exporter.export(session, session.getSource().getStore(), (label, files, error) -> {
+				String prefix = several ? "[" + label + "] " : "";
+				if (error != null) {
+					console.append(prefix + "ERROR: exporting the plot failed: " + error.getMessage());
+				} else {
+					console.append(prefix + "Exported " + files);
 				}
-			}
-		}catch (IOException e) {
-			SwingUtilities.invokeLater(() -> outputArea.append("Measurement finished or error: " + e.getMessage() + "\n"));
-		}finally {
-			SwingUtilities.invokeLater(() -> {
-				startButton.setVisible(true);
-				stopButton.setVisible(false);
 			});
 		}
 	}
+
+	/**
+	 * Starts the live server on the port, in place of a running one, or stops it
+	 * when the box is unticked. Runs already measuring are not streamed.
+	 */
+	private void setLiveServer(JCheckBox enabled, int port) {
+		if (liveServer != null) {
+			liveServer.close();
+			liveServer = null;
+		}
+		if (!enabled.isSelected()) {
+			console.append("Live server stopped");
+			return;
+		}
+		try {
+			LiveServer server = new LiveServer(new InetSocketAddress(port));
+			server.start();
+			liveServer = server;
+		} catch (IOException ex) {
+			console.append("ERROR: live server not started on port " + port + ": " + ex.getMessage());
+			enabled.setSelected(false);
+			return;
+		}
+		String host;
+		try {
+			host = InetAddress.getLocalHost().getHostName();
+		} catch (UnknownHostException ex) {
+			host = "localhost";
+		}
+		console.append("Live server: http://" + host + ":" + port + "/");
+	}
+
+	private void stopMeasurement(JButton startButton, JButton stopButton){
+		for (MeasurementSession session : sessions) {
+			try {
+				if (session.isRunning()) {
+					session.stop();
+				}
+			}catch (IOException ex) {
+				ex.printStackTrace();
+			}
+		}
+		// GUI updates buttons
+		startButton.setVisible(true);
+		stopButton.setVisible(false);
+	}
 	
-	// Validate filename method
-	private boolean isValidFilename(String filename) {
-	    // Windows invalid chars
-	    String invalidChars = "[\\\\/:*?\"<>|]";
-	    return filename.matches("^[a-zA-Z0-9._() -]+$") && 
-	           !filename.matches(".*" + invalidChars + ".*");
+	/**
+	 * The engine for a session: the Python backend (VISA), the native SCPI driver
+	 * over LAN or the simulator, one per instrument address. Returns null (after
+	 * telling the user) if it cannot be used.
+	 */
+	private AcquisitionEngine engineFor(SessionSpec spec) {
+		String address = spec.address;
+		
+		if (ENGINE_SIMULATOR.equals(spec.engineName)) {
+			if (address.isEmpty()) {
+				return simulator;
+			}
+			return simulators.computeIfAbsent(address, a -> new SimulatedEngine().setSeed(a.hashCode()));
+		}
+		if (ENGINE_SCPI.equals(spec.engineName) || ENGINE_SCPI_BUFFERED.equals(spec.engineName)) {
+			if (address.isEmpty()) {
+				JOptionPane.showMessageDialog(this,
+						"Enter the instrument's IP address or host name for LAN acquisition.",
+						"Missing Instrument Address", JOptionPane.WARNING_MESSAGE);
+				return null;
+			}
+			prefs.put("instrumentHost", address);
+			Keithley2450Engine scpiEngine = scpiEngines.computeIfAbsent(address, Keithley2450Engine::new);
+			scpiEngine.setBuffered(ENGINE_SCPI_BUFFERED.equals(spec.engineName));
+			return scpiEngine;
+		}
+		
+		// Python: the warm backend drives the first instrument found, others get their own
+		if (address.isEmpty()) {
+			if (backend == null) {
+				console.append("Python backend is not available (still starting or not installed)");
+			}
+			return backend;
+		}
+		PythonBackend forResource = pythonBackends.get(address);
+		if (forResource == null) {
+			if (pythonPath == null) {
+				console.append("Python backend is not available (still starting or not installed)");
+				return null;
+			}
+			try {
+				forResource = new PythonBackend(pythonPath, scriptPath, address,
+						line -> console.append("[" + address + "] " + line));
+				forResource.startAsync();
+			} catch (IOException ex) {
+				console.append("Python backend unavailable for " + address + ": " + ex.getMessage());
+				return null;
+			}
+			pythonBackends.put(address, forResource);
+		}
+		prefs.put("instrumentHost", address);
+		return forResource;
 	}
 	
 	// ------------------ Loading CSV files method ---------------- //
 	private void loadCsvFile() {
 		JFileChooser chooser = new JFileChooser();
 		chooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter(
-				"CSV Files", "csv"));
+				"CSV Files and Run Archives", "csv", RunArchiveWriter.EXTENSION.substring(1)));
+		chooser.setMultiSelectionEnabled(true);
 		
 		if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
-			File file = chooser.getSelectedFile();
-			plotCsv(file);
+			// All files load at once; their chunks share the parser pool
+			File[] files = chooser.getSelectedFiles();
+			for (File file : files) {
+				if (file.getName().endsWith(RunArchiveWriter.EXTENSION)) {
+					plotArchive(file, files.length == 1);
+				} else {
+					plotCsv(file);
+				}
+			}
 		}
 	}
 	
-	private void plotCsv(File csvFile) {
-		//currentSeries.clear()
-		
-		XYSeries series = new XYSeries(csvFile.getName());
-		resistanceDataset.addSeries(series);
-		
-		try (BufferedReader br = new BufferedReader(new java.io.FileReader(csvFile))) {
-			String line = br.readLine();  //read csv headers
+	// Opens the archive's index and, if asked, which time window to plot
+	private void plotArchive(File file, boolean askWindow) {
+		RunArchiveReader reader;
+		try {
+			reader = new RunArchiveReader(file);
+		} catch (IOException ex) {
+			JOptionPane.showMessageDialog(this, "Failed to open run archive:\n" + ex.getMessage());
+			return;
+		}
+		double from = reader.getStartTime();
+		double to = reader.getEndTime();
+		if (askWindow && reader.getBlockCount() > 1) {
+			JTextField fromField = new JTextField(String.valueOf(from));
+			JTextField toField = new JTextField(String.valueOf(to));
+			JPanel window = new JPanel(new GridLayout(3, 2, 5, 5));
+			window.add(new JLabel(reader.getSampleCount() + " samples"));
+			window.add(new JLabel(reader.getMetadata().getOrDefault("created", "")));
+			window.add(new JLabel("From (s):"));
+			window.add(fromField);
+			window.add(new JLabel("To (s):"));
+			window.add(toField);
+			int choice = JOptionPane.showConfirmDialog(this, window, "Time Window of " + file.getName(),
+					JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+			try {
+				from = Double.parseDouble(fromField.getText().trim());
+				to = Double.parseDouble(toField.getText().trim());
+			} catch (NumberFormatException ex) {
+				choice = JOptionPane.CANCEL_OPTION;
+				JOptionPane.showMessageDialog(this, "The time window must be two numbers in seconds.",
+						"Invalid Time Window", JOptionPane.WARNING_MESSAGE);
+			}
+			if (choice != JOptionPane.OK_OPTION) {
+				try {
+					reader.close();
+				} catch (IOException ignored) {}
+				return;
+			}
+		}
+		if (reader.isRecovered()) {
+			console.append(file.getName() + " was not closed properly; recovered " + reader.getBlockCount() + " blocks");
+		}
+		// Only the blocks in the window are read
+		ArchiveLoader loader = new ArchiveLoader(reader, from, to, resistanceDataset, this::archiveLoadFinished);
+		archiveLoaders.add(loader);
+		seriesCache.loading(loader.getStore(), file, from, to);
+		cancelLoadButton.setVisible(true);
+		console.append("Loading " + file.getName() + "...");
+		loader.start();
+	}
+	
+	private void archiveLoadFinished(ArchiveLoader loader, ArchiveLoader.Result result, Exception error) {
+		archiveLoaders.remove(loader);
+		cancelLoadButton.setVisible(!csvLoaders.isEmpty() || !archiveLoaders.isEmpty());
+		if (result != null) {
+			console.append(String.format("Loaded %s: %d samples in %.2f s",
+					loader.getStore().getName(), result.getSamples(), result.getSeconds()));
+			seriesCache.add(loader.getStore(), loader.getFile(), loader.getFrom(), loader.getTo());
+			return;
+		}
+		seriesCache.remove(loader.getStore());
+		resistanceDataset.removeStore(loader.getStore());
+		if (error != null) {
+			JOptionPane.showMessageDialog(this, "Failed to load run archive:\n" + error.getMessage());
+		} else {
+			console.append("Loading " + loader.getStore().getName() + " cancelled");
+		}
+	}
+	
+	// Converts a run archive to CSV next to it, for tools that only read CSV
+	private void exportArchiveCsv() {
+		JFileChooser chooser = new JFileChooser();
+		chooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter(
+				"Run Archives", RunArchiveWriter.EXTENSION.substring(1)));
+		if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+			return;
+		}
+		File file = chooser.getSelectedFile();
+		String name = file.getName();
+		String baseName = name.endsWith(RunArchiveWriter.EXTENSION)
+				? name.substring(0, name.length() - RunArchiveWriter.EXTENSION.length()) : name;
+		List<File> existing = SampleFileWriter.existingFiles(file.getParentFile(), baseName);
+		if (!existing.isEmpty() && !confirmDelete(existing, "Export CSV")) {
+			return;
+		}
+		console.append("Exporting " + name + " to CSV...");
+		new SwingWorker<List<File>, Void>() {
+			@Override
+			protected List<File> doInBackground() throws IOException {
+				try (RunArchiveReader reader = new RunArchiveReader(file)) {
+					return reader.exportCsv(file.getParentFile(), baseName);
+				}
+			}
 			
-			while ((line = br.readLine()) != null) {
-				String[] parts = line.split(",");
-				
-				double time = Double.parseDouble(parts[0]); // abs_time_s
-				double current = Double.parseDouble(parts[3]); // current_A
-				
-				series.add(time, current);
-			} 
-		} catch (Exception ex) {
-			JOptionPane.showMessageDialog(this, "Failed to load CSV:\n" + ex.getMessage());
+			@Override
+			protected void done() {
+				try {
+					console.append("Exported " + name + " to " + get());
+				} catch (Exception ex) {
+					Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+					JOptionPane.showMessageDialog(ResistanceMeasurement.this,
+							"Failed to export CSV:\n" + cause.getMessage());
+				}
+			}
+		}.execute();
+	}
+	
+	private void plotCsv(File csvFile) {
+		// Parsed in the background; points appear as chunks complete
+		CsvLoader loader = new CsvLoader(csvFile, resistanceDataset, this::csvLoadFinished);
+		csvLoaders.add(loader);
+		seriesCache.loading(loader.getStore(), csvFile, Double.NaN, Double.NaN);
+		cancelLoadButton.setVisible(true);
+		console.append("Loading " + csvFile.getName() + "...");
+		loader.start();
+	}
+	
+	private void csvLoadFinished(CsvLoader loader, CsvLoader.Result result, Exception error) {
+		csvLoaders.remove(loader);
+		cancelLoadButton.setVisible(!csvLoaders.isEmpty() || !archiveLoaders.isEmpty());
+		if (result != null) {
+			console.append(String.format("Loaded %s: %d rows in %.2f s (%.0f rows/s)%s",
+					loader.getStore().getName(), result.getRows(), result.getSeconds(),
+					result.getRowsPerSecond(),
+					result.getSkippedRows() > 0 ? ", skipped " + result.getSkippedRows() + " invalid rows" : ""));
+			seriesCache.add(loader.getStore(), loader.getFile(), Double.NaN, Double.NaN);
+			return;
+		}
+		seriesCache.remove(loader.getStore());
+		resistanceDataset.removeStore(loader.getStore());
+		if (error != null) {
+			JOptionPane.showMessageDialog(this, "Failed to load CSV:\n" + error.getMessage());
+		} else {
+			console.append("Loading " + loader.getStore().getName() + " cancelled");
+		}
+	}
+	
+	private void cancelCsvLoad() {
+		for (CsvLoader loader : new ArrayList<>(csvLoaders)) {
+			loader.cancelLoad();
+		}
+		for (ArchiveLoader loader : new ArrayList<>(archiveLoaders)) {
+			loader.cancelLoad();
 		}
 	}
 	
 	private void clearPlots() {
-		resistanceDataset.removeAllSeries();
+		cancelCsvLoad();
+		seriesCache.clear();
+		resistanceDataset.removeAllStores();
 		plotCounter = 1;
 	}
 	
@@ -0,0 +1,312 @@
+package ecs.resistanceMeasurement;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a run archive written by {@link RunArchiveWriter}. Opening reads only the
+ * header and the block index; {@link #read(double, double, SampleConsumer)}
+ * decodes just the blocks overlapping the requested time window. An archive
+ * whose index was never written (the run did not end cleanly) is indexed by
+ * scanning the block headers, and a truncated last block is ignored.
+ *
+ * Not thread-safe; use one reader per thread.
+ */
+public class RunArchiveReader implements Closeable {
+
+	private final File file;
+	private final FileChannel channel;
+	private final Map<String, String> metadata;
+	private final long[] offsets;
+	private final long[] firstTimes;
+	private final long[] lastTimes;
+	private final int[] counts;
+	private final long sampleCount;
+	private final boolean recovered;
+
+	// Decode buffers, reused per block
+	private final long[] times = new long[RunArchiveWriter.BLOCK_SAMPLES];
+	private final double[][] columns = new double[ArchiveCodec.COLUMNS][RunArchiveWriter.BLOCK_SAMPLES];
+	private final double[] seconds = new double[RunArchiveWriter.BLOCK_SAMPLES];
+	private byte[] payload = new byte[0];
+
+	/**
+	 * @throws IOException if the file cannot be read or is not a run archive
+	 */
+	public RunArchiveReader(File file) throws IOException {
+		this.file = file;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			ByteBuffer header = read(0, RunArchiveWriter.MAGIC.length + 2 + 4);
+			byte[] magic = new byte[RunArchiveWriter.MAGIC.length];
+			header.get(magic);
+			if (!Arrays.equals(magic, RunArchiveWriter.MAGIC)) {
+				throw new IOException("Not a run archive: " + file);
+			}
+			short version = header.getShort();
+			if (version != RunArchiveWriter.VERSION) {
+				throw new IOException("Unsupported run archive version " + version + ": " + file);
+			}
+			int metadataBytes = header.getInt();
+			long dataStart = header.limit() + (long) metadataBytes;
+			if (metadataBytes < 0 || dataStart > size) {
+				throw new IOException("Corrupt run archive header: " + file);
+			}
+			metadata = parseMetadata(read(header.limit(), metadataBytes));
+
+			List<long[]> index = readIndex(dataStart, size);
+			recovered = index == null;
+			if (index == null) {
+				index = scanBlocks(dataStart, size);
+			}
+			int blocks = index.size();
+			offsets = new long[blocks];
+			firstTimes = new long[blocks];
+			lastTimes = new long[blocks];
+			counts = new int[blocks];
+			long total = 0;
+			for (int k = 0; k < blocks; k++) {
+				long[] entry = index.get(k);
+				offsets[k] = entry[0];
+				firstTimes[k] = entry[1];
+				lastTimes[k] = entry[2];
+				counts[k] = (int) entry[3];
+				total += counts[k];
+			}
+			sampleCount = total;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of run archive: " + file);
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static Map<String, String> parseMetadata(ByteBuffer buffer) {
+		Map<String, String> m = new LinkedHashMap<>();
+		String text = new String(buffer.array(), 0, buffer.limit(), StandardCharsets.UTF_8);
+		for (String line : text.split("\n")) {
+			int eq = line.indexOf('=');
+			if (eq > 0) {
+				m.put(line.substring(0, eq), line.substring(eq + 1));
+			}
+		}
+		return Collections.unmodifiableMap(m);
+	}
+
+	// The index written on close, or null if there is none
+	private List<long[]> readIndex(long dataStart, long size) throws IOException {
+		if (size - dataStart < RunArchiveWriter.FOOTER_BYTES) {
+			return null;
+		}
+		ByteBuffer footer = read(size - RunArchiveWriter.FOOTER_BYTES, RunArchiveWriter.FOOTER_BYTES);
+		int blocks = footer.getInt();
+		long indexOffset = footer.getLong();
+		byte[] magic = new byte[RunArchiveWriter.INDEX_MAGIC.length];
+		footer.get(magic);
+		if (!Arrays.equals(magic, RunArchiveWriter.INDEX_MAGIC) || blocks < 0 || indexOffset < dataStart
+				|| indexOffset + (long) blocks * RunArchiveWriter.INDEX_ENTRY_BYTES
+						!= size - RunArchiveWriter.FOOTER_BYTES) {
+			return null;
+		}
+		ByteBuffer buffer = read(indexOffset, blocks * RunArchiveWriter.INDEX_ENTRY_BYTES);
+		List<long[]> index = new ArrayList<>(blocks);
+		for (int k = 0; k < blocks; k++) {
+			index.add(new long[] { buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getInt() });
+		}
+		return index;
+	}
+
+	// Rebuilds the index from the block headers; stops at the first incomplete block
+	private List<long[]> scanBlocks(long dataStart, long size) throws IOException {
+		List<long[]> index = new ArrayList<>();
+		long position = dataStart;
+		while (position + RunArchiveWriter.BLOCK_HEADER_BYTES <= size) {
+			ByteBuffer header = read(position, RunArchiveWriter.BLOCK_HEADER_BYTES);
+			int count = header.getInt();
+			long first = header.getLong();
+			long last = header.getLong();
+			int length = header.getInt();
+			long end = position + RunArchiveWriter.BLOCK_HEADER_BYTES + length;
+			if (count <= 0 || count > RunArchiveWriter.BLOCK_SAMPLES || length < 0 || end > size) {
+				break;
+			}
+			index.add(new long[] { position, first, last, count });
+			position = end;
+		}
+		return index;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/** The run parameters stored by the writer. */
+	public Map<String, String> getMetadata() {
+		return metadata;
+	}
+
+	public long getSampleCount() {
+		return sampleCount;
+	}
+
+	public int getBlockCount() {
+		return offsets.length;
+	}
+
+	/** True if the archive had no index (the run did not end cleanly) and its blocks were scanned. */
+	public boolean isRecovered() {
+		return recovered;
+	}
+
+	/** Time of the first sample, NaN for an empty archive. */
+	public double getStartTime() {
+		return offsets.length == 0 ? Double.NaN : ArchiveCodec.toSeconds(firstTimes[0]);
+	}
+
+	/** Time of the last sample, NaN for an empty archive. */
+	public double getEndTime() {
+		return offsets.length == 0 ? Double.NaN : ArchiveCodec.toSeconds(lastTimes[offsets.length - 1]);
+	}
+
+	/**
+	 * Hands the samples with {@code from <= time <= to} to the consumer, a block
+	 * at a time, with a {@link SampleConsumer#stageStarted} call before the first
+	 * one and wherever the stage changes. Only the blocks overlapping the window
+	 * are read.
+	 * @return the samples delivered
+	 */
+	public long read(double from, double to, SampleConsumer samples) throws IOException {
+		long fromNanos = ArchiveCodec.toNanos(from);
+		long toNanos = ArchiveCodec.toNanos(to);
+		long delivered = 0;
+		int stage = -1;
+		for (int k = firstBlockEndingAfter(fromNanos); k < offsets.length && firstTimes[k] <= toNanos; k++) {
+			int count = decodeBlock(k);
+			int start = 0;
+			while (start < count && times[start] < fromNanos) {
+				start++;
+			}
+			int end = count;
+			while (end > start && times[end - 1] > toNanos) {
+				end--;
+			}
+			for (int n = start; n < end; n++) {
+				seconds[n] = ArchiveCodec.toSeconds(times[n]);
+			}
+			// Split the block where the stage changes
+			int run = start;
+			for (int n = start; n < end; n++) {
+				int s = (int) columns[3][n];
+				if (s != stage) {
+					deliver(samples, run, n);
+					samples.stageStarted(s, seconds[n]);
+					stage = s;
+					run = n;
+				}
+			}
+			deliver(samples, run, end);
+			delivered += end - start;
+		}
+		return delivered;
+	}
+
+	/** Hands every sample to the consumer. */
+	public long readAll(SampleConsumer samples) throws IOException {
+		return read(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, samples);
+	}
+
+	private void deliver(SampleConsumer samples, int from, int to) {
+		if (to <= from) {
+			return;
+		}
+		if (from == 0) {
+			samples.acceptBlock(seconds, columns[0], columns[1], columns[2], to);
+		} else {
+			for (int n = from; n < to; n++) {
+				samples.accept(seconds[n], columns[0][n], columns[1][n], columns[2][n]);
+			}
+		}
+	}
+
+	// Blocks are in time order: binary search on the last times
+	private int firstBlockEndingAfter(long nanos) {
+		int low = 0;
+		int high = offsets.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (lastTimes[mid] < nanos) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private int decodeBlock(int k) throws IOException {
+		ByteBuffer header = read(offsets[k], RunArchiveWriter.BLOCK_HEADER_BYTES);
+		int count = header.getInt();
+		header.position(header.position() + 16);
+		int length = header.getInt();
+		if (count != counts[k] || length < 0) {
+			throw new IOException("Corrupt run archive block " + k + ": " + file);
+		}
+		if (payload.length < length) {
+			payload = new byte[length];
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(payload, 0, length);
+		long position = offsets[k] + RunArchiveWriter.BLOCK_HEADER_BYTES;
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of run archive: " + file);
+			}
+		}
+		try {
+			ArchiveCodec.decode(new ArchiveCodec.BitReader(payload, 0, length), count, times, columns);
+		} catch (IllegalStateException e) {
+			throw new IOException(e.getMessage() + " (block " + k + " of " + file + ")");
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the whole run as CSV, in the format of {@link SampleFileWriter}.
+	 * @return the CSV files written
+	 */
+	public List<File> exportCsv(File folder, String baseName) throws IOException {
+		SampleFileWriter writer = new SampleFileWriter(folder, baseName);
+		try {
+			readAll(writer);
+		} finally {
+			writer.close();
+		}
+		return writer.getFiles();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,264 @@
+package ecs.resistanceMeasurement;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists samples to a compressed run archive ({@code name.krma}) while the run
+ * is in progress; read back with {@link RunArchiveReader}.
+ *
+ * Layout: a header with the run parameters as metadata, then self-describing
+ * blocks of up to {@link #BLOCK_SAMPLES} samples encoded by {@link ArchiveCodec}
+ * (count, first and last time, payload length, payload), and on close an index
+ * of the blocks with their time ranges and a footer pointing to it. A block is
+ * written when it is full and on a timer every flush interval, and the file is
+ * forced to disk every fsync interval, as with {@link SampleFileWriter}. A file
+ * without its index (crash, power loss) is still read, by scanning the blocks.
+ * An existing archive is never overwritten.
+ *
+ * All integers are big-endian.
+ */
+public class RunArchiveWriter implements RunWriter {
+
+	public static final String EXTENSION = ".krma";
+	public static final int BLOCK_SAMPLES = 4096;
+
+	static final byte[] MAGIC = { 'K', 'R', 'M', 'A' };
+	static final byte[] INDEX_MAGIC = { 'K', 'R', 'M', 'I' };
+	static final short VERSION = 1;
+	static final int BLOCK_HEADER_BYTES = 4 + 8 + 8 + 4;
+	static final int INDEX_ENTRY_BYTES = 8 + 8 + 8 + 4;
+	static final int FOOTER_BYTES = 4 + 8 + 4;
+
+	private final File file;
+	private final FileChannel channel;
+	private final long fsyncIntervalNanos;
+	private final ScheduledExecutorService committer;
+
+	// Block being filled, guarded by this
+	private final long[] times = new long[BLOCK_SAMPLES];
+	private final double[][] columns = new double[ArchiveCodec.COLUMNS][BLOCK_SAMPLES];
+	private int count;
+	private int stage;
+	private final ArchiveCodec.BitWriter bits = new ArchiveCodec.BitWriter();
+
+	// Index of the written blocks: offset, first and last time, count
+	private final List<long[]> index = new ArrayList<>();
+	private long position;
+	private long samples;
+	private long lastSyncNanos = System.nanoTime();
+	private IOException error;
+	private boolean closed;
+
+	/** The archive of an earlier run a writer for this name would collide with, if any. */
+	public static List<File> existingFiles(File folder, String baseName) {
+		File file = new File(folder, baseName + EXTENSION);
+		return file.exists() ? Collections.singletonList(file) : Collections.<File>emptyList();
+	}
+
+	/**
+	 * @throws java.nio.file.FileAlreadyExistsException if the archive already exists
+	 */
+	public RunArchiveWriter(File folder, String baseName, Map<String, String> metadata) throws IOException {
+		this(folder, baseName, metadata, SampleFileWriter.DEFAULT_FLUSH_INTERVAL_MS,
+				SampleFileWriter.DEFAULT_FSYNC_INTERVAL_MS);
+	}
+
+	public RunArchiveWriter(File folder, String baseName, Map<String, String> metadata,
+			long flushIntervalMillis, long fsyncIntervalMillis) throws IOException {
+		if (flushIntervalMillis <= 0) {
+			throw new IllegalArgumentException("Flush interval must be positive");
+		}
+		this.file = new File(folder, baseName + EXTENSION);
+		this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMillis);
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		try {
+			writeHeader(metadata);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+
+		this.committer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "archive-writer");
+			t.setDaemon(true);
+			return t;
+		});
+		committer.scheduleWithFixedDelay(this::timedCommit,
+				flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * The run parameters as archive metadata.
+	 */
+	public static Map<String, String> metadata(MeasurementConfig config) {
+		Map<String, String> m = new LinkedHashMap<>();
+		m.put("created", Instant.now().toString());
+		m.put("voltage", String.valueOf(config.getVoltage()));
+		m.put("time", String.valueOf(config.getTime()));
+		m.put("sample_interval", MeasurementConfig.formatAutoOrNumber(config.getSampleInterval()));
+		m.put("current_range", MeasurementConfig.formatAutoOrNumber(config.getCurrentRange()));
+		m.put("nplc", String.valueOf(config.getNplc()));
+		m.put("compliance", String.valueOf(config.getCompliance()));
+		m.put("terminal", config.isRearTerminals() ? "REAR" : "FRONT");
+		m.put("filename", config.getFilename());
+		m.put("sequence", config.getSequence().format());
+		return m;
+	}
+
+	private void writeHeader(Map<String, String> metadata) throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (Map.Entry<String, String> e : metadata.entrySet()) {
+			if (e.getKey().indexOf('=') >= 0 || (e.getKey() + e.getValue()).indexOf('\n') >= 0) {
+				throw new IllegalArgumentException("Metadata keys may not contain '=' or line breaks: " + e.getKey());
+			}
+			text.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+		}
+		byte[] encoded = text.toString().getBytes(StandardCharsets.UTF_8);
+		ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 2 + 4 + encoded.length);
+		header.put(MAGIC).putShort(VERSION).putInt(encoded.length).put(encoded);
+		header.flip();
+		writeFully(header);
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Adds one sample to the current block; writes the block when it is full.
+	 * Write errors are kept and reported by {@link #close()}.
+	 */
+	@Override
+	public synchronized void accept(double absTime, double voltage, double current, double resistance) {
+		if (closed || error != null) {
+			return;
+		}
+		times[count] = ArchiveCodec.toNanos(absTime);
+		columns[0][count] = voltage;
+		columns[1][count] = current;
+		columns[2][count] = resistance;
+		columns[3][count] = stage;
+		count++;
+		samples++;
+		if (count == BLOCK_SAMPLES) {
+			commit(false);
+		}
+	}
+
+	@Override
+	public synchronized void acceptBlock(double[] absTime, double[] voltage, double[] current,
+			double[] resistance, int count) {
+		for (int n = 0; n < count; n++) {
+			accept(absTime[n], voltage[n], current[n], resistance[n]);
+		}
+	}
+
+	/** Tags the following samples with the stage. */
+	@Override
+	public synchronized void stageStarted(int stage, double absTime) {
+		this.stage = stage;
+	}
+
+	private synchronized void timedCommit() {
+		if (!closed && error == null) {
+			commit(System.nanoTime() - lastSyncNanos >= fsyncIntervalNanos);
+		}
+	}
+
+	// Caller holds the lock
+	private void commit(boolean sync) {
+		try {
+			if (count > 0) {
+				writeBlock();
+			}
+			if (sync) {
+				channel.force(false);
+				lastSyncNanos = System.nanoTime();
+			}
+		} catch (IOException e) {
+			error = e;
+		}
+	}
+
+	private void writeBlock() throws IOException {
+		bits.reset();
+		ArchiveCodec.encode(times, columns, count, bits);
+		bits.flush();
+		ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_BYTES);
+		header.putInt(count).putLong(times[0]).putLong(times[count - 1]).putInt(bits.length());
+		header.flip();
+		index.add(new long[] { position, times[0], times[count - 1], count });
+		writeFully(header);
+		writeFully(ByteBuffer.wrap(bits.buffer(), 0, bits.length()));
+		count = 0;
+	}
+
+	@Override
+	public synchronized long getSampleCount() {
+		return samples;
+	}
+
+	@Override
+	public List<File> getFiles() {
+		return Collections.singletonList(file);
+	}
+
+	/**
+	 * Writes the last block, the index and the footer, forces them to disk and
+	 * closes the file.
+	 * @throws IOException the first write error of the run, if any
+	 */
+	@Override
+	public void close() throws IOException {
+		committer.shutdown();	// an interrupt would close the channel under a running commit
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				if (error == null) {
+					commit(false);
+				}
+				if (error == null) {
+					writeIndex();
+					channel.force(false);
+				}
+			} catch (IOException e) {
+				error = e;
+			} finally {
+				channel.close();
+			}
+			if (error != null) {
+				throw error;
+			}
+		}
+	}
+
+	private void writeIndex() throws IOException {
+		long indexOffset = position;
+		ByteBuffer buffer = ByteBuffer.allocate(index.size() * INDEX_ENTRY_BYTES + FOOTER_BYTES);
+		for (long[] entry : index) {
+			buffer.putLong(entry[0]).putLong(entry[1]).putLong(entry[2]).putInt((int) entry[3]);
+		}
+		buffer.putInt(index.size()).putLong(indexOffset).put(INDEX_MAGIC);
+		buffer.flip();
+		writeFully(buffer);
+	}
+}
@@ -0,0 +1,372 @@
+package ecs.resistanceMeasurement;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.swing.SwingUtilities;
+
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.ChartUtils;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.XYPlot;
+import org.jfree.data.xy.DefaultXYDataset;
+
+/**
+ * Writes the end-of-run files (the resistance plot as PNG and/or SVG and a
+ * summary of the run) on a background thread, so neither the GUI nor the
+ * backend waits for them. The backend only acquires; the plot the Python script
+ * used to render after each run is drawn here instead.
+ *
+ * What is exported is captured on the EDT when the export is queued: the
+ * envelope of the run's samples at the resolution of the image (which draws the
+ * same line as all samples), the parameters and the analytics. The background
+ * thread then builds its own chart and never touches the live one.
+ *
+ * The plot is drawn from the chart's samples, which are decimated when the chart
+ * falls behind; the summary says how many were not drawn. The whole-run
+ * extremes come from the analytics, which see every sample.
+ */
+public class RunExporter {
+
+	public static final int DEFAULT_WIDTH = 1200;	// points; PNG pixels are these times the scale
+	public static final int DEFAULT_HEIGHT = 800;
+
+	/** Called on the EDT when an export has ended; error is null on success. */
+	public interface Listener {
+		void exportFinished(String label, List<File> files, Exception error);
+	}
+
+	// One thread: exports are rare and should not compete with acquisition
+	private static final ExecutorService EXPORTER = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "run-exporter");
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		return t;
+	});
+
+	private final boolean png;
+	private final boolean svg;
+	private final int width;
+	private final int height;
+	private final int scale;
+
+	/**
+	 * @param scale PNG resolution as a multiple of width x height (1 = 96 dpi on screen)
+	 */
+	public RunExporter(boolean png, boolean svg, int width, int height, int scale) {
+		if (width <= 0 || height <= 0 || scale <= 0) {
+			throw new IllegalArgumentException("Image size and scale must be positive");
+		}
+		this.png = png;
+		this.svg = svg;
+		this.width = width;
+		this.height = height;
+		this.scale = scale;
+	}
+
+	/** What one export writes, captured when it is queued. */
+	static final class Run {
+		final String label;
+		final File folder;
+		final String baseName;
+		final SampleStore samples;
+		final Map<String, String> summary;
+
+		Run(String label, File folder, String baseName, SampleStore samples, Map<String, String> summary) {
+			this.label = label;
+			this.folder = folder;
+			this.baseName = baseName;
+			this.samples = samples;
+			this.summary = summary;
+		}
+	}
+
+	/**
+	 * Captures a finished session with the samples of its chart series and queues
+	 * its export next to its data file. Must be called on the EDT, like the store.
+	 */
+	public Future<?> export(MeasurementSession session, SampleStore store, Listener listener) {
+		MeasurementConfig config = session.getConfig();
+		Map<String, String> summary = RunArchiveWriter.metadata(config);
+		summary.put("label", session.getLabel());
+		if (session.getWriter() != null) {
+			summary.put("samples", String.valueOf(session.getWriter().getSampleCount()));
+			summary.put("files", String.valueOf(session.getWriter().getFiles()));
+		}
+		putAnalytics(summary, session.getAnalytics().snapshot());
+		long notDrawn = 0;
+		if (session.getPipeline() != null) {
+			for (SamplePipeline.Sink sink : session.getPipeline().getSinks()) {
+				if (sink.getName().equals(MeasurementSession.CHART_SINK)) {
+					notDrawn = sink.getDropped();
+				}
+			}
+		}
+		summary.put("plot", notDrawn > 0 ? "decimated, " + notDrawn + " samples not drawn" : "all samples");
+		Run run = new Run(session.getLabel(), new File(config.getFolder()), config.getFilename(),
+				SeriesCache.envelope(store, width * scale), summary);
+		return EXPORTER.submit(() -> {
+			List<File> files = null;
+			Exception error = null;
+			try {
+				files = write(run);
+			} catch (Exception e) {
+				error = e;
+			}
+			List<File> written = files;
+			Exception failure = error;
+			SwingUtilities.invokeLater(() -> listener.exportFinished(run.label, written, failure));
+		});
+	}
+
+	// ---------------- background work ---------------- //
+
+	/** Writes the files of one run; returns them. */
+	List<File> write(Run run) throws IOException {
+		List<File> files = new ArrayList<>();
+		putRange(run.summary, run.samples);
+		File summary = new File(run.folder, run.baseName + "_summary.txt");
+		try (Writer out = Files.newBufferedWriter(summary.toPath(), StandardCharsets.UTF_8)) {
+			for (Map.Entry<String, String> e : run.summary.entrySet()) {
+				out.write(e.getKey() + "=" + e.getValue() + "\n");
+			}
+		}
+		files.add(summary);
+		if (png && run.samples.size() > 0) {
+			File image = new File(run.folder, run.baseName + ".png");
+			try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(image.toPath()))) {
+				ChartUtils.writeScaledChartAsPNG(out, createChart(run), width, height, scale, scale);
+			}
+			files.add(image);
+		}
+		if (svg && run.samples.size() > 0) {
+			File image = new File(run.folder, run.baseName + ".svg");
+			try (Writer out = Files.newBufferedWriter(image.toPath(), StandardCharsets.UTF_8)) {
+				out.write(toSvg(run));
+			}
+			files.add(image);
+		}
+		return files;
+	}
+
+	private static void putAnalytics(Map<String, String> summary, StreamingAnalytics.Snapshot s) {
+		// Of the last stage, as shown in the Resistance panel
+		summary.put("stage", String.valueOf(s.getStage() + 1));
+		summary.put("stage_samples", String.valueOf(s.getCount()));
+		summary.put("last_Ohm", String.valueOf(s.getLast()));
+		summary.put("mean_Ohm", String.valueOf(s.getMean()));
+		summary.put("std_dev_Ohm", String.valueOf(s.getStdDev()));
+		summary.put("window_min_Ohm", String.valueOf(s.getWindowMin()));
+		summary.put("window_max_Ohm", String.valueOf(s.getWindowMax()));
+		summary.put("drift_Ohm_per_s", String.valueOf(s.getSlope()));
+		if (!Double.isNaN(s.getRunMin())) {
+			// Of every sample, where the plotted ones may be decimated
+			summary.put("min_Ohm", String.valueOf(s.getRunMin()));
+			summary.put("max_Ohm", String.valueOf(s.getRunMax()));
+		}
+		double[] taus = s.getAllanTaus();
+		double[] deviations = s.getAllanDeviations();
+		int best = -1;
+		for (int k = 0; k < taus.length; k++) {
+			if (best < 0 || deviations[k] < deviations[best]) {
+				best = k;
+			}
+		}
+		if (best >= 0) {
+			summary.put("allan_min_Ohm", String.valueOf(deviations[best]));
+			summary.put("allan_min_tau_s", String.valueOf(taus[best]));
+		}
+		if (s.getFired() != null) {
+			summary.put("auto_stop", s.getFired());
+		}
+	}
+
+	// Whole-run extremes of the plotted samples, unless the analytics gave them
+	private static void putRange(Map<String, String> summary, SampleStore samples) {
+		double min = Double.NaN;
+		double max = Double.NaN;
+		for (int i = 0; i < samples.size(); i++) {
+			double r = samples.getResistance(i);
+			if (Double.isNaN(r)) {
+				continue;
+			}
+			if (!(r >= min)) {
+				min = r;
+			}
+			if (!(r <= max)) {
+				max = r;
+			}
+		}
+		summary.put("duration_s", samples.size() > 0
+				? String.valueOf(samples.getMaxTime() - samples.getMinTime()) : "0");
+		summary.putIfAbsent("min_Ohm", String.valueOf(min));
+		summary.putIfAbsent("max_Ohm", String.valueOf(max));
+	}
+
+	// A chart of its own, like the live one; never shown, so it may be built off the EDT
+	private static JFreeChart createChart(Run run) {
+		DefaultXYDataset dataset = new DefaultXYDataset();
+		int n = run.samples.size();
+		double[][] series = new double[2][n];
+		for (int i = 0; i < n; i++) {
+			series[0][i] = run.samples.getTime(i);
+			series[1][i] = run.samples.getResistance(i);
+		}
+		dataset.addSeries(run.label, series);
+		JFreeChart chart = ChartFactory.createXYLineChart(
+				"Resistance vs Time", "Time (s)", "Resistance (Ω)", dataset);
+		XYPlot plot = chart.getXYPlot();
+		plot.getRangeAxis().setAutoRange(true);
+		plot.getDomainAxis().setAutoRange(true);
+		return chart;
+	}
+
+	// ---------------- SVG ---------------- //
+
+	private static final int LEFT = 90;
+	private static final int RIGHT = 30;
+	private static final int TOP = 50;
+	private static final int BOTTOM = 60;
+	private static final String LINE_COLOR = "#ff5555";	// first series of the live chart
+
+	/**
+	 * The plot as SVG: axes with rounded ticks, a grid and the resistance line
+	 * (broken where a sample has no resistance). Written directly, as vector
+	 * output needs no resolution.
+	 */
+	String toSvg(Run run) {
+		SampleStore s = run.samples;
+		double x0 = s.getMinTime();
+		double x1 = s.getMaxTime();
+		double y0 = Double.POSITIVE_INFINITY;
+		double y1 = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < s.size(); i++) {
+			double r = s.getResistance(i);
+			if (!Double.isNaN(r) && !Double.isInfinite(r)) {
+				y0 = Math.min(y0, r);
+				y1 = Math.max(y1, r);
+			}
+		}
+		if (y0 > y1) {
+			y0 = 0;
+			y1 = 1;
+		}
+		double[] xTicks = ticks(x0, x1);
+		double[] yTicks = ticks(y0, y1);
+		x0 = Math.min(x0, xTicks[0]);
+		x1 = Math.max(x1, xTicks[xTicks.length - 1]);
+		y0 = Math.min(y0, yTicks[0]);
+		y1 = Math.max(y1, yTicks[yTicks.length - 1]);
+		double plotWidth = width - LEFT - RIGHT;
+		double plotHeight = height - TOP - BOTTOM;
+		double sx = x1 > x0 ? plotWidth / (x1 - x0) : 0;
+		double sy = y1 > y0 ? plotHeight / (y1 - y0) : 0;
+
+		StringBuilder svg = new StringBuilder(64 * s.size() + 4096);
+		svg.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		svg.append(String.format(Locale.ROOT, "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"%d\" height=\"%d\""
+				+ " viewBox=\"0 0 %d %d\" font-family=\"sans-serif\" font-size=\"12\">\n", width, height, width, height));
+		svg.append("<rect width=\"100%\" height=\"100%\" fill=\"white\"/>\n");
+		svg.append(String.format(Locale.ROOT, "<text x=\"%d\" y=\"30\" text-anchor=\"middle\" font-size=\"18\""
+				+ " font-weight=\"bold\">Resistance vs Time</text>\n", width / 2));
+
+		// Grid and tick labels
+		svg.append("<g stroke=\"#d0d0d0\" stroke-width=\"1\">\n");
+		for (double t : xTicks) {
+			double x = LEFT + (t - x0) * sx;
+			svg.append(String.format(Locale.ROOT, "<line x1=\"%.2f\" y1=\"%d\" x2=\"%.2f\" y2=\"%d\"/>\n",
+					x, TOP, x, height - BOTTOM));
+		}
+		for (double t : yTicks) {
+			double y = height - BOTTOM - (t - y0) * sy;
+			svg.append(String.format(Locale.ROOT, "<line x1=\"%d\" y1=\"%.2f\" x2=\"%d\" y2=\"%.2f\"/>\n",
+					LEFT, y, width - RIGHT, y));
+		}
+		svg.append("</g>\n<g fill=\"#404040\">\n");
+		for (double t : xTicks) {
+			svg.append(String.format(Locale.ROOT, "<text x=\"%.2f\" y=\"%d\" text-anchor=\"middle\">%s</text>\n",
+					LEFT + (t - x0) * sx, height - BOTTOM + 18, label(t)));
+		}
+		for (double t : yTicks) {
+			svg.append(String.format(Locale.ROOT, "<text x=\"%d\" y=\"%.2f\" text-anchor=\"end\">%s</text>\n",
+					LEFT - 6, height - BOTTOM - (t - y0) * sy + 4, label(t)));
+		}
+		svg.append(String.format(Locale.ROOT, "<text x=\"%.2f\" y=\"%d\" text-anchor=\"middle\">Time (s)</text>\n",
+				LEFT + plotWidth / 2, height - 15));
+		svg.append(String.format(Locale.ROOT, "<text transform=\"translate(20 %.2f) rotate(-90)\""
+				+ " text-anchor=\"middle\">Resistance (Ω)</text>\n", TOP + plotHeight / 2));
+		svg.append("</g>\n");
+		svg.append(String.format(Locale.ROOT, "<rect x=\"%d\" y=\"%d\" width=\"%.2f\" height=\"%.2f\""
+				+ " fill=\"none\" stroke=\"#808080\"/>\n", LEFT, TOP, plotWidth, plotHeight));
+
+		// The line, one polyline per run of valid samples
+		boolean open = false;
+		for (int i = 0; i < s.size(); i++) {
+			double r = s.getResistance(i);
+			if (Double.isNaN(r) || Double.isInfinite(r)) {
+				if (open) {
+					svg.append("\"/>\n");
+					open = false;
+				}
+				continue;
+			}
+			if (!open) {
+				svg.append("<polyline fill=\"none\" stroke=\"").append(LINE_COLOR)
+						.append("\" stroke-width=\"1.5\" points=\"");
+				open = true;
+			}
+			svg.append(String.format(Locale.ROOT, "%.2f,%.2f ",
+					LEFT + (s.getTime(i) - x0) * sx, height - BOTTOM - (r - y0) * sy));
+		}
+		if (open) {
+			svg.append("\"/>\n");
+		}
+		svg.append("</svg>\n");
+		return svg.toString();
+	}
+
+	// Ticks at 1, 2 or 5 times a power of ten, covering [from, to] with at most 10 intervals
+	static double[] ticks(double from, double to) {
+		double range = to - from;
+		if (!(range > 0)) {
+			double pad = from != 0 ? Math.abs(from) * 0.05 : 1;
+			from -= pad;
+			to += pad;
+			range = to - from;
+		}
+		double magnitude = Math.pow(10, Math.floor(Math.log10(range / 10)));
+		double step = magnitude;
+		for (double factor : new double[] { 1, 2, 5, 10 }) {
+			step = factor * magnitude;
+			if (range / step <= 10) {
+				break;
+			}
+		}
+		long first = (long) Math.floor(from / step);
+		long last = (long) Math.ceil(to / step);
+		double[] ticks = new double[(int) (last - first + 1)];
+		for (int k = 0; k < ticks.length; k++) {
+			ticks[k] = (first + k) * step;
+		}
+		return ticks;
+	}
+
+	private static String label(double value) {
+		// Rounded to hide the error of the tick arithmetic (0.30000000000000004)
+		return new BigDecimal(value).round(new MathContext(10)).stripTrailingZeros().toPlainString();
+	}
+}
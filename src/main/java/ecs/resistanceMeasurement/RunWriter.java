@@ -0,0 +1,26 @@
+package ecs.resistanceMeasurement;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Persists the samples of one run while it is in progress: as CSV
+ * ({@link SampleFileWriter}) or as a compressed archive ({@link RunArchiveWriter}).
+ */
+public interface RunWriter extends SampleConsumer, Closeable {
+
+	/** Samples accepted so far. */
+	long getSampleCount();
+
+	/** Files written so far, in order. */
+	List<File> getFiles();
+
+	/**
+	 * Writes what is still buffered and closes the files.
+	 * @throws IOException the first write error of the run, if any
+	 */
+	@Override
+	void close() throws IOException;
+}
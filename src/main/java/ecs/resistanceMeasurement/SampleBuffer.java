@@ -0,0 +1,100 @@
+package ecs.resistanceMeasurement;
+
+/**
+ * Bounded ring buffer of samples between the reader thread and the EDT.
+ * The producer blocks when the buffer is full so no sample is lost; the
+ * consumer drains everything available in one pass.
+ */
+public class SampleBuffer {
+
+	private final double[] time;
+	private final double[] voltage;
+	private final double[] current;
+	private final double[] resistance;
+	private final int capacity;
+
+	private int head;	// index of the oldest sample
+	private int size;
+
+	public SampleBuffer(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Buffer capacity must be positive: " + capacity);
+		}
+		this.capacity = capacity;
+		time = new double[capacity];
+		voltage = new double[capacity];
+		current = new double[capacity];
+		resistance = new double[capacity];
+	}
+
+	/**
+	 * Adds a sample, waiting for free space if the buffer is full.
+	 */
+	public synchronized void put(double absTime, double v, double i, double r) throws InterruptedException {
+		while (size == capacity) {
+			wait();
+		}
+		int tail = (head + size) % capacity;
+		time[tail] = absTime;
+		voltage[tail] = v;
+		current[tail] = i;
+		resistance[tail] = r;
+		size++;
+	}
+
+	/**
+	 * Adds the first {@code count} samples of a block, waiting for free space as
+	 * needed. The consumer is woken once per copied run rather than per sample.
+	 */
+	public synchronized void putBlock(double[] absTime, double[] v, double[] i, double[] r, int count)
+			throws InterruptedException {
+		int done = 0;
+		while (done < count) {
+			while (size == capacity) {
+				wait();
+			}
+			int tail = (head + size) % capacity;
+			int run = Math.min(count - done, Math.min(capacity - size, capacity - tail));
+			System.arraycopy(absTime, done, time, tail, run);
+			System.arraycopy(v, done, voltage, tail, run);
+			System.arraycopy(i, done, current, tail, run);
+			System.arraycopy(r, done, resistance, tail, run);
+			size += run;
+			done += run;
+		}
+	}
+
+	/**
+	 * Hands every buffered sample to the consumer, oldest first.
+	 * @return number of samples drained
+	 */
+	public synchronized int drainTo(SampleConsumer consumer) {
+		return drainTo(consumer, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Hands at most max buffered samples to the consumer, oldest first.
+	 * @return number of samples drained
+	 */
+	public synchronized int drainTo(SampleConsumer consumer, int max) {
+		int drained = Math.min(size, max);
+		for (int n = 0; n < drained; n++) {
+			int idx = (head + n) % capacity;
+			consumer.accept(time[idx], voltage[idx], current[idx], resistance[idx]);
+		}
+		head = (head + drained) % capacity;
+		size -= drained;
+		if (drained > 0) {
+			notifyAll();
+		}
+		return drained;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+}
@@ -0,0 +1,28 @@
+package ecs.resistanceMeasurement;
+
+/**
+ * Receives one measurement sample as primitive values (no boxing).
+ */
+@FunctionalInterface
+public interface SampleConsumer {
+
+	void accept(double absTime, double voltage, double current, double resistance);
+
+	/**
+	 * Receives the first {@code count} samples of a block, e.g. one bulk fetch
+	 * from the instrument buffer. Consumers that lock or signal per call override
+	 * this to do it once per block.
+	 */
+	default void acceptBlock(double[] absTime, double[] voltage, double[] current, double[] resistance, int count) {
+		for (int n = 0; n < count; n++) {
+			accept(absTime[n], voltage[n], current[n], resistance[n]);
+		}
+	}
+
+	/**
+	 * Called before the first sample of each stage of the run's
+	 * {@link VoltageSequence} (stage 0 too), with the stage's start time.
+	 */
+	default void stageStarted(int stage, double absTime) {
+	}
+}
@@ -0,0 +1,227 @@
+package ecs.resistanceMeasurement;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists samples to CSV while the run is in progress, so a crash or power
+ * loss keeps everything up to the last commit.
+ *
+ * Samples are formatted into an in-memory batch and appended to the file in
+ * group commits: when the batch reaches the flush size, and on a timer every
+ * flush interval. The timer also forces the file to disk every fsync interval,
+ * so with the default settings the durable data is at most one interval behind.
+ * Only whole lines are written. Very long runs are split into parts
+ * ({@code name.csv}, {@code name_part2.csv}, ...) of at most the rotation size,
+ * each with its own header. Existing files are never overwritten: the caller
+ * asks first and removes them (see {@link #existingFiles}). The columns match the backend's CSV so the files load
+ * with {@link CsvLoader}; the last one is the {@link VoltageSequence} stage of
+ * each sample.
+ */
+public class SampleFileWriter implements RunWriter {
+
+	public static final String HEADER = CsvLoader.TIME_COLUMN + "," + CsvLoader.VOLTAGE_COLUMN + ","
+			+ CsvLoader.CURRENT_COLUMN + "," + CsvLoader.RESISTANCE_COLUMN + "," + CsvLoader.STAGE_COLUMN + "\n";
+
+	public static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+	public static final int DEFAULT_FLUSH_BYTES = 64 * 1024;
+	public static final long DEFAULT_FSYNC_INTERVAL_MS = 1000;
+	public static final long DEFAULT_ROTATE_BYTES = 1L << 30;	// 0 = never rotate
+
+	private static final int MAX_LINE = 128;
+
+	private final File folder;
+	private final String baseName;
+	private final int flushBytes;
+	private final long fsyncIntervalNanos;
+	private final long rotateBytes;
+	private final ScheduledExecutorService committer;
+
+	private final ByteBuffer batch;
+	private final StringBuilder line = new StringBuilder(MAX_LINE);
+	private final List<File> files = new ArrayList<>();
+	private FileChannel channel;
+	private long fileBytes;
+	private long lastSyncNanos = System.nanoTime();
+	private long samples;
+	private int stage;
+	private IOException error;
+	private boolean closed;
+
+	/**
+	 * The files of an earlier run a writer for this name would collide with:
+	 * {@code name.csv} and any {@code name_partN.csv}.
+	 */
+	public static List<File> existingFiles(File folder, String baseName) {
+		List<File> existing = new ArrayList<>();
+		File first = new File(folder, baseName + ".csv");
+		if (first.exists()) {
+			existing.add(first);
+		}
+		File[] parts = folder.listFiles((dir, name) -> name.startsWith(baseName + "_part")
+				&& name.endsWith(".csv") && name.substring(baseName.length() + 5, name.length() - 4).matches("\\d+"));
+		if (parts != null) {
+			existing.addAll(Arrays.asList(parts));
+		}
+		return existing;
+	}
+
+	/**
+	 * @throws java.nio.file.FileAlreadyExistsException if a file of the run already exists
+	 */
+	public SampleFileWriter(File folder, String baseName) throws IOException {
+		this(folder, baseName, DEFAULT_FLUSH_INTERVAL_MS, DEFAULT_FLUSH_BYTES,
+				DEFAULT_FSYNC_INTERVAL_MS, DEFAULT_ROTATE_BYTES);
+	}
+
+	public SampleFileWriter(File folder, String baseName, long flushIntervalMillis, int flushBytes,
+			long fsyncIntervalMillis, long rotateBytes) throws IOException {
+		if (flushIntervalMillis <= 0 || flushBytes < MAX_LINE) {
+			throw new IllegalArgumentException("Flush interval must be positive and flush size at least "
+					+ MAX_LINE + " bytes");
+		}
+		this.folder = folder;
+		this.baseName = baseName;
+		this.flushBytes = flushBytes;
+		this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMillis);
+		this.rotateBytes = rotateBytes;
+		this.batch = ByteBuffer.allocate(flushBytes + MAX_LINE);
+		openNextFile();
+
+		this.committer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "sample-writer");
+			t.setDaemon(true);
+			return t;
+		});
+		committer.scheduleWithFixedDelay(this::timedCommit,
+				flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Adds one sample to the current batch; commits when the batch is full.
+	 * Write errors are kept and reported by {@link #close()}.
+	 */
+	@Override
+	public synchronized void accept(double absTime, double voltage, double current, double resistance) {
+		if (closed || error != null) {
+			return;
+		}
+		line.setLength(0);
+		appendValue(line, absTime).append(',');
+		appendValue(line, voltage).append(',');
+		appendValue(line, current).append(',');
+		appendValue(line, resistance).append(',');
+		line.append(stage).append('\n');
+		for (int k = 0; k < line.length(); k++) {
+			batch.put((byte) line.charAt(k));	// plain ASCII
+		}
+		samples++;
+		if (batch.position() >= flushBytes) {
+			commit(false);
+		}
+	}
+
+	@Override
+	public synchronized void acceptBlock(double[] absTime, double[] voltage, double[] current,
+			double[] resistance, int count) {
+		for (int n = 0; n < count; n++) {
+			accept(absTime[n], voltage[n], current[n], resistance[n]);
+		}
+	}
+
+	/** Tags the following samples with the stage. */
+	@Override
+	public synchronized void stageStarted(int stage, double absTime) {
+		this.stage = stage;
+	}
+
+	// pandas writes NaN as an empty field
+	private static StringBuilder appendValue(StringBuilder s, double value) {
+		return Double.isNaN(value) ? s : s.append(value);
+	}
+
+	private synchronized void timedCommit() {
+		if (!closed && error == null) {
+			commit(System.nanoTime() - lastSyncNanos >= fsyncIntervalNanos);
+		}
+	}
+
+	// Caller holds the lock
+	private void commit(boolean sync) {
+		try {
+			batch.flip();
+			while (batch.hasRemaining()) {
+				fileBytes += channel.write(batch);
+			}
+			batch.clear();
+			if (sync) {
+				channel.force(false);
+				lastSyncNanos = System.nanoTime();
+			}
+			if (rotateBytes > 0 && fileBytes >= rotateBytes) {
+				channel.force(false);
+				channel.close();
+				openNextFile();
+			}
+		} catch (IOException e) {
+			error = e;
+		}
+	}
+
+	private void openNextFile() throws IOException {
+		int part = files.size() + 1;
+		File file = new File(folder, baseName + (part == 1 ? "" : "_part" + part) + ".csv");
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		files.add(file);
+		ByteBuffer header = ByteBuffer.wrap(HEADER.getBytes(StandardCharsets.US_ASCII));
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+		fileBytes = header.limit();
+	}
+
+	@Override
+	public synchronized long getSampleCount() {
+		return samples;
+	}
+
+	@Override
+	public synchronized List<File> getFiles() {
+		return new ArrayList<>(files);
+	}
+
+	/**
+	 * Commits the last batch, forces it to disk and closes the file.
+	 * @throws IOException the first write error of the run, if any
+	 */
+	@Override
+	public void close() throws IOException {
+		committer.shutdown();	// an interrupt would close the channel under a running commit
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				if (error == null) {
+					commit(true);
+				}
+			} finally {
+				channel.close();
+			}
+			if (error != null) {
+				throw error;
+			}
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package ecs.resistanceMeasurement;
+
+/**
+ * Allocation-free parser for comma separated numeric lines, used for both the
+ * live sample stream ("abs_time,voltage,current, resistance") and recorded CSV rows.
+ * Values are read straight from a byte buffer into a reusable {@code double} array,
+ * so no per-line Strings or arrays are created.
+ *
+ * Accepted field syntax: optional surrounding blanks, optional sign, digits with an
+ * optional decimal point and exponent, {@code nan} and {@code inf}/{@code infinity}
+ * in any case. An empty field (how pandas writes NaN) parses as NaN.
+ *
+ * Values with up to 15 significant digits and a decimal exponent within +-22 are
+ * converted exactly (same result as {@link Double#parseDouble}); other values are
+ * within one or two ulps.
+ */
+public class SampleLineParser {
+
+	/** Field limit of the default constructor; enough for any CSV row we write. */
+	public static final int MAX_FIELDS = 16;
+
+	// Exactly representable powers of ten
+	private static final double[] POW10 = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+	private static final int MAX_MANTISSA_DIGITS = 18;
+
+	private final double[] values;
+	private int fieldCount;
+
+	// Cursor shared by the field parsing helpers
+	private int pos;
+
+	public SampleLineParser() {
+		this(MAX_FIELDS);
+	}
+
+	/**
+	 * @param maxFields longest line accepted, e.g. for bulk instrument responses
+	 */
+	public SampleLineParser(int maxFields) {
+		values = new double[maxFields];
+	}
+
+	/**
+	 * Parses the bytes in [from, to) as one line.
+	 * @return number of fields parsed, or -1 if any field is not numeric
+	 */
+	public int parse(byte[] buf, int from, int to) {
+		fieldCount = 0;
+		pos = from;
+		while (true) {
+			if (fieldCount == values.length) {
+				return -1;
+			}
+			if (!parseField(buf, to)) {
+				return -1;
+			}
+			if (pos >= to) {
+				return fieldCount;
+			}
+			pos++;	// skip ','
+		}
+	}
+
+	public double get(int field) {
+		if (field >= fieldCount) {
+			throw new IndexOutOfBoundsException("Field " + field + " of " + fieldCount);
+		}
+		return values[field];
+	}
+
+	public int fieldCount() {
+		return fieldCount;
+	}
+
+	// ---------------- field parsing ---------------- //
+
+	private boolean parseField(byte[] buf, int to) {
+		int p = skipBlanks(buf, pos, to);
+
+		// Empty field
+		if (p >= to || buf[p] == ',') {
+			values[fieldCount++] = Double.NaN;
+			pos = p;
+			return true;
+		}
+
+		boolean negative = false;
+		if (buf[p] == '-' || buf[p] == '+') {
+			negative = buf[p] == '-';
+			p++;
+		}
+
+		double value;
+		if (p < to && isLetter(buf[p])) {
+			// nan / inf / infinity
+			int end = p;
+			while (end < to && isLetter(buf[end])) {
+				end++;
+			}
+			if (matches(buf, p, end, "nan")) {
+				value = Double.NaN;
+			} else if (matches(buf, p, end, "inf") || matches(buf, p, end, "infinity")) {
+				value = Double.POSITIVE_INFINITY;
+			} else {
+				return false;
+			}
+			p = end;
+		} else {
+			long mantissa = 0;
+			int digits = 0;			// significant digits kept in mantissa
+			int exp10 = 0;			// decimal exponent adjustment from the mantissa digits
+			boolean sawDigit = false;
+			boolean sawPoint = false;
+
+			for (; p < to; p++) {
+				byte c = buf[p];
+				if (c >= '0' && c <= '9') {
+					sawDigit = true;
+					if (digits < MAX_MANTISSA_DIGITS) {
+						if (mantissa != 0 || c != '0') {
+							mantissa = mantissa * 10 + (c - '0');
+							digits++;
+						}
+						if (sawPoint) {
+							exp10--;
+						}
+					} else if (!sawPoint) {
+						exp10++;	// dropped integer digit
+					}
+				} else if (c == '.' && !sawPoint) {
+					sawPoint = true;
+				} else {
+					break;
+				}
+			}
+			if (!sawDigit) {
+				return false;
+			}
+
+			if (p < to && (buf[p] == 'e' || buf[p] == 'E')) {
+				p++;
+				boolean expNegative = false;
+				if (p < to && (buf[p] == '-' || buf[p] == '+')) {
+					expNegative = buf[p] == '-';
+					p++;
+				}
+				int exponent = 0;
+				boolean sawExpDigit = false;
+				for (; p < to && buf[p] >= '0' && buf[p] <= '9'; p++) {
+					sawExpDigit = true;
+					if (exponent < 10000) {
+						exponent = exponent * 10 + (buf[p] - '0');
+					}
+				}
+				if (!sawExpDigit) {
+					return false;
+				}
+				exp10 += expNegative ? -exponent : exponent;
+			}
+			value = toDouble(mantissa, exp10);
+		}
+
+		p = skipBlanks(buf, p, to);
+		if (p < to && buf[p] != ',') {
+			return false;	// trailing garbage
+		}
+		values[fieldCount++] = negative ? -value : value;
+		pos = p;
+		return true;
+	}
+
+	private static double toDouble(long mantissa, int exp10) {
+		if (mantissa == 0) {
+			return 0.0;
+		}
+		double m = mantissa;
+		if (mantissa < MAX_EXACT_MANTISSA && exp10 >= -22 && exp10 <= 22) {
+			// Both operands exact: a single correctly rounded operation
+			return exp10 < 0 ? m / POW10[-exp10] : m * POW10[exp10];
+		}
+		if (exp10 < -343) {
+			return 0.0;
+		}
+		if (exp10 > 308) {
+			return Double.POSITIVE_INFINITY;
+		}
+		while (exp10 < -22) {
+			m /= 1e22;
+			exp10 += 22;
+		}
+		while (exp10 > 22) {
+			m *= 1e22;
+			exp10 -= 22;
+		}
+		return exp10 < 0 ? m / POW10[-exp10] : m * POW10[exp10];
+	}
+
+	private static int skipBlanks(byte[] buf, int p, int to) {
+		while (p < to && (buf[p] == ' ' || buf[p] == '\t' || buf[p] == '\r')) {
+			p++;
+		}
+		return p;
+	}
+
+	private static boolean isLetter(byte c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	// Case-insensitive comparison against a lower case ASCII word
+	private static boolean matches(byte[] buf, int from, int to, String word) {
+		if (to - from != word.length()) {
+			return false;
+		}
+		for (int k = 0; k < word.length(); k++) {
+			if ((buf[from + k] | 0x20) != word.charAt(k)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,417 @@
+package ecs.resistanceMeasurement;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Fans the samples of one run out from the ingest thread to any number of
+ * sinks (the file writer, the analytics, the chart, ...). Each sink has its own
+ * thread and bounded queue, so the ingest thread only copies samples into the
+ * queues, and a sink that falls behind affects no other sink. What happens when
+ * a sink's queue is full is the sink's declared {@link Policy}.
+ *
+ * Stage changes reach every sink in order with the samples around them and are
+ * never dropped. Per-sink backlog, lag and losses can be read while running.
+ *
+ * The ingest side ({@link SampleConsumer} methods) must be called from one
+ * thread at a time.
+ */
+public class SamplePipeline implements SampleConsumer {
+
+	/** What the ingest thread does when a sink's queue is full. */
+	public enum Policy {
+		/** Waits for room: lossless, but a stalled sink stalls ingest. */
+		BLOCK,
+		/** Drops the oldest queued samples to make room: the sink sees the latest. */
+		DROP_OLDEST,
+		/**
+		 * Thins a full queue out to every 2nd sample and passes only every 2nd, 4th,
+		 * ... new one until the sink catches up: the sink keeps the outline of the run.
+		 */
+		DECIMATE
+	}
+
+	public static final int DEFAULT_CAPACITY = 65536;
+	static final int BATCH = 4096;	// samples handed to a sink per call
+	private static final int MAX_STRIDE = 1024;
+
+	/** One consumer with its queue and thread. */
+	public static final class Sink {
+		private final String name;
+		private final SampleConsumer consumer;
+		private final Policy policy;
+		private final int capacity;
+		private final double[] time;
+		private final double[] voltage;
+		private final double[] current;
+		private final double[] resistance;
+		private final Deque<double[]> stages = new ArrayDeque<>();	// {sequence, stage, absTime}
+		private Thread thread;
+
+		// Guarded by this
+		private long written;	// sequence number of the next sample queued
+		private int size;
+		private boolean closed;
+		private int stride = 1;
+		private long strideCount;
+
+		private volatile long delivered;
+		private volatile long dropped;	// written under the lock
+		private volatile double deliveredTime = Double.NaN;
+		private volatile int maxBacklog;
+		private volatile RuntimeException error;
+
+		private Sink(String name, SampleConsumer consumer, int capacity, Policy policy) {
+			if (capacity < 2) {
+				throw new IllegalArgumentException("Sink capacity must be at least 2: " + capacity);
+			}
+			this.name = name;
+			this.consumer = consumer;
+			this.capacity = capacity;
+			this.policy = policy;
+			time = new double[capacity];
+			voltage = new double[capacity];
+			current = new double[capacity];
+			resistance = new double[capacity];
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Policy getPolicy() {
+			return policy;
+		}
+
+		public int getCapacity() {
+			return capacity;
+		}
+
+		public synchronized int getBacklog() {
+			return size;
+		}
+
+		public int getMaxBacklog() {
+			return maxBacklog;
+		}
+
+		public long getDelivered() {
+			return delivered;
+		}
+
+		/** Samples this sink never saw (dropped or decimated), by its policy or after it failed. */
+		public long getDropped() {
+			return dropped;
+		}
+
+		/** Time of the last sample handed to the sink, NaN before the first. */
+		public double getDeliveredTime() {
+			return deliveredTime;
+		}
+
+		/** The exception that stopped the sink, or null. */
+		public RuntimeException getError() {
+			return error;
+		}
+
+		// ---------------- ingest thread ---------------- //
+
+		private synchronized void put(double t, double v, double i, double r) throws InterruptedException {
+			if (error != null) {
+				dropped++;
+				return;
+			}
+			if (policy == Policy.DECIMATE) {
+				if (size == capacity) {
+					halve();
+					stride = Math.min(MAX_STRIDE, stride * 2);
+				} else if (size < capacity / 4) {
+					stride = 1;
+				}
+				if (strideCount++ % stride != 0) {
+					dropped++;
+					return;
+				}
+			} else if (size == capacity) {
+				if (policy == Policy.DROP_OLDEST) {
+					size--;
+					dropped++;
+				} else {
+					while (size == capacity && error == null) {
+						wait();
+					}
+					if (error != null) {
+						dropped++;
+						return;
+					}
+				}
+			}
+			int index = (int) (written % capacity);
+			time[index] = t;
+			voltage[index] = v;
+			current[index] = i;
+			resistance[index] = r;
+			written++;
+			size++;
+			if (size > maxBacklog) {
+				maxBacklog = size;
+			}
+			if (size == 1) {
+				notifyAll();
+			}
+		}
+
+		// Keeps every 2nd queued sample; the stage changes move with the samples they precede
+		private void halve() {
+			long first = written - size;
+			int kept = 0;
+			for (int k = 0; k < size; k += 2, kept++) {
+				int from = (int) ((first + k) % capacity);
+				int to = (int) ((first + kept) % capacity);
+				time[to] = time[from];
+				voltage[to] = voltage[from];
+				current[to] = current[from];
+				resistance[to] = resistance[from];
+			}
+			for (double[] stage : stages) {
+				if (stage[0] > first) {
+					stage[0] = first + (long) Math.ceil((stage[0] - first) / 2);
+				}
+			}
+			dropped += size - kept;
+			written = first + kept;
+			size = kept;
+		}
+
+		private synchronized void putStage(int stage, double absTime) {
+			stages.add(new double[] { written, stage, absTime });
+			notifyAll();
+		}
+
+		private synchronized void close() {
+			closed = true;
+			notifyAll();
+		}
+
+		// ---------------- sink thread ---------------- //
+
+		private void run() {
+			double[] t = new double[BATCH];
+			double[] v = new double[BATCH];
+			double[] i = new double[BATCH];
+			double[] r = new double[BATCH];
+			List<double[]> batchStages = new ArrayList<>();
+			while (true) {
+				long first;
+				int count;
+				synchronized (this) {
+					while (size == 0 && stages.isEmpty() && !closed) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+					if (size == 0 && stages.isEmpty()) {
+						return;	// closed and drained
+					}
+					first = written - size;
+					count = Math.min(size, BATCH);
+					for (int n = 0; n < count; n++) {
+						int index = (int) ((first + n) % capacity);
+						t[n] = time[index];
+						v[n] = voltage[index];
+						i[n] = current[index];
+						r[n] = resistance[index];
+					}
+					// Stage changes due before or within this batch
+					while (!stages.isEmpty() && stages.peek()[0] < first + count + (count < BATCH ? 1 : 0)) {
+						batchStages.add(stages.poll());
+					}
+					size -= count;
+					notifyAll();
+				}
+				deliver(first, t, v, i, r, count, batchStages);
+				batchStages.clear();
+			}
+		}
+
+		// Samples of a batch in blocks, with each stage change before the sample it precedes
+		private void deliver(long first, double[] t, double[] v, double[] i, double[] r, int count,
+				List<double[]> batchStages) {
+			if (error != null) {
+				synchronized (this) {
+					dropped += count;
+				}
+				return;
+			}
+			long before = delivered;
+			try {
+				int from = 0;
+				for (double[] stage : batchStages) {
+					int at = (int) Math.max(0, Math.min(count, (long) stage[0] - first));
+					block(t, v, i, r, from, at);
+					from = at;
+					consumer.stageStarted((int) stage[1], stage[2]);
+				}
+				block(t, v, i, r, from, count);
+			} catch (RuntimeException e) {
+				synchronized (this) {
+					error = e;
+					dropped += count - (delivered - before) + size;	// the queue is discarded from now on
+					size = 0;
+					notifyAll();
+				}
+			}
+		}
+
+		private void block(double[] t, double[] v, double[] i, double[] r, int from, int to) {
+			if (to <= from) {
+				return;
+			}
+			if (from == 0) {
+				consumer.acceptBlock(t, v, i, r, to);
+			} else {
+				for (int n = from; n < to; n++) {
+					consumer.accept(t[n], v[n], i[n], r[n]);
+				}
+			}
+			delivered += to - from;
+			deliveredTime = t[to - 1];
+		}
+	}
+
+	private final String name;
+	private final List<Sink> sinks = new ArrayList<>();
+	private volatile double firstTime = Double.NaN;
+	private volatile double ingestedTime = Double.NaN;
+	private volatile long ingested;
+	private boolean started;
+
+	/**
+	 * @param name names the sink threads ("name-sink")
+	 */
+	public SamplePipeline(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Adds a sink; must be called before {@link #start}.
+	 */
+	public Sink addSink(String sinkName, SampleConsumer consumer, int capacity, Policy policy) {
+		if (started) {
+			throw new IllegalStateException("Sinks must be added before the pipeline starts");
+		}
+		Sink sink = new Sink(sinkName, consumer, capacity, policy);
+		sinks.add(sink);
+		return sink;
+	}
+
+	public List<Sink> getSinks() {
+		return Collections.unmodifiableList(sinks);
+	}
+
+	/** Starts the sink threads. */
+	public void start() {
+		started = true;
+		for (Sink sink : sinks) {
+			sink.thread = new Thread(sink::run, name + "-" + sink.name);
+			sink.thread.setDaemon(true);
+			sink.thread.start();
+		}
+	}
+
+	/**
+	 * Waits until every sink has taken all of its queue, then ends the sink
+	 * threads. Called after the last sample, from the ingest thread or after it.
+	 */
+	public void close() throws InterruptedException {
+		for (Sink sink : sinks) {
+			sink.close();
+		}
+		for (Sink sink : sinks) {
+			if (sink.thread != null) {
+				sink.thread.join();
+			}
+		}
+	}
+
+	/**
+	 * How far a sink is behind ingest, in seconds of sample time; 0 when it has
+	 * taken everything.
+	 */
+	public double getLag(Sink sink) {
+		if (sink.getDelivered() + sink.getDropped() >= ingested) {
+			return 0;
+		}
+		double delivered = sink.getDeliveredTime();
+		double lag = ingestedTime - (Double.isNaN(delivered) ? firstTime : delivered);
+		return Double.isNaN(lag) ? 0 : lag;
+	}
+
+	/** Backlog, lag and losses of every sink, for the log and the metrics. */
+	public String describe() {
+		StringBuilder text = new StringBuilder();
+		for (Sink sink : sinks) {
+			if (text.length() > 0) {
+				text.append(", ");
+			}
+			text.append(String.format("%s %d (%.2f s)", sink.name, sink.getBacklog(), getLag(sink)));
+			if (sink.getDropped() > 0) {
+				text.append(String.format(" %d %s", sink.getDropped(),
+						sink.policy == Policy.DECIMATE ? "decimated" : "dropped"));
+			}
+			if (sink.getError() != null) {
+				text.append(" failed");
+			}
+		}
+		return text.toString();
+	}
+
+	// ---------------- ingest ---------------- //
+
+	@Override
+	public void accept(double absTime, double voltage, double current, double resistance) {
+		if (ingested == 0) {
+			firstTime = absTime;
+		}
+		ingestedTime = absTime;
+		ingested++;
+		try {
+			for (Sink sink : sinks) {
+				sink.put(absTime, voltage, current, resistance);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void acceptBlock(double[] absTime, double[] voltage, double[] current, double[] resistance, int count) {
+		if (count == 0) return;
+		if (ingested == 0) {
+			firstTime = absTime[0];
+		}
+		ingestedTime = absTime[count - 1];
+		ingested += count;
+		try {
+			for (Sink sink : sinks) {
+				for (int n = 0; n < count; n++) {
+					sink.put(absTime[n], voltage[n], current[n], resistance[n]);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void stageStarted(int stage, double absTime) {
+		for (Sink sink : sinks) {
+			sink.putStage(stage, absTime);
+		}
+	}
+}
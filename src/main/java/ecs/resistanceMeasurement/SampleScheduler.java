@@ -0,0 +1,70 @@
+package ecs.resistanceMeasurement;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Waits for absolute sample deadlines on {@link System#nanoTime()}: parks until
+ * just before the deadline, then spins the rest, since parking alone overshoots
+ * by the OS timer resolution (up to ~15 ms on Windows). Deadlines are offsets
+ * from the start of the run, so a late sample never shifts the ones after it.
+ * Records how late each sample started, as the achieved jitter.
+ *
+ * Mirrors {@code SampleScheduler} in the Python backend. Used by one
+ * acquisition thread; the report may be read from any thread.
+ */
+public class SampleScheduler {
+
+	static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(2000);
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);	// stop latency
+
+	private final LatencyHistogram jitter = new LatencyHistogram();
+	private volatile long late;
+
+	/**
+	 * Returns at the deadline (or at once if it has passed), or when stop says so.
+	 */
+	public void awaitDeadline(long deadline, BooleanSupplier stop) {
+		long wait;
+		while ((wait = deadline - SPIN_NANOS - System.nanoTime()) > 0 && !stop.getAsBoolean()) {
+			LockSupport.parkNanos(Math.min(wait, MAX_PARK_NANOS));
+		}
+		while (System.nanoTime() < deadline && !stop.getAsBoolean()) {
+			Thread.yield();
+		}
+	}
+
+	/** Records that the sample due at the deadline starts now. */
+	public void started(long deadline, long intervalNanos) {
+		long lateness = Math.max(0, System.nanoTime() - deadline);
+		jitter.record(lateness);
+		if (lateness > intervalNanos / 2) {
+			late++;
+		}
+	}
+
+	public void reset() {
+		jitter.reset();
+		late = 0;
+	}
+
+	/** How late the samples started: the achieved scheduling jitter. */
+	public LatencyHistogram getJitter() {
+		return jitter;
+	}
+
+	/** Samples that started more than half an interval late. */
+	public long getLateSamples() {
+		return late;
+	}
+
+	public String report() {
+		if (jitter.getCount() == 0) {
+			return "Sample timing: no samples";
+		}
+		return String.format("Sample timing: %d samples, jitter mean %.0f us, p99 %.0f us, max %.0f us,"
+				+ " %d more than half an interval late", jitter.getCount(), jitter.getMeanMillis() * 1e3,
+				jitter.getPercentileMillis(99) * 1e3, jitter.getMaxMillis() * 1e3, late);
+	}
+}
@@ -0,0 +1,145 @@
+package ecs.resistanceMeasurement;
+
+import java.util.Arrays;
+
+/**
+ * Append-only columnar store of the samples of one run.
+ * Time, voltage, current and resistance are kept in fixed-size {@code double[]}
+ * chunks, so an append is O(1) with no boxing and no copying of existing data;
+ * only the small array of chunk references grows.
+ *
+ * Samples are expected in non-decreasing time order (as the instrument and the
+ * recorded CSVs produce them); the chart relies on it for range lookups.
+ * Not thread-safe: a store is filled and read on the Event Dispatch Thread, or
+ * filled by a loader before it is published.
+ */
+public class SampleStore implements SampleConsumer {
+
+	private static final int CHUNK_BITS = 14;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;	// 16384 samples, 128 KB per column
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final String name;
+	private double[][] time = new double[4][];
+	private double[][] voltage = new double[4][];
+	private double[][] current = new double[4][];
+	private double[][] resistance = new double[4][];
+	private int size;
+
+	private double minTime = Double.NaN;
+	private double maxTime = Double.NaN;
+
+	public SampleStore(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public void accept(double absTime, double v, double i, double r) {
+		append(absTime, v, i, r);
+	}
+
+	public void append(double absTime, double v, double i, double r) {
+		int chunk = size >>> CHUNK_BITS;
+		int offset = size & CHUNK_MASK;
+		if (offset == 0) {
+			addChunk(chunk);
+		}
+		time[chunk][offset] = absTime;
+		voltage[chunk][offset] = v;
+		current[chunk][offset] = i;
+		resistance[chunk][offset] = r;
+		size++;
+
+		if (!Double.isNaN(absTime)) {
+			if (!(absTime >= minTime)) {	// also true while minTime is NaN
+				minTime = absTime;
+			}
+			if (!(absTime <= maxTime)) {
+				maxTime = absTime;
+			}
+		}
+	}
+
+	private void addChunk(int chunk) {
+		if (chunk == time.length) {
+			int grown = chunk * 2;
+			time = Arrays.copyOf(time, grown);
+			voltage = Arrays.copyOf(voltage, grown);
+			current = Arrays.copyOf(current, grown);
+			resistance = Arrays.copyOf(resistance, grown);
+		}
+		time[chunk] = new double[CHUNK_SIZE];
+		voltage[chunk] = new double[CHUNK_SIZE];
+		current[chunk] = new double[CHUNK_SIZE];
+		resistance[chunk] = new double[CHUNK_SIZE];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public double getTime(int index) {
+		return time[index >>> CHUNK_BITS][index & CHUNK_MASK];
+	}
+
+	public double getVoltage(int index) {
+		return voltage[index >>> CHUNK_BITS][index & CHUNK_MASK];
+	}
+
+	public double getCurrent(int index) {
+		return current[index >>> CHUNK_BITS][index & CHUNK_MASK];
+	}
+
+	public double getResistance(int index) {
+		return resistance[index >>> CHUNK_BITS][index & CHUNK_MASK];
+	}
+
+	/** Smallest time stored, NaN when empty. */
+	public double getMinTime() {
+		return minTime;
+	}
+
+	/** Largest time stored, NaN when empty. */
+	public double getMaxTime() {
+		return maxTime;
+	}
+
+	/**
+	 * Approximate heap used by the sample columns.
+	 */
+	public long getMemoryBytes() {
+		int chunks = (size + CHUNK_SIZE - 1) >>> CHUNK_BITS;
+		return 4L * chunks * (CHUNK_SIZE * 8L + 16);
+	}
+
+	/**
+	 * Takes over the samples of another store, which must not be used afterwards.
+	 * Lets the chart keep its series while the data behind it is swapped, e.g. for
+	 * a coarse envelope by {@link SeriesCache}.
+	 */
+	void replaceWith(SampleStore other) {
+		time = other.time;
+		voltage = other.voltage;
+		current = other.current;
+		resistance = other.resistance;
+		size = other.size;
+		minTime = other.minTime;
+		maxTime = other.maxTime;
+	}
+
+	/**
+	 * Hands every stored sample to the consumer, in order.
+	 */
+	public void forEach(SampleConsumer consumer) {
+		for (int n = 0; n < size; n++) {
+			int chunk = n >>> CHUNK_BITS;
+			int offset = n & CHUNK_MASK;
+			consumer.accept(time[chunk][offset], voltage[chunk][offset],
+					current[chunk][offset], resistance[chunk][offset]);
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package ecs.resistanceMeasurement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jfree.data.DomainInfo;
+import org.jfree.data.DomainOrder;
+import org.jfree.data.Range;
+import org.jfree.data.xy.AbstractXYDataset;
+import org.jfree.data.xy.XYDomainInfo;
+
+/**
+ * {@link org.jfree.data.xy.XYDataset} adapter over {@link SampleStore}s: one series
+ * per store, x = time and y = resistance, read straight from the primitive columns.
+ * Like the stores it must only be used on the Event Dispatch Thread; call
+ * {@link #storesChanged()} after appending to a store that is already added.
+ */
+public class SampleStoreDataset extends AbstractXYDataset implements DomainInfo, XYDomainInfo {
+
+	private static final long serialVersionUID = 1L;
+
+	private final List<SampleStore> stores = new ArrayList<>();
+
+	public void addStore(SampleStore store) {
+		stores.add(store);
+		fireDatasetChanged();
+	}
+
+	public void removeStore(SampleStore store) {
+		if (stores.remove(store)) {
+			fireDatasetChanged();
+		}
+	}
+
+	public void removeAllStores() {
+		stores.clear();
+		fireDatasetChanged();
+	}
+
+	public SampleStore getStore(int series) {
+		return stores.get(series);
+	}
+
+	public List<SampleStore> getStores() {
+		return new ArrayList<>(stores);
+	}
+
+	/**
+	 * Notifies listeners (the chart) once after a batch of appends.
+	 */
+	public void storesChanged() {
+		fireDatasetChanged();
+	}
+
+	@Override
+	public int getSeriesCount() {
+		return stores.size();
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Comparable getSeriesKey(int series) {
+		return stores.get(series).getName();
+	}
+
+	@Override
+	public DomainOrder getDomainOrder() {
+		return DomainOrder.ASCENDING;
+	}
+
+	@Override
+	public int getItemCount(int series) {
+		return stores.get(series).size();
+	}
+
+	@Override
+	public double getXValue(int series, int item) {
+		return stores.get(series).getTime(item);
+	}
+
+	@Override
+	public double getYValue(int series, int item) {
+		return stores.get(series).getResistance(item);
+	}
+
+	@Override
+	public Number getX(int series, int item) {
+		return getXValue(series, item);
+	}
+
+	@Override
+	public Number getY(int series, int item) {
+		return getYValue(series, item);
+	}
+
+	// ---------------- Domain bounds from the stores' tracked min/max ---------------- //
+
+	@Override
+	public double getDomainLowerBound(boolean includeInterval) {
+		Range r = getDomainBounds(includeInterval);
+		return r == null ? Double.NaN : r.getLowerBound();
+	}
+
+	@Override
+	public double getDomainUpperBound(boolean includeInterval) {
+		Range r = getDomainBounds(includeInterval);
+		return r == null ? Double.NaN : r.getUpperBound();
+	}
+
+	@Override
+	public Range getDomainBounds(boolean includeInterval) {
+		return bounds(stores);
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Range getDomainBounds(List visibleSeriesKeys, boolean includeInterval) {
+		List<SampleStore> visible = new ArrayList<>();
+		for (SampleStore store : stores) {
+			if (visibleSeriesKeys.contains(store.getName())) {
+				visible.add(store);
+			}
+		}
+		return bounds(visible);
+	}
+
+	private static Range bounds(List<SampleStore> stores) {
+		double lower = Double.POSITIVE_INFINITY;
+		double upper = Double.NEGATIVE_INFINITY;
+		for (SampleStore store : stores) {
+			if (store.size() > 0 && !Double.isNaN(store.getMinTime())) {
+				lower = Math.min(lower, store.getMinTime());
+				upper = Math.max(upper, store.getMaxTime());
+			}
+		}
+		return lower <= upper ? new Range(lower, upper) : null;
+	}
+}
@@ -0,0 +1,168 @@
+package ecs.resistanceMeasurement;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * SCPI over an instrument's raw LAN socket (port 5025 on the Keithley 2450).
+ * Commands and responses are ASCII lines terminated by '\n'. Every wait is
+ * bounded by the timeout, so a silent instrument fails the run instead of
+ * hanging it. Numeric responses are parsed in place, without creating strings.
+ */
+public class ScpiConnection implements Closeable {
+
+	public static final int DEFAULT_PORT = 5025;
+	public static final long DEFAULT_TIMEOUT_MS = 5000;
+
+	/** Longest numeric response accepted, e.g. a bulk {@code :TRAC:DATA?} fetch. */
+	public static final int MAX_VALUES = 16384;
+
+	private final SocketChannel channel;
+	private final Selector selector;
+	private final SelectionKey key;
+	private final long timeoutMillis;
+
+	private ByteBuffer out = ByteBuffer.allocateDirect(1024);	// grows for longer commands
+	private final ByteBuffer in = ByteBuffer.allocateDirect(64 * 1024);
+	private byte[] line = new byte[1024];
+	private int lineLength;
+	private final SampleLineParser parser = new SampleLineParser(MAX_VALUES);
+
+	public ScpiConnection(String host, int port, long timeoutMillis) throws IOException {
+		this.timeoutMillis = timeoutMillis;
+		channel = SocketChannel.open();
+		Selector s = null;
+		try {
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			s = Selector.open();
+			selector = s;
+			key = channel.register(selector, SelectionKey.OP_CONNECT);
+			if (!channel.connect(new InetSocketAddress(host, port))) {
+				await(SelectionKey.OP_CONNECT, "connecting to " + host + ":" + port);
+				channel.finishConnect();
+			}
+		} catch (IOException e) {
+			if (s != null) {
+				s.close();
+			}
+			channel.close();
+			throw e;
+		}
+		in.flip();	// empty, ready for reading
+	}
+
+	/**
+	 * Sends one command line.
+	 */
+	public void write(String command) throws IOException {
+		if (command.length() + 1 > out.capacity()) {
+			out = ByteBuffer.allocateDirect(Integer.highestOneBit(command.length()) * 2);
+		}
+		out.clear();
+		for (int k = 0; k < command.length(); k++) {
+			out.put((byte) command.charAt(k));
+		}
+		out.put((byte) '\n');
+		out.flip();
+		while (out.hasRemaining()) {
+			if (channel.write(out) == 0) {
+				await(SelectionKey.OP_WRITE, "sending " + command);
+			}
+		}
+	}
+
+	/**
+	 * Sends a query and returns its response line (without the terminator).
+	 */
+	public String query(String command) throws IOException {
+		write(command);
+		readLine(command);
+		return new String(line, 0, lineLength, StandardCharsets.US_ASCII).trim();
+	}
+
+	/**
+	 * Sends a query whose response is a comma separated list of numbers.
+	 * @return the number of values, readable with {@link #value(int)}
+	 */
+	public int queryValues(String command) throws IOException {
+		write(command);
+		readLine(command);
+		int count = parser.parse(line, 0, lineLength);
+		if (count < 0) {
+			String response = new String(line, 0, Math.min(lineLength, 200), StandardCharsets.US_ASCII).trim();
+			throw new IOException("Unexpected response to " + command + ": " + response);
+		}
+		return count;
+	}
+
+	/** One value of the last {@link #queryValues} response. */
+	public double value(int index) {
+		return parser.get(index);
+	}
+
+	/** Sends a query whose response is a single number. */
+	public double queryDouble(String command) throws IOException {
+		queryValues(command);
+		return parser.get(0);
+	}
+
+	private void readLine(String command) throws IOException {
+		lineLength = 0;
+		while (true) {
+			while (in.hasRemaining()) {
+				byte b = in.get();
+				if (b == '\n') {
+					if (lineLength > 0 && line[lineLength - 1] == '\r') {
+						lineLength--;
+					}
+					return;
+				}
+				if (lineLength == line.length) {
+					byte[] grown = new byte[line.length * 2];
+					System.arraycopy(line, 0, grown, 0, lineLength);
+					line = grown;
+				}
+				line[lineLength++] = b;
+			}
+			in.clear();
+			int n = channel.read(in);
+			in.flip();
+			if (n < 0) {
+				throw new EOFException("Instrument closed the connection");
+			}
+			if (n == 0) {
+				await(SelectionKey.OP_READ, "waiting for the response to " + command);
+			}
+		}
+	}
+
+	private void await(int op, String what) throws IOException {
+		key.interestOps(op);
+		int ready = selector.select(timeoutMillis);
+		selector.selectedKeys().clear();
+		if (ready == 0) {
+			throw new SocketTimeoutException("Timed out " + what);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			channel.close();
+		} finally {
+			if (selector != null) {
+				selector.close();
+			}
+		}
+	}
+}
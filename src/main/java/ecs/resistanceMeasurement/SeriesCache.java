@@ -0,0 +1,286 @@
+package ecs.resistanceMeasurement;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the runs loaded from files within a memory budget. When their samples
+ * exceed it, the least recently viewed runs give up their full-resolution data
+ * and keep a coarse envelope (the first, min, max and last sample of each of
+ * {@link #ENVELOPE_BUCKETS} time buckets), which draws the same outline at full
+ * zoom-out. Viewing such a run again reloads it from its file in the background
+ * and swaps the data back in place, so the chart keeps its series throughout.
+ *
+ * Runs count against the budget while they load: as their stores grow, the
+ * least recently viewed complete runs are evicted, so loading several files at
+ * once stays within it. A run is only evicted once loaded.
+ *
+ * The run currently in view is never evicted, even if it alone exceeds the
+ * budget. Live runs are not managed. Must only be used on the Event Dispatch
+ * Thread, like the stores.
+ */
+public class SeriesCache {
+
+	public static final long DEFAULT_BUDGET_BYTES = 512L * 1024 * 1024;
+	static final int ENVELOPE_BUCKETS = 2048;
+
+	/** Told about evictions, reloads and reload failures. */
+	public interface Listener {
+		void cacheEvent(String message);
+	}
+
+	private static final class Entry {
+		final SampleStore store;
+		final File file;
+		final double from;	// time window of an archive
+		final double to;
+		long lastViewed;
+		boolean loading;
+		boolean coarse;
+		boolean reloading;
+
+		Entry(SampleStore store, File file, double from, double to) {
+			this.store = store;
+			this.file = file;
+			this.from = from;
+			this.to = to;
+		}
+	}
+
+	private final SampleStoreDataset dataset;
+	private final Listener listener;
+	private final Map<SampleStore, Entry> entries = new IdentityHashMap<>();
+	private long budgetBytes;
+	private long clock;
+	private boolean enforcing;
+
+	public SeriesCache(SampleStoreDataset dataset, long budgetBytes, Listener listener) {
+		this.dataset = dataset;
+		this.listener = listener;
+		setBudget(budgetBytes);
+		// The loaders report each chunk they append as a dataset change
+		dataset.addChangeListener(event -> {
+			if (!enforcing && isLoading()) {
+				enforceBudget();
+			}
+		});
+	}
+
+	/**
+	 * Sets the budget for full-resolution samples and evicts down to it.
+	 */
+	public void setBudget(long budgetBytes) {
+		if (budgetBytes <= 0) {
+			throw new IllegalArgumentException("Cache budget must be positive: " + budgetBytes);
+		}
+		this.budgetBytes = budgetBytes;
+		enforceBudget();
+	}
+
+	public long getBudget() {
+		return budgetBytes;
+	}
+
+	/** Heap used by the full-resolution samples of the managed runs. */
+	public long getMemoryBytes() {
+		long bytes = 0;
+		for (Entry entry : entries.values()) {
+			if (!entry.coarse) {
+				bytes += entry.store.getMemoryBytes();
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Counts a run that starts loading against the budget, as the most recently
+	 * viewed one; {@link #add} when it is complete, {@link #remove} if it fails.
+	 * @param from start of the time window loaded from an archive, ignored for CSV
+	 * @param to end of that window
+	 */
+	public void loading(SampleStore store, File file, double from, double to) {
+		Entry entry = new Entry(store, file, from, to);
+		entry.loading = true;
+		entry.lastViewed = ++clock;
+		entries.put(store, entry);
+		enforceBudget();
+	}
+
+	/**
+	 * Manages a completely loaded run, as the most recently viewed one.
+	 * @param from start of the time window loaded from an archive, ignored for CSV
+	 * @param to end of that window
+	 */
+	public void add(SampleStore store, File file, double from, double to) {
+		Entry entry = entries.get(store);
+		if (entry == null || !entry.loading) {
+			entry = new Entry(store, file, from, to);
+			entries.put(store, entry);
+		}
+		entry.loading = false;
+		entry.lastViewed = ++clock;
+		enforceBudget();
+	}
+
+	public boolean contains(SampleStore store) {
+		return entries.containsKey(store);
+	}
+
+	/** True while only the envelope of the run is in memory. */
+	public boolean isCoarse(SampleStore store) {
+		Entry entry = entries.get(store);
+		return entry != null && entry.coarse;
+	}
+
+	/** Stops managing the run; its store keeps whatever data it has. */
+	public void remove(SampleStore store) {
+		entries.remove(store);
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+
+	private boolean isLoading() {
+		for (Entry entry : entries.values()) {
+			if (entry.loading) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Marks the run as in view; if it was evicted, its file is reloaded in the
+	 * background. Does nothing for runs not managed here.
+	 */
+	public void viewed(SampleStore store) {
+		Entry entry = entries.get(store);
+		if (entry == null) {
+			return;
+		}
+		entry.lastViewed = ++clock;
+		if (entry.coarse && !entry.reloading) {
+			reload(entry);
+		}
+	}
+
+	// ---------------- eviction and reload ---------------- //
+
+	private void enforceBudget() {
+		long used = getMemoryBytes();
+		boolean evicted = false;
+		while (used > budgetBytes) {
+			Entry newest = null;
+			Entry victim = null;
+			for (Entry entry : entries.values()) {
+				if (newest == null || entry.lastViewed > newest.lastViewed) {
+					newest = entry;
+				}
+			}
+			for (Entry entry : entries.values()) {
+				if (entry != newest && !entry.loading && !entry.coarse && entry.store.size() > 4 * ENVELOPE_BUCKETS
+						&& (victim == null || entry.lastViewed < victim.lastViewed)) {
+					victim = entry;
+				}
+			}
+			if (victim == null) {
+				break;
+			}
+			long freed = victim.store.getMemoryBytes();
+			victim.store.replaceWith(envelope(victim.store, ENVELOPE_BUCKETS));
+			victim.coarse = true;
+			used -= freed - victim.store.getMemoryBytes();
+			listener.cacheEvent(String.format("%s: kept an envelope, %.0f MB freed (reloads when viewed)",
+					victim.store.getName(), freed / 1048576.0));
+			evicted = true;
+		}
+		if (evicted) {
+			enforcing = true;
+			try {
+				dataset.storesChanged();
+			} finally {
+				enforcing = false;
+			}
+		}
+	}
+
+	private void reload(Entry entry) {
+		entry.reloading = true;
+		if (entry.file.getName().endsWith(RunArchiveWriter.EXTENSION)) {
+			RunArchiveReader reader;
+			try {
+				reader = new RunArchiveReader(entry.file);
+			} catch (IOException e) {
+				entry.reloading = false;
+				listener.cacheEvent("Cannot reload " + entry.store.getName() + ": " + e.getMessage());
+				return;
+			}
+			new ArchiveLoader(reader, entry.from, entry.to, null,
+					(loader, result, error) -> reloaded(entry, loader.getStore(), result != null, error)).start();
+		} else {
+			new CsvLoader(entry.file, null,
+					(loader, result, error) -> reloaded(entry, loader.getStore(), result != null, error)).start();
+		}
+	}
+
+	private void reloaded(Entry entry, SampleStore loaded, boolean complete, Exception error) {
+		entry.reloading = false;
+		if (entries.get(entry.store) != entry) {
+			return;	// removed or cleared meanwhile
+		}
+		if (!complete) {
+			listener.cacheEvent("Cannot reload " + entry.store.getName()
+					+ (error != null ? ": " + error.getMessage() : ""));
+			return;
+		}
+		entry.store.replaceWith(loaded);
+		entry.coarse = false;
+		listener.cacheEvent("Reloaded " + entry.store.getName() + " at full resolution");
+		dataset.storesChanged();
+		enforceBudget();
+	}
+
+	/**
+	 * The first, minimum, maximum and last sample (by resistance) of each time
+	 * bucket, in order: the outline M4 decimation would draw from all samples.
+	 */
+	static SampleStore envelope(SampleStore store, int buckets) {
+		SampleStore envelope = new SampleStore(store.getName());
+		int n = store.size();
+		if (n == 0) {
+			return envelope;
+		}
+		double t0 = store.getTime(0);
+		double span = store.getTime(n - 1) - t0;
+		double scale = span > 0 ? buckets / span : 0;
+		int last = -1;	// last index copied
+		int i = 0;
+		while (i < n) {
+			int bucket = Math.min(buckets - 1, (int) ((store.getTime(i) - t0) * scale));
+			int first = i;
+			int minIdx = -1;
+			int maxIdx = -1;
+			for (; i < n && Math.min(buckets - 1, (int) ((store.getTime(i) - t0) * scale)) == bucket; i++) {
+				double r = store.getResistance(i);
+				if (minIdx < 0 || r < store.getResistance(minIdx)) {
+					minIdx = Double.isNaN(r) ? minIdx : i;
+				}
+				if (maxIdx < 0 || r > store.getResistance(maxIdx)) {
+					maxIdx = Double.isNaN(r) ? maxIdx : i;
+				}
+			}
+			int[] picks = { first, Math.min(minIdx, maxIdx), Math.max(minIdx, maxIdx), i - 1 };
+			for (int pick : picks) {
+				if (pick > last) {
+					envelope.append(store.getTime(pick), store.getVoltage(pick), store.getCurrent(pick),
+							store.getResistance(pick));
+					last = pick;
+				}
+			}
+		}
+		return envelope;
+	}
+}
@@ -0,0 +1,201 @@
+package ecs.resistanceMeasurement;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Acquisition engine without an instrument, for development and load testing.
+ * It produces a resistance-vs-time stream at the configured sample interval
+ * (up to tens of kHz) with the artefacts seen on real samples:
+ * <ul>
+ * <li>gaussian noise and a linear drift,</li>
+ * <li>resistance steps at a fixed period,</li>
+ * <li>failed readings (NaN current and resistance) at a given probability,</li>
+ * <li>bursts: delivery stalls periodically and the held-back samples then arrive at once.</li>
+ * </ul>
+ * Samples are generated on the simulated clock and delivered in blocks, like the
+ * buffered SCPI engine; the stages of a {@link VoltageSequence} follow each other
+ * on the same clock. The stream is reproducible for a given seed.
+ */
+public class SimulatedEngine implements AcquisitionEngine {
+
+	private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final int MAX_BLOCK = 4096;
+
+	private double baseResistance = 1000.0;
+	private double noise = 0.002;			// relative standard deviation
+	private double driftPerSecond = 0.001;	// relative
+	private double stepPeriod = 2.0;		// seconds, 0 = no steps
+	private double stepSize = 0.05;			// relative
+	private double nanProbability = 0.001;
+	private double burstPeriod = 1.0;		// seconds, 0 = no bursts
+	private double burstStall = 0.05;		// seconds without delivery
+	private long seed = 42;
+
+	private volatile Thread runThread;	// null when idle
+	private volatile boolean stopRequested;
+
+	public SimulatedEngine setBaseResistance(double ohms) {
+		this.baseResistance = ohms;
+		return this;
+	}
+
+	public SimulatedEngine setNoise(double relativeSigma) {
+		this.noise = relativeSigma;
+		return this;
+	}
+
+	public SimulatedEngine setDrift(double relativePerSecond) {
+		this.driftPerSecond = relativePerSecond;
+		return this;
+	}
+
+	public SimulatedEngine setSteps(double periodSeconds, double relativeSize) {
+		this.stepPeriod = periodSeconds;
+		this.stepSize = relativeSize;
+		return this;
+	}
+
+	public SimulatedEngine setNanProbability(double probability) {
+		this.nanProbability = probability;
+		return this;
+	}
+
+	public SimulatedEngine setBursts(double periodSeconds, double stallSeconds) {
+		this.burstPeriod = periodSeconds;
+		this.burstStall = stallSeconds;
+		return this;
+	}
+
+	public SimulatedEngine setSeed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	@Override
+	public synchronized void startRun(MeasurementConfig config, SampleConsumer samples, RunListener listener) {
+		if (runThread != null) {
+			listener.runFinished("A measurement is already running");
+			return;
+		}
+		stopRequested = false;
+		Thread t = new Thread(() -> run(config, samples, listener), "simulated-acquisition");
+		t.setDaemon(true);
+		runThread = t;
+		t.start();
+	}
+
+	@Override
+	public void stopRun() {
+		stopRequested = true;
+	}
+
+	@Override
+	public boolean isRunning() {
+		return runThread != null;
+	}
+
+	@Override
+	public long getDroppedSamples() {
+		return 0;
+	}
+
+	@Override
+	public long getParseFailures() {
+		return 0;
+	}
+
+	// ---------------- generator thread ---------------- //
+
+	private void run(MeasurementConfig config, SampleConsumer samples, RunListener listener) {
+		String error = null;
+		try {
+			generate(config, samples);
+		} catch (RuntimeException e) {
+			error = e.toString();
+		}
+		runThread = null;
+		listener.runFinished(error);
+	}
+
+	private void generate(MeasurementConfig config, SampleConsumer samples) {
+		SplittableRandom random = new SplittableRandom(seed);
+		VoltageSequence sequence = config.getSequence();
+
+		double[] time = new double[MAX_BLOCK];
+		double[] volts = new double[MAX_BLOCK];
+		double[] current = new double[MAX_BLOCK];
+		double[] resistance = new double[MAX_BLOCK];
+
+		long start = System.nanoTime();
+		for (int k = 0; k < sequence.size() && !stopRequested; k++) {
+			VoltageSequence.Stage stage = sequence.get(k);
+			double voltage = stage.getVoltage();
+			double interval = Keithley2450Engine.sampleInterval(config, stage);	// AUTO: one integration time
+			double stageStart = sequence.getStart(k);
+			long total = (long) Math.floor(stage.getDuration() / interval);
+			samples.stageStarted(k, stageStart);
+
+			long next = 0;	// index of the next sample of the stage
+			while (next < total && !stopRequested) {
+				double now = (System.nanoTime() - start) / 1e9;
+				if (!inStall(now)) {
+					long due = Math.min(total, (long) Math.floor((now - stageStart) / interval) + 1);
+					while (next < due) {
+						int count = (int) Math.min(MAX_BLOCK, due - next);
+						for (int n = 0; n < count; n++) {
+							double t = stageStart + (next + n) * interval;
+							// like the instrument: no resistance without a source voltage
+							double r = Math.abs(voltage) > 1e-6 ? resistanceAt(t, random) : Double.NaN;
+							time[n] = t;
+							volts[n] = voltage;
+							current[n] = Math.abs(voltage) > 1e-6 ? voltage / r : 0.0;
+							resistance[n] = r;
+						}
+						samples.acceptBlock(time, volts, current, resistance, count);
+						next += count;
+					}
+				}
+				LockSupport.parkNanos(TICK_NANOS);
+			}
+		}
+	}
+
+	private boolean inStall(double t) {
+		if (burstPeriod <= 0 || burstStall <= 0) {
+			return false;
+		}
+		return t % burstPeriod >= burstPeriod - burstStall;
+	}
+
+	private double resistanceAt(double t, SplittableRandom random) {
+		if (nanProbability > 0 && random.nextDouble() < nanProbability) {
+			return Double.NaN;
+		}
+		double r = baseResistance * (1 + driftPerSecond * t);
+		if (stepPeriod > 0) {
+			r *= 1 + stepSize * Math.floor(t / stepPeriod);
+		}
+		return r * (1 + noise * gaussian(random));
+	}
+
+	// Box-Muller; SplittableRandom has no nextGaussian on Java 8
+	private static double gaussian(SplittableRandom random) {
+		double u = 1.0 - random.nextDouble();
+		return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * random.nextDouble());
+	}
+
+	@Override
+	public void close() {
+		stopRun();
+		Thread t = runThread;
+		if (t != null) {
+			try {
+				t.join(5000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
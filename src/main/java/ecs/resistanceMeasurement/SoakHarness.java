@@ -0,0 +1,288 @@
+package ecs.resistanceMeasurement;
+
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+
+/**
+ * Headless end-to-end soak/throughput run: a {@link SimulatedEngine} feeds the
+ * same pipeline as the GUI ({@link LiveChartUpdater} into a {@link SampleStore},
+ * drawn through a {@link DecimatingXYDataset}), and the chart is painted
+ * off-screen at the refresh rate instead of into a window. Reports:
+ * <ul>
+ * <li>ingest rate: samples stored per second of run time;</li>
+ * <li>sample-to-screen latency: from a sample's timestamp to the end of the
+ * first frame that painted it (percentiles over all samples);</li>
+ * <li>EDT queue delay: how long a task posted every 5 ms waited to run;</li>
+ * <li>heap: used heap after GC before and after the run, peak during it.</li>
+ * </ul>
+ *
+ * Usage: {@code java -cp resistanceMeasurement.jar ecs.resistanceMeasurement.SoakHarness
+ * [--rate Hz] [--seconds s] [--refresh Hz] [--buffer samples] [--width px] [--height px]}
+ */
+public class SoakHarness {
+
+	private static final long EDT_PROBE_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+	private double rate = 20000;
+	private double seconds = 10;
+	private int refreshRate = LiveChartUpdater.DEFAULT_REFRESH_RATE;
+	private int bufferCapacity = LiveChartUpdater.DEFAULT_BUFFER_CAPACITY;
+	private int width = 800;
+	private int height = 500;
+	private SimulatedEngine engine = new SimulatedEngine();
+
+	public SoakHarness setRate(double samplesPerSecond) {
+		this.rate = samplesPerSecond;
+		return this;
+	}
+
+	public SoakHarness setSeconds(double seconds) {
+		this.seconds = seconds;
+		return this;
+	}
+
+	public SoakHarness setRefreshRate(int framesPerSecond) {
+		this.refreshRate = framesPerSecond;
+		return this;
+	}
+
+	public SoakHarness setBufferCapacity(int samples) {
+		this.bufferCapacity = samples;
+		return this;
+	}
+
+	public SoakHarness setSize(int width, int height) {
+		this.width = width;
+		this.height = height;
+		return this;
+	}
+
+	/** The simulator, for tuning noise, steps, NaNs and bursts. */
+	public SimulatedEngine getEngine() {
+		return engine;
+	}
+
+	/** Results of one run. */
+	public static final class Report {
+		long samples;
+		double seconds;
+		int frames;
+		double paintMillis;
+		long heapBefore;
+		long heapAfter;
+		long heapPeak;
+		String error;
+		final LatencyHistogram latency = new LatencyHistogram();
+		final LatencyHistogram edtDelay = new LatencyHistogram();
+
+		public long getSamples() {
+			return samples;
+		}
+
+		public double getIngestRate() {
+			return samples / seconds;
+		}
+
+		public int getFrames() {
+			return frames;
+		}
+
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+
+		public LatencyHistogram getEdtDelay() {
+			return edtDelay;
+		}
+
+		public long getHeapGrowth() {
+			return heapAfter - heapBefore;
+		}
+
+		public String getError() {
+			return error;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"samples            %d in %.2f s%n"
+					+ "ingest rate        %.0f samples/s%n"
+					+ "frames             %d (mean paint %.2f ms)%n"
+					+ "sample-to-screen   p50 %.1f  p90 %.1f  p99 %.1f  max %.1f ms%n"
+					+ "EDT queue delay    p50 %.2f  p99 %.2f  max %.2f ms%n"
+					+ "heap (after GC)    before %.1f MB, after %.1f MB, growth %.1f B/sample, peak %.1f MB%s",
+					samples, seconds, getIngestRate(), frames, frames > 0 ? paintMillis / frames : 0.0,
+					latency.getPercentileMillis(50), latency.getPercentileMillis(90),
+					latency.getPercentileMillis(99), latency.getMaxMillis(),
+					edtDelay.getPercentileMillis(50), edtDelay.getPercentileMillis(99), edtDelay.getMaxMillis(),
+					heapBefore / 1e6, heapAfter / 1e6, samples > 0 ? (double) getHeapGrowth() / samples : 0.0,
+					heapPeak / 1e6, error != null ? String.format("%nerror              %s", error) : "");
+		}
+	}
+
+	/**
+	 * Runs one simulated measurement and blocks until it is drawn completely.
+	 * Must not be called on the EDT.
+	 */
+	public Report run() throws InterruptedException {
+		Report report = new Report();
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		System.gc();
+		report.heapBefore = memory.getHeapMemoryUsage().getUsed();
+		report.heapPeak = report.heapBefore;
+
+		// Same pipeline as the GUI
+		SampleStoreDataset dataset = new SampleStoreDataset();
+		SampleStore store = new SampleStore("Soak");
+		dataset.addStore(store);
+		DecimatingXYDataset view = new DecimatingXYDataset(dataset);
+		JFreeChart chart = ChartFactory.createXYLineChart("Resistance vs Time", "Time (s)", "Resistance (Ω)", view);
+		view.setDomainAxis(chart.getXYPlot().getDomainAxis());
+		view.setPixelWidth(width);
+		LiveChartUpdater updater = new LiveChartUpdater(dataset, store, refreshRate, bufferCapacity);
+
+		BufferedImage screen = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Rectangle2D area = new Rectangle2D.Double(0, 0, width, height);
+		long[] painted = new long[1];	// samples already on screen (EDT only)
+		long[] runStart = new long[1];
+		Runnable paint = () -> {
+			long begin = System.nanoTime();
+			long visible = store.size();
+			Graphics2D g = screen.createGraphics();
+			chart.draw(g, area);
+			g.dispose();
+			long end = System.nanoTime();
+			report.frames++;
+			report.paintMillis += (end - begin) / 1e6;
+			for (long n = painted[0]; n < visible; n++) {
+				long sampleNanos = runStart[0] + (long) (store.getTime((int) n) * 1e9);
+				report.latency.record(end - sampleNanos);
+			}
+			painted[0] = visible;
+		};
+		Timer screenTimer = new Timer(Math.max(1, 1000 / refreshRate), e -> paint.run());
+
+		// EDT responsiveness and heap probes
+		ScheduledExecutorService probes = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "soak-probe");
+			t.setDaemon(true);
+			return t;
+		});
+		probes.scheduleAtFixedRate(() -> {
+			long posted = System.nanoTime();
+			SwingUtilities.invokeLater(() -> report.edtDelay.record(System.nanoTime() - posted));
+			long used = memory.getHeapMemoryUsage().getUsed();
+			synchronized (report) {
+				report.heapPeak = Math.max(report.heapPeak, used);
+			}
+		}, 0, EDT_PROBE_NANOS, TimeUnit.NANOSECONDS);
+
+		MeasurementConfig config = new MeasurementConfig(1.0, seconds, 1.0 / rate, MeasurementConfig.AUTO,
+				0.01, 0.1, true, ".", "soak");
+		CountDownLatch finished = new CountDownLatch(1);
+		String[] error = new String[1];
+		invokeAndWait(() -> {
+			updater.start();
+			screenTimer.start();
+		});
+		runStart[0] = System.nanoTime();
+		engine.startRun(config, new SampleConsumer() {
+			@Override
+			public void accept(double absTime, double v, double i, double r) {
+				try {
+					updater.offer(absTime, v, i, r);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			@Override
+			public void acceptBlock(double[] absTime, double[] v, double[] i, double[] r, int count) {
+				try {
+					updater.offerBlock(absTime, v, i, r, count);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, e -> {
+			error[0] = e;
+			finished.countDown();
+		});
+		finished.await();
+		invokeAndWait(() -> {
+			updater.stop();
+			screenTimer.stop();
+			paint.run();	// the last samples
+		});
+		report.seconds = (System.nanoTime() - runStart[0]) / 1e9;
+		probes.shutdownNow();
+		probes.awaitTermination(1, TimeUnit.SECONDS);
+
+		report.samples = store.size();
+		report.error = error[0];
+		System.gc();
+		report.heapAfter = memory.getHeapMemoryUsage().getUsed();
+		// keep the pipeline reachable until the heap was measured
+		if (dataset.getItemCount(0) != store.size()) {
+			throw new IllegalStateException("dataset out of sync");
+		}
+		return report;
+	}
+
+	private static void invokeAndWait(Runnable work) throws InterruptedException {
+		try {
+			SwingUtilities.invokeAndWait(work);
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		SoakHarness harness = new SoakHarness();
+		for (int k = 0; k + 1 < args.length; k += 2) {
+			String value = args[k + 1];
+			switch (args[k]) {
+				case "--rate":
+					harness.setRate(Double.parseDouble(value));
+					break;
+				case "--seconds":
+					harness.setSeconds(Double.parseDouble(value));
+					break;
+				case "--refresh":
+					harness.setRefreshRate(Integer.parseInt(value));
+					break;
+				case "--buffer":
+					harness.setBufferCapacity(Integer.parseInt(value));
+					break;
+				case "--width":
+					harness.width = Integer.parseInt(value);
+					break;
+				case "--height":
+					harness.height = Integer.parseInt(value);
+					break;
+				default:
+					System.err.println("Unknown option " + args[k]);
+					System.exit(2);
+			}
+		}
+		System.out.printf("Soak run: %.0f samples/s for %.1f s, %d fps, buffer %d%n",
+				harness.rate, harness.seconds, harness.refreshRate, harness.bufferCapacity);
+		System.out.println(harness.run());
+	}
+}
@@ -0,0 +1,89 @@
+package ecs.resistanceMeasurement;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Records how long each application startup phase took. Phases may run
+ * concurrently on different threads; the report lists each phase with its
+ * start offset, duration and thread.
+ */
+public class StartupTimer {
+
+	private final long origin = System.nanoTime();
+	private final long jvmUptimeMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+	private final List<Phase> phases = new ArrayList<>();
+
+	private static final class Phase {
+		final String name;
+		final String thread;
+		final long startNanos;
+		final long endNanos;
+
+		Phase(String name, String thread, long startNanos, long endNanos) {
+			this.name = name;
+			this.thread = thread;
+			this.startNanos = startNanos;
+			this.endNanos = endNanos;
+		}
+	}
+
+	/**
+	 * Runs one phase on the calling thread and records its duration.
+	 */
+	public <T> T time(String name, Supplier<T> work) {
+		long start = System.nanoTime();
+		try {
+			return work.get();
+		} finally {
+			record(name, start, System.nanoTime());
+		}
+	}
+
+	public void time(String name, Runnable work) {
+		long start = System.nanoTime();
+		try {
+			work.run();
+		} finally {
+			record(name, start, System.nanoTime());
+		}
+	}
+
+	/**
+	 * Records a phase that started when this timer was created and ends now.
+	 */
+	public void mark(String name) {
+		record(name, origin, System.nanoTime());
+	}
+
+	private synchronized void record(String name, long start, long end) {
+		phases.add(new Phase(name, Thread.currentThread().getName(), start, end));
+	}
+
+	public synchronized int getPhaseCount() {
+		return phases.size();
+	}
+
+	/**
+	 * Milliseconds from timer creation until the last recorded phase ended.
+	 */
+	public synchronized double getTotalMillis() {
+		long end = origin;
+		for (Phase p : phases) {
+			end = Math.max(end, p.endNanos);
+		}
+		return (end - origin) / 1e6;
+	}
+
+	public synchronized String report() {
+		StringBuilder s = new StringBuilder(String.format(
+				"Startup timing: %.0f ms (JVM start to UI: %d ms)", getTotalMillis(), jvmUptimeMillis));
+		for (Phase p : phases) {
+			s.append(String.format("%n  %-20s %7.1f ms  (at %6.1f ms, %s)", p.name,
+					(p.endNanos - p.startNanos) / 1e6, (p.startNanos - origin) / 1e6, p.thread));
+		}
+		return s.toString();
+	}
+}
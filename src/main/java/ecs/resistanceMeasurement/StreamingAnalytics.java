@@ -0,0 +1,503 @@
+package ecs.resistanceMeasurement;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Live statistics of the resistance, updated in constant time per sample on the
+ * ingest path and read by the UI at its own pace. Memory does not grow with the
+ * run; nothing is kept per sample.
+ * <ul>
+ * <li>mean and standard deviation since the start of the stage (Welford);</li>
+ * <li>min, max and least-squares drift slope over the last window, kept as
+ * {@link #BUCKETS} partial sums of window/{@value #BUCKETS} seconds each (the
+ * window slides one bucket at a time);</li>
+ * <li>Allan deviation at averaging times of 2^k samples, from a cascade of
+ * pairwise averages (non-overlapping estimator).</li>
+ * </ul>
+ * Samples without a resistance (NaN, e.g. at 0 V) are skipped. Each stage of a
+ * {@link VoltageSequence} starts the statistics afresh, since the resistance
+ * usually shifts with the voltage.
+ *
+ * {@link Trigger}s are evaluated on every sample; the first one that fires is
+ * reported to the listener on the ingest thread, before the next sample is taken.
+ * Slope triggers wait until the stage has run for half a window and has at
+ * least {@link #MIN_SLOPE_SAMPLES} samples: a fit over the first few samples of
+ * a stage is mostly noise.
+ */
+public class StreamingAnalytics implements SampleConsumer {
+
+	public static final double DEFAULT_WINDOW_SECONDS = 10;
+	static final int BUCKETS = 16;
+	static final int MIN_SLOPE_SAMPLES = 10;
+	private static final int ALLAN_LEVELS = 40;
+
+	/** Called on the ingest thread when a trigger fires; at most once per run. */
+	public interface Listener {
+		void triggerFired(Trigger trigger, double absTime, double value);
+	}
+
+	/** What a {@link Trigger} compares. */
+	public enum Quantity {
+		RESISTANCE("R"),
+		SLOPE("slope"),
+		ABS_SLOPE("|slope|");
+
+		private final String symbol;
+
+		Quantity(String symbol) {
+			this.symbol = symbol;
+		}
+
+		public String getSymbol() {
+			return symbol;
+		}
+	}
+
+	/**
+	 * Stop condition: a quantity above or below a limit. Text form
+	 * {@code R>1e6}, {@code R<100}, {@code slope>0.5} or {@code |slope|>0.5},
+	 * slopes in Ohm/s.
+	 */
+	public static final class Trigger {
+		private final Quantity quantity;
+		private final boolean above;
+		private final double limit;
+
+		public Trigger(Quantity quantity, boolean above, double limit) {
+			if (Double.isNaN(limit)) {
+				throw new IllegalArgumentException("Trigger limit must be a number");
+			}
+			this.quantity = quantity;
+			this.above = above;
+			this.limit = limit;
+		}
+
+		public Quantity getQuantity() {
+			return quantity;
+		}
+
+		public boolean isAbove() {
+			return above;
+		}
+
+		public double getLimit() {
+			return limit;
+		}
+
+		boolean fires(double value) {
+			return above ? value > limit : value < limit;
+		}
+
+		@Override
+		public String toString() {
+			return quantity.getSymbol() + (above ? ">" : "<") + limit;
+		}
+	}
+
+	/**
+	 * Parses triggers separated by ','; an empty text gives none.
+	 * @throws IllegalArgumentException if a trigger is malformed
+	 */
+	public static List<Trigger> parseTriggers(String text) {
+		List<Trigger> triggers = new ArrayList<>();
+		if (text.trim().isEmpty()) {
+			return triggers;
+		}
+		for (String part : text.trim().split("\\s*,\\s*")) {
+			int op = Math.max(part.indexOf('>'), part.indexOf('<'));
+			if (op <= 0 || part.indexOf('>') >= 0 && part.indexOf('<') >= 0) {
+				throw new IllegalArgumentException("Expected quantity>limit or quantity<limit, got \"" + part + "\"");
+			}
+			String symbol = part.substring(0, op).trim();
+			Quantity quantity = null;
+			for (Quantity q : Quantity.values()) {
+				if (q.getSymbol().equalsIgnoreCase(symbol)) {
+					quantity = q;
+				}
+			}
+			if (quantity == null) {
+				throw new IllegalArgumentException("Unknown trigger quantity \"" + symbol + "\" (R, slope or |slope|)");
+			}
+			try {
+				triggers.add(new Trigger(quantity, part.charAt(op) == '>',
+						Double.parseDouble(part.substring(op + 1).trim())));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid limit in trigger \"" + part + "\"");
+			}
+		}
+		return triggers;
+	}
+
+	/** The text form, read back by {@link #parseTriggers}. */
+	public static String formatTriggers(List<Trigger> triggers) {
+		StringBuilder s = new StringBuilder();
+		for (Trigger trigger : triggers) {
+			if (s.length() > 0) {
+				s.append(',');
+			}
+			s.append(trigger);
+		}
+		return s.toString();
+	}
+
+	/** Values at one moment, for display. */
+	public static final class Snapshot {
+		private final int stage;
+		private final long count;
+		private final double last;
+		private final double mean;
+		private final double stdDev;
+		private final double windowMin;
+		private final double windowMax;
+		private final double slope;
+		private final double runMin;
+		private final double runMax;
+		private final double[] allanTaus;
+		private final double[] allanDeviations;
+		private final String fired;
+
+		private Snapshot(int stage, long count, double last, double mean, double stdDev, double windowMin,
+				double windowMax, double slope, double runMin, double runMax, double[] allanTaus,
+				double[] allanDeviations, String fired) {
+			this.stage = stage;
+			this.count = count;
+			this.last = last;
+			this.mean = mean;
+			this.stdDev = stdDev;
+			this.windowMin = windowMin;
+			this.windowMax = windowMax;
+			this.slope = slope;
+			this.runMin = runMin;
+			this.runMax = runMax;
+			this.allanTaus = allanTaus;
+			this.allanDeviations = allanDeviations;
+			this.fired = fired;
+		}
+
+		public int getStage() {
+			return stage;
+		}
+
+		/** Samples with a resistance in the current stage. */
+		public long getCount() {
+			return count;
+		}
+
+		public double getLast() {
+			return last;
+		}
+
+		public double getMean() {
+			return mean;
+		}
+
+		/** Sample standard deviation, NaN below two samples. */
+		public double getStdDev() {
+			return stdDev;
+		}
+
+		public double getWindowMin() {
+			return windowMin;
+		}
+
+		public double getWindowMax() {
+			return windowMax;
+		}
+
+		/** Drift over the window in Ohm/s, NaN below three samples. */
+		public double getSlope() {
+			return slope;
+		}
+
+		/** Smallest resistance of the whole run, over all stages; NaN before the first. */
+		public double getRunMin() {
+			return runMin;
+		}
+
+		/** Largest resistance of the whole run, over all stages; NaN before the first. */
+		public double getRunMax() {
+			return runMax;
+		}
+
+		/** Averaging times in seconds, shortest first. */
+		public double[] getAllanTaus() {
+			return allanTaus.clone();
+		}
+
+		/** Allan deviation in Ohm for each of {@link #getAllanTaus()}. */
+		public double[] getAllanDeviations() {
+			return allanDeviations.clone();
+		}
+
+		/** The trigger that fired, with its value, or null. */
+		public String getFired() {
+			return fired;
+		}
+	}
+
+	private final double windowSeconds;
+	private final double bucketSeconds;
+	private final List<Trigger> triggers;
+	private final Listener listener;
+	private final boolean needsSlope;
+
+	// Guarded by this
+	private int stage;
+	private double origin = Double.NaN;	// time of the stage's first sample; times are relative to it
+	private double firstTime;
+	private double lastTime;
+	private double last = Double.NaN;
+	private long count;
+	private double mean;
+	private double m2;
+	private double runMin = Double.NaN;	// not reset by stages
+	private double runMax = Double.NaN;
+
+	// Window buckets: number, samples, min, max and sums for the regression
+	private final long[] bucketIndex = new long[BUCKETS];
+	private final long[] bucketCount = new long[BUCKETS];
+	private final double[] bucketMin = new double[BUCKETS];
+	private final double[] bucketMax = new double[BUCKETS];
+	private final double[] sumT = new double[BUCKETS];
+	private final double[] sumR = new double[BUCKETS];
+	private final double[] sumTT = new double[BUCKETS];
+	private final double[] sumTR = new double[BUCKETS];
+	private long currentBucket;
+
+	// Allan cascade: level k averages 2^k samples
+	private final double[] pairFirst = new double[ALLAN_LEVELS];
+	private final boolean[] hasPairFirst = new boolean[ALLAN_LEVELS];
+	private final double[] previousAverage = new double[ALLAN_LEVELS];
+	private final boolean[] hasPreviousAverage = new boolean[ALLAN_LEVELS];
+	private final double[] sumSquaredDifferences = new double[ALLAN_LEVELS];
+	private final long[] differences = new long[ALLAN_LEVELS];
+
+	private String fired;
+
+	public StreamingAnalytics() {
+		this(DEFAULT_WINDOW_SECONDS, Collections.<Trigger>emptyList(), null);
+	}
+
+	/**
+	 * @param windowSeconds span of the windowed min, max and slope
+	 * @param listener told when a trigger fires; may be null without triggers
+	 */
+	public StreamingAnalytics(double windowSeconds, List<Trigger> triggers, Listener listener) {
+		if (!(windowSeconds > 0) || Double.isInfinite(windowSeconds)) {
+			throw new IllegalArgumentException("Analytics window must be positive: " + windowSeconds);
+		}
+		this.windowSeconds = windowSeconds;
+		this.bucketSeconds = windowSeconds / BUCKETS;
+		this.triggers = new ArrayList<>(triggers);
+		this.listener = listener;
+		boolean slope = false;
+		for (Trigger trigger : triggers) {
+			slope |= trigger.getQuantity() != Quantity.RESISTANCE;
+		}
+		this.needsSlope = slope;
+		reset();
+	}
+
+	public double getWindowSeconds() {
+		return windowSeconds;
+	}
+
+	public List<Trigger> getTriggers() {
+		return Collections.unmodifiableList(triggers);
+	}
+
+	private void reset() {
+		origin = Double.NaN;
+		last = Double.NaN;
+		count = 0;
+		mean = 0;
+		m2 = 0;
+		for (int k = 0; k < BUCKETS; k++) {
+			bucketIndex[k] = Long.MIN_VALUE;
+		}
+		for (int k = 0; k < ALLAN_LEVELS; k++) {
+			hasPairFirst[k] = false;
+			hasPreviousAverage[k] = false;
+			sumSquaredDifferences[k] = 0;
+			differences[k] = 0;
+		}
+	}
+
+	// ---------------- ingest ---------------- //
+
+	@Override
+	public synchronized void accept(double absTime, double voltage, double current, double resistance) {
+		if (Double.isNaN(resistance)) {
+			return;
+		}
+		if (Double.isNaN(origin)) {
+			origin = absTime;
+			firstTime = absTime;
+		}
+		lastTime = absTime;
+		last = resistance;
+		if (!(resistance >= runMin)) {
+			runMin = resistance;
+		}
+		if (!(resistance <= runMax)) {
+			runMax = resistance;
+		}
+
+		// Welford
+		count++;
+		double delta = resistance - mean;
+		mean += delta / count;
+		m2 += delta * (resistance - mean);
+
+		addToWindow(absTime - origin, resistance);
+		addToAllan(0, resistance);
+
+		if (fired == null && !triggers.isEmpty()) {
+			checkTriggers(absTime, resistance);
+		}
+	}
+
+	@Override
+	public synchronized void acceptBlock(double[] absTime, double[] voltage, double[] current,
+			double[] resistance, int count) {
+		for (int n = 0; n < count; n++) {
+			accept(absTime[n], voltage[n], current[n], resistance[n]);
+		}
+	}
+
+	@Override
+	public synchronized void stageStarted(int stage, double absTime) {
+		this.stage = stage;
+		reset();
+	}
+
+	private void addToWindow(double t, double r) {
+		long index = (long) Math.floor(t / bucketSeconds);
+		int slot = (int) Math.floorMod(index, (long) BUCKETS);
+		if (bucketIndex[slot] != index) {
+			bucketIndex[slot] = index;
+			bucketCount[slot] = 0;
+			bucketMin[slot] = Double.POSITIVE_INFINITY;
+			bucketMax[slot] = Double.NEGATIVE_INFINITY;
+			sumT[slot] = 0;
+			sumR[slot] = 0;
+			sumTT[slot] = 0;
+			sumTR[slot] = 0;
+		}
+		currentBucket = index;
+		bucketCount[slot]++;
+		bucketMin[slot] = Math.min(bucketMin[slot], r);
+		bucketMax[slot] = Math.max(bucketMax[slot], r);
+		sumT[slot] += t;
+		sumR[slot] += r;
+		sumTT[slot] += t * t;
+		sumTR[slot] += t * r;
+	}
+
+	private boolean inWindow(int slot) {
+		return bucketIndex[slot] != Long.MIN_VALUE && bucketIndex[slot] > currentBucket - BUCKETS
+				&& bucketIndex[slot] <= currentBucket;
+	}
+
+	private double windowSlope() {
+		long n = 0;
+		double t = 0;
+		double r = 0;
+		double tt = 0;
+		double tr = 0;
+		for (int k = 0; k < BUCKETS; k++) {
+			if (inWindow(k)) {
+				n += bucketCount[k];
+				t += sumT[k];
+				r += sumR[k];
+				tt += sumTT[k];
+				tr += sumTR[k];
+			}
+		}
+		double sxx = tt - t * t / n;
+		if (n < 3 || !(sxx > 0)) {
+			return Double.NaN;
+		}
+		return (tr - t * r / n) / sxx;
+	}
+
+	// Feeds an average into level k; every second one completes an average for level k + 1
+	private void addToAllan(int level, double average) {
+		if (hasPreviousAverage[level]) {
+			double d = average - previousAverage[level];
+			sumSquaredDifferences[level] += d * d;
+			differences[level]++;
+		}
+		previousAverage[level] = average;
+		hasPreviousAverage[level] = true;
+		if (!hasPairFirst[level]) {
+			pairFirst[level] = average;
+			hasPairFirst[level] = true;
+		} else {
+			hasPairFirst[level] = false;
+			if (level + 1 < ALLAN_LEVELS) {
+				addToAllan(level + 1, (pairFirst[level] + average) / 2);
+			}
+		}
+	}
+
+	private void checkTriggers(double absTime, double resistance) {
+		boolean settled = count >= MIN_SLOPE_SAMPLES && absTime - origin >= windowSeconds / 2;
+		double slope = needsSlope && settled ? windowSlope() : Double.NaN;	// NaN fires no trigger
+		for (Trigger trigger : triggers) {
+			double value;
+			switch (trigger.getQuantity()) {
+			case SLOPE:
+				value = slope;
+				break;
+			case ABS_SLOPE:
+				value = Math.abs(slope);
+				break;
+			default:
+				value = resistance;
+			}
+			if (trigger.fires(value)) {
+				fired = String.format("%s at t = %.3f s (%.6g)", trigger, absTime, value);
+				if (listener != null) {
+					listener.triggerFired(trigger, absTime, value);
+				}
+				return;
+			}
+		}
+	}
+
+	// ---------------- readout ---------------- //
+
+	/** True once a trigger has fired in this run. */
+	public synchronized boolean hasFired() {
+		return fired != null;
+	}
+
+	public synchronized Snapshot snapshot() {
+		double min = Double.NaN;
+		double max = Double.NaN;
+		for (int k = 0; k < BUCKETS; k++) {
+			if (inWindow(k) && bucketCount[k] > 0) {
+				min = Double.isNaN(min) ? bucketMin[k] : Math.min(min, bucketMin[k]);
+				max = Double.isNaN(max) ? bucketMax[k] : Math.max(max, bucketMax[k]);
+			}
+		}
+		// Averaging times from the mean sample spacing of the stage
+		int levels = 0;
+		while (levels < ALLAN_LEVELS && differences[levels] > 0) {
+			levels++;
+		}
+		double spacing = count > 1 ? (lastTime - firstTime) / (count - 1) : Double.NaN;
+		double[] taus = new double[levels];
+		double[] deviations = new double[levels];
+		for (int k = 0; k < levels; k++) {
+			taus[k] = spacing * (1L << k);
+			deviations[k] = Math.sqrt(sumSquaredDifferences[k] / (2.0 * differences[k]));
+		}
+		return new Snapshot(stage, count, last, count > 0 ? mean : Double.NaN,
+				count > 1 ? Math.sqrt(m2 / (count - 1)) : Double.NaN, min, max,
+				count > 0 ? windowSlope() : Double.NaN, runMin, runMax, taus, deviations, fired);
+	}
+}
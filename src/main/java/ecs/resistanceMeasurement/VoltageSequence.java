@@ -0,0 +1,223 @@
+package ecs.resistanceMeasurement;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ordered list of constant-voltage stages (steps, pulse trains, rest periods at
+ * 0 V, ramps as staircases) measured as one continuous run. Stage k starts at
+ * the sum of the earlier durations on the run's time axis; the engines schedule
+ * every stage and sample against these absolute offsets, so transitions do not
+ * drift with the time spent measuring.
+ *
+ * Text form, as saved in the preferences and used by batch jobs: the stages
+ * separated by ',', each {@code voltage:duration:interval} with the interval in
+ * seconds or AUTO, e.g. {@code 1:60:AUTO,0:10:0.5}.
+ */
+public final class VoltageSequence {
+
+	/** One constant-voltage hold. */
+	public static final class Stage {
+		private final double voltage;
+		private final double duration;
+		private final double sampleInterval;
+
+		/**
+		 * @param sampleInterval seconds, or {@link MeasurementConfig#AUTO}
+		 * @throws IllegalArgumentException if the duration or interval is not positive
+		 */
+		public Stage(double voltage, double duration, double sampleInterval) {
+			if (!(duration > 0) || Double.isInfinite(duration) || Double.isNaN(voltage)) {
+				throw new IllegalArgumentException("Stage needs a voltage and a positive duration: "
+						+ voltage + " V, " + duration + " s");
+			}
+			if (!Double.isNaN(sampleInterval) && !(sampleInterval > 0)) {
+				throw new IllegalArgumentException("Sample interval must be positive or AUTO: " + sampleInterval);
+			}
+			this.voltage = voltage;
+			this.duration = duration;
+			this.sampleInterval = sampleInterval;
+		}
+
+		public double getVoltage() {
+			return voltage;
+		}
+
+		public double getDuration() {
+			return duration;
+		}
+
+		public double getSampleInterval() {
+			return sampleInterval;
+		}
+
+		public boolean isAutoSampleInterval() {
+			return Double.isNaN(sampleInterval);
+		}
+
+		@Override
+		public String toString() {
+			return voltage + ":" + duration + ":" + MeasurementConfig.formatAutoOrNumber(sampleInterval);
+		}
+	}
+
+	private final List<Stage> stages;
+	private final double[] starts;	// one more than stages: the last is the total duration
+
+	public VoltageSequence(List<Stage> stages) {
+		if (stages.isEmpty()) {
+			throw new IllegalArgumentException("A sequence needs at least one stage");
+		}
+		this.stages = Collections.unmodifiableList(new ArrayList<>(stages));
+		this.starts = new double[stages.size() + 1];
+		for (int k = 0; k < stages.size(); k++) {
+			starts[k + 1] = starts[k] + stages.get(k).getDuration();
+		}
+	}
+
+	/** The single hold of a plain constant-voltage run. */
+	public static VoltageSequence constant(double voltage, double time, double sampleInterval) {
+		return new VoltageSequence(Collections.singletonList(new Stage(voltage, time, sampleInterval)));
+	}
+
+	public List<Stage> getStages() {
+		return stages;
+	}
+
+	public int size() {
+		return stages.size();
+	}
+
+	public Stage get(int stage) {
+		return stages.get(stage);
+	}
+
+	/** Start of a stage in seconds from the start of the run. */
+	public double getStart(int stage) {
+		return starts[stage];
+	}
+
+	/** End of a stage, i.e. the start of the next one. */
+	public double getEnd(int stage) {
+		return starts[stage + 1];
+	}
+
+	/** Total duration in seconds. */
+	public double getDuration() {
+		return starts[stages.size()];
+	}
+
+	/** The stage running at the given time; the first or last one outside the sequence. */
+	public int stageAt(double time) {
+		int low = 0;
+		int high = stages.size() - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (starts[mid] <= time) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Parses the text form.
+	 * @throws IllegalArgumentException if a stage is malformed or invalid
+	 */
+	public static VoltageSequence parse(String text) {
+		List<Stage> stages = new ArrayList<>();
+		for (String part : text.trim().split("\\s*,\\s*")) {
+			String[] fields = part.split(":");
+			if (fields.length != 3) {
+				throw new IllegalArgumentException("Expected voltage:duration:interval, got \"" + part + "\"");
+			}
+			try {
+				stages.add(new Stage(Double.parseDouble(fields[0].trim()), Double.parseDouble(fields[1].trim()),
+						MeasurementConfig.parseAutoOrNumber(fields[2])));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid number in stage \"" + part + "\"");
+			}
+		}
+		return new VoltageSequence(stages);
+	}
+
+	/** The text form, read back by {@link #parse}. */
+	public String format() {
+		StringBuilder s = new StringBuilder();
+		for (Stage stage : stages) {
+			if (s.length() > 0) {
+				s.append(',');
+			}
+			s.append(stage);
+		}
+		return s.toString();
+	}
+
+	@Override
+	public String toString() {
+		return format();
+	}
+
+	/**
+	 * Wraps a consumer so it is told when each stage starts, judged by the sample
+	 * times: for engines whose samples do not carry the stage, but whose scheduler
+	 * starts every stage exactly at its offset. Once the source reports a stage
+	 * itself, its stages are followed instead of the times.
+	 */
+	SampleConsumer tagging(SampleConsumer samples) {
+		return new StageTagger(samples);
+	}
+
+	private final class StageTagger implements SampleConsumer {
+		private final SampleConsumer samples;
+		private int stage = -1;
+		private double nextStart;	// start of stage + 1
+		private boolean reported;	// the source tells the stages
+
+		StageTagger(SampleConsumer samples) {
+			this.samples = samples;
+		}
+
+		// Reports every stage started up to the given time (a short stage may have no samples)
+		private void advance(double absTime) {
+			while ((stage < 0 || absTime >= nextStart) && stage + 1 < stages.size()) {
+				stage++;
+				samples.stageStarted(stage, starts[stage]);
+				nextStart = stage + 1 < stages.size() ? starts[stage + 1] : Double.POSITIVE_INFINITY;
+			}
+		}
+
+		@Override
+		public void accept(double absTime, double voltage, double current, double resistance) {
+			if (!reported) {
+				advance(absTime);
+			}
+			samples.accept(absTime, voltage, current, resistance);
+		}
+
+		@Override
+		public void acceptBlock(double[] absTime, double[] voltage, double[] current, double[] resistance, int count) {
+			if (count == 0) return;
+			if (reported || stage >= 0 && absTime[count - 1] < nextStart) {
+				samples.acceptBlock(absTime, voltage, current, resistance, count);	// all in the current stage
+				return;
+			}
+			for (int n = 0; n < count; n++) {
+				accept(absTime[n], voltage[n], current[n], resistance[n]);
+			}
+		}
+
+		// Reports every stage up to the source's one, the skipped ones included
+		@Override
+		public void stageStarted(int stage, double absTime) {
+			reported = true;
+			while (this.stage < stage && this.stage + 1 < stages.size()) {
+				this.stage++;
+				samples.stageStarted(this.stage, starts[this.stage]);
+			}
+		}
+	}
+}
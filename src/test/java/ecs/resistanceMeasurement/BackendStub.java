@@ -0,0 +1,110 @@
+package ecs.resistanceMeasurement;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stand-in for {@code Resistance_Keithley.py --server}, for tests: speaks the
+ * stdin/stdout protocol and sends {@link #SAMPLES} records over the data channel
+ * on START. A CONFIGURE with the filename {@code invalid} is rejected like a bad
+ * configuration. Modes (first argument):
+ * <ul>
+ * <li>{@code normal}</li>
+ * <li>{@code slow-ready}: reports ready after {@link #READY_DELAY_MS}</li>
+ * <li>{@code die-on-stop}: exits on STOP, as if it had crashed</li>
+ * <li>{@code die-at-start}: exits before it is ready</li>
+ * <li>{@code text}: prints {@link #TEXT_SAMPLES} as text lines instead of using the data channel</li>
+ * </ul>
+ */
+public class BackendStub
+{
+    static final int SAMPLES = 3;
+    static final long READY_DELAY_MS = 500;
+    /** Time, V, I, R, instrument time, host time, stage; the second sample is late but still of stage 0. */
+    static final String[] TEXT_SAMPLES = { "0.050000,1.0,1e-3,1000.0,nan,0.05,0",
+            "0.100200,1.0,1e-3,1000.0,nan,0.1002,0", "0.150000,2.0,1e-3,2000.0,nan,0.15,1" };
+
+    public static void main( String[] args ) throws Exception
+    {
+        String mode = args.length > 0 ? args[0] : "normal";
+        if ( mode.equals( "die-at-start" ) ) {
+            System.exit( 3 );
+        }
+        if ( mode.equals( "slow-ready" ) ) {
+            Thread.sleep( READY_DELAY_MS );
+        }
+        reply( "@READY" );
+        BufferedReader in = new BufferedReader( new InputStreamReader( System.in, StandardCharsets.UTF_8 ) );
+        int dataPort = -1;
+        String line;
+        while ( ( line = in.readLine() ) != null ) {
+            String command = line.trim().split( " ", 2 )[0];
+            if ( command.equals( "CONFIGURE" ) ) {
+                if ( line.contains( "\"filename\": \"invalid\"" ) ) {
+                    reply( "@ERROR invalid configuration: no stages" );
+                    continue;
+                }
+                Matcher m = Pattern.compile( "\"data_port\": (\\d+)" ).matcher( line );
+                dataPort = m.find() ? Integer.parseInt( m.group( 1 ) ) : -1;
+                reply( "@OK CONFIGURE" );
+            }
+            else if ( command.equals( "START" ) ) {
+                reply( dataPort < 0 ? "@ERROR not configured" : "@STARTED" );
+                if ( dataPort >= 0 && mode.equals( "text" ) ) {
+                    for ( String sample : TEXT_SAMPLES ) {
+                        reply( sample );
+                    }
+                    reply( "@FINISHED" );
+                }
+                else if ( dataPort >= 0 ) {
+                    sendSamples( dataPort );
+                    reply( "@FINISHED" );
+                }
+            }
+            else if ( command.equals( "STOP" ) ) {
+                if ( mode.equals( "die-on-stop" ) ) {
+                    System.exit( 1 );
+                }
+                reply( "@OK STOP" );
+            }
+            else if ( command.equals( "STATUS" ) ) {
+                reply( "@STATUS idle connected=False" );
+            }
+            else if ( command.equals( "QUIT" ) ) {
+                break;
+            }
+        }
+    }
+
+    private static void reply( String line )
+    {
+        System.out.println( line );
+        System.out.flush();
+    }
+
+    private static void sendSamples( int port ) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate( BinaryDataChannel.HELLO_SIZE + SAMPLES * BinaryDataChannel.RECORD_SIZE )
+                .order( ByteOrder.LITTLE_ENDIAN );
+        buf.putInt( BinaryDataChannel.MAGIC ).putShort( (short) BinaryDataChannel.VERSION )
+                .putShort( (short) BinaryDataChannel.RECORD_SIZE );
+        for ( int k = 0; k < SAMPLES; k++ ) {
+            buf.putLong( k ).putDouble( k * 0.1 ).putDouble( 1.0 ).putDouble( 1e-3 ).putDouble( 1000.0 )
+                    .putDouble( Double.NaN ).putDouble( k * 0.1 ).putInt( 0 ).putInt( 0 );
+        }
+        try ( Socket socket = new Socket( InetAddress.getLoopbackAddress(), port ) ) {
+            OutputStream out = socket.getOutputStream();
+            out.write( buf.array() );
+            out.flush();
+        }
+    }
+}
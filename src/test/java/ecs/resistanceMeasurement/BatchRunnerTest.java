@@ -0,0 +1,96 @@
+package ecs.resistanceMeasurement;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link BatchRunner}, against the simulated engine.
+ */
+public class BatchRunnerTest extends TestCase
+{
+    private File folder;
+    private ByteArrayOutputStream output;
+    private PrintStream out;
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        folder = Files.createTempDirectory( "batch" ).toFile();
+        output = new ByteArrayOutputStream();
+        out = new PrintStream( output, true );
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        for ( File f : folder.listFiles() ) {
+            f.delete();
+        }
+        folder.delete();
+    }
+
+    private int rows( String filename ) throws IOException
+    {
+        return Files.readAllLines( new File( folder, filename ).toPath() ).size() - 1;
+    }
+
+    public void testSingleRunStreamsToFile() throws IOException
+    {
+        int code = BatchRunner.run( new String[] { "--engine", "simulator", "--time", "0.5", "--interval", "0.001",
+                "--folder", folder.getPath(), "--filename", "single", "--summary", "0.2" }, out );
+
+        assertEquals( output.toString(), 0, code );
+        int rows = rows( "single.csv" );
+        assertTrue( "rows " + rows, rows > 400 && rows <= 501 );
+        assertTrue( output.toString(), output.toString().contains( "samples (" ) );
+    }
+
+    public void testTriggerStopsRunEarly() throws IOException
+    {
+        int code = BatchRunner.run( new String[] { "--engine", "simulator", "--time", "5", "--interval", "0.001",
+                "--folder", folder.getPath(), "--filename", "stopped", "--triggers", "R>0" }, out );
+
+        assertEquals( output.toString(), 0, code );
+        assertTrue( output.toString(), output.toString().contains( "auto-stop: R>0.0" ) );
+        assertTrue( rows( "stopped.csv" ) < 1000 );
+    }
+
+    public void testJobFileRunsBackToBack() throws IOException
+    {
+        File job = new File( folder, "runs.job" );
+        List<String> lines = Arrays.asList( "# two short runs",
+                "filename=first voltage=0.5",
+                "",
+                "filename=second time=0.1 interval=0.01" );
+        Files.write( job.toPath(), lines, StandardCharsets.UTF_8 );
+
+        int code = BatchRunner.run( new String[] { "--engine", "simulator", "--time", "0.2", "--interval", "0.01",
+                "--folder", folder.getPath(), "--job", job.getPath() }, out );
+
+        assertEquals( output.toString(), 0, code );
+        assertTrue( rows( "first.csv" ) > 10 );
+        assertTrue( rows( "second.csv" ) > 5 );
+        assertTrue( output.toString(), output.toString().contains( "2 run(s), 0 failed" ) );
+    }
+
+    public void testInvalidJobRunsNothing() throws IOException
+    {
+        File job = new File( folder, "runs.job" );
+        Files.write( job.toPath(), Arrays.asList( "filename=ok", "filename=bad/name" ), StandardCharsets.UTF_8 );
+
+        int code = BatchRunner.run( new String[] { "--engine", "simulator", "--time", "0.1",
+                "--folder", folder.getPath(), "--job", job.getPath() }, out );
+
+        assertEquals( 2, code );
+        assertFalse( new File( folder, "ok.csv" ).exists() );
+        assertEquals( 2, BatchRunner.run( new String[] { "--voltag", "1" }, out ) );
+    }
+}
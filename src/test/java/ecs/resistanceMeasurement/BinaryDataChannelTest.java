@@ -0,0 +1,178 @@
+package ecs.resistanceMeasurement;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link BinaryDataChannel} against a local stand-in producer.
+ */
+public class BinaryDataChannelTest extends TestCase
+{
+    /** Writes the hello and one record per sequence number, like the Python backend. */
+    private static void produce( int port, long[] sequences ) throws IOException
+    {
+        try ( SocketChannel socket = SocketChannel.open(
+                new InetSocketAddress( InetAddress.getLoopbackAddress(), port ) ) ) {
+            ByteBuffer buf = ByteBuffer.allocate( 8 + sequences.length * 40 ).order( ByteOrder.LITTLE_ENDIAN );
+            buf.put( new byte[] { 'K', 'S', 'M', 'P' } ).putShort( (short) 1 ).putShort( (short) 40 );
+            for ( long seq : sequences ) {
+                buf.putLong( seq ).putDouble( seq * 0.1 ).putDouble( 1.0 ).putDouble( 1e-3 ).putDouble( 1000.0 + seq );
+            }
+            buf.flip();
+            // Dribble the bytes so records straddle reads
+            while ( buf.hasRemaining() ) {
+                ByteBuffer slice = buf.duplicate();
+                slice.limit( Math.min( buf.limit(), buf.position() + 7 ) );
+                buf.position( buf.position() + socket.write( slice ) );
+            }
+        }
+    }
+
+    private static Thread producer( final int port, final long[] sequences )
+    {
+        Thread t = new Thread( () -> {
+            try {
+                produce( port, sequences );
+            } catch ( IOException e ) {
+                throw new RuntimeException( e );
+            }
+        } );
+        t.start();
+        return t;
+    }
+
+    public void testDecodesRecordsInOrder() throws Exception
+    {
+        long[] sequences = new long[500];
+        for ( int n = 0; n < sequences.length; n++ ) {
+            sequences[n] = n;
+        }
+        final List<Double> resistances = new ArrayList<>();
+        try ( BinaryDataChannel channel = new BinaryDataChannel() ) {
+            Thread t = producer( channel.getPort(), sequences );
+            channel.receive( ( time, v, i, r ) -> resistances.add( r ) );
+            t.join();
+
+            assertEquals( 500, channel.getReceivedSamples() );
+            assertEquals( 0, channel.getDroppedSamples() );
+        }
+        assertEquals( 1000.0, resistances.get( 0 ), 0.0 );
+        assertEquals( 1499.0, resistances.get( 499 ), 0.0 );
+    }
+
+    public void testDetectsDroppedSamples() throws Exception
+    {
+        try ( BinaryDataChannel channel = new BinaryDataChannel() ) {
+            Thread t = producer( channel.getPort(), new long[] { 0, 1, 2, 5, 6, 10 } );
+            channel.receive( ( time, v, i, r ) -> { } );
+            t.join();
+
+            assertEquals( 6, channel.getReceivedSamples() );
+            assertEquals( 5, channel.getDroppedSamples() );
+        }
+    }
+
+    public void testVersion2CarriesInstrumentAndHostTimes() throws Exception
+    {
+        try ( BinaryDataChannel channel = new BinaryDataChannel() ) {
+            final int port = channel.getPort();
+            Thread t = new Thread( () -> {
+                try ( SocketChannel socket = SocketChannel.open(
+                        new InetSocketAddress( InetAddress.getLoopbackAddress(), port ) ) ) {
+                    ByteBuffer buf = ByteBuffer.allocate( 8 + 3 * 56 ).order( ByteOrder.LITTLE_ENDIAN );
+                    buf.put( new byte[] { 'K', 'S', 'M', 'P' } ).putShort( (short) 2 ).putShort( (short) 56 );
+                    for ( int seq = 0; seq < 3; seq++ ) {
+                        // reconciled time, V, I, R, instrument time, host time 1-3 ms later
+                        buf.putLong( seq ).putDouble( seq * 0.1 ).putDouble( 1.0 ).putDouble( 1e-3 )
+                                .putDouble( 1000.0 ).putDouble( 5 + seq * 0.1 ).putDouble( seq * 0.1 + ( seq + 1 ) * 1e-3 );
+                    }
+                    buf.flip();
+                    socket.write( buf );
+                } catch ( IOException e ) {
+                    throw new RuntimeException( e );
+                }
+            } );
+            t.start();
+            final List<Double> times = new ArrayList<>();
+            channel.receive( ( time, v, i, r ) -> times.add( time ) );
+            t.join();
+
+            assertEquals( 3, times.size() );
+            assertEquals( 0.2, times.get( 2 ), 1e-12 );
+            assertEquals( 3, channel.getTimeCorrection().getCount() );
+            assertEquals( 3.0, channel.getTimeCorrection().getMaxMillis(), 0.01 );
+        }
+    }
+
+    public void testVersion3ReportsTheStageOfEachRecord() throws Exception
+    {
+        final int[] stages = { 0, 0, 1, 1, 3 };
+        try ( BinaryDataChannel channel = new BinaryDataChannel() ) {
+            final int port = channel.getPort();
+            Thread t = new Thread( () -> {
+                try ( SocketChannel socket = SocketChannel.open(
+                        new InetSocketAddress( InetAddress.getLoopbackAddress(), port ) ) ) {
+                    ByteBuffer buf = ByteBuffer.allocate( 8 + stages.length * 64 ).order( ByteOrder.LITTLE_ENDIAN );
+                    buf.put( new byte[] { 'K', 'S', 'M', 'P' } ).putShort( (short) 3 ).putShort( (short) 64 );
+                    for ( int seq = 0; seq < stages.length; seq++ ) {
+                        buf.putLong( seq ).putDouble( seq * 0.1 ).putDouble( 1.0 ).putDouble( 1e-3 )
+                                .putDouble( 1000.0 ).putDouble( Double.NaN ).putDouble( seq * 0.1 )
+                                .putInt( stages[seq] ).putInt( 0 );
+                    }
+                    buf.flip();
+                    socket.write( buf );
+                } catch ( IOException e ) {
+                    throw new RuntimeException( e );
+                }
+            } );
+            t.start();
+            final List<String> events = new ArrayList<>();
+            channel.receive( new SampleConsumer()
+            {
+                public void accept( double time, double v, double i, double r )
+                {
+                    events.add( "sample " + time );
+                }
+
+                public void stageStarted( int stage, double time )
+                {
+                    events.add( "stage " + stage + " " + time );
+                }
+            } );
+            t.join();
+
+            assertEquals( "[stage 0 0.0, sample 0.0, sample 0.1, stage 1 0.2, sample 0.2, sample 0.30000000000000004,"
+                    + " stage 3 0.4, sample 0.4]", events.toString() );
+            assertEquals( 0, channel.getDroppedSamples() );
+        }
+    }
+
+    public void testRejectsUnknownHello() throws Exception
+    {
+        try ( BinaryDataChannel channel = new BinaryDataChannel() ) {
+            final int port = channel.getPort();
+            Thread t = new Thread( () -> {
+                try ( SocketChannel socket = SocketChannel.open(
+                        new InetSocketAddress( InetAddress.getLoopbackAddress(), port ) ) ) {
+                    socket.write( ByteBuffer.wrap( "hello, world".getBytes( "US-ASCII" ) ) );
+                } catch ( IOException ignored ) {
+                }
+            } );
+            t.start();
+            try {
+                channel.receive( ( time, v, i, r ) -> { } );
+                fail( "expected an IOException" );
+            } catch ( IOException expected ) {
+            }
+            t.join();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package ecs.resistanceMeasurement;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link ClockReconciler} and {@link SampleScheduler}.
+ */
+public class ClockReconcilerTest extends TestCase
+{
+    public void testRecoversOffsetAndSkewDespiteLatencyJitter()
+    {
+        // Instrument clock 50 ppm slow, started 0.5 s after the host's zero
+        ClockReconciler clock = new ClockReconciler();
+        Random random = new Random( 1 );
+        double worst = 0;
+        for ( int k = 0; k < 5000; k++ ) {
+            double instrument = k * 0.01;
+            double host = 0.5 + instrument * ( 1 + 50e-6 );
+            double roundTrip = 1e-3 + random.nextDouble() * 4e-3;
+            double reconciled = clock.update( instrument, host + roundTrip / 2, roundTrip );
+            if ( k > 1000 ) {
+                worst = Math.max( worst, Math.abs( reconciled - host ) );
+            }
+        }
+        assertEquals( 50.0, clock.getSkewPpm(), 5.0 );
+        assertEquals( 0.5, clock.getOffset(), 2e-3 );
+        // half the fastest round trip is indistinguishable from an offset; the jitter is filtered out
+        assertTrue( "worst error " + worst, worst < 2e-3 );
+    }
+
+    public void testRestartedInstrumentClockKeepsTimesMonotonic()
+    {
+        ClockReconciler clock = new ClockReconciler();
+        double last = 0;
+        for ( int k = 0; k < 100; k++ ) {
+            last = clock.update( k * 0.01, k * 0.01, 1e-3 );
+        }
+        double after = clock.update( 0, 0.5, 1e-3 );    // buffer cleared: instrument time back to 0
+
+        assertEquals( 1, clock.getPairs() );
+        assertTrue( after >= last );
+        assertEquals( 1.0, clock.getRate(), 0.0 );
+    }
+
+    public void testSchedulerMeetsDeadlinesAndReportsJitter()
+    {
+        SampleScheduler scheduler = new SampleScheduler();
+        long interval = 2000000;
+        long deadline = System.nanoTime();
+        for ( int k = 0; k < 50; k++ ) {
+            scheduler.started( deadline, interval );
+            deadline += interval;
+            scheduler.awaitDeadline( deadline, () -> false );
+            assertTrue( System.nanoTime() >= deadline );
+        }
+
+        assertEquals( 50, scheduler.getJitter().getCount() );
+        assertTrue( scheduler.report(), scheduler.report().startsWith( "Sample timing: 50 samples" ) );
+    }
+}
@@ -0,0 +1,112 @@
+package ecs.resistanceMeasurement;
+
+import java.lang.reflect.InvocationTargetException;
+
+import javax.swing.SwingUtilities;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link ConsoleLog}. The document is read and flushed on the EDT,
+ * like the flush timer does.
+ */
+public class ConsoleLogTest extends TestCase
+{
+    // Flushes the pending lines and returns the document
+    private static String flush( final ConsoleLog console ) throws InterruptedException, InvocationTargetException
+    {
+        final String[] text = new String[1];
+        SwingUtilities.invokeAndWait( () -> {
+            console.flush();
+            text[0] = console.getText();
+        } );
+        return text[0];
+    }
+
+    private static String summarize( final ConsoleLog console ) throws InterruptedException, InvocationTargetException
+    {
+        SwingUtilities.invokeAndWait( console::summarize );
+        return flush( console );
+    }
+
+    private static int lines( String text )
+    {
+        return text.isEmpty() ? 0 : text.split( "\n" ).length;
+    }
+
+    public void testAllLinesEchoesEverySample() throws Exception
+    {
+        ConsoleLog console = new ConsoleLog( 6, 30, 100, ConsoleLog.Mode.ALL_LINES );
+        console.append( "Measurement started..." );
+        console.recordSample( 0.5, 1.0, 1e-3, 1000.0 );
+        console.recordSamples( new double[] { 0.6, 0.7 }, new double[] { 1.0, 1.0 }, new double[] { 2e-3, 4e-3 },
+                new double[] { 500.0, 250.0 }, 2 );
+        assertEquals( "Measurement started...\n0.5,1.0,0.001,1000.0\n0.6,1.0,0.002,500.0\n0.7,1.0,0.004,250.0\n",
+                flush( console ) );
+        assertFalse( "no summary of echoed samples", summarize( console ).contains( "Samples:" ) );
+    }
+
+    public void testStatusAndSummaryOnlyCountsSamples() throws Exception
+    {
+        ConsoleLog console = new ConsoleLog( 6, 30, 100, ConsoleLog.Mode.STATUS_AND_SUMMARY );
+        console.append( "Measurement started..." );
+        for ( int k = 0; k < 3; k++ ) {
+            console.recordSample( k, 1.0, 1e-3, 1000.0 );
+        }
+        console.recordSamples( new double[] { 3, 4 }, new double[2], new double[2], new double[] { 900, 800 }, 2 );
+        assertEquals( "Measurement started...\n", flush( console ) );
+
+        String text = summarize( console );
+        assertEquals( 2, lines( text ) );
+        assertTrue( text, text.contains( "Samples: 5 (+5), t = 4.000 s, R = 800.000 Ohm" ) );
+        assertEquals( "nothing new, no summary", text, summarize( console ) );
+
+        console.recordSample( 5, 1.0, 1e-3, 700.0 );
+        assertTrue( summarize( console ).contains( "Samples: 6 (+1)" ) );
+    }
+
+    public void testResetSummaryCountsTheNextRunFromZero() throws Exception
+    {
+        ConsoleLog console = new ConsoleLog( 6, 30, 100, ConsoleLog.Mode.STATUS_AND_SUMMARY );
+        console.recordSample( 1, 1.0, 1e-3, 1000.0 );
+        console.recordSample( 2, 1.0, 1e-3, 1000.0 );
+        console.resetSummary();
+        assertEquals( "", summarize( console ) );
+
+        console.recordSample( 0.25, 1.0, 1e-3, 1000.0 );
+        assertTrue( summarize( console ).contains( "Samples: 1 (+1), t = 0.250 s" ) );
+    }
+
+    public void testKeepsAtMostCapacityLines() throws Exception
+    {
+        ConsoleLog console = new ConsoleLog( 6, 30, 10, ConsoleLog.Mode.ALL_LINES );
+        for ( int k = 0; k < 25; k++ ) {
+            console.append( "line " + k );
+        }
+        String text = flush( console );
+        assertEquals( 10, lines( text ) );
+        assertTrue( text, text.startsWith( "line 15\n" ) );
+        assertTrue( text, text.endsWith( "line 24\n" ) );
+
+        // Trimmed again after later batches, and for blocks larger than the ring
+        double[] t = new double[1000];
+        for ( int k = 0; k < t.length; k++ ) {
+            t[k] = k;
+        }
+        console.recordSamples( t, t, t, t, t.length );
+        text = flush( console );
+        assertEquals( 10, lines( text ) );
+        assertTrue( text, text.endsWith( "999.0,999.0,999.0,999.0\n" ) );
+    }
+
+    public void testRejectsNonPositiveCapacity()
+    {
+        try {
+            new ConsoleLog( 6, 30, 0, ConsoleLog.Mode.ALL_LINES );
+            fail( "capacity 0 accepted" );
+        }
+        catch ( IllegalArgumentException e ) {
+            assertTrue( e.getMessage().contains( "0" ) );
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package ecs.resistanceMeasurement;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link CsvLoader}.
+ */
+public class CsvLoaderTest extends TestCase
+{
+    private File file;
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        file = File.createTempFile( "run", ".csv" );
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        file.delete();
+    }
+
+    private void write( String header, int rows, String tail ) throws IOException
+    {
+        try ( Writer w = new OutputStreamWriter( new FileOutputStream( file ), StandardCharsets.US_ASCII ) ) {
+            w.write( header + "\n" );
+            for ( int n = 0; n < rows; n++ ) {
+                // resistance first, time last: columns must be found by name
+                w.write( ( 1000.0 + n ) + ",1.0," + ( 1e-3 / ( n + 1 ) ) + "," + ( n * 0.1 ) + "\r\n" );
+            }
+            w.write( tail );
+        }
+    }
+
+    private SampleStore load( final CsvLoader.Result[] result, final Exception[] error ) throws Exception
+    {
+        final SampleStoreDataset dataset = new SampleStoreDataset();
+        final CountDownLatch finished = new CountDownLatch( 1 );
+        final CsvLoader[] loader = new CsvLoader[1];
+        SwingUtilities.invokeAndWait( () -> {
+            loader[0] = new CsvLoader( file, dataset, ( l, r, e ) -> {
+                result[0] = r;
+                error[0] = e;
+                finished.countDown();
+            } );
+            loader[0].start();
+        } );
+        assertTrue( finished.await( 60, TimeUnit.SECONDS ) );
+        return loader[0].getStore();
+    }
+
+    public void testColumnsFoundByHeaderAndTruncatedRowSkipped() throws Exception
+    {
+        int rows = 300000;  // several chunks
+        write( "resistance_Ohm,voltage_V,current_A,abs_time_s", rows, "123.0,1.0" );
+        CsvLoader.Result[] result = new CsvLoader.Result[1];
+        Exception[] error = new Exception[1];
+        SampleStore store = load( result, error );
+
+        assertNull( error[0] );
+        assertEquals( rows, result[0].getRows() );
+        assertEquals( 1, result[0].getSkippedRows() );
+        assertEquals( rows, store.size() );
+        for ( int n = 0; n < rows; n += 1009 ) {
+            assertEquals( n * 0.1, store.getTime( n ), 1e-9 );
+            assertEquals( 1000.0 + n, store.getResistance( n ), 0.0 );
+        }
+    }
+
+    public void testMissingColumnsIsAnError() throws Exception
+    {
+        write( "a,b,c,d", 10, "" );
+        CsvLoader.Result[] result = new CsvLoader.Result[1];
+        Exception[] error = new Exception[1];
+        load( result, error );
+
+        assertNull( result[0] );
+        assertTrue( error[0] instanceof IOException );
+    }
+}
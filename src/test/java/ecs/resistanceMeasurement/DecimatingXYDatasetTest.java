@@ -0,0 +1,80 @@
+package ecs.resistanceMeasurement;
+
+import org.jfree.chart.axis.NumberAxis;
+import org.jfree.data.xy.XYSeries;
+import org.jfree.data.xy.XYSeriesCollection;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link DecimatingXYDataset}.
+ */
+public class DecimatingXYDatasetTest extends TestCase
+{
+    private static final int POINTS = 100000;
+
+    private XYSeriesCollection source;
+    private DecimatingXYDataset view;
+
+    @Override
+    protected void setUp()
+    {
+        XYSeries series = new XYSeries( "Run 1" );
+        for ( int i = 0; i < POINTS; i++ ) {
+            series.add( i * 0.001, i == 54321 ? 1e6 : 100.0 + Math.sin( i ), false );
+        }
+        source = new XYSeriesCollection( series );
+        view = new DecimatingXYDataset( source );
+        view.setPixelWidth( 500 );
+    }
+
+    public void testPointCountTracksPixels()
+    {
+        int count = view.getItemCount( 0 );
+        assertTrue( "got " + count, count <= 4 * 501 );
+        assertTrue( count > 500 );
+    }
+
+    public void testSpikeIsKept()
+    {
+        double max = Double.NEGATIVE_INFINITY;
+        for ( int i = 0; i < view.getItemCount( 0 ); i++ ) {
+            max = Math.max( max, view.getYValue( 0, i ) );
+        }
+        assertEquals( 1e6, max, 0.0 );
+    }
+
+    public void testOutputIsSortedAndKeepsEnds()
+    {
+        int count = view.getItemCount( 0 );
+        assertEquals( 0.0, view.getXValue( 0, 0 ), 0.0 );
+        assertEquals( ( POINTS - 1 ) * 0.001, view.getXValue( 0, count - 1 ), 1e-12 );
+        for ( int i = 1; i < count; i++ ) {
+            assertTrue( view.getXValue( 0, i ) > view.getXValue( 0, i - 1 ) );
+        }
+    }
+
+    public void testZoomReturnsAllPointsInNarrowRange()
+    {
+        NumberAxis axis = new NumberAxis();
+        axis.setRange( 10.0, 10.5 );
+        view.setDomainAxis( axis );
+
+        // 501 visible points plus one neighbour on each side
+        assertEquals( 503, view.getItemCount( 0 ) );
+        assertEquals( 10.0 - 0.001, view.getXValue( 0, 0 ), 1e-9 );
+    }
+
+    public void testSourceChangeInvalidatesView()
+    {
+        NumberAxis axis = new NumberAxis();
+        axis.setRange( 0.0, 0.01 );
+        view.setDomainAxis( axis );
+        int before = view.getItemCount( 0 );
+
+        source.getSeries( 0 ).clear();
+        assertEquals( 0, view.getItemCount( 0 ) );
+        assertTrue( before > 0 );
+        assertNull( view.getDomainBounds( false ) );
+    }
+}
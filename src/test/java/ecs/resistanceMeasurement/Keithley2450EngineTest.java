@@ -0,0 +1,311 @@
+package ecs.resistanceMeasurement;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link Keithley2450Engine} and {@link ScpiConnection} against a local SCPI stand-in.
+ */
+public class Keithley2450EngineTest extends TestCase
+{
+    private static MeasurementConfig config( double time, double interval, double range )
+    {
+        return new MeasurementConfig( 2.0, time, interval, range, 1.0, 0.1, true, ".", "unused" );
+    }
+
+    private static String runAndWait( AcquisitionEngine engine, MeasurementConfig config, SampleConsumer samples )
+            throws Exception
+    {
+        final String[] error = new String[1];
+        final CountDownLatch finished = new CountDownLatch( 1 );
+        engine.startRun( config, samples, e -> {
+            error[0] = e;
+            finished.countDown();
+        } );
+        assertTrue( finished.await( 30, TimeUnit.SECONDS ) );
+        return error[0];
+    }
+
+    public void testRunConfiguresAndSamples() throws Exception
+    {
+        try ( ScpiStandInServer instrument = new ScpiStandInServer( 1000.0 ) ) {
+            Keithley2450Engine engine = new Keithley2450Engine( "localhost", instrument.getPort(), 2000 );
+            final AtomicInteger count = new AtomicInteger();
+            final double[] last = new double[4];
+            String error = runAndWait( engine, config( 0.3, 0.01, MeasurementConfig.AUTO ), ( t, v, i, r ) -> {
+                count.incrementAndGet();
+                last[0] = t;
+                last[1] = v;
+                last[2] = i;
+                last[3] = r;
+            } );
+            engine.close();
+
+            assertNull( error );
+            assertTrue( "samples: " + count.get(), count.get() > 5 );
+            assertEquals( 2.0, last[1], 0.0 );
+            assertEquals( 2.0e-3, last[2], 1e-15 );
+            assertEquals( 1000.0, last[3], 1e-9 );
+            assertTrue( last[0] > 0 && last[0] < 1.0 );
+
+            List<String> commands = instrument.getCommands();
+            assertEquals( "*RST", commands.get( 0 ) );
+            assertTrue( commands.contains( ":ROUT:TERM REAR" ) );
+            assertTrue( commands.contains( ":SYST:RSEN ON" ) );
+            assertTrue( commands.contains( ":SENS:CURR:NPLC 1.0" ) );
+            assertTrue( commands.contains( ":SENS:CURR:RANG:AUTO ON" ) );
+            assertTrue( commands.contains( ":SOUR:VOLT:ILIM 0.1" ) );
+            assertTrue( commands.contains( ":SOUR:VOLT:LEV 2.0" ) );
+            // source back to 0 V and off at the end
+            assertTrue( commands.lastIndexOf( ":OUTP OFF" ) > commands.lastIndexOf( ":SOUR:VOLT:LEV 2.0" ) );
+            assertEquals( ":SOUR:VOLT:LEV 0", commands.get( commands.lastIndexOf( ":OUTP OFF" ) - 1 ) );
+            // readings come with their instrument timestamps, reconciled with the host clock
+            assertTrue( commands.contains( ":READ? \"defbuffer1\", READ, REL" ) );
+            String timing = engine.getTimingReport();
+            assertTrue( timing, timing.contains( "Sample timing: " ) && timing.contains( "Instrument clock: " ) );
+        }
+    }
+
+    public void testStopEndsRunEarly() throws Exception
+    {
+        try ( ScpiStandInServer instrument = new ScpiStandInServer( 50.0 ) ) {
+            Keithley2450Engine engine = new Keithley2450Engine( "localhost", instrument.getPort(), 2000 );
+            final CountDownLatch firstSample = new CountDownLatch( 1 );
+            final CountDownLatch finished = new CountDownLatch( 1 );
+            engine.startRun( config( 60, 0.01, 1e-3 ), ( t, v, i, r ) -> firstSample.countDown(),
+                    e -> finished.countDown() );
+            assertTrue( firstSample.await( 10, TimeUnit.SECONDS ) );
+            engine.stopRun();
+            assertTrue( finished.await( 10, TimeUnit.SECONDS ) );
+            assertFalse( engine.isRunning() );
+            engine.close();
+            assertTrue( instrument.getCommands().contains( ":SENS:CURR:RANG 0.001" ) );
+        }
+    }
+
+    public void testBufferedRunFetchesEveryReadingInBlocks() throws Exception
+    {
+        // 10 kS/s into a 3000 reading buffer: the 0.5 s run wraps the buffer once
+        try ( ScpiStandInServer instrument = new ScpiStandInServer( 1000.0, 3000, 1e-4 ) ) {
+            Keithley2450Engine engine = new Keithley2450Engine( "localhost", instrument.getPort(), 2000 );
+            engine.setBuffered( true );
+            final SampleStore store = new SampleStore( "buffered" );
+            final AtomicInteger blocks = new AtomicInteger();
+            String error = runAndWait( engine, config( 0.5, MeasurementConfig.AUTO, MeasurementConfig.AUTO ),
+                    new SampleConsumer()
+                    {
+                        public void accept( double t, double v, double i, double r )
+                        {
+                            store.append( t, v, i, r );
+                        }
+
+                        public void acceptBlock( double[] t, double[] v, double[] i, double[] r, int count )
+                        {
+                            blocks.incrementAndGet();
+                            SampleConsumer.super.acceptBlock( t, v, i, r, count );
+                        }
+                    } );
+            engine.close();
+
+            assertNull( error );
+            assertEquals( 5000, store.size() );
+            assertTrue( blocks.get() > 1 );
+            for ( int n = 0; n < store.size(); n++ ) {
+                // instrument timestamps: no gaps or repeats across blocks and the wrap
+                assertEquals( n * 1e-4, store.getTime( n ), 1e-12 );
+                assertEquals( 1000.0, store.getResistance( n ), 1e-9 );
+            }
+            List<String> commands = instrument.getCommands();
+            assertTrue( commands.contains( ":TRIG:LOAD \"DurationLoop\", 0.5, 0.0, \"defbuffer1\"" ) );
+            assertTrue( commands.contains( ":INIT" ) );
+        }
+    }
+
+    public void testBufferedRunDelaysOnlyWhatTheIntegrationLeavesOfTheInterval() throws Exception
+    {
+        try ( ScpiStandInServer instrument = new ScpiStandInServer( 1000.0, 3000, 1e-4 ) ) {
+            Keithley2450Engine engine = new Keithley2450Engine( "localhost", instrument.getPort(), 2000 );
+            engine.setBuffered( true );
+            String error = runAndWait( engine, config( 0.2, 0.05, MeasurementConfig.AUTO ), ( t, v, i, r ) -> {
+            } );
+            engine.close();
+
+            assertNull( error );
+            String load = null;
+            for ( String command : instrument.getCommands() ) {
+                if ( command.startsWith( ":TRIG:LOAD \"DurationLoop\"" ) ) {
+                    load = command;
+                }
+            }
+            assertNotNull( load );
+            // 1 NPLC at 60 Hz of each 50 ms interval is spent integrating
+            double delay = Double.parseDouble( load.split( ", " )[2] );
+            assertEquals( 0.05 - 1.0 / Keithley2450Engine.MAINS_FREQUENCY, delay, 1e-12 );
+        }
+    }
+
+    public void testBufferedRunCountsReadingsLostToABufferLap() throws Exception
+    {
+        // 1 kS/s into a 400 reading buffer; one poll stalls long enough for the buffer to lap
+        final AtomicInteger polls = new AtomicInteger();
+        try ( ScpiStandInServer instrument = new ScpiStandInServer( 1000.0, 400, 1e-3 )
+        {
+            @Override
+            protected String handle( String command )
+            {
+                if ( command.equals( ":TRIG:STAT?" ) && polls.incrementAndGet() == 10 ) {
+                    try {
+                        Thread.sleep( 700 );
+                    }
+                    catch ( InterruptedException e ) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.handle( command );
+            }
+        } ) {
+            Keithley2450Engine engine = new Keithley2450Engine( "localhost", instrument.getPort(), 2000 );
+            engine.setBuffered( true );
+            final SampleStore store = new SampleStore( "lapped" );
+            String error = runAndWait( engine, config( 2.0, MeasurementConfig.AUTO, MeasurementConfig.AUTO ),
+                    ( t, v, i, r ) -> store.append( t, v, i, r ) );
+            engine.close();
+
+            assertNull( error );
+            assertTrue( engine.getDroppedSamples() > 0 );
+            assertEquals( 2000, store.size() + engine.getDroppedSamples() );
+            int gaps = 0;
+            for ( int n = 1; n < store.size(); n++ ) {
+                double step = store.getTime( n ) - store.getTime( n - 1 );
+                if ( step > 1.5e-3 ) {
+                    gaps++;
+                    assertEquals( engine.getDroppedSamples(), Math.round( step / 1e-3 ) - 1 );
+                }
+                else {
+                    assertEquals( 1e-3, step, 1e-9 );
+                }
+            }
+            assertEquals( 1, gaps );
+        }
+    }
+
+    public void testBufferedSequenceSwitchesStagesOnTheInstrument() throws Exception
+    {
+        try ( ScpiStandInServer instrument = new ScpiStandInServer( 1000.0, 100000, 1e-4 ) ) {
+            Keithley2450Engine engine = new Keithley2450Engine( "localhost", instrument.getPort(), 2000 );
+            engine.setBuffered( true );
+            // NPLC 0.006: one reading per 1e-4 s, the stand-in's rate
+            MeasurementConfig config = new MeasurementConfig( 2.0, 1.0, MeasurementConfig.AUTO, MeasurementConfig.AUTO,
+                    0.006, 0.1, true, ".", "unused" ).withSequence( VoltageSequence.parse( "2:0.1:AUTO,4:0.05:AUTO,1:0.1:AUTO" ) );
+            final SampleStore store = new SampleStore( "sequence" );
+            final List<double[]> stages = new ArrayList<>();
+            String error = runAndWait( engine, config, new SampleConsumer()
+            {
+                public void accept( double t, double v, double i, double r )
+                {
+                    store.append( t, v, i, r );
+                }
+
+                public void stageStarted( int stage, double t )
+                {
+                    stages.add( new double[] { stage, t, store.size() } );
+                }
+            } );
+            engine.close();
+
+            assertNull( error );
+            assertEquals( 2500, store.size() );
+            assertEquals( 3, stages.size() );
+            assertEquals( 1000.0, stages.get( 1 )[2], 0.0 );
+            assertEquals( 0.1, stages.get( 1 )[1], 1e-9 );
+            assertEquals( 1500.0, stages.get( 2 )[2], 0.0 );
+            assertEquals( 2.0, store.getVoltage( 999 ), 0.0 );
+            assertEquals( 4.0, store.getVoltage( 1000 ), 0.0 );
+            assertEquals( 4.0e-3, store.getCurrent( 1000 ), 1e-15 );
+            assertEquals( 1.0, store.getVoltage( 2499 ), 0.0 );
+            assertEquals( 1000.0, store.getResistance( 2499 ), 1e-9 );
+
+            List<String> commands = instrument.getCommands();
+            assertTrue( commands.contains( ":TRIG:LOAD \"Empty\"" ) );
+            assertTrue( commands.contains( ":TRIG:BLOC:CONF:REC 5, \"stageLevels\", 2" ) );
+            assertTrue( commands.contains( ":TRIG:BLOC:BRAN:COUN 8, 500, 6" ) );
+        }
+    }
+
+    public void testPolledSequenceStepsTheSource() throws Exception
+    {
+        try ( ScpiStandInServer instrument = new ScpiStandInServer( 100.0 ) ) {
+            Keithley2450Engine engine = new Keithley2450Engine( "localhost", instrument.getPort(), 2000 );
+            MeasurementConfig config = config( 1.0, 0.01, MeasurementConfig.AUTO )
+                    .withSequence( VoltageSequence.parse( "2:0.1:0.01,0.5:0.1:0.01" ) );
+            final List<Double> starts = new ArrayList<>();
+            final double[] last = new double[2];
+            String error = runAndWait( engine, config, new SampleConsumer()
+            {
+                public void accept( double t, double v, double i, double r )
+                {
+                    last[0] = t;
+                    last[1] = v;
+                }
+
+                public void stageStarted( int stage, double t )
+                {
+                    starts.add( t );
+                }
+            } );
+            engine.close();
+
+            assertNull( error );
+            assertEquals( 2, starts.size() );
+            assertEquals( 0.1, starts.get( 1 ), 0.0 );
+            assertEquals( 0.5, last[1], 0.0 );
+            assertTrue( last[0] >= 0.1 && last[0] < 0.2 );
+            List<String> commands = instrument.getCommands();
+            assertTrue( commands.indexOf( ":SOUR:VOLT:LEV 0.5" ) > commands.indexOf( ":SOUR:VOLT:LEV 2.0" ) );
+        }
+    }
+
+    public void testSilentInstrumentTimesOut() throws Exception
+    {
+        // Accepts the connection but never answers
+        try ( ServerSocket silent = new ServerSocket( 0, 1, InetAddress.getLoopbackAddress() ) ) {
+            Keithley2450Engine engine = new Keithley2450Engine( "localhost", silent.getLocalPort(), 300 );
+            String error = runAndWait( engine, config( 1, 0.01, MeasurementConfig.AUTO ), ( t, v, i, r ) -> { } );
+            engine.close();
+            assertNotNull( error );
+        }
+    }
+
+    public void testCommandLongerThanTheSendBufferIsSentWhole() throws IOException
+    {
+        StringBuilder list = new StringBuilder( ":SOUR:LIST:VOLT 0" );
+        while ( list.length() < 5000 ) {
+            list.append( ",0.25" );
+        }
+        try ( ScpiStandInServer instrument = new ScpiStandInServer( 1.0 );
+              ScpiConnection scpi = new ScpiConnection( "localhost", instrument.getPort(), 2000 ) ) {
+            scpi.write( list.toString() );
+            assertEquals( "1", scpi.query( "*OPC?" ) );
+            assertTrue( instrument.getCommands().contains( list.toString() ) );
+        }
+    }
+
+    public void testQueryValues() throws IOException
+    {
+        try ( ScpiStandInServer instrument = new ScpiStandInServer( 1.0 );
+              ScpiConnection scpi = new ScpiConnection( "localhost", instrument.getPort(), 2000 ) ) {
+            assertTrue( scpi.query( "*IDN?" ).contains( "2450" ) );
+            scpi.write( ":SOUR:VOLT:LEV 0.5" );
+            assertEquals( 1, scpi.queryValues( ":READ?" ) );
+            assertEquals( 0.5, scpi.value( 0 ), 0.0 );
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package ecs.resistanceMeasurement;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link LiveServer}, with clients on the loopback interface.
+ */
+public class LiveServerTest extends TestCase
+{
+    private LiveServer server;
+
+    private void start( int clientCapacity ) throws IOException
+    {
+        server = new LiveServer( new InetSocketAddress( InetAddress.getLoopbackAddress(), 0 ), clientCapacity );
+        server.start();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        if ( server != null ) {
+            server.close();
+        }
+    }
+
+    private HttpURLConnection open( String path ) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+                "http://127.0.0.1:" + server.getPort() + path ).openConnection();
+        connection.setReadTimeout( 10000 );
+        return connection;
+    }
+
+    private BufferedReader stream( String path ) throws IOException
+    {
+        HttpURLConnection connection = open( path );
+        assertEquals( 200, connection.getResponseCode() );
+        assertTrue( connection.getContentType().startsWith( "text/event-stream" ) );
+        return new BufferedReader( new InputStreamReader( connection.getInputStream(), StandardCharsets.UTF_8 ) );
+    }
+
+    // The data of the next event with the name
+    private static String next( BufferedReader reader, String event ) throws IOException
+    {
+        String line;
+        String name = null;
+        while ( ( line = reader.readLine() ) != null ) {
+            if ( line.startsWith( "event: " ) ) {
+                name = line.substring( 7 );
+            } else if ( line.startsWith( "data: " ) && event.equals( name ) ) {
+                return line.substring( 6 );
+            }
+        }
+        fail( "stream ended before " + event );
+        return null;
+    }
+
+    private static double[] decode( String data, String key )
+    {
+        Matcher m = Pattern.compile( "\"" + key + "\":\\[([^\\]]*)\\]" ).matcher( data );
+        assertTrue( data, m.find() );
+        List<Double> values = new ArrayList<>();
+        double sum = 0;
+        for ( String s : m.group( 1 ).split( "," ) ) {
+            if ( s.equals( "null" ) ) {
+                values.add( Double.NaN );
+            } else {
+                sum += Double.parseDouble( s );
+                values.add( sum );
+            }
+        }
+        double[] result = new double[values.size()];
+        for ( int k = 0; k < result.length; k++ ) {
+            result[k] = values.get( k );
+        }
+        return result;
+    }
+
+    private static Map<String, String> metadata()
+    {
+        Map<String, String> metadata = new LinkedHashMap<>();
+        metadata.put( "voltage", "1.0" );
+        metadata.put( "filename", "sample \"A\"" );
+        return metadata;
+    }
+
+    public void testHistoryOnConnectThenDeltaEncodedBatches() throws IOException
+    {
+        start( LiveServer.CLIENT_CAPACITY );
+        LiveServer.Feed feed = server.publish( "Run 1", metadata() );
+        for ( int k = 0; k < 5000; k++ ) {
+            feed.accept( k * 0.01, 1.0, 1e-3, 1000 + k );
+        }
+
+        BufferedReader reader = stream( "/stream" );
+        assertTrue( next( reader, "run" ).contains( "\"filename\":\"sample \\\"A\\\"\"" ) );
+        String history = next( reader, "history" );
+        double[] t = decode( history, "t" );
+        double[] min = decode( history, "min" );
+        double[] max = decode( history, "max" );
+        assertTrue( t.length <= LiveServer.HISTORY_BUCKETS );
+        assertEquals( 0.0, t[0], 1e-12 );
+        assertEquals( 1000.0, min[0], 1e-9 );
+        assertEquals( 5999.0, max[max.length - 1], 1e-9 );
+
+        feed.acceptBlock( new double[] { 50.001, 50.002, 50.003 }, new double[] { 1, 1, 1 },
+                new double[] { 1e-3, 1e-3, 1e-3 }, new double[] { 1234.5678, Double.NaN, 1234.5 }, 3 );
+        String samples = next( reader, "samples" );
+        double[] time = decode( samples, "t" );
+        double[] r = decode( samples, "r" );
+        assertEquals( 3, time.length );
+        assertEquals( 50.002, time[1], 1e-9 );
+        assertEquals( 1234.5678, r[0], 1e-9 );
+        assertTrue( Double.isNaN( r[1] ) );
+        assertEquals( 1234.5, r[2], 1e-9 );
+        assertTrue( "differences are rounded to print short", samples.contains( "\"t\":[50.001,0.001,0.001]" ) );
+
+        feed.stageStarted( 1, 50.004 );
+        feed.finish( null );
+        assertTrue( next( reader, "stage" ).contains( "\"stage\":1" ) );
+        assertTrue( next( reader, "end" ).contains( "\"samples\":5003" ) );
+    }
+
+    public void testSlowViewerSkipsSamplesWithoutHoldingUpTheRun() throws Exception
+    {
+        start( 1000 );
+        LiveServer.Feed feed = server.publish( "Run 1", metadata() );
+        BufferedReader reader = stream( "/stream?run=Run%201" );
+        for ( int k = 0; k < 100 && server.getClientCount() == 0; k++ ) {
+            Thread.sleep( 10 );
+        }
+        assertEquals( 1, server.getClientCount() );
+
+        // The viewer reads nothing meanwhile
+        double[] t = new double[4096];
+        double[] v = new double[4096];
+        for ( int block = 0; block < 250; block++ ) {
+            for ( int k = 0; k < t.length; k++ ) {
+                t[k] = ( block * t.length + k ) * 1e-3;
+            }
+            feed.acceptBlock( t, v, v, t, t.length );
+        }
+        assertEquals( 250L * 4096, feed.getSamples() );
+        assertTrue( server.getClients().get( 0 ).getDropped() > 0 );
+        assertTrue( next( reader, "samples" ).contains( "\"skipped\":" ) );
+    }
+
+    public void testRunsAndPage() throws IOException
+    {
+        start( LiveServer.CLIENT_CAPACITY );
+        server.publish( "Run 1", metadata() ).finish( "lost connection" );
+        server.publish( "Run 2", metadata() );
+
+        HttpURLConnection runs = open( "/runs" );
+        assertEquals( 200, runs.getResponseCode() );
+        String json = new BufferedReader( new InputStreamReader( runs.getInputStream(), StandardCharsets.UTF_8 ) )
+                .readLine();
+        assertFalse( "finished runs are dropped by the next one", json.contains( "Run 1" ) );
+        assertTrue( json, json.contains( "\"run\":\"Run 2\",\"metadata\":{\"voltage\":\"1.0\"" ) );
+
+        assertEquals( 200, open( "/" ).getResponseCode() );
+        assertEquals( 404, open( "/nothing" ).getResponseCode() );
+    }
+
+    public void testHistoryMergesBucketsKeepingTheExtremes()
+    {
+        LiveServer.History history = new LiveServer.History( 16 );
+        for ( int k = 0; k < 1000; k++ ) {
+            history.add( k, k == 500 ? -1 : k == 501 ? Double.NaN : k );
+        }
+        assertTrue( history.getBuckets() <= 16 );
+        String json = history.json( "Run 1" );
+        double lowest = Double.POSITIVE_INFINITY;
+        for ( double min : decode( json, "min" ) ) {
+            lowest = Math.min( lowest, min );
+        }
+        double[] max = decode( json, "max" );
+        assertEquals( -1.0, lowest, 0 );
+        assertEquals( 999.0, max[max.length - 1], 0 );
+    }
+}
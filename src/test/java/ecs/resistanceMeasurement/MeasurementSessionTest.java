@@ -0,0 +1,159 @@
+package ecs.resistanceMeasurement;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests how {@link MeasurementSession} stops a run on an auto-stop trigger,
+ * with an engine that delivers blocks as fast as the session takes them.
+ */
+public class MeasurementSessionTest extends TestCase
+{
+    private static final int BLOCK = 256;
+
+    /** Delivers blocks of BLOCK samples with R = sample index until stopped or at the limit. */
+    private static class FloodEngine implements AcquisitionEngine
+    {
+        private final long limit;
+        volatile long delivered;
+        private volatile boolean stopRequested;
+
+        FloodEngine( long limit )
+        {
+            this.limit = limit;
+        }
+
+        @Override
+        public void startRun( MeasurementConfig config, SampleConsumer samples, RunListener listener )
+        {
+            double[] t = new double[BLOCK];
+            double[] v = new double[BLOCK];
+            double[] r = new double[BLOCK];
+            samples.stageStarted( 0, 0 );
+            while ( !stopRequested && delivered < limit ) {
+                for ( int k = 0; k < BLOCK; k++ ) {
+                    t[k] = ( delivered + k ) * 1e-6;
+                    v[k] = 1.0;
+                    r[k] = delivered + k;
+                }
+                samples.acceptBlock( t, v, v, r, BLOCK );
+                delivered += BLOCK;
+            }
+            listener.runFinished( null );
+        }
+
+        @Override
+        public void stopRun()
+        {
+            stopRequested = true;
+        }
+
+        @Override
+        public boolean isRunning()
+        {
+            return false;
+        }
+
+        @Override
+        public long getDroppedSamples()
+        {
+            return 0;
+        }
+
+        @Override
+        public long getParseFailures()
+        {
+            return 0;
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+
+    /** Counts the samples and nothing else. */
+    private static class CountingWriter implements RunWriter
+    {
+        volatile long samples;
+
+        @Override
+        public void accept( double absTime, double v, double i, double r )
+        {
+            samples++;
+        }
+
+        @Override
+        public long getSampleCount()
+        {
+            return samples;
+        }
+
+        @Override
+        public List<File> getFiles()
+        {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+
+    // Runs to the end; the chart buffer holds the whole run, as nothing draws it
+    private static MeasurementSession run( FloodEngine engine, final CountingWriter writer, String triggers )
+            throws Exception
+    {
+        final MeasurementSession session = new MeasurementSession( "flood", engine,
+                new MeasurementConfig( 1.0, 10.0, 1e-6, MeasurementConfig.AUTO, 1.0, 0.1, true, ".", "flood" ) );
+        session.configureAnalytics( StreamingAnalytics.DEFAULT_WINDOW_SECONDS,
+                StreamingAnalytics.parseTriggers( triggers ) );
+        final ConsoleLog console = new ConsoleLog( 6, 30, 100, ConsoleLog.Mode.STATUS_AND_SUMMARY );
+        final LiveChartUpdater.Source source = new LiveChartUpdater.Source( new SampleStore( "flood" ),
+                (int) engine.limit );
+        final CountDownLatch finished = new CountDownLatch( 1 );
+        SwingUtilities.invokeAndWait( () -> session.start( writer, source, console,
+                ( s, error, saveError ) -> finished.countDown() ) );
+        assertTrue( finished.await( 30, TimeUnit.SECONDS ) );
+        return session;
+    }
+
+    public void testTriggerStopsTheRunAtTheBlockThatFiredIt() throws Exception
+    {
+        FloodEngine engine = new FloodEngine( 100 * BLOCK );
+        CountingWriter writer = new CountingWriter();
+        MeasurementSession session = run( engine, writer, "R>1000" );
+
+        // R = 1001 is sample 1001, in the 4th block: no block is delivered after it
+        assertTrue( session.getAnalytics().hasFired() );
+        assertEquals( 4 * BLOCK, engine.delivered );
+        assertEquals( engine.delivered, writer.samples );
+        for ( SamplePipeline.Sink sink : session.getPipeline().getSinks() ) {
+            assertFalse( "analytics are not queued", sink.getName().equals( "analytics" ) );
+        }
+    }
+
+    public void testWithoutTriggersTheAnalyticsAreASink() throws Exception
+    {
+        FloodEngine engine = new FloodEngine( 100 * BLOCK );
+        CountingWriter writer = new CountingWriter();
+        MeasurementSession session = run( engine, writer, "" );
+
+        assertEquals( 100 * BLOCK, engine.delivered );
+        assertEquals( engine.delivered, writer.samples );
+        assertEquals( engine.delivered, session.getAnalytics().snapshot().getCount() );
+        boolean queued = false;
+        for ( SamplePipeline.Sink sink : session.getPipeline().getSinks() ) {
+            queued |= sink.getName().equals( "analytics" );
+        }
+        assertTrue( queued );
+    }
+}
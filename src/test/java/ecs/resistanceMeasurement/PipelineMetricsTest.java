@@ -0,0 +1,94 @@
+package ecs.resistanceMeasurement;
+
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link PipelineMetrics}: jitter, frame accounting and the JMX export.
+ */
+public class PipelineMetricsTest extends TestCase
+{
+    public void testJitterAgainstRequestedInterval()
+    {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.startRun( 0.01, new SimulatedEngine(), null );
+        double[] t = new double[100];
+        for ( int n = 0; n < t.length; n++ ) {
+            // every tenth interval is 5 ms late
+            t[n] = n * 0.01 + ( n % 10 == 5 ? 0.005 : 0 );
+        }
+        metrics.samplesArrived( t, t.length );
+
+        assertEquals( 100, metrics.getSamples() );
+        assertEquals( 10.0, metrics.getRequestedIntervalMillis(), 1e-9 );
+        assertTrue( metrics.getJitterP50Millis() < 0.01 );
+        assertEquals( 5.0, metrics.getJitterP99Millis(), 0.1 );
+        assertEquals( 0, metrics.getParseFailures() );
+        assertEquals( 0, metrics.getBacklogDepth() );
+    }
+
+    public void testRenderLatencyIsRecordedOncePerSample()
+    {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.startRun( 0.001, new SimulatedEngine(), null );
+        SampleStore store = new SampleStore( "Run" );
+        SampleStoreDataset dataset = new SampleStoreDataset();
+        dataset.addStore( store );
+        JFreeChart chart = ChartFactory.createXYLineChart( "R", "t", "R", dataset );
+        metrics.watch( chart );
+        BufferedImage image = new BufferedImage( 200, 100, BufferedImage.TYPE_INT_RGB );
+        Graphics2D g = image.createGraphics();
+
+        for ( int n = 0; n < 50; n++ ) {
+            metrics.sampleArrived( n * 0.001 );
+            store.append( n * 0.001, 1.0, 1e-3, 1000.0 );
+        }
+        metrics.framePrepared( store, 0, 50 );
+        chart.draw( g, new Rectangle2D.Double( 0, 0, 200, 100 ) );
+        chart.draw( g, new Rectangle2D.Double( 0, 0, 200, 100 ) );    // nothing new
+        g.dispose();
+
+        assertEquals( 2, metrics.getFrames() );
+        assertEquals( 50, metrics.getMaxBacklogDepth() );
+        assertFalse( Double.isNaN( metrics.getDrawMeanMillis() ) );
+        assertTrue( metrics.getRenderLatencyP50Millis() >= 0 );
+        assertEquals( "one latency per sample drawn, none for the redraw", 50, metrics.getRenderedSamples() );
+
+        // The next frame records only its new samples
+        for ( int n = 50; n < 80; n++ ) {
+            metrics.sampleArrived( n * 0.001 );
+            store.append( n * 0.001, 1.0, 1e-3, 1000.0 );
+        }
+        metrics.framePrepared( store, 50, 80 );
+        g = image.createGraphics();
+        chart.draw( g, new Rectangle2D.Double( 0, 0, 200, 100 ) );
+        g.dispose();
+        assertEquals( 80, metrics.getRenderedSamples() );
+
+        metrics.reset();
+        assertTrue( Double.isNaN( metrics.getRenderLatencyP99Millis() ) );
+        assertEquals( 0, metrics.getRenderedSamples() );
+        assertEquals( 0, metrics.getMaxBacklogDepth() );
+    }
+
+    public void testExportedOverJmx() throws Exception
+    {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.startRun( 0.002, new SimulatedEngine(), null );
+        metrics.register();
+        metrics.register();    // replaces the earlier registration
+        ObjectName name = new ObjectName( PipelineMetrics.OBJECT_NAME );
+        assertEquals( 2.0, (Double) ManagementFactory.getPlatformMBeanServer()
+                .getAttribute( name, "RequestedIntervalMillis" ), 1e-9 );
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean( name );
+    }
+}
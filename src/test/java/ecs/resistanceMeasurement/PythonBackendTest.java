@@ -0,0 +1,143 @@
+package ecs.resistanceMeasurement;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link PythonBackend} protocol against {@link BackendStub} in a child JVM.
+ */
+public class PythonBackendTest extends TestCase
+{
+    private final List<String> log = new CopyOnWriteArrayList<>();
+    private PythonBackend backend;
+
+    @Override
+    protected void tearDown()
+    {
+        if ( backend != null ) {
+            backend.close();
+        }
+    }
+
+    private static String location( Class<?> type ) throws URISyntaxException
+    {
+        return new File( type.getProtectionDomain().getCodeSource().getLocation().toURI() ).getPath();
+    }
+
+    private PythonBackend backend( String mode ) throws Exception
+    {
+        String java = new File( System.getProperty( "java.home" ), "bin" + File.separator + "java" ).getPath();
+        String classpath = location( BackendStub.class ) + File.pathSeparator + location( BinaryDataChannel.class );
+        backend = new PythonBackend( Arrays.asList( java, "-cp", classpath, BackendStub.class.getName(), mode ), "",
+                log::add );
+        return backend;
+    }
+
+    private static MeasurementConfig config( String filename )
+    {
+        return new MeasurementConfig( 1.0, 1.0, 0.1, MeasurementConfig.AUTO, 1.0, 0.1, true, ".", filename );
+    }
+
+    // Runs to the end; returns the listener's error, or "started: <samples>"
+    private static String run( PythonBackend backend, String filename ) throws Exception
+    {
+        final SampleStore store = new SampleStore( "stub" );
+        final String[] error = new String[1];
+        final CountDownLatch finished = new CountDownLatch( 1 );
+        backend.startRun( config( filename ), ( t, v, i, r ) -> store.append( t, v, i, r ), e -> {
+            error[0] = e;
+            finished.countDown();
+        } );
+        assertTrue( finished.await( 30, TimeUnit.SECONDS ) );
+        return error[0] != null ? error[0] : "samples: " + store.size();
+    }
+
+    public void testRejectedConfigurationFailsTheRunBeforeStart() throws Exception
+    {
+        PythonBackend backend = backend( "normal" );
+        try {
+            run( backend, "invalid" );
+            fail( "started with a rejected configuration" );
+        }
+        catch ( IOException e ) {
+            assertTrue( e.getMessage(), e.getMessage().contains( "no stages" ) );
+        }
+        assertFalse( backend.isRunning() );
+
+        // The next, valid configuration is confirmed and run
+        assertEquals( "samples: " + BackendStub.SAMPLES, run( backend, "valid" ) );
+        assertEquals( 0, backend.getDroppedSamples() );
+    }
+
+    public void testTextLinesCarryTheirStage() throws Exception
+    {
+        PythonBackend backend = backend( "text" );
+        final List<String> events = new CopyOnWriteArrayList<>();
+        final CountDownLatch finished = new CountDownLatch( 1 );
+        MeasurementConfig config = config( "text" ).withSequence( VoltageSequence.parse( "1:0.1:AUTO,2:0.1:AUTO" ) );
+        backend.startRun( config, new SampleConsumer()
+        {
+            public void accept( double t, double v, double i, double r )
+            {
+                events.add( "sample " + t + " " + v );
+            }
+
+            public void stageStarted( int stage, double t )
+            {
+                events.add( "stage " + stage );
+            }
+        }, e -> finished.countDown() );
+        assertTrue( finished.await( 30, TimeUnit.SECONDS ) );
+
+        assertEquals( "[stage 0, sample 0.05 1.0, sample 0.1002 1.0, stage 1, sample 0.15 2.0]", events.toString() );
+        assertEquals( 0, backend.getParseFailures() );
+    }
+
+    public void testStartupWaitsForReady() throws Exception
+    {
+        PythonBackend backend = backend( "slow-ready" );
+        long start = System.nanoTime();
+        backend.ensureStarted();
+        assertTrue( System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos( BackendStub.READY_DELAY_MS ) );
+        assertEquals( "idle connected=False", backend.ping( 5000 ) );
+    }
+
+    public void testBackendExitingBeforeReadyFailsStartup() throws Exception
+    {
+        try {
+            backend( "die-at-start" ).ensureStarted();
+            fail( "the backend never got ready" );
+        }
+        catch ( IOException e ) {
+            assertTrue( e.getMessage(), e.getMessage().contains( "exited during startup" ) );
+        }
+    }
+
+    public void testRespawnsAfterTheBackendDied() throws Exception
+    {
+        PythonBackend backend = backend( "die-on-stop" );
+        assertEquals( "samples: " + BackendStub.SAMPLES, run( backend, "first" ) );
+        backend.stopRun();
+        for ( int k = 0; k < 100 && backend.ping( 100 ) != null; k++ ) {
+            Thread.sleep( 50 );
+        }
+        assertNull( "the stub exited", backend.ping( 100 ) );
+
+        assertEquals( "samples: " + BackendStub.SAMPLES, run( backend, "second" ) );
+        int spawns = 0;
+        for ( String line : log ) {
+            if ( line.startsWith( "Starting backend" ) ) {
+                spawns++;
+            }
+        }
+        assertEquals( 2, spawns );
+    }
+}
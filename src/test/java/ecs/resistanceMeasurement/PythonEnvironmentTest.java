@@ -0,0 +1,96 @@
+package ecs.resistanceMeasurement;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link PythonEnvironment} and {@link StartupTimer}.
+ */
+public class PythonEnvironmentTest extends TestCase
+{
+    private Preferences prefs;
+
+    protected void setUp()
+    {
+        prefs = Preferences.userRoot().node( "ecs/resistanceMeasurement/test-" + System.nanoTime() );
+    }
+
+    protected void tearDown() throws BackingStoreException
+    {
+        prefs.removeNode();
+    }
+
+    public void testMissingInterpreterIsNotCached()
+    {
+        PythonEnvironment env = PythonEnvironment.probe( "/nonexistent/python-for-test", prefs );
+        assertFalse( env.isUsable() );
+        assertFalse( env.isCached() );
+        assertNull( prefs.get( "pythonProbeVersion", null ) );
+    }
+
+    public void testMatchingStampSkipsProbe()
+    {
+        String python = "/nonexistent/python-for-test";
+        prefs.put( "pythonProbeStamp", PythonEnvironment.stampOf( python ) );
+        prefs.put( "pythonProbeVersion", "Python 3.11.4" );
+
+        PythonEnvironment env = PythonEnvironment.probe( python, prefs );
+        assertTrue( env.isCached() );
+        assertTrue( env.isUsable() );
+        assertEquals( "Python 3.11.4", env.getVersion() );
+    }
+
+    public void testStaleStampProbesAgain()
+    {
+        prefs.put( "pythonProbeStamp", "some-old-venv|1|1" );
+        prefs.put( "pythonProbeVersion", "Python 3.11.4" );
+
+        PythonEnvironment env = PythonEnvironment.probe( "/nonexistent/python-for-test", prefs );
+        assertFalse( env.isCached() );
+        assertFalse( env.isUsable() );
+    }
+
+    public void testCommandOnPathIsStampedByItsFile() throws IOException
+    {
+        File dir = Files.createTempDirectory( "python-path" ).toFile();
+        File python = new File( dir, File.separatorChar == '\\' ? "python-for-test.exe" : "python-for-test" );
+        try {
+            Files.write( python.toPath(), Arrays.asList( "#!/bin/sh" ) );
+            assertTrue( python.setExecutable( true ) );
+            String path = "/nonexistent" + File.pathSeparator + dir.getPath();
+
+            String stamp = PythonEnvironment.stampOf( "python-for-test", path );
+            assertTrue( stamp, stamp.startsWith( python.getCanonicalPath() + "|" ) );
+
+            // A new interpreter behind the same command
+            Files.write( python.toPath(), Arrays.asList( "#!/bin/sh", "echo Python 3.12.1" ) );
+            assertFalse( stamp.equals( PythonEnvironment.stampOf( "python-for-test", path ) ) );
+
+            assertEquals( "python-for-test", PythonEnvironment.stampOf( "python-for-test", "/nonexistent" ) );
+        }
+        finally {
+            python.delete();
+            dir.delete();
+        }
+    }
+
+    public void testStartupTimerRecordsPhases()
+    {
+        StartupTimer timer = new StartupTimer();
+        assertEquals( "x", timer.time( "First", () -> "x" ) );
+        timer.time( "Second", () -> { } );
+        timer.mark( "Window shown" );
+
+        assertEquals( 3, timer.getPhaseCount() );
+        assertTrue( timer.getTotalMillis() >= 0 );
+        String report = timer.report();
+        assertTrue( report.contains( "First" ) );
+        assertTrue( report.contains( "Window shown" ) );
+    }
+}
@@ -0,0 +1,160 @@
+package ecs.resistanceMeasurement;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link RunArchiveWriter} and {@link RunArchiveReader}.
+ */
+public class RunArchiveTest extends TestCase
+{
+    private File folder;
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        folder = Files.createTempDirectory( "archive" ).toFile();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        for ( File f : folder.listFiles() ) {
+            f.delete();
+        }
+        folder.delete();
+    }
+
+    /** Records everything the reader delivers. */
+    private static final class Recorder implements SampleConsumer
+    {
+        final List<double[]> samples = new ArrayList<>();
+        final List<Integer> stages = new ArrayList<>();
+
+        @Override
+        public void accept( double t, double v, double i, double r )
+        {
+            samples.add( new double[] { t, v, i, r } );
+        }
+
+        @Override
+        public void acceptBlock( double[] t, double[] v, double[] i, double[] r, int count )
+        {
+            for ( int n = 0; n < count; n++ ) {
+                accept( t[n], v[n], i[n], r[n] );
+            }
+        }
+
+        @Override
+        public void stageStarted( int stage, double absTime )
+        {
+            stages.add( stage );
+        }
+    }
+
+    // A long run sampled every 10 ms, with a few noisy samples and NaN resistance at 0 V
+    private RunArchiveWriter write( String name, int samples ) throws IOException
+    {
+        RunArchiveWriter writer = new RunArchiveWriter( folder, name,
+                Collections.singletonMap( "voltage", "1.5" ) );
+        for ( int n = 0; n < samples; n++ ) {
+            if ( n % 3000 == 0 ) {
+                writer.stageStarted( n / 3000, n * 0.01 );
+            }
+            double v = ( n / 3000 ) % 2 == 0 ? 1.5 : 0.0;
+            double i = v * ( 1e-3 + 1e-7 * Math.sin( n ) );
+            writer.accept( n * 0.01 + ( n % 7 == 0 ? 3e-6 : 0 ), v, i, v / i );
+        }
+        return writer;
+    }
+
+    public void testRoundTripsSamplesStagesAndMetadata() throws IOException
+    {
+        RunArchiveWriter writer = write( "run", 10000 );
+        writer.close();
+        assertEquals( 10000, writer.getSampleCount() );
+
+        try ( RunArchiveReader reader = new RunArchiveReader( new File( folder, "run.krma" ) ) ) {
+            assertEquals( "1.5", reader.getMetadata().get( "voltage" ) );
+            assertEquals( 10000, reader.getSampleCount() );
+            assertEquals( 3, reader.getBlockCount() );
+            assertFalse( reader.isRecovered() );
+
+            Recorder recorder = new Recorder();
+            assertEquals( 10000, reader.readAll( recorder ) );
+            assertEquals( Arrays.asList( 0, 1, 2, 3 ), recorder.stages );
+            for ( int n = 0; n < 10000; n++ ) {
+                double[] s = recorder.samples.get( n );
+                double v = ( n / 3000 ) % 2 == 0 ? 1.5 : 0.0;
+                double i = v * ( 1e-3 + 1e-7 * Math.sin( n ) );
+                assertEquals( n * 0.01 + ( n % 7 == 0 ? 3e-6 : 0 ), s[0], 1e-9 );
+                assertEquals( v, s[1], 0.0 );
+                assertEquals( i, s[2], 0.0 );
+                assertEquals( Double.doubleToLongBits( v / i ), Double.doubleToLongBits( s[3] ) );
+            }
+        }
+    }
+
+    public void testReadsOnlyTheTimeWindow() throws IOException
+    {
+        write( "run", 20000 ).close();
+        try ( RunArchiveReader reader = new RunArchiveReader( new File( folder, "run.krma" ) ) ) {
+            Recorder recorder = new Recorder();
+            assertEquals( 1001, reader.read( 100.0, 110.0, recorder ) );
+            assertEquals( 100.0, recorder.samples.get( 0 )[0], 1e-5 );
+            assertEquals( 110.0, recorder.samples.get( 1000 )[0], 1e-5 );
+            assertEquals( Collections.singletonList( 3 ), recorder.stages );
+
+            assertEquals( 0, reader.read( 500.0, 600.0, new Recorder() ) );
+        }
+    }
+
+    public void testRecoversArchiveWithoutIndex() throws IOException
+    {
+        write( "run", 10000 ).close();
+        File file = new File( folder, "run.krma" );
+        try ( RandomAccessFile raf = new RandomAccessFile( file, "rw" ) ) {
+            raf.setLength( raf.length() - 20 );    // footer and part of the index lost
+        }
+        try ( RunArchiveReader reader = new RunArchiveReader( file ) ) {
+            assertTrue( reader.isRecovered() );
+            assertEquals( 10000, reader.getSampleCount() );
+            assertEquals( 10000, reader.readAll( new Recorder() ) );
+        }
+    }
+
+    public void testExportsCsvAndIsSmallerThanIt() throws IOException
+    {
+        write( "run", 10000 ).close();
+        File archive = new File( folder, "run.krma" );
+        List<File> files;
+        try ( RunArchiveReader reader = new RunArchiveReader( archive ) ) {
+            files = reader.exportCsv( folder, "run" );
+        }
+        File csv = files.get( 0 );
+        List<String> lines = Files.readAllLines( csv.toPath() );
+        assertEquals( 10001, lines.size() );
+        assertEquals( SampleFileWriter.HEADER.trim(), lines.get( 0 ) );
+        assertTrue( lines.get( 10000 ).endsWith( ",3" ) );
+        assertTrue( archive.length() * 3 < csv.length() );
+    }
+
+    public void testRejectsOtherFiles() throws IOException
+    {
+        File file = new File( folder, "other.krma" );
+        Files.write( file.toPath(), "abs_time_s,voltage_V\n".getBytes( "US-ASCII" ) );
+        try {
+            new RunArchiveReader( file ).close();
+            fail( "expected IOException" );
+        } catch ( IOException expected ) {
+        }
+    }
+}
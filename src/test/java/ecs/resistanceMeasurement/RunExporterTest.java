@@ -0,0 +1,99 @@
+package ecs.resistanceMeasurement;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link RunExporter}.
+ */
+public class RunExporterTest extends TestCase
+{
+    private File folder;
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        folder = Files.createTempDirectory( "export" ).toFile();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        for ( File f : folder.listFiles() ) {
+            f.delete();
+        }
+        folder.delete();
+    }
+
+    private RunExporter.Run run( int samples )
+    {
+        SampleStore store = new SampleStore( "Run 1" );
+        for ( int i = 0; i < samples; i++ ) {
+            store.append( i * 0.01, 1.0, 1e-3, i == 50 ? Double.NaN : 1000 + i );
+        }
+        Map<String, String> summary = new LinkedHashMap<>();
+        summary.put( "voltage", "1.0" );
+        return new RunExporter.Run( "Run 1", folder, "run", store, summary );
+    }
+
+    public void testWritesPngAtScaleSvgAndSummary() throws IOException
+    {
+        List<File> files = new RunExporter( true, true, 300, 200, 2 ).write( run( 200 ) );
+
+        assertEquals( 3, files.size() );
+        BufferedImage png = ImageIO.read( new File( folder, "run.png" ) );
+        assertEquals( 600, png.getWidth() );
+        assertEquals( 400, png.getHeight() );
+
+        String svg = new String( Files.readAllBytes( new File( folder, "run.svg" ).toPath() ), StandardCharsets.UTF_8 );
+        assertTrue( svg.startsWith( "<?xml" ) );
+        assertEquals( "line broken at the missing sample", 2, svg.split( "<polyline", -1 ).length - 1 );
+
+        List<String> summary = Files.readAllLines( new File( folder, "run_summary.txt" ).toPath() );
+        assertTrue( summary.toString(), summary.contains( "voltage=1.0" ) );
+        assertTrue( summary.toString(), summary.contains( "min_Ohm=1000.0" ) );
+        assertTrue( summary.toString(), summary.contains( "max_Ohm=1199.0" ) );
+    }
+
+    public void testExtremesOfAllSamplesOutrankThePlottedOnes() throws IOException
+    {
+        // A spike the decimated chart never received
+        RunExporter.Run run = run( 200 );
+        run.summary.put( "min_Ohm", "1000.0" );
+        run.summary.put( "max_Ohm", "250000.0" );
+        new RunExporter( false, false, 300, 200, 1 ).write( run );
+
+        List<String> summary = Files.readAllLines( new File( folder, "run_summary.txt" ).toPath() );
+        assertTrue( summary.toString(), summary.contains( "max_Ohm=250000.0" ) );
+        assertTrue( summary.toString(), summary.contains( "duration_s=1.99" ) );
+    }
+
+    public void testEmptyRunWritesOnlySummary() throws IOException
+    {
+        List<File> files = new RunExporter( true, true, 300, 200, 1 ).write( run( 0 ) );
+
+        assertEquals( 1, files.size() );
+        assertFalse( new File( folder, "run.png" ).exists() );
+    }
+
+    public void testTicksAreRoundAndCoverTheRange()
+    {
+        double[] ticks = RunExporter.ticks( 0.13, 9.7 );
+        assertEquals( 0.0, ticks[0], 1e-12 );
+        assertEquals( 10.0, ticks[ticks.length - 1], 1e-12 );
+        assertTrue( ticks.length <= 11 );
+
+        ticks = RunExporter.ticks( 5, 5 );
+        assertTrue( ticks[0] <= 5 && ticks[ticks.length - 1] >= 5 );
+    }
+}
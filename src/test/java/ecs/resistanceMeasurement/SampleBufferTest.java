@@ -0,0 +1,121 @@
+package ecs.resistanceMeasurement;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link SampleBuffer} and the frame draining of {@link LiveChartUpdater}.
+ */
+public class SampleBufferTest extends TestCase
+{
+    public void testDrainReturnsSamplesInOrder() throws Exception
+    {
+        SampleBuffer buffer = new SampleBuffer( 4 );
+        for ( int n = 0; n < 3; n++ ) {
+            buffer.put( n, 1.0, 0.5, n * 10.0 );
+        }
+        final StringBuilder seen = new StringBuilder();
+        int drained = buffer.drainTo( ( t, v, i, r ) -> seen.append( (int) t ).append( ':' ).append( (int) r ).append( ' ' ) );
+
+        assertEquals( 3, drained );
+        assertEquals( "0:0 1:10 2:20 ", seen.toString() );
+        assertEquals( 0, buffer.size() );
+    }
+
+    public void testWrapAround() throws Exception
+    {
+        SampleBuffer buffer = new SampleBuffer( 2 );
+        buffer.put( 1, 0, 0, 0 );
+        buffer.put( 2, 0, 0, 0 );
+        buffer.drainTo( ( t, v, i, r ) -> { } );
+        buffer.put( 3, 0, 0, 0 );
+        buffer.put( 4, 0, 0, 0 );
+
+        final double[] sum = new double[1];
+        buffer.drainTo( ( t, v, i, r ) -> sum[0] += t );
+        assertEquals( 7.0, sum[0], 0.0 );
+    }
+
+    public void testProducerBlocksUntilDrained() throws Exception
+    {
+        final SampleBuffer buffer = new SampleBuffer( 1 );
+        buffer.put( 1, 0, 0, 0 );
+        Thread producer = new Thread( () -> {
+            try {
+                buffer.put( 2, 0, 0, 0 );
+            } catch ( InterruptedException ignored ) {
+            }
+        } );
+        producer.start();
+        producer.join( 100 );
+        assertTrue( "producer should wait while the buffer is full", producer.isAlive() );
+
+        buffer.drainTo( ( t, v, i, r ) -> { } );
+        producer.join( 2000 );
+        assertFalse( producer.isAlive() );
+        assertEquals( 1, buffer.size() );
+    }
+
+    public void testBlockLargerThanBufferArrivesInOrder() throws Exception
+    {
+        final SampleBuffer buffer = new SampleBuffer( 7 );
+        final int count = 100;
+        final double[] t = new double[count];
+        for ( int n = 0; n < count; n++ ) {
+            t[n] = n;
+        }
+        Thread producer = new Thread( () -> {
+            try {
+                buffer.putBlock( t, t, t, t, count );
+            } catch ( InterruptedException ignored ) {
+            }
+        } );
+        producer.start();
+
+        final double[] next = new double[1];
+        long deadline = System.currentTimeMillis() + 5000;
+        while ( next[0] < count && System.currentTimeMillis() < deadline ) {
+            buffer.drainTo( ( time, v, i, r ) -> {
+                assertEquals( next[0], time, 0.0 );
+                next[0]++;
+            } );
+        }
+        producer.join( 2000 );
+        assertEquals( (double) count, next[0], 0.0 );
+    }
+
+    public void testDrainAtMostMaxKeepsTheRest() throws Exception
+    {
+        SampleBuffer buffer = new SampleBuffer( 10 );
+        for ( int n = 0; n < 8; n++ ) {
+            buffer.put( n, 0, 0, 0 );
+        }
+        final double[] next = new double[1];
+        assertEquals( 5, buffer.drainTo( ( t, v, i, r ) -> assertEquals( next[0]++, t, 0.0 ), 5 ) );
+        assertEquals( 3, buffer.size() );
+        assertEquals( 3, buffer.drainTo( ( t, v, i, r ) -> assertEquals( next[0]++, t, 0.0 ), 5 ) );
+        assertEquals( 0, buffer.size() );
+    }
+
+    public void testFrameBudgetIsSharedBetweenSources() throws Exception
+    {
+        LiveChartUpdater updater = new LiveChartUpdater( new SampleStoreDataset(), 20 );
+        updater.setFrameBudget( 100 );
+        LiveChartUpdater.Source fast = updater.addSource( new SampleStore( "fast" ), 1000 );
+        LiveChartUpdater.Source slow = updater.addSource( new SampleStore( "slow" ), 1000 );
+        for ( int n = 0; n < 1000; n++ ) {
+            fast.offer( n, 0, 0, 0 );
+        }
+        for ( int n = 0; n < 10; n++ ) {
+            slow.offer( n, 0, 0, 0 );
+        }
+
+        // the slow source is not held back; the fast one gets what it leaves
+        assertTrue( updater.flush() );
+        assertEquals( 10, slow.getStore().size() );
+        assertEquals( 90, fast.getStore().size() );
+
+        updater.stop();
+        assertEquals( 1000, fast.getStore().size() );
+        assertEquals( 0, updater.getBacklog() );
+    }
+}
@@ -0,0 +1,128 @@
+package ecs.resistanceMeasurement;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link SampleFileWriter}.
+ */
+public class SampleFileWriterTest extends TestCase
+{
+    private File folder;
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        folder = Files.createTempDirectory( "writer" ).toFile();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        for ( File f : folder.listFiles() ) {
+            f.delete();
+        }
+        folder.delete();
+    }
+
+    private static List<String> lines( File file ) throws IOException
+    {
+        return Files.readAllLines( file.toPath() );
+    }
+
+    public void testWritesHeaderAndRoundTrips() throws IOException
+    {
+        SampleFileWriter writer = new SampleFileWriter( folder, "run" );
+        writer.accept( 0.125, 1.0, 2.5e-7, 4000000.0 );
+        writer.accept( 0.25, 1.0, 0.0, Double.NaN );
+        writer.close();
+
+        List<String> lines = lines( new File( folder, "run.csv" ) );
+        assertEquals( 3, lines.size() );
+        assertEquals( SampleFileWriter.HEADER.trim(), lines.get( 0 ) );
+
+        SampleLineParser parser = new SampleLineParser();
+        byte[] row = lines.get( 1 ).getBytes( "US-ASCII" );
+        assertEquals( 5, parser.parse( row, 0, row.length ) );
+        assertEquals( 2.5e-7, parser.get( 2 ), 0.0 );
+        row = lines.get( 2 ).getBytes( "US-ASCII" );
+        assertEquals( 5, parser.parse( row, 0, row.length ) );
+        assertTrue( Double.isNaN( parser.get( 3 ) ) );  // empty field, as pandas writes it
+        assertEquals( 0.0, parser.get( 4 ), 0.0 );
+    }
+
+    public void testRowsCarryTheirStage() throws IOException
+    {
+        SampleFileWriter writer = new SampleFileWriter( folder, "run" );
+        writer.stageStarted( 0, 0.0 );
+        writer.accept( 0.5, 1.0, 1e-3, 1000.0 );
+        writer.stageStarted( 2, 1.0 );
+        writer.accept( 1.0, 0.0, 0.0, Double.NaN );
+        writer.close();
+
+        List<String> lines = lines( new File( folder, "run.csv" ) );
+        assertTrue( lines.get( 1 ).endsWith( ",0" ) );
+        assertTrue( lines.get( 2 ).endsWith( ",2" ) );
+    }
+
+    public void testTimedCommitReachesFileWhileOpen() throws Exception
+    {
+        SampleFileWriter writer = new SampleFileWriter( folder, "run", 50, 64 * 1024, 50, 0 );
+        try {
+            writer.accept( 1, 1, 1, 1 );
+            File file = new File( folder, "run.csv" );
+            long deadline = System.currentTimeMillis() + 5000;
+            while ( lines( file ).size() < 2 && System.currentTimeMillis() < deadline ) {
+                Thread.sleep( 20 );
+            }
+            assertEquals( 2, lines( file ).size() );
+        } finally {
+            writer.close();
+        }
+    }
+
+    public void testRotatesIntoParts() throws IOException
+    {
+        SampleFileWriter writer = new SampleFileWriter( folder, "run", 60000, 256, 60000, 1024 );
+        int count = 500;
+        for ( int n = 0; n < count; n++ ) {
+            writer.accept( n, 1.0, 1e-3, 1000.0 );
+        }
+        writer.close();
+
+        List<File> files = writer.getFiles();
+        assertTrue( files.size() > 1 );
+        assertEquals( "run_part2.csv", files.get( 1 ).getName() );
+        int rows = 0;
+        for ( File f : files ) {
+            List<String> lines = lines( f );
+            assertEquals( SampleFileWriter.HEADER.trim(), lines.get( 0 ) );
+            rows += lines.size() - 1;
+        }
+        assertEquals( count, rows );
+        assertEquals( count, writer.getSampleCount() );
+        assertEquals( files.size(), SampleFileWriter.existingFiles( folder, "run" ).size() );
+    }
+
+    public void testNeverOverwritesAnEarlierRun() throws IOException
+    {
+        SampleFileWriter writer = new SampleFileWriter( folder, "run" );
+        writer.accept( 1, 1, 1, 1 );
+        writer.close();
+
+        try {
+            new SampleFileWriter( folder, "run" );
+            fail( "overwrote run.csv" );
+        }
+        catch ( FileAlreadyExistsException e ) {
+            assertEquals( 2, lines( new File( folder, "run.csv" ) ).size() );
+        }
+        assertTrue( SampleFileWriter.existingFiles( folder, "other" ).isEmpty() );
+        assertTrue( SampleFileWriter.existingFiles( folder, "ru" ).isEmpty() );
+    }
+}
@@ -0,0 +1,95 @@
+package ecs.resistanceMeasurement;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link SampleLineParser} and {@link LineReader}.
+ */
+public class SampleLineParserTest extends TestCase
+{
+    private final SampleLineParser parser = new SampleLineParser();
+
+    private int parse( String line )
+    {
+        byte[] bytes = line.getBytes( StandardCharsets.US_ASCII );
+        return parser.parse( bytes, 0, bytes.length );
+    }
+
+    public void testStreamFormat()
+    {
+        assertEquals( 4, parse( "12.345678,1.000000,1.234567890123e-05, 8.100005913066e+04" ) );
+        assertEquals( 12.345678, parser.get( 0 ), 0.0 );
+        assertEquals( 1.0, parser.get( 1 ), 0.0 );
+        assertEquals( 1.234567890123e-05, parser.get( 2 ), 0.0 );
+        assertEquals( 8.100005913066e+04, parser.get( 3 ), 0.0 );
+    }
+
+    public void testNanAndEmptyFields()
+    {
+        assertEquals( 4, parse( "0.5,-2.0,nan, NaN" ) );
+        assertTrue( Double.isNaN( parser.get( 2 ) ) );
+        assertTrue( Double.isNaN( parser.get( 3 ) ) );
+
+        assertEquals( 4, parse( "0.5,1.0,," ) );
+        assertTrue( Double.isNaN( parser.get( 3 ) ) );
+
+        assertEquals( 2, parse( "-inf, +Infinity" ) );
+        assertEquals( Double.NEGATIVE_INFINITY, parser.get( 0 ), 0.0 );
+        assertEquals( Double.POSITIVE_INFINITY, parser.get( 1 ), 0.0 );
+    }
+
+    public void testRejectsTextLines()
+    {
+        assertEquals( -1, parse( "abs_time_s,voltage_V,current_A,resistance_Ohm" ) );
+        assertEquals( -1, parse( "Keithley candidates: ['USB0::0x05E6::0x2450::04436600::INSTR']" ) );
+        assertEquals( -1, parse( "1.0,2.0x,3" ) );
+        assertEquals( -1, parse( "1.0e,2" ) );
+    }
+
+    public void testMatchesParseDouble()
+    {
+        Random random = new Random( 42 );
+        for ( int n = 0; n < 100000; n++ ) {
+            double expected = Double.longBitsToDouble( random.nextLong() );
+            if ( Double.isNaN( expected ) || Double.isInfinite( expected ) ) {
+                continue;
+            }
+            String text = String.format( "%.12e", expected );
+            assertEquals( 1, parse( text ) );
+            double reference = Double.parseDouble( text );
+            assertEquals( text, reference, parser.get( 0 ), Math.abs( reference ) * 1e-15 );
+        }
+        // Magnitudes from 1e-10 to 1e10 convert exactly
+        for ( int n = 0; n < 100000; n++ ) {
+            double value = ( 1 + random.nextDouble() * 9 ) * Math.pow( 10, random.nextInt( 20 ) - 10 );
+            String text = String.format( "%.12e", value );
+            parse( text );
+            assertEquals( text, Double.parseDouble( text ), parser.get( 0 ), 0.0 );
+        }
+    }
+
+    public void testLineReaderSplitsAcrossRefills() throws Exception
+    {
+        StringBuilder text = new StringBuilder();
+        for ( int n = 0; n < 1000; n++ ) {
+            text.append( n ).append( ",1.0,2.0, 3.0" ).append( n % 2 == 0 ? "\r\n" : "\n" );
+        }
+        text.append( "999999,0,0,0" );  // no trailing newline
+        LineReader reader = new LineReader( new ByteArrayInputStream(
+                text.toString().getBytes( StandardCharsets.US_ASCII ) ), 16 );
+
+        int lines = 0;
+        double sum = 0;
+        while ( reader.next() ) {
+            assertEquals( 4, parser.parse( reader.buffer(), reader.start(), reader.end() ) );
+            sum += parser.get( 0 );
+            lines++;
+        }
+        assertEquals( 1001, lines );
+        assertEquals( 999 * 1000 / 2 + 999999, sum, 0.0 );
+    }
+}
@@ -0,0 +1,151 @@
+package ecs.resistanceMeasurement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link SamplePipeline}.
+ */
+public class SamplePipelineTest extends TestCase
+{
+    /** Records what it is handed; optionally waits for a latch before the first sample. */
+    private static class Recorder implements SampleConsumer
+    {
+        final List<Double> times = new ArrayList<>();
+        final List<String> events = new ArrayList<>();
+        final CountDownLatch gate;
+
+        Recorder( CountDownLatch gate )
+        {
+            this.gate = gate;
+        }
+
+        public void accept( double t, double v, double i, double r )
+        {
+            try {
+                if ( gate != null ) {
+                    gate.await();
+                }
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+            times.add( t );
+        }
+
+        public void stageStarted( int stage, double absTime )
+        {
+            events.add( stage + "@" + times.size() );
+        }
+    }
+
+    public void testStalledDecimatedSinkDoesNotHoldUpLosslessOne() throws Exception
+    {
+        CountDownLatch gate = new CountDownLatch( 1 );
+        Recorder file = new Recorder( null );
+        Recorder chart = new Recorder( gate );
+        SamplePipeline pipeline = new SamplePipeline( "test" );
+        SamplePipeline.Sink fileSink = pipeline.addSink( "file", file, 1024, SamplePipeline.Policy.BLOCK );
+        SamplePipeline.Sink chartSink = pipeline.addSink( "chart", chart, 64, SamplePipeline.Policy.DECIMATE );
+        pipeline.start();
+
+        for ( int n = 0; n < 100000; n++ ) {
+            if ( n == 60000 ) {
+                pipeline.stageStarted( 1, n );
+            }
+            pipeline.accept( n, 1, 1e-3, 1000 );
+        }
+        // The chart has not taken anything yet, but ingest got through
+        assertTrue( pipeline.getLag( chartSink ) > 0 );
+        gate.countDown();
+        pipeline.close();
+
+        assertEquals( 100000, file.times.size() );
+        for ( int n = 0; n < file.times.size(); n++ ) {
+            assertEquals( (double) n, file.times.get( n ) );
+        }
+        assertEquals( 0, fileSink.getDropped() );
+        assertEquals( 100000, chartSink.getDelivered() + chartSink.getDropped() );
+        assertTrue( chartSink.getDropped() > 0 );
+        // Decimated, the chart still reaches the end of the run, in order
+        double last = -1;
+        for ( double t : chart.times ) {
+            assertTrue( t > last );
+            last = t;
+        }
+        assertTrue( "last " + last, last > 98000 );
+        // The stage change stays between the samples it was between
+        int at = Integer.parseInt( chart.events.get( 0 ).substring( 2 ) );
+        assertTrue( chart.times.get( at - 1 ) < 60000 && chart.times.get( at ) >= 60000 );
+        assertTrue( pipeline.describe(), pipeline.describe().contains( "decimated" ) );
+    }
+
+    public void testDropOldestKeepsTheLatestAndEveryStage() throws Exception
+    {
+        CountDownLatch gate = new CountDownLatch( 1 );
+        Recorder sink = new Recorder( gate );
+        SamplePipeline pipeline = new SamplePipeline( "test" );
+        pipeline.addSink( "latest", sink, 16, SamplePipeline.Policy.DROP_OLDEST );
+        pipeline.start();
+
+        pipeline.accept( 0, 1, 1e-3, 1000 );
+        Thread.sleep( 50 );    // the sink is now waiting in sample 0
+        for ( int n = 1; n < 100; n++ ) {
+            if ( n == 50 ) {
+                pipeline.stageStarted( 1, n );
+            }
+            pipeline.accept( n, 1, 1e-3, 1000 );
+        }
+        pipeline.stageStarted( 2, 100 );
+        gate.countDown();
+        pipeline.close();
+
+        assertEquals( 99.0, sink.times.get( sink.times.size() - 1 ) );
+        assertTrue( sink.times.size() <= 1 + 16 + SamplePipeline.BATCH );
+        // Stage 1 was dropped past and comes before the surviving samples; stage 2 after the last
+        assertEquals( "[1@1, 2@" + sink.times.size() + "]", sink.events.toString() );
+    }
+
+    public void testStagesArriveBetweenTheirSamples() throws Exception
+    {
+        Recorder sink = new Recorder( null );
+        SamplePipeline pipeline = new SamplePipeline( "test" );
+        pipeline.addSink( "all", sink, 8, SamplePipeline.Policy.BLOCK );
+        pipeline.start();
+
+        pipeline.stageStarted( 0, 0 );
+        double[] t = { 0, 1, 2, 3, 4 };
+        pipeline.acceptBlock( t, t, t, t, 5 );
+        pipeline.stageStarted( 1, 5 );
+        pipeline.acceptBlock( t, t, t, t, 3 );
+        pipeline.close();
+
+        assertEquals( 8, sink.times.size() );
+        assertEquals( "[0@0, 1@5]", sink.events.toString() );
+    }
+
+    public void testFailedSinkNoLongerBlocksIngest() throws Exception
+    {
+        SamplePipeline pipeline = new SamplePipeline( "test" );
+        SamplePipeline.Sink broken = pipeline.addSink( "broken", ( t, v, i, r ) -> {
+            throw new IllegalStateException( "disk gone" );
+        }, 4, SamplePipeline.Policy.BLOCK );
+        pipeline.start();
+
+        Thread ingest = new Thread( () -> {
+            for ( int n = 0; n < 1000; n++ ) {
+                pipeline.accept( n, 1, 1e-3, 1000 );
+            }
+        } );
+        ingest.start();
+        ingest.join( TimeUnit.SECONDS.toMillis( 10 ) );
+        assertFalse( ingest.isAlive() );
+        pipeline.close();
+
+        assertTrue( broken.getError() instanceof IllegalStateException );
+        assertEquals( 1000, broken.getDelivered() + broken.getDropped() );
+    }
+}
@@ -0,0 +1,60 @@
+package ecs.resistanceMeasurement;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link SampleStore} and {@link SampleStoreDataset}.
+ */
+public class SampleStoreTest extends TestCase
+{
+    public void testAppendAcrossChunks()
+    {
+        SampleStore store = new SampleStore( "Run 1" );
+        int count = 100000;  // several chunks
+        for ( int n = 0; n < count; n++ ) {
+            store.append( n * 0.5, 1.0, n * 1e-6, n + 7.0 );
+        }
+
+        assertEquals( count, store.size() );
+        for ( int n = 0; n < count; n += 997 ) {
+            assertEquals( n * 0.5, store.getTime( n ), 0.0 );
+            assertEquals( 1.0, store.getVoltage( n ), 0.0 );
+            assertEquals( n * 1e-6, store.getCurrent( n ), 0.0 );
+            assertEquals( n + 7.0, store.getResistance( n ), 0.0 );
+        }
+        assertEquals( 0.0, store.getMinTime(), 0.0 );
+        assertEquals( ( count - 1 ) * 0.5, store.getMaxTime(), 0.0 );
+    }
+
+    public void testNanTimesDoNotAffectBounds()
+    {
+        SampleStore store = new SampleStore( "Run 1" );
+        assertTrue( Double.isNaN( store.getMinTime() ) );
+        store.append( Double.NaN, 0, 0, 0 );
+        store.append( 2.0, 0, 0, 0 );
+        assertEquals( 2.0, store.getMinTime(), 0.0 );
+        assertEquals( 2.0, store.getMaxTime(), 0.0 );
+    }
+
+    public void testDatasetAdapter()
+    {
+        SampleStore first = new SampleStore( "a.csv" );
+        first.append( 1.0, 1.0, 0.1, 10.0 );
+        first.append( 2.0, 1.0, 0.1, 20.0 );
+        SampleStore second = new SampleStore( "b.csv" );
+        second.append( -1.0, 1.0, 0.1, 30.0 );
+
+        SampleStoreDataset dataset = new SampleStoreDataset();
+        dataset.addStore( first );
+        dataset.addStore( second );
+
+        assertEquals( 2, dataset.getSeriesCount() );
+        assertEquals( "b.csv", dataset.getSeriesKey( 1 ) );
+        assertEquals( 20.0, dataset.getYValue( 0, 1 ), 0.0 );
+        assertEquals( -1.0, dataset.getDomainLowerBound( false ), 0.0 );
+        assertEquals( 2.0, dataset.getDomainUpperBound( false ), 0.0 );
+
+        dataset.removeAllStores();
+        assertNull( dataset.getDomainBounds( false ) );
+    }
+}
@@ -0,0 +1,234 @@
+package ecs.resistanceMeasurement;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal stand-in for a Keithley 2450 raw socket, for tests: records every
+ * command and answers {@code *OPC?}, {@code *IDN?} and {@code :READ?} (with the
+ * relative timestamp if {@code READ, REL} is asked for). The current read back is
+ * the source level divided by a fixed resistance.
+ *
+ * A {@code DurationLoop} trigger model is emulated too: after {@code :INIT} one
+ * reading is taken every {@code max(delay, readingPeriod)} seconds into a circular
+ * buffer of {@code bufferCapacity} readings, served by {@code :TRIG:STAT?},
+ * {@code :TRAC:ACT:END?} and {@code :TRAC:DATA? start, end, ..., READ, REL}.
+ * So is the block model of a voltage sequence: per stage a source configuration
+ * recall, a constant delay, a reading and a counted branch back to the delay.
+ */
+class ScpiStandInServer implements Closeable
+{
+    private final ServerSocket server;
+    private final double resistance;
+    private final List<String> commands = new ArrayList<>();
+    private final Thread thread;
+    private volatile double level;
+
+    private final int bufferCapacity;
+    private final double readingPeriod;
+    // Loaded trigger model: {level (NaN: the source level), period, readings} per stage
+    private final List<double[]> stages = new ArrayList<>();
+    private final List<Double> configList = new ArrayList<>();
+    private long initNanos;
+    private long clearNanos = System.nanoTime();
+    private long abortedCount = -1;
+
+    ScpiStandInServer( double resistance ) throws IOException
+    {
+        this( resistance, 100000, 1e-4 );
+    }
+
+    ScpiStandInServer( double resistance, int bufferCapacity, double readingPeriod ) throws IOException
+    {
+        this.resistance = resistance;
+        this.bufferCapacity = bufferCapacity;
+        this.readingPeriod = readingPeriod;
+        server = new ServerSocket( 0, 1, InetAddress.getLoopbackAddress() );
+        thread = new Thread( this::serve, "scpi-stand-in" );
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    int getPort()
+    {
+        return server.getLocalPort();
+    }
+
+    synchronized List<String> getCommands()
+    {
+        return new ArrayList<>( commands );
+    }
+
+    private void serve()
+    {
+        while ( !server.isClosed() ) {
+            try ( Socket socket = server.accept() ) {
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader( socket.getInputStream(), StandardCharsets.US_ASCII ) );
+                OutputStream out = socket.getOutputStream();
+                String line;
+                while ( ( line = in.readLine() ) != null ) {
+                    String reply = handle( line.trim() );
+                    if ( reply != null ) {
+                        out.write( ( reply + "\n" ).getBytes( StandardCharsets.US_ASCII ) );
+                        out.flush();
+                    }
+                }
+            }
+            catch ( IOException e ) {
+                // closed
+            }
+        }
+    }
+
+    protected String handle( String command )
+    {
+        synchronized ( this ) {
+            commands.add( command );
+        }
+        if ( command.startsWith( ":SOUR:VOLT:LEV " ) ) {
+            level = Double.parseDouble( command.substring( ":SOUR:VOLT:LEV ".length() ) );
+        }
+        else if ( command.startsWith( ":TRIG:LOAD \"DurationLoop\"," ) ) {
+            String[] args = command.split( "," );
+            double period = Math.max( readingPeriod, Double.parseDouble( args[2].trim() ) );
+            stages.clear();
+            stages.add( new double[] { Double.NaN, period, (long) ( Double.parseDouble( args[1].trim() ) / period ) } );
+        }
+        else if ( command.equals( ":TRIG:LOAD \"Empty\"" ) ) {
+            stages.clear();
+        }
+        else if ( command.startsWith( ":SOUR:CONF:LIST:CRE " ) ) {
+            configList.clear();
+        }
+        else if ( command.startsWith( ":SOUR:CONF:LIST:STOR " ) ) {
+            configList.add( level );
+        }
+        else if ( command.startsWith( ":TRIG:BLOC:CONF:REC " ) ) {
+            int index = Integer.parseInt( command.split( "," )[2].trim() );
+            stages.add( new double[] { configList.get( index - 1 ), readingPeriod, 1 } );
+        }
+        else if ( command.startsWith( ":TRIG:BLOC:DEL:CONS " ) ) {
+            double delay = Double.parseDouble( command.split( "," )[1].trim() );
+            stages.get( stages.size() - 1 )[1] = Math.max( readingPeriod, delay );
+        }
+        else if ( command.startsWith( ":TRIG:BLOC:BRAN:COUN " ) ) {
+            stages.get( stages.size() - 1 )[2] = Long.parseLong( command.split( "," )[1].trim() );
+        }
+        else if ( command.equals( ":INIT" ) ) {
+            initNanos = System.nanoTime();
+            abortedCount = -1;
+        }
+        else if ( command.equals( ":ABOR" ) && initNanos != 0 && abortedCount < 0 ) {
+            abortedCount = readingCount();
+        }
+        else if ( command.equals( ":TRIG:STAT?" ) ) {
+            boolean running = initNanos != 0 && abortedCount < 0 && readingCount() < totalReadings();
+            return running ? "RUNNING;RUNNING;0" : "IDLE;IDLE;0";
+        }
+        else if ( command.startsWith( ":TRAC:POIN?" ) ) {
+            return String.valueOf( bufferCapacity );
+        }
+        else if ( command.startsWith( ":TRAC:ACT:END?" ) ) {
+            long count = readingCount();
+            return String.valueOf( count == 0 ? 0 : ( count - 1 ) % bufferCapacity + 1 );
+        }
+        else if ( command.startsWith( ":READ? " ) && command.endsWith( "READ, REL" ) ) {
+            return ( level / resistance ) + "," + ( System.nanoTime() - clearNanos ) / 1e9;
+        }
+        else if ( command.startsWith( ":TRAC:CLE" ) ) {
+            clearNanos = System.nanoTime();
+        }
+        else if ( command.startsWith( ":TRAC:DATA? " ) ) {
+            String[] args = command.substring( ":TRAC:DATA? ".length() ).split( "," );
+            return bufferData( Integer.parseInt( args[0].trim() ), Integer.parseInt( args[1].trim() ) );
+        }
+        switch ( command ) {
+            case "*OPC?":
+                return "1";
+            case "*IDN?":
+                return "KEITHLEY INSTRUMENTS,MODEL 2450,00000000,1.0 (stand-in)";
+            case ":READ?":
+                return String.valueOf( level / resistance );
+            default:
+                return null;
+        }
+    }
+
+    private long totalReadings()
+    {
+        long total = 0;
+        for ( double[] stage : stages ) {
+            total += (long) stage[2];
+        }
+        return total;
+    }
+
+    private long readingCount()
+    {
+        if ( initNanos == 0 ) {
+            return 0;
+        }
+        if ( abortedCount >= 0 ) {
+            return abortedCount;
+        }
+        double elapsed = ( System.nanoTime() - initNanos ) / 1e9;
+        long taken = 0;
+        for ( double[] stage : stages ) {
+            double stageTime = stage[1] * stage[2];
+            if ( elapsed < stageTime ) {
+                return taken + (long) ( elapsed / stage[1] );
+            }
+            taken += (long) stage[2];
+            elapsed -= stageTime;
+        }
+        return taken;
+    }
+
+    // {current, relative time} of the reading with the given index
+    private double[] reading( long index )
+    {
+        double start = 0;
+        for ( double[] stage : stages ) {
+            if ( index < (long) stage[2] ) {
+                double stageLevel = Double.isNaN( stage[0] ) ? level : stage[0];
+                return new double[] { stageLevel / resistance, start + index * stage[1] };
+            }
+            index -= (long) stage[2];
+            start += stage[1] * stage[2];
+        }
+        throw new IllegalArgumentException( "No such reading" );
+    }
+
+    // Readings at buffer positions [start, end] (1-based): "current,relative time" pairs
+    private String bufferData( int start, int end )
+    {
+        long last = readingCount() - 1;
+        StringBuilder reply = new StringBuilder();
+        for ( int position = start; position <= end; position++ ) {
+            // the newest reading stored at this position
+            long index = last - Math.floorMod( last - ( position - 1 ), (long) bufferCapacity );
+            if ( reply.length() > 0 ) {
+                reply.append( ',' );
+            }
+            double[] reading = reading( index );
+            reply.append( reading[0] ).append( ',' ).append( reading[1] );
+        }
+        return reply.toString();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        server.close();
+    }
+}
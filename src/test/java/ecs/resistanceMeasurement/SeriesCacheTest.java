@@ -0,0 +1,119 @@
+package ecs.resistanceMeasurement;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link SeriesCache}.
+ */
+public class SeriesCacheTest extends TestCase
+{
+    private final List<String> events = new ArrayList<>();
+
+    private static SampleStore run( String name, int samples )
+    {
+        SampleStore store = new SampleStore( name );
+        for ( int n = 0; n < samples; n++ ) {
+            store.append( n * 0.001, 1, 1e-3, 1000 + ( n % 100 ) + ( n == samples / 2 ? 5000 : 0 ) );
+        }
+        return store;
+    }
+
+    public void testEnvelopeKeepsOutlineOfEachBucket()
+    {
+        SampleStore store = run( "run", 100000 );
+        SampleStore envelope = SeriesCache.envelope( store, 100 );
+
+        assertTrue( "size " + envelope.size(), envelope.size() <= 400 && envelope.size() >= 200 );
+        assertEquals( store.getMinTime(), envelope.getMinTime(), 0.0 );
+        assertEquals( store.getMaxTime(), envelope.getMaxTime(), 0.0 );
+        double max = Double.NEGATIVE_INFINITY;
+        double min = Double.POSITIVE_INFINITY;
+        for ( int n = 0; n < envelope.size(); n++ ) {
+            max = Math.max( max, envelope.getResistance( n ) );
+            min = Math.min( min, envelope.getResistance( n ) );
+            if ( n > 0 ) {
+                assertTrue( envelope.getTime( n ) > envelope.getTime( n - 1 ) );
+            }
+        }
+        assertEquals( 6000.0, max, 0.0 );    // the spike survives
+        assertEquals( 1000.0, min, 0.0 );
+    }
+
+    public void testEvictsLeastRecentlyViewedRuns()
+    {
+        SampleStoreDataset dataset = new SampleStoreDataset();
+        SampleStore first = run( "first", 100000 );
+        SampleStore second = run( "second", 100000 );
+        SampleStore third = run( "third", 100000 );
+        long each = first.getMemoryBytes();
+        SeriesCache cache = new SeriesCache( dataset, 2 * each + each / 2, events::add );
+
+        for ( SampleStore store : new SampleStore[] { first, second, third } ) {
+            dataset.addStore( store );
+            cache.add( store, new File( store.getName() + ".csv" ), Double.NaN, Double.NaN );
+        }
+        assertTrue( cache.isCoarse( first ) );
+        assertFalse( cache.isCoarse( second ) );
+        assertFalse( cache.isCoarse( third ) );
+        assertTrue( first.size() <= 4 * SeriesCache.ENVELOPE_BUCKETS );
+        assertSame( first, dataset.getStore( 0 ) );           // the chart keeps its series
+        assertEquals( 1, events.size() );
+
+        // Viewing makes the second the most recent, so the third goes next
+        cache.viewed( second );
+        SampleStore fourth = run( "fourth", 100000 );
+        cache.add( fourth, new File( "fourth.csv" ), Double.NaN, Double.NaN );
+        assertTrue( cache.isCoarse( third ) );
+        assertFalse( cache.isCoarse( second ) );
+        assertTrue( cache.getMemoryBytes() <= cache.getBudget() );
+    }
+
+    public void testRunsStillLoadingCountAgainstTheBudget()
+    {
+        SampleStoreDataset dataset = new SampleStoreDataset();
+        SampleStore loaded = run( "loaded", 100000 );
+        long each = loaded.getMemoryBytes();
+        SeriesCache cache = new SeriesCache( dataset, 2 * each + each / 2, events::add );
+        dataset.addStore( loaded );
+        cache.add( loaded, new File( "loaded.csv" ), Double.NaN, Double.NaN );
+
+        // Two files load at once, chunk by chunk, as the loaders append them
+        SampleStore first = new SampleStore( "first" );
+        SampleStore second = new SampleStore( "second" );
+        for ( SampleStore store : new SampleStore[] { first, second } ) {
+            dataset.addStore( store );
+            cache.loading( store, new File( store.getName() + ".csv" ), Double.NaN, Double.NaN );
+        }
+        SampleStore chunks = run( "chunks", 100000 );
+        for ( int from = 0; from < chunks.size(); from += 10000 ) {
+            for ( SampleStore store : new SampleStore[] { first, second } ) {
+                for ( int n = from; n < from + 10000; n++ ) {
+                    store.append( chunks.getTime( n ), 1, 1e-3, chunks.getResistance( n ) );
+                }
+            }
+            dataset.storesChanged();
+            assertTrue( "within the budget after chunk " + from,
+                    cache.getMemoryBytes() <= cache.getBudget() || cache.isCoarse( loaded ) );
+        }
+        assertTrue( "evicted before the loads completed", cache.isCoarse( loaded ) );
+        assertFalse( "runs still loading are not evicted", cache.isCoarse( first ) || cache.isCoarse( second ) );
+
+        cache.add( first, new File( "first.csv" ), Double.NaN, Double.NaN );
+        cache.add( second, new File( "second.csv" ), Double.NaN, Double.NaN );
+        assertEquals( 100000, first.size() );
+        assertTrue( cache.getMemoryBytes() <= cache.getBudget() );
+    }
+
+    public void testKeepsRunInViewOverBudget()
+    {
+        SampleStore large = run( "large", 100000 );
+        SeriesCache cache = new SeriesCache( new SampleStoreDataset(), 1024, events::add );
+        cache.add( large, new File( "large.csv" ), Double.NaN, Double.NaN );
+        assertFalse( cache.isCoarse( large ) );
+        assertEquals( 100000, large.size() );
+    }
+}
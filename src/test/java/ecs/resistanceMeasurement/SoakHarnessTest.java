@@ -0,0 +1,64 @@
+package ecs.resistanceMeasurement;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link SimulatedEngine}, {@link LatencyHistogram} and a short {@link SoakHarness} run.
+ */
+public class SoakHarnessTest extends TestCase
+{
+    public void testSimulatorProducesEverySampleWithArtefacts() throws Exception
+    {
+        SimulatedEngine engine = new SimulatedEngine().setNanProbability( 0.01 ).setSteps( 0.25, 0.5 );
+        final SampleStore store = new SampleStore( "sim" );
+        final CountDownLatch finished = new CountDownLatch( 1 );
+        MeasurementConfig config = new MeasurementConfig( 2.0, 0.5, 1e-4, MeasurementConfig.AUTO,
+                0.01, 0.1, true, ".", "sim" );
+        engine.startRun( config, store, e -> finished.countDown() );
+        assertTrue( finished.await( 10, TimeUnit.SECONDS ) );
+        assertFalse( engine.isRunning() );
+
+        assertEquals( 5000, store.size() );
+        int nans = 0;
+        for ( int n = 0; n < store.size(); n++ ) {
+            assertEquals( n * 1e-4, store.getTime( n ), 1e-12 );
+            if ( Double.isNaN( store.getResistance( n ) ) ) {
+                nans++;
+            }
+        }
+        assertTrue( nans > 10 && nans < 150 );
+        // one step of +50% after 0.25 s
+        assertEquals( 1000.0, store.getResistance( 100 ), 20.0 );
+        assertEquals( 1500.0, store.getResistance( 3000 ), 30.0 );
+    }
+
+    public void testHistogramPercentiles()
+    {
+        LatencyHistogram h = new LatencyHistogram();
+        for ( int ms = 1; ms <= 100; ms++ ) {
+            h.record( ms * 1000000L );
+        }
+        assertEquals( 100, h.getCount() );
+        assertEquals( 50.0, h.getPercentileMillis( 50 ), 1.0 );
+        assertEquals( 99.0, h.getPercentileMillis( 99 ), 1.5 );
+        assertEquals( 100.0, h.getMaxMillis(), 0.0 );
+        assertEquals( 50.5, h.getMeanMillis(), 1e-9 );
+    }
+
+    public void testShortSoakRun() throws Exception
+    {
+        SoakHarness harness = new SoakHarness().setRate( 5000 ).setSeconds( 1.0 ).setSize( 400, 300 );
+        SoakHarness.Report report = harness.run();
+
+        assertNull( report.getError() );
+        assertEquals( 5000, report.getSamples() );
+        assertTrue( report.getFrames() > 0 );
+        assertEquals( 5000, report.getLatency().getCount() );
+        assertTrue( report.getLatency().getPercentileMillis( 50 ) > 0 );
+        assertTrue( report.getEdtDelay().getCount() > 0 );
+        assertTrue( report.toString().contains( "sample-to-screen" ) );
+    }
+}
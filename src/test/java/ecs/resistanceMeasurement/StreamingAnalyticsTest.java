@@ -0,0 +1,168 @@
+package ecs.resistanceMeasurement;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link StreamingAnalytics}.
+ */
+public class StreamingAnalyticsTest extends TestCase
+{
+    public void testMeanAndStdDevMatchTwoPassValues()
+    {
+        StreamingAnalytics analytics = new StreamingAnalytics();
+        double[] values = { 1e6 + 3, 1e6 - 1, 1e6 + 2, Double.NaN, 1e6 + 0.5, 1e6 - 4 };
+        double sum = 0;
+        int n = 0;
+        for ( int k = 0; k < values.length; k++ ) {
+            analytics.accept( k * 0.1, 1, 1e-6, values[k] );
+            if ( !Double.isNaN( values[k] ) ) {
+                sum += values[k];
+                n++;
+            }
+        }
+        double mean = sum / n;
+        double squares = 0;
+        for ( double v : values ) {
+            if ( !Double.isNaN( v ) ) {
+                squares += ( v - mean ) * ( v - mean );
+            }
+        }
+        StreamingAnalytics.Snapshot s = analytics.snapshot();
+        assertEquals( 5, s.getCount() );
+        assertEquals( mean, s.getMean(), 1e-9 );
+        assertEquals( Math.sqrt( squares / ( n - 1 ) ), s.getStdDev(), 1e-9 );
+        assertEquals( 1e6 - 4, s.getLast(), 0.0 );
+    }
+
+    public void testWindowFollowsRecentSamples()
+    {
+        // Ramp of 2 Ohm/s for 100 s, one sample every 10 ms; the window is 10 s
+        StreamingAnalytics analytics = new StreamingAnalytics();
+        for ( int k = 0; k <= 10000; k++ ) {
+            double t = k * 0.01;
+            analytics.accept( t, 1, 1, 500 + 2 * t );
+        }
+        StreamingAnalytics.Snapshot s = analytics.snapshot();
+        assertEquals( 700.0, s.getWindowMax(), 1e-9 );
+        // The window is the current bucket and the 15 before it, 0.625 s each: here from 90.625 s
+        assertEquals( 500 + 2 * 90.63, s.getWindowMin(), 1e-9 );
+        assertEquals( 2.0, s.getSlope(), 1e-6 );
+    }
+
+    public void testAllanDeviationOfWhiteNoiseFallsWithTau()
+    {
+        StreamingAnalytics analytics = new StreamingAnalytics();
+        Random random = new Random( 1 );
+        for ( int k = 0; k < 1 << 16; k++ ) {
+            analytics.accept( k * 0.01, 1, 1, 100 + random.nextGaussian() );
+        }
+        StreamingAnalytics.Snapshot s = analytics.snapshot();
+        double[] taus = s.getAllanTaus();
+        double[] deviations = s.getAllanDeviations();
+        assertEquals( 0.01, taus[0], 1e-9 );
+        assertEquals( 0.08, taus[3], 1e-9 );
+        assertEquals( 1.0, deviations[0], 0.05 );          // sigma of the samples
+        assertEquals( 1.0 / Math.sqrt( 8 ), deviations[3], 0.05 );
+    }
+
+    public void testStageStartsStatisticsAfresh()
+    {
+        StreamingAnalytics analytics = new StreamingAnalytics();
+        analytics.stageStarted( 0, 0 );
+        analytics.accept( 0, 1, 1, 100 );
+        analytics.accept( 1, 1, 1, 200 );
+        analytics.stageStarted( 1, 2 );
+        analytics.accept( 2, 2, 1, 50 );
+        StreamingAnalytics.Snapshot s = analytics.snapshot();
+        assertEquals( 1, s.getStage() );
+        assertEquals( 1, s.getCount() );
+        assertEquals( 50.0, s.getMean(), 0.0 );
+        assertEquals( 50.0, s.getWindowMax(), 0.0 );
+    }
+
+    public void testRunExtremesSpanAllStages()
+    {
+        StreamingAnalytics analytics = new StreamingAnalytics();
+        analytics.stageStarted( 0, 0 );
+        analytics.accept( 0, 1, 1, 100 );
+        analytics.accept( 1, 1, 1, 9000 );
+        analytics.stageStarted( 1, 2 );
+        analytics.accept( 2, 2, 1, Double.NaN );
+        analytics.accept( 3, 2, 1, 50 );
+        StreamingAnalytics.Snapshot s = analytics.snapshot();
+        assertEquals( 50.0, s.getWindowMax(), 0.0 );
+        assertEquals( 50.0, s.getRunMin(), 0.0 );
+        assertEquals( 9000.0, s.getRunMax(), 0.0 );
+        assertTrue( Double.isNaN( new StreamingAnalytics().snapshot().getRunMin() ) );
+    }
+
+    public void testTriggerFiresOnTheCrossingSample()
+    {
+        List<StreamingAnalytics.Trigger> triggers = StreamingAnalytics.parseTriggers( "R<10, |slope|>100" );
+        double[] fired = { Double.NaN };
+        int[] calls = { 0 };
+        StreamingAnalytics analytics = new StreamingAnalytics( 1, triggers, ( trigger, t, value ) -> {
+            fired[0] = t;
+            calls[0]++;
+        } );
+        for ( int k = 0; k < 200; k++ ) {
+            double t = k * 0.01;
+            analytics.accept( t, 1, 1, k < 150 ? 1000 : 5 );
+        }
+        assertEquals( 1, calls[0] );
+        assertEquals( 1.5, fired[0], 1e-9 );
+        assertTrue( analytics.snapshot().getFired().startsWith( "R<10.0 at t = 1.500" ) );
+    }
+
+    public void testSlopeTrigger()
+    {
+        List<StreamingAnalytics.Trigger> triggers = StreamingAnalytics.parseTriggers( "slope>5" );
+        double[] fired = { Double.NaN };
+        StreamingAnalytics analytics = new StreamingAnalytics( 1, triggers, ( trigger, t, value ) -> fired[0] = t );
+        for ( int k = 0; k < 500; k++ ) {
+            double t = k * 0.01;
+            analytics.accept( t, 1, 1, t < 2 ? 100 : 100 + 50 * ( t - 2 ) );
+        }
+        assertTrue( "fired at " + fired[0], fired[0] > 2 && fired[0] < 2.2 );
+    }
+
+    public void testNoisyFlatStagesDoNotFireSlopeTriggers()
+    {
+        // 0.01 Ohm of noise every 10 ms: a fit over the first few samples of a stage is steeper than 0.5 Ohm/s
+        List<StreamingAnalytics.Trigger> triggers = StreamingAnalytics.parseTriggers( "|slope|>0.5" );
+        String[] fired = { null };
+        StreamingAnalytics analytics = new StreamingAnalytics( StreamingAnalytics.DEFAULT_WINDOW_SECONDS, triggers,
+                ( trigger, t, value ) -> fired[0] = trigger + " at " + t + " (" + value + ")" );
+        Random random = new Random( 3 );
+        for ( int stage = 0; stage < 5; stage++ ) {
+            analytics.stageStarted( stage, stage * 20.0 );
+            for ( int k = 0; k < 2000; k++ ) {
+                analytics.accept( stage * 20.0 + k * 0.01, 1, 1, 1000 + stage + 0.01 * random.nextGaussian() );
+            }
+        }
+        assertNull( fired[0], fired[0] );
+        assertFalse( analytics.hasFired() );
+    }
+
+    public void testParsesAndFormatsTriggers()
+    {
+        List<StreamingAnalytics.Trigger> triggers = StreamingAnalytics.parseTriggers( " r>1e6 ,slope<-0.5 " );
+        assertEquals( 2, triggers.size() );
+        assertEquals( StreamingAnalytics.Quantity.RESISTANCE, triggers.get( 0 ).getQuantity() );
+        assertTrue( triggers.get( 0 ).isAbove() );
+        assertEquals( -0.5, triggers.get( 1 ).getLimit(), 0.0 );
+        assertEquals( "R>1000000.0,slope<-0.5", StreamingAnalytics.formatTriggers( triggers ) );
+        assertEquals( Collections.emptyList(), StreamingAnalytics.parseTriggers( "" ) );
+        for ( String bad : new String[] { "R=5", "voltage>1", "R>abc", ">5" } ) {
+            try {
+                StreamingAnalytics.parseTriggers( bad );
+                fail( bad );
+            } catch ( IllegalArgumentException expected ) {
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package ecs.resistanceMeasurement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link VoltageSequence} and sequence runs on the simulated engine.
+ */
+public class VoltageSequenceTest extends TestCase
+{
+    public void testParseFormatAndStageTimes()
+    {
+        VoltageSequence sequence = VoltageSequence.parse( "1:2:AUTO, 0:0.5:0.1,-1.5:1:0.01" );
+        assertEquals( 3, sequence.size() );
+        assertEquals( "1.0:2.0:AUTO,0.0:0.5:0.1,-1.5:1.0:0.01", sequence.format() );
+        assertTrue( sequence.get( 0 ).isAutoSampleInterval() );
+        assertEquals( 2.5, sequence.getStart( 2 ), 0.0 );
+        assertEquals( 3.5, sequence.getDuration(), 0.0 );
+
+        assertEquals( 0, sequence.stageAt( -1 ) );
+        assertEquals( 0, sequence.stageAt( 1.999 ) );
+        assertEquals( 1, sequence.stageAt( 2.0 ) );
+        assertEquals( 2, sequence.stageAt( 2.5 ) );
+        assertEquals( 2, sequence.stageAt( 10 ) );
+    }
+
+    public void testInvalidStagesAreRejected()
+    {
+        String[] invalid = { "", "1:2", "1:0:AUTO", "1:2:-0.1", "x:2:AUTO" };
+        for ( String text : invalid ) {
+            try {
+                VoltageSequence.parse( text );
+                fail( "accepted " + text );
+            }
+            catch ( IllegalArgumentException expected ) {
+                // ok
+            }
+        }
+    }
+
+    public void testTaggerReportsStagesByTime()
+    {
+        VoltageSequence sequence = VoltageSequence.parse( "1:1:AUTO,0:0.1:AUTO,2:1:AUTO" );
+        final List<String> events = new ArrayList<>();
+        SampleConsumer tagged = sequence.tagging( new SampleConsumer()
+        {
+            public void accept( double t, double v, double i, double r )
+            {
+                events.add( "sample " + t );
+            }
+
+            public void acceptBlock( double[] t, double[] v, double[] i, double[] r, int count )
+            {
+                events.add( "block " + count );
+            }
+
+            public void stageStarted( int stage, double t )
+            {
+                events.add( "stage " + stage + " " + t );
+            }
+        } );
+        double[] zeros = new double[3];
+        tagged.acceptBlock( new double[] { 0.0, 0.5, 0.9 }, zeros, zeros, zeros, 3 );
+        tagged.acceptBlock( new double[] { 0.95, 0.99, 0.999 }, zeros, zeros, zeros, 3 );
+        // the short stage 1 has no samples but is still reported
+        tagged.acceptBlock( new double[] { 0.999, 1.2, 1.3 }, zeros, zeros, zeros, 3 );
+
+        assertEquals( "stage 0 0.0", events.get( 0 ) );
+        assertEquals( "sample 0.0", events.get( 1 ) );
+        assertEquals( "block 3", events.get( 4 ) );    // second block passed through whole
+        assertEquals( "sample 0.999", events.get( 5 ) );
+        assertEquals( "stage 1 1.0", events.get( 6 ) );
+        assertEquals( "stage 2 1.1", events.get( 7 ) );
+        assertEquals( "sample 1.2", events.get( 8 ) );
+    }
+
+    public void testTaggerFollowsTheStagesTheSourceReports()
+    {
+        VoltageSequence sequence = VoltageSequence.parse( "1:1:AUTO,0:0.1:AUTO,2:1:AUTO" );
+        final List<String> events = new ArrayList<>();
+        SampleConsumer tagged = sequence.tagging( new SampleConsumer()
+        {
+            public void accept( double t, double v, double i, double r )
+            {
+                events.add( "sample " + t );
+            }
+
+            public void stageStarted( int stage, double t )
+            {
+                events.add( "stage " + stage + " " + t );
+            }
+        } );
+        tagged.stageStarted( 0, 0.0 );
+        tagged.accept( 0.5, 1, 0, 0 );
+        // Measured in stage 0 at 1 V, though its reconciled time is past the boundary
+        tagged.accept( 1.0004, 1, 0, 0 );
+        tagged.stageStarted( 2, 1.2 );
+        tagged.accept( 1.2, 2, 0, 0 );
+        tagged.stageStarted( 5, 1.3 );    // beyond the sequence
+
+        assertEquals( "[stage 0 0.0, sample 0.5, sample 1.0004, stage 1 1.0, stage 2 1.1, sample 1.2]",
+                events.toString() );
+    }
+
+    public void testSimulatedSequenceRunsStagesBackToBack() throws Exception
+    {
+        MeasurementConfig config = new MeasurementConfig( 1.0, 1.0, 0.001, MeasurementConfig.AUTO,
+                1.0, 0.1, true, ".", "seq" ).withSequence( VoltageSequence.parse( "2:0.2:0.001,0:0.1:0.01,1:0.2:0.002" ) );
+        assertEquals( 0.5, config.getTime(), 1e-12 );
+        assertTrue( config.isSequence() );
+
+        final SampleStore store = new SampleStore( "seq" );
+        final List<double[]> stages = new ArrayList<>();
+        final CountDownLatch finished = new CountDownLatch( 1 );
+        SimulatedEngine engine = new SimulatedEngine().setNanProbability( 0 );
+        engine.startRun( config, new SampleConsumer()
+        {
+            public void accept( double t, double v, double i, double r )
+            {
+                store.append( t, v, i, r );
+            }
+
+            public void stageStarted( int stage, double t )
+            {
+                stages.add( new double[] { stage, t, store.size() } );
+            }
+        }, e -> finished.countDown() );
+        assertTrue( finished.await( 10, TimeUnit.SECONDS ) );
+
+        assertEquals( 3, stages.size() );
+        assertEquals( 0.2, stages.get( 1 )[1], 1e-12 );
+        assertEquals( 200.0, stages.get( 1 )[2], 0.0 );     // samples of stage 0
+        assertEquals( 210.0, stages.get( 2 )[2], 0.0 );
+        assertEquals( 310, store.size() );
+        assertEquals( 2.0, store.getVoltage( 0 ), 0.0 );
+        assertTrue( Double.isNaN( store.getResistance( 205 ) ) );   // no resistance at 0 V
+        assertEquals( 0.3, store.getTime( 210 ), 1e-12 );
+        assertEquals( 1.0, store.getVoltage( 309 ), 0.0 );
+    }
+}